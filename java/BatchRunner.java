@@ -0,0 +1,372 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the operations of the menu from a file of commands
+ * instead of the keyboard, one JSON object per line (see Command):
+ *
+ *   java BatchRunner <db> <port> <user> <commands.jsonl | ->
+ *
+ * Commands run on a pool of worker threads (-Dbatch.threads, default 4),
+ * so they may run in any order. A line {"op":"barrier"} waits until every
+ * command before it has finished, for commands that depend on earlier ones.
+ *
+ * Consecutive writes are grouped, up to -Dbatch.size (default 100), and a
+ * group runs in one transaction with the inserts of the same statement
+ * sent as one JDBC batch. If the group fails as a whole it is rolled back
+ * and its commands are run again one at a time, so only the failing
+ * command is lost.
+ *
+ * Query results go to standard out, one command's result at a time
+ * (-Dbatch.results=none drops them). Errors go to standard error with
+ * their line number. At the end the count, throughput and latency of every
+ * operation are printed.
+ */
+
+public class BatchRunner {
+
+   private final DBProject _esql;
+   private final int _threads;
+   private final int _batchSize;
+   private final boolean _printResults;
+
+   // query results of each worker, copied to System.out after every command
+   private final ThreadLocal<Output> _output = new ThreadLocal<Output>() {
+      protected Output initialValue () {
+         return new Output(_esql.output().getFormat());
+      }
+   };
+
+   private final TreeMap<String, OpStats> _stats = new TreeMap<String, OpStats>();
+
+   public BatchRunner (DBProject esql, int threads, int batchSize, boolean printResults) {
+      this._esql = esql;
+      this._threads = threads;
+      this._batchSize = batchSize;
+      this._printResults = printResults;
+   }//end BatchRunner
+
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-Dbatch.threads=4] [-Dbatch.size=100] [-Dbatch.results=none] " +
+            "[-cp <$classpath>] BatchRunner <dbname> <port> <user> <commands.jsonl | ->");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new DBProject(args[0], args[1], args[2], "");
+         BatchRunner runner = new BatchRunner(esql,
+                                              Integer.getInteger("batch.threads", 4),
+                                              Integer.getInteger("batch.size", 100),
+                                              !"none".equals(System.getProperty("batch.results")));
+         InputStream in = args[3].equals("-") ? System.in : new FileInputStream(args[3]);
+         try {
+            long start = System.nanoTime();
+            runner.run(new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8"))));
+            runner.report(System.out, System.nanoTime() - start);
+         } finally {
+            in.close();
+         }//end try
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Method to run every command read from a reader and wait for them
+    *
+    * @param in the JSON lines
+    * @throws java.io.IOException when reading fails
+    * @throws InterruptedException when interrupted while waiting
+    */
+   public void run (BufferedReader in) throws IOException, InterruptedException {
+      // a short queue, so reading stops when the workers fall behind
+      ThreadPoolExecutor workers = new ThreadPoolExecutor(this._threads, this._threads, 0, TimeUnit.MILLISECONDS,
+                                                          new ArrayBlockingQueue<Runnable>(this._threads * 2),
+                                                          new ThreadPoolExecutor.CallerRunsPolicy());
+      List<Future<?>> running = new ArrayList<Future<?>>();
+      List<Command> group = new ArrayList<Command>();
+      try {
+         String text;
+         int line = 0;
+         while ((text = in.readLine()) != null) {
+            ++line;
+            text = text.trim();
+            if (text.length() == 0)
+               continue;
+            Command cmd;
+            try {
+               Map<String, Object> json = Json.parseObject(text);
+               if ("barrier".equals(json.get("op"))) {
+                  submit(workers, running, group);
+                  awaitAll(running);
+                  continue;
+               }//end if
+               cmd = Command.parse(text, line);
+            }catch (IllegalArgumentException e) {
+               fail("line " + line, e.getMessage());
+               stats("(invalid)").record(0, false);
+               continue;
+            }//end try
+
+            if (cmd.isGroupable()) {
+               group.add(cmd);
+               if (group.size() >= this._batchSize)
+                  submit(workers, running, group);
+            } else {
+               submit(workers, running, group);
+               group.add(cmd);
+               submit(workers, running, group);
+            }//end if
+            if (running.size() > 1024)
+               prune(running);
+         }//end while
+         submit(workers, running, group);
+         awaitAll(running);
+      } finally {
+         workers.shutdown();
+         workers.awaitTermination(1, TimeUnit.MINUTES);
+      }//end try
+   }//end run
+
+   /**
+    * Method to print the count, errors, throughput and latency per operation
+    *
+    * @param out where to print
+    * @param elapsedNanos the wall clock time of the whole run
+    */
+   public void report (PrintStream out, long elapsedNanos) {
+      double seconds = elapsedNanos / 1e9;
+      out.println(String.format("%-38s %8s %7s %10s %9s %9s %9s %9s",
+                                "operation", "count", "errors", "ops/s", "avg ms", "p50 ms", "p99 ms", "max ms"));
+      long total = 0;
+      synchronized (this._stats) {
+         for (Map.Entry<String, OpStats> e : this._stats.entrySet()) {
+            OpStats s = e.getValue();
+            synchronized (s) {
+               long[] sorted = Arrays.copyOf(s.nanos, s.count);
+               Arrays.sort(sorted);
+               out.println(String.format("%-38s %8d %7d %10.1f %9.3f %9.3f %9.3f %9.3f",
+                                         e.getKey(), s.count, s.errors, s.count / seconds,
+                                         s.count == 0 ? 0.0 : s.totalNanos / 1e6 / s.count,
+                                         percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6,
+                                         s.count == 0 ? 0.0 : sorted[s.count - 1] / 1e6));
+               total += s.count;
+            }//end synchronized
+         }//end for
+      }//end synchronized
+      out.println(String.format("%d commands in %.2f s, %.1f commands/s", total, seconds, total / seconds));
+   }//end report
+
+   private void submit (ThreadPoolExecutor workers, List<Future<?>> running, List<Command> group) {
+      if (group.isEmpty())
+         return;
+      final List<Command> cmds = new ArrayList<Command>(group);
+      group.clear();
+      running.add(workers.submit(new Runnable() {
+         public void run () {
+            if (cmds.size() == 1 && !cmds.get(0).isGroupable())
+               runOne(cmds.get(0));
+            else
+               runGroup(cmds);
+         }
+      }));
+   }//end submit
+
+   /*
+    * Runs a group of writes in one transaction. When the transaction
+    * fails, the commands are run again one by one.
+    */
+   private void runGroup (List<Command> cmds) {
+      int n = cmds.size();
+      long[] nanos = new long[n];
+      String[] errors = new String[n];
+      boolean committed = false;
+      try {
+         this._esql.beginBatch();
+         try {
+            for (int i = 0; i < n; ++i) {
+               long t0 = System.nanoTime();
+               try {
+                  cmds.get(i).execute(this._esql.ops(), output().writer);
+               }catch (OpException e) {
+                  errors[i] = e.getMessage();
+               }catch (IllegalArgumentException e) {
+                  errors[i] = e.getMessage();
+               }//end try
+               nanos[i] = System.nanoTime() - t0;
+            }//end for
+            long t0 = System.nanoTime();
+            this._esql.commitBatch();
+            committed = true;
+            // the commit is shared by the whole group
+            long share = (System.nanoTime() - t0) / n;
+            for (int i = 0; i < n; ++i)
+               nanos[i] += share;
+         } finally {
+            if (!committed)
+               this._esql.rollbackBatch();
+         }//end try
+      }catch (SQLException e) {
+         committed = false;
+      }catch (RuntimeException e) {
+         committed = false;
+      }//end try
+
+      if (!committed) {
+         // the rows of the rolled back attempt are not printed
+         output().discard();
+         for (Command cmd : cmds)
+            runOne(cmd);
+         return;
+      }//end if
+      for (int i = 0; i < n; ++i) {
+         if (errors[i] != null)
+            fail(where(cmds.get(i)), errors[i]);
+         stats(cmds.get(i).op).record(nanos[i], errors[i] == null);
+      }//end for
+      output().drain(this._printResults);
+   }//end runGroup
+
+   /*
+    * Runs one command on its own, in autocommit mode.
+    */
+   private void runOne (Command cmd) {
+      Output out = output();
+      long t0 = System.nanoTime();
+      boolean ok = false;
+      try {
+         cmd.execute(this._esql.ops(), out.writer);
+         ok = true;
+      }catch (Exception e) {
+         fail(where(cmd), e.getMessage());
+      }//end try
+      stats(cmd.op).record(System.nanoTime() - t0, ok);
+      out.drain(this._printResults);
+   }//end runOne
+
+   private Output output () {
+      return this._output.get();
+   }//end output
+
+   private OpStats stats (String op) {
+      synchronized (this._stats) {
+         OpStats s = this._stats.get(op);
+         if (s == null) {
+            s = new OpStats();
+            this._stats.put(op, s);
+         }//end if
+         return s;
+      }//end synchronized
+   }//end stats
+
+   private static String where (Command cmd) {
+      return "line " + cmd.line + " (" + cmd.op + ")";
+   }//end where
+
+   private static void fail (String where, String message) {
+      synchronized (System.err) {
+         System.err.println(where + ": " + message);
+      }//end synchronized
+   }//end fail
+
+   private static void awaitAll (List<Future<?>> running) throws InterruptedException {
+      for (Future<?> f : running) {
+         try {
+            f.get();
+         }catch (ExecutionException e) {
+            fail("worker", String.valueOf(e.getCause()));
+         }//end try
+      }//end for
+      running.clear();
+   }//end awaitAll
+
+   private static void prune (List<Future<?>> running) {
+      for (Iterator<Future<?>> it = running.iterator(); it.hasNext(); )
+         if (it.next().isDone())
+            it.remove();
+   }//end prune
+
+   private static long percentile (long[] sorted, double p) {
+      if (sorted.length == 0)
+         return 0;
+      return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+   }//end percentile
+
+   /*
+    * The result writer of one worker and the buffer behind it.
+    */
+   private static final class Output {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+      final ResultWriter writer;
+
+      Output (ResultWriter.Format format) {
+         this.writer = new ResultWriter(this.bytes, format);
+      }
+
+      void drain (boolean print) {
+         this.writer.end();
+         if (print && this.bytes.size() > 0) {
+            synchronized (System.out) {
+               try {
+                  this.bytes.writeTo(System.out);
+               }catch (IOException e) {
+                  throw new RuntimeException(e);
+               }//end try
+               System.out.flush();
+            }//end synchronized
+         }//end if
+         this.bytes.reset();
+      }
+
+      void discard () {
+         this.writer.end();
+         this.bytes.reset();
+      }
+   }//end Output
+
+   /*
+    * Latencies of one operation; every sample is kept for the percentiles.
+    */
+   private static final class OpStats {
+      int count = 0;
+      int errors = 0;
+      long totalNanos = 0;
+      long[] nanos = new long[64];
+
+      synchronized void record (long elapsed, boolean ok) {
+         if (this.count == this.nanos.length)
+            this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+         this.nanos[this.count++] = elapsed;
+         this.totalNanos += elapsed;
+         if (!ok)
+            this.errors++;
+      }
+   }//end OpStats
+
+}//end BatchRunner
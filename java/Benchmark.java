@@ -0,0 +1,522 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class measures the operations of HotelOps against a loaded database
+ * (see BulkLoader), with and without the indexes of sql/index.sql:
+ *
+ *   java Benchmark <db> <port> <user> [../sql]
+ *
+ * For every operation it runs a warm-up and then a timed phase on
+ * -Dbench.threads threads, drawing random inputs from the loaded data, and
+ * records the latency of every call that succeeds; failed calls are only
+ * counted as errors. The results give the throughput, the
+ * average time and the latency percentiles of the timed phase, and are
+ * written as JSON (-Dbench.out, default bench.json) in the layout of JMH
+ * result files, so the results of two runs can be compared with the same
+ * tools.
+ *
+ *   -Dbench.warmup     warm-up seconds per operation (default 5)
+ *   -Dbench.time       timed seconds per operation (default 10)
+ *   -Dbench.threads    calling threads (default 1)
+ *   -Dbench.indexes    without, with or both (default both)
+ *   -Dbench.only       comma separated operation names to run
+ *
+ * Some operations are answered from the in-memory indexes of DBProject
+ * (OccupancyIndex, TopKIndex, SpendRollup, RepairIndex) without running
+ * SQL, so index.sql cannot change them. They are measured once, in the
+ * first index mode run, and their results carry "indexes":"n/a" and
+ * "path":"in-memory" in their params instead of taking part in the
+ * comparison.
+ *
+ * The write operations add rows to the database (bookings are made in
+ * 2030 and later, so they do not collide with the data files). Run it on a
+ * scratch database.
+ */
+
+public class Benchmark {
+
+   private final DBProject _esql;
+   private final HotelStore _ops;
+   private final File _sqlDir;
+   // whether the operations answered in memory have been measured
+   private boolean _inMemoryDone = false;
+
+   // inputs drawn from the loaded data
+   private int[] _hotels;
+   private int[] _customers;
+   private int[][] _rooms;            // {hotelID, roomNo}
+   private int[][] _cleaners;         // {SSN, employerID} of HouseCleaning staff
+   private String[] _companies;
+   private final int _firstDay = Days.of(2000, 1, 1);
+   private final int _lastDay = Days.of(2018, 12, 31);
+   // booking days handed to bookRoom, one past the last one used
+   private final AtomicInteger _nextBookingDay = new AtomicInteger(Days.of(2030, 1, 1));
+
+   // query results are formatted as usual and then dropped
+   private final ThreadLocal<ResultWriter> _sink = new ThreadLocal<ResultWriter>() {
+      protected ResultWriter initialValue () {
+         return new ResultWriter(new OutputStream() {
+            public void write (int b) {}
+            public void write (byte[] b, int off, int len) {}
+         }, ResultWriter.Format.TABLE);
+      }
+   };
+
+   public Benchmark (DBProject esql, File sqlDir) {
+      this._esql = esql;
+      this._ops = esql.ops();
+      this._sqlDir = sqlDir;
+   }//end Benchmark
+
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-Dbench.time=10] [-Dbench.threads=1] [-Dbench.out=bench.json] [-cp <$classpath>] " +
+            "Benchmark <dbname> <port> <user> [sqlDir]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new DBProject(args[0], args[1], args[2], "");
+         Benchmark bench = new Benchmark(esql, new File(args.length > 3 ? args[3] : "../sql"));
+         bench.setUp();
+
+         String modes = System.getProperty("bench.indexes", "both");
+         List<Result> results = new ArrayList<Result>();
+         if (!modes.equals("with")) {
+            bench.dropIndexes();
+            results.addAll(bench.runAll(false));
+         }//end if
+         if (!modes.equals("without")) {
+            bench.createIndexes();
+            results.addAll(bench.runAll(true));
+         }//end if
+         File out = new File(System.getProperty("bench.out", "bench.json"));
+         writeJson(out, results);
+         System.out.println("Results written to " + out);
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Method to read the inputs the operations are called with
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void setUp () throws SQLException {
+      this._hotels = ints("SELECT hotelID FROM Hotel");
+      this._customers = ints("SELECT customerID FROM Customer");
+      int[] h = ints("SELECT hotelID FROM Room ORDER BY hotelID, roomNo");
+      int[] r = ints("SELECT roomNo FROM Room ORDER BY hotelID, roomNo");
+      this._rooms = new int[h.length][];
+      for (int i = 0; i < h.length; ++i)
+         this._rooms[i] = new int[] { h[i], r[i] };
+      int[] ssn = ints("SELECT SSN FROM Staff WHERE role = 'HouseCleaning' ORDER BY SSN");
+      int[] employer = ints("SELECT employerID FROM Staff WHERE role = 'HouseCleaning' ORDER BY SSN");
+      // only staff of hotels that have rooms can be assigned
+      List<int[]> cleaners = new ArrayList<int[]>();
+      for (int i = 0; i < ssn.length; ++i)
+         if (this._esql.occupancy().roomCount(employer[i]) > 0)
+            cleaners.add(new int[] { ssn[i], employer[i] });
+      this._cleaners = cleaners.toArray(new int[cleaners.size()][]);
+      this._companies = strings("SELECT DISTINCT trim(name) FROM MaintenanceCompany");
+   }//end setUp
+
+   /**
+    * Method to run every selected operation once
+    *
+    * @param indexed whether the index.sql indexes exist, for the results
+    */
+   public List<Result> runAll (boolean indexed) throws Exception {
+      String only = System.getProperty("bench.only");
+      List<String> selected = only == null ? null : Arrays.asList(only.split(","));
+      List<Result> results = new ArrayList<Result>();
+      for (Op op : operations()) {
+         if (selected != null && !selected.contains(op.name))
+            continue;
+         // index.sql does not touch them; measure them once
+         if (op.inMemory && this._inMemoryDone)
+            continue;
+         Result res = measure(op, indexed);
+         System.out.println(res);
+         results.add(res);
+      }//end for
+      this._inMemoryDone = true;
+      return results;
+   }//end runAll
+
+   /*
+    * The measured operations, with how to draw their inputs.
+    */
+   private List<Op> operations () {
+      List<Op> ops = new ArrayList<Op>();
+      ops.add(new Op("addCustomer", false) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            _ops.addCustomer("Bench", "Customer" + rnd.nextInt(1000000), "1 Bench St", 5550000000L + rnd.nextInt(1000000),
+                             Days.toSqlDate(day(rnd)), "Other");
+         }
+      });
+      ops.add(new Op("bookRoom", false) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            int[] room = pick(_rooms, rnd);
+            _ops.bookRoom(room[0], room[1], pick(_customers, rnd), Days.toSqlDate(_nextBookingDay.getAndIncrement()),
+                          1 + rnd.nextInt(4), BigDecimal.valueOf(5000 + rnd.nextInt(50000), 2));
+         }
+      });
+      ops.add(new Op("assignHouseCleaningToRoom", false) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            int[] staff = pick(_cleaners, rnd);
+            int[] rooms = _esql.occupancy().roomNumbers(staff[1]);
+            _ops.assignHouseCleaningToRoom(staff[0], staff[1], rooms[rnd.nextInt(rooms.length)]);
+         }
+      });
+      ops.add(new Op("numberOfAvailableRooms", true) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            _ops.numberOfAvailableRooms(pick(_hotels, rnd), Days.toSqlDate(day(rnd)), 1 + rnd.nextInt(7));
+         }
+      });
+      ops.add(new Op("topKHighestRoomPriceForADateRange", true) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            int from = day(rnd);
+            _ops.topKHighestRoomPriceForADateRange(Days.toSqlDate(from), Days.toSqlDate(from + rnd.nextInt(365)), 10, _sink.get());
+         }
+      });
+      ops.add(new Op("topKMaintenanceCompany", true) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            _ops.topKMaintenanceCompany(10, _sink.get());
+         }
+      });
+      ops.add(new Op("totalCostForCustomer", true) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            int from = day(rnd);
+            _ops.totalCostForCustomer(pick(_customers, rnd), pick(_hotels, rnd), Days.toSqlDate(from),
+                                      Days.toSqlDate(from + rnd.nextInt(3650)), _sink.get());
+         }
+      });
+      ops.add(new Op("numberOfRepairsForEachRoomPerYear", true) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            int[] room = pick(_rooms, rnd);
+            _ops.numberOfRepairsForEachRoomPerYear(room[0], room[1], _sink.get());
+         }
+      });
+      ops.add(new Op("listRepairsMade", false) {
+         void call (ThreadLocalRandom rnd) throws Exception {
+            _ops.listRepairsMade(_companies[rnd.nextInt(_companies.length)], _sink.get());
+         }
+      });
+      return ops;
+   }//end operations
+
+   /*
+    * Warms up, then calls the operation from every thread for the timed
+    * phase and keeps every latency.
+    */
+   private Result measure (final Op op, boolean indexed) throws Exception {
+      final long warmupNanos = Integer.getInteger("bench.warmup", 5) * 1000000000L;
+      final long timeNanos = Integer.getInteger("bench.time", 10) * 1000000000L;
+      int threads = Integer.getInteger("bench.threads", 1);
+
+      final long[][] samples = new long[threads][];
+      final int[] counts = new int[threads];
+      final int[] errors = new int[threads];
+      final Exception[] firstError = new Exception[1];
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int t = 0; t < threads; ++t) {
+         final int id = t;
+         new Thread("bench-" + op.name + "-" + t) {
+            public void run () {
+               ThreadLocalRandom rnd = ThreadLocalRandom.current();
+               long[] lat = new long[1 << 14];
+               int n = 0;
+               try {
+                  long end = System.nanoTime() + warmupNanos;
+                  while (System.nanoTime() < end)
+                     call(op, rnd, null, id);
+                  end = System.nanoTime() + timeNanos;
+                  long t0 = System.nanoTime();
+                  while (t0 < end) {
+                     boolean ok = call(op, rnd, errors, id);
+                     long t1 = System.nanoTime();
+                     // failed calls are only counted as errors
+                     if (ok) {
+                        if (n == lat.length)
+                           lat = Arrays.copyOf(lat, n * 2);
+                        lat[n++] = t1 - t0;
+                     }//end if
+                     t0 = t1;
+                  }//end while
+               } finally {
+                  samples[id] = lat;
+                  counts[id] = n;
+                  done.countDown();
+               }//end try
+            }
+
+            private boolean call (Op op, ThreadLocalRandom rnd, int[] errors, int id) {
+               try {
+                  op.call(rnd);
+                  return true;
+               }catch (Exception e) {
+                  if (errors != null)
+                     errors[id]++;
+                  synchronized (firstError) {
+                     if (firstError[0] == null)
+                        firstError[0] = e;
+                  }//end synchronized
+                  return false;
+               }//end try
+            }
+         }.start();
+      }//end for
+      done.await();
+
+      int total = 0;
+      for (int c : counts)
+         total += c;
+      long[] all = new long[total];
+      int at = 0;
+      int failed = 0;
+      for (int t = 0; t < threads; ++t) {
+         System.arraycopy(samples[t], 0, all, at, counts[t]);
+         at += counts[t];
+         failed += errors[t];
+      }//end for
+      Arrays.sort(all);
+      if (firstError[0] != null)
+         System.err.println(op.name + ": " + firstError[0].getMessage());
+      return new Result(op.name, indexed, op.inMemory, threads, timeNanos, all, failed);
+   }//end measure
+
+   /**
+    * Method to drop the indexes created by index.sql, using its own DROP
+    * INDEX statements
+    */
+   public void dropIndexes () throws Exception {
+      List<String> drops = new ArrayList<String>();
+      for (String stmt : SqlScript.read(new File(this._sqlDir, "index.sql")))
+         if (stmt.toUpperCase(Locale.US).startsWith("DROP INDEX"))
+            drops.add(stmt);
+      drops.add("ANALYZE");
+      run(drops);
+   }//end dropIndexes
+
+   public void createIndexes () throws Exception {
+      List<String> all = new ArrayList<String>(SqlScript.read(new File(this._sqlDir, "index.sql")));
+      all.add("ANALYZE");
+      run(all);
+   }//end createIndexes
+
+   private void run (List<String> statements) throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            for (String sql : statements)
+               stmt.execute(sql);
+         } finally {
+            stmt.close();
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end run
+
+   private int[] ints (String sql) throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(sql);
+            int[] out = new int[1024];
+            int n = 0;
+            while (rs.next()) {
+               if (n == out.length)
+                  out = Arrays.copyOf(out, n * 2);
+               out[n++] = rs.getInt(1);
+            }//end while
+            return Arrays.copyOf(out, n);
+         } finally {
+            stmt.close();
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end ints
+
+   private String[] strings (String sql) throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(sql);
+            List<String> out = new ArrayList<String>();
+            while (rs.next())
+               out.add(rs.getString(1));
+            return out.toArray(new String[out.size()]);
+         } finally {
+            stmt.close();
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end strings
+
+   private int day (ThreadLocalRandom rnd) {
+      return this._firstDay + rnd.nextInt(this._lastDay - this._firstDay + 1);
+   }//end day
+
+   private static int pick (int[] values, ThreadLocalRandom rnd) {
+      return values[rnd.nextInt(values.length)];
+   }//end pick
+
+   private static int[] pick (int[][] values, ThreadLocalRandom rnd) {
+      return values[rnd.nextInt(values.length)];
+   }//end pick
+
+   /*
+    * Writes the results as a JSON array in the layout of JMH's -rf json:
+    * one entry per operation and mode (thrpt, avgt, sample).
+    */
+   private static void writeJson (File file, List<Result> results) throws IOException {
+      Writer w = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+      try {
+         w.write("[\n");
+         boolean first = true;
+         for (Result r : results) {
+            for (String mode : new String[] { "thrpt", "avgt", "sample" }) {
+               if (!first)
+                  w.write(",\n");
+               first = false;
+               w.write(r.toJson(mode));
+            }//end for
+         }//end for
+         w.write("\n]\n");
+      } finally {
+         w.close();
+      }//end try
+   }//end writeJson
+
+   /*
+    * One measured operation.
+    */
+   private abstract static class Op {
+      final String name;
+      // answered from an in-memory index, without SQL
+      final boolean inMemory;
+
+      Op (String name, boolean inMemory) {
+         this.name = name;
+         this.inMemory = inMemory;
+      }
+
+      abstract void call (ThreadLocalRandom rnd) throws Exception;
+   }//end Op
+
+   /*
+    * The latencies of one operation in one index mode, sorted.
+    */
+   static final class Result {
+      final String name;
+      final boolean indexed;
+      final boolean inMemory;
+      final int threads;
+      final long timeNanos;
+      final long[] sorted;
+      final int errors;
+
+      Result (String name, boolean indexed, boolean inMemory, int threads, long timeNanos, long[] sorted, int errors) {
+         this.name = name;
+         this.indexed = indexed;
+         this.inMemory = inMemory;
+         this.threads = threads;
+         this.timeNanos = timeNanos;
+         this.sorted = sorted;
+         this.errors = errors;
+      }
+
+      double throughput () {
+         return this.sorted.length / (this.timeNanos / 1e9);
+      }
+
+      double averageMillis () {
+         if (this.sorted.length == 0)
+            return 0;
+         long sum = 0;
+         for (long l : this.sorted)
+            sum += l;
+         return sum / 1e6 / this.sorted.length;
+      }
+
+      double percentileMillis (double p) {
+         if (this.sorted.length == 0)
+            return 0;
+         int i = (int) Math.ceil(p / 100.0 * this.sorted.length) - 1;
+         return this.sorted[Math.max(0, Math.min(this.sorted.length - 1, i))] / 1e6;
+      }
+
+      String toJson (String mode) {
+         StringBuilder b = new StringBuilder();
+         b.append("  {\"benchmark\":").append(Json.quote("HotelOps." + this.name));
+         b.append(",\"mode\":\"").append(mode).append('"');
+         b.append(",\"threads\":").append(this.threads);
+         b.append(",\"params\":{\"indexes\":\"").append(this.inMemory ? "n/a" : this.indexed ? "with" : "without");
+         b.append("\",\"path\":\"").append(this.inMemory ? "in-memory" : "sql").append("\"}");
+         b.append(",\"samples\":").append(this.sorted.length);
+         b.append(",\"errors\":").append(this.errors);
+         b.append(",\"primaryMetric\":{");
+         if (mode.equals("thrpt")) {
+            b.append("\"score\":").append(num(throughput())).append(",\"scoreUnit\":\"ops/s\"");
+         } else if (mode.equals("avgt")) {
+            b.append("\"score\":").append(num(averageMillis())).append(",\"scoreUnit\":\"ms/op\"");
+         } else {
+            b.append("\"score\":").append(num(averageMillis())).append(",\"scoreUnit\":\"ms/op\"");
+            b.append(",\"scorePercentiles\":{");
+            double[] ps = { 0.0, 50.0, 90.0, 95.0, 99.0, 99.9, 99.99, 100.0 };
+            for (int i = 0; i < ps.length; ++i) {
+               if (i > 0)
+                  b.append(',');
+               b.append('"').append(ps[i]).append("\":").append(num(ps[i] == 0.0 ? percentileMillis(0.0001) : percentileMillis(ps[i])));
+            }//end for
+            b.append('}');
+         }//end if
+         b.append("}}");
+         return b.toString();
+      }
+
+      public String toString () {
+         return String.format("%-36s %-9s %10.1f ops/s %9.3f ms/op  p50 %8.3f  p99 %8.3f  max %8.3f ms  errors %d",
+                              this.name, this.inMemory ? "in-memory" : this.indexed ? "indexed" : "no-index", throughput(), averageMillis(),
+                              percentileMillis(50), percentileMillis(99), percentileMillis(100), this.errors);
+      }
+
+      private static String num (double d) {
+         return String.format(Locale.US, "%.6f", d);
+      }
+   }//end Result
+
+}//end Benchmark
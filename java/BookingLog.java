@@ -0,0 +1,561 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class takes new bookings off the commit path. bookRoom appends the
+ * booking to a local log file and returns once the log is on disk; a
+ * background thread then inserts the logged bookings into Postgres.
+ *
+ *   - Group fsync: appends that arrive while the log is being synced wait
+ *     for the next sync together, so one fsync acknowledges many bookings.
+ *   - Write-behind: the flusher inserts up to -Dbookings.batchRows bookings
+ *     (default 64) per multi-row INSERT, in one transaction per batch, and
+ *     then records how far into the log it got in <log>.applied.
+ *   - Bounded memory and backpressure: at most -Dbookings.queue bookings
+ *     (default 10000) are logged but not yet inserted. When Postgres falls
+ *     that far behind, appends wait, up to -Dbookings.maxWaitMillis
+ *     (default 30000), and then fail.
+ *   - Exactly once: bIDs come from a sequence and are never reused, and
+ *     the INSERT skips a row whose primary key already exists, so a batch
+ *     replayed after a crash is applied once. A row whose room and day
+ *     another process booked in the meantime is rejected (see below).
+ *   - Replay: on start, every logged booking past <log>.applied is
+ *     inserted before the program reads Booking. A torn last record is cut
+ *     off.
+ * Once every logged booking is applied and the log has grown past 64 MB it
+ * is truncated.
+ *
+ * A booking Postgres refuses on its own (e.g. an unknown customer) is
+ * appended to <log>.rejected and its room is released in the occupancy
+ * index. If the database is down, or a row hits a deadlock or a
+ * serialization failure, the flusher retries every second.
+ *
+ * The price reports (TopKIndex, SpendRollup) only get a logged booking
+ * once its row is committed, so a rejected booking never shows in them.
+ *
+ * Records are text lines, bID,customer,hotelID,roomNo,day,noOfPeople,cents
+ * followed by a CRC-32 of the line.
+ */
+
+public class BookingLog {
+
+   private static final Charset ASCII = Charset.forName("US-ASCII");
+   private static final long COMPACT_BYTES = 64L << 20;
+
+   private final DBProject _esql;
+   private final File _file;
+   private final File _applied;
+   private final File _rejected;
+   private final FileChannel _channel;
+   private final int _batchRows;
+   private final long _maxWaitMillis;
+
+   // bookings logged but not inserted; one permit each
+   private final Semaphore _room;
+   private final LinkedBlockingQueue<Logged> _toApply = new LinkedBlockingQueue<Logged>();
+
+   // appends waiting for the next sync, guarded by this
+   private List<Pending> _pending = new ArrayList<Pending>();
+   private long _written;
+   private long _appliedOffset;
+   private volatile boolean _closed = false;
+   private IOException _failure = null;
+
+   private final Thread _syncer;
+   private final Thread _flusher;
+
+   /**
+    * Method to open the log, insert what an earlier run left unapplied and
+    * start the background threads
+    *
+    * @param esql the database the bookings go to
+    * @param path the log file
+    * @throws java.sql.SQLException when the replayed bookings cannot be inserted
+    */
+   public BookingLog (DBProject esql, String path) throws IOException, SQLException {
+      this._esql = esql;
+      this._file = new File(path);
+      this._applied = new File(path + ".applied");
+      this._rejected = new File(path + ".rejected");
+      this._batchRows = Integer.getInteger("bookings.batchRows", 64);
+      this._maxWaitMillis = Long.getLong("bookings.maxWaitMillis", 30000L);
+      this._room = new Semaphore(Integer.getInteger("bookings.queue", 10000), true);
+      this._channel = new RandomAccessFile(this._file, "rw").getChannel();
+
+      replay();
+
+      this._syncer = new Thread(new Runnable() {
+         public void run () {
+            syncLoop();
+         }
+      }, "booking-log-sync");
+      this._flusher = new Thread(new Runnable() {
+         public void run () {
+            flushLoop();
+         }
+      }, "booking-log-flush");
+      this._syncer.setDaemon(true);
+      this._flusher.setDaemon(true);
+      this._syncer.start();
+      this._flusher.start();
+   }//end BookingLog
+
+   /**
+    * Method to log a booking and wait until the log is on disk
+    *
+    * @throws java.sql.SQLException when the queue stayed full or the log
+    *         could not be written
+    */
+   public void append (TopKIndex.Entry e) throws SQLException {
+      try {
+         if (!this._room.tryAcquire(this._maxWaitMillis, TimeUnit.MILLISECONDS))
+            throw new SQLException("Booking queue full: the database is " + this._toApply.size() + " bookings behind");
+      }catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for the booking queue");
+      }//end try
+      Pending p = new Pending(e);
+      synchronized (this) {
+         if (this._closed || this._failure != null) {
+            this._room.release();
+            throw new SQLException("Booking log is " + (this._closed ? "closed" : "failing: " + this._failure.getMessage()));
+         }//end if
+         this._pending.add(p);
+         notifyAll();
+         while (!p.done) {
+            try {
+               wait();
+            }catch (InterruptedException ie) {
+               // the record is already queued; keep waiting for its sync
+            }//end try
+         }//end while
+      }//end synchronized
+      if (p.error != null)
+         throw new SQLException("Unable to write booking log: " + p.error.getMessage());
+   }//end append
+
+   /**
+    * Method to stop taking bookings, insert the ones logged and close
+    */
+   public void close () {
+      synchronized (this) {
+         this._closed = true;
+         notifyAll();
+      }//end synchronized
+      try {
+         this._syncer.join();
+         this._toApply.put(Logged.END);
+         this._flusher.join();
+         this._channel.close();
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end close
+
+   /**
+    * Method to describe the log in one line
+    */
+   public synchronized String stats () {
+      return String.format("booking log written=%d applied=%d queued=%d", this._written, this._appliedOffset,
+                           this._toApply.size());
+   }//end stats
+
+   /*
+    * Writes every pending record with one fsync, then wakes its appenders
+    * and hands the records to the flusher.
+    */
+   private void syncLoop () {
+      while (true) {
+         List<Pending> batch;
+         synchronized (this) {
+            while (this._pending.isEmpty() && !this._closed) {
+               try {
+                  wait();
+               }catch (InterruptedException ie) {
+                  // keep going until closed
+               }//end try
+            }//end while
+            if (this._pending.isEmpty())
+               return;
+            batch = this._pending;
+            this._pending = new ArrayList<Pending>();
+         }//end synchronized
+
+         IOException error = null;
+         List<Logged> logged = new ArrayList<Logged>(batch.size());
+         long start = -1;
+         try {
+            StringBuilder b = new StringBuilder(batch.size() * 64);
+            int[] ends = new int[batch.size()];
+            for (int i = 0; i < batch.size(); ++i) {
+               b.append(encode(batch.get(i).entry)).append('\n');
+               ends[i] = b.length();
+            }//end for
+            ByteBuffer buf = ByteBuffer.wrap(b.toString().getBytes(ASCII));
+            // _written moves past the records before the fsync, so the
+            // checkpoint never truncates the log under them
+            synchronized (this) {
+               start = this._written;
+               this._channel.position(start);
+               while (buf.hasRemaining())
+                  this._channel.write(buf);
+               this._written = start + ends[ends.length - 1];
+               for (int i = 0; i < batch.size(); ++i)
+                  logged.add(new Logged(batch.get(i).entry, start + ends[i]));
+            }//end synchronized
+            this._channel.force(false);
+         }catch (IOException e) {
+            error = e;
+            if (start >= 0)
+               cutOff(start);
+         }//end try
+
+         synchronized (this) {
+            if (error == null) {
+               this._toApply.addAll(logged);
+            } else {
+               this._failure = error;
+               for (int i = 0; i < batch.size(); ++i)
+                  this._room.release();
+            }//end if
+            for (Pending p : batch) {
+               p.error = error;
+               p.done = true;
+            }//end for
+            notifyAll();
+         }//end synchronized
+      }//end while
+   }//end syncLoop
+
+   /*
+    * Cuts records whose write or fsync failed off the log, so their
+    * appenders, who are told the booking failed, do not see it inserted by
+    * the replay of the next start.
+    */
+   private void cutOff (long start) {
+      try {
+         synchronized (this) {
+            this._channel.truncate(start);
+            this._written = start;
+         }//end synchronized
+         this._channel.force(true);
+      }catch (IOException e) {
+         System.err.println("Booking log: unable to cut off the failed records past offset " + start +
+                            ", the next start may insert them: " + e.getMessage());
+      }//end try
+   }//end cutOff
+
+   /*
+    * Inserts the logged bookings in batches, in log order.
+    */
+   private void flushLoop () {
+      List<Logged> batch = new ArrayList<Logged>(this._batchRows);
+      while (true) {
+         try {
+            batch.add(this._toApply.take());
+         }catch (InterruptedException ie) {
+            continue;
+         }//end try
+         this._toApply.drainTo(batch, this._batchRows - 1);
+         boolean end = batch.get(batch.size() - 1) == Logged.END;
+         if (end)
+            batch.remove(batch.size() - 1);
+         if (!batch.isEmpty()) {
+            while (true) {
+               try {
+                  applyBatch(batch);
+                  break;
+               }catch (SQLException e) {
+                  System.err.println("Booking log: " + e.getMessage() + ", retrying");
+                  try {
+                     Thread.sleep(1000);
+                  }catch (InterruptedException ie) {
+                     // retry at once
+                  }//end try
+               }//end try
+            }//end while
+            this._room.release(batch.size());
+            checkpoint(batch.get(batch.size() - 1).end);
+            batch.clear();
+         }//end if
+         if (end)
+            return;
+      }//end while
+   }//end flushLoop
+
+   /*
+    * Inserts a batch in one transaction. When that fails, the rows are
+    * inserted one at a time and the ones refused while the connection
+    * still works are rejected. A row that fails on a deadlock or a
+    * serialization failure is not refused; the batch is retried later.
+    * Rows already published or rejected by an earlier attempt are skipped,
+    * so a retried batch adds nothing to the reports twice.
+    */
+   private void applyBatch (List<Logged> batch) throws SQLException {
+      List<Logged> rows = new ArrayList<Logged>(batch.size());
+      for (Logged l : batch)
+         if (!l.done)
+            rows.add(l);
+      if (rows.isEmpty())
+         return;
+      Connection conn = this._esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         try {
+            insert(conn, rows, 0, rows.size());
+            conn.commit();
+            for (Logged l : rows) {
+               publish(l.entry);
+               l.done = true;
+            }//end for
+            return;
+         }catch (SQLException e) {
+            conn.rollback();
+         }//end try
+         for (int i = 0; i < rows.size(); ++i) {
+            try {
+               insert(conn, rows, i, i + 1);
+               conn.commit();
+               publish(rows.get(i).entry);
+               rows.get(i).done = true;
+            }catch (SQLException e) {
+               conn.rollback();
+               if (retryable(e))
+                  throw e;
+               // a broken connection fails here too; then retry the whole batch later
+               this._esql.fetch(this._esql.prepare(conn, "SELECT 1")).close();
+               conn.commit();
+               reject(rows.get(i).entry, e);
+               rows.get(i).done = true;
+            }//end try
+         }//end for
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end applyBatch
+
+   /*
+    * Deadlocks and serialization failures, which go away on a retry. The
+    * old driver has no SQLState, so the message decides when there is none.
+    */
+   private static boolean retryable (SQLException e) {
+      String state = e.getSQLState();
+      if (state != null)
+         return state.equals("40001") || state.equals("40P01");
+      String msg = String.valueOf(e.getMessage());
+      return msg.contains("deadlock detected") || msg.contains("could not serialize");
+   }//end retryable
+
+   private void insert (Connection conn, List<Logged> rows, int from, int to) throws SQLException {
+      int i = from;
+      // full batches as one multi-row statement, the rest one row each
+      if (to - from == this._batchRows) {
+         PreparedStatement stmt = this._esql.prepare(conn, insertSql(this._batchRows));
+         int p = 1;
+         for (; i < to; ++i)
+            p = bind(stmt, p, rows.get(i).entry);
+         this._esql.update(stmt);
+         return;
+      }//end if
+      PreparedStatement stmt = this._esql.prepare(conn, insertSql(1));
+      for (; i < to; ++i) {
+         bind(stmt, 1, rows.get(i).entry);
+         stmt.addBatch();
+      }//end for
+      this._esql.metrics().roundTrip();
+      stmt.executeBatch();
+   }//end insert
+
+   private static String insertSql (int rows) {
+      StringBuilder b = new StringBuilder("INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents) VALUES ");
+      for (int i = 0; i < rows; ++i)
+         b.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?)");
+      return b.append(" ON CONFLICT ON CONSTRAINT booking_pkey DO NOTHING").toString();
+   }//end insertSql
+
+   private static int bind (PreparedStatement stmt, int p, TopKIndex.Entry e) throws SQLException {
+      stmt.setInt(p++, e.bID);
+      stmt.setInt(p++, e.customer);
+      stmt.setInt(p++, e.hotelID);
+      stmt.setInt(p++, e.roomNo);
+      stmt.setDate(p++, Days.toSqlDate(e.day));
+      stmt.setInt(p++, e.noOfPeople);
+      stmt.setLong(p++, e.cents);
+      return p;
+   }//end bind
+
+   /*
+    * Adds a committed booking to the price reports. A row skipped as
+    * already inserted is one an earlier attempt committed without hearing
+    * back, so it is added too. During replay the reports are not built
+    * yet and read the row from Booking.
+    */
+   private void publish (TopKIndex.Entry e) {
+      if (this._esql.topK() == null || this._esql.spend() == null)
+         return;
+      this._esql.topK().add(e);
+      this._esql.spend().add(e.customer, e.hotelID, e.day, e.cents);
+   }//end publish
+
+   private void reject (TopKIndex.Entry e, SQLException cause) {
+      System.err.println("Booking " + e.bID + " rejected by the database: " + cause.getMessage());
+      // during replay the index is not built yet and never sees the booking
+      if (this._esql.occupancy() != null)
+         this._esql.occupancy().unbook(e.hotelID, e.roomNo, e.day);
+      try {
+         PrintWriter out = new PrintWriter(new FileWriter(this._rejected, true));
+         try {
+            out.println(encode(e) + " " + cause.getMessage());
+         } finally {
+            out.close();
+         }//end try
+      }catch (IOException io) {
+         System.err.println(io.getMessage());
+      }//end try
+   }//end reject
+
+   /*
+    * Records that the log is applied up to offset, and truncates the log
+    * when all of it is applied and it has grown large. The checkpoint is
+    * reset before the truncation, so a crash in between replays (and
+    * skips) old records instead of losing new ones.
+    */
+   private void checkpoint (long offset) {
+      try {
+         synchronized (this) {
+            this._appliedOffset = offset;
+            if (offset == this._written && offset >= COMPACT_BYTES && this._pending.isEmpty()) {
+               writeApplied(0);
+               this._channel.truncate(0);
+               this._channel.force(true);
+               this._written = 0;
+               this._appliedOffset = 0;
+               return;
+            }//end if
+            notifyAll();
+         }//end synchronized
+         writeApplied(offset);
+      }catch (IOException e) {
+         System.err.println("Booking log checkpoint: " + e.getMessage());
+      }//end try
+   }//end checkpoint
+
+   private void writeApplied (long offset) throws IOException {
+      File tmp = new File(this._applied.getPath() + ".tmp");
+      RandomAccessFile f = new RandomAccessFile(tmp, "rw");
+      try {
+         f.setLength(0);
+         f.write(Long.toString(offset).getBytes(ASCII));
+         f.getFD().sync();
+      } finally {
+         f.close();
+      }//end try
+      Files.move(tmp.toPath(), this._applied.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }//end writeApplied
+
+   /*
+    * Inserts every record past the checkpoint and cuts off a torn tail.
+    */
+   private void replay () throws IOException, SQLException {
+      long from = 0;
+      if (this._applied.exists()) {
+         byte[] text = Files.readAllBytes(this._applied.toPath());
+         from = Long.parseLong(new String(text, ASCII).trim());
+      }//end if
+      long size = this._channel.size();
+      List<Logged> rows = new ArrayList<Logged>();
+      long end = Math.min(from, size);
+      if (from < size) {
+         ByteBuffer buf = ByteBuffer.allocate((int) (size - from));
+         this._channel.read(buf, from);
+         String text = new String(buf.array(), ASCII);
+         int pos = 0;
+         int nl;
+         while ((nl = text.indexOf('\n', pos)) >= 0) {
+            TopKIndex.Entry e = decode(text.substring(pos, nl));
+            if (e == null)
+               break;
+            pos = nl + 1;
+            rows.add(new Logged(e, from + pos));
+         }//end while
+         end = from + pos;
+      }//end if
+      if (end < size) {
+         System.err.println("Booking log: dropping " + (size - end) + " bytes of a torn record");
+         this._channel.truncate(end);
+      }//end if
+      this._written = end;
+      for (int i = 0; i < rows.size(); i += this._batchRows) {
+         List<Logged> batch = rows.subList(i, Math.min(rows.size(), i + this._batchRows));
+         applyBatch(batch);
+         checkpoint(batch.get(batch.size() - 1).end);
+      }//end for
+      this._appliedOffset = end;
+      if (!rows.isEmpty())
+         System.out.println("Booking log: replayed " + rows.size() + " bookings");
+   }//end replay
+
+   private static String encode (TopKIndex.Entry e) {
+      String line = e.bID + "," + e.customer + "," + e.hotelID + "," + e.roomNo + "," + e.day + "," + e.noOfPeople + "," + e.cents;
+      return line + "," + Long.toHexString(crc(line));
+   }//end encode
+
+   // null when the line is not a complete record
+   private static TopKIndex.Entry decode (String line) {
+      int comma = line.lastIndexOf(',');
+      if (comma < 0)
+         return null;
+      String body = line.substring(0, comma);
+      try {
+         if (Long.parseLong(line.substring(comma + 1), 16) != crc(body))
+            return null;
+         String[] f = body.split(",");
+         return new TopKIndex.Entry(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                                    Integer.parseInt(f[3]), Integer.parseInt(f[4]), Integer.parseInt(f[5]),
+                                    Long.parseLong(f[6]));
+      }catch (RuntimeException e) {
+         return null;
+      }//end try
+   }//end decode
+
+   private static long crc (String s) {
+      CRC32 c = new CRC32();
+      c.update(s.getBytes(ASCII));
+      return c.getValue();
+   }//end crc
+
+   private static final class Pending {
+      final TopKIndex.Entry entry;
+      boolean done = false;
+      IOException error = null;
+      Pending (TopKIndex.Entry entry) { this.entry = entry; }
+   }//end Pending
+
+   // a synced record and the log offset just past it
+   private static final class Logged {
+      static final Logged END = new Logged(null, -1);
+      final TopKIndex.Entry entry;
+      final long end;
+      // published or rejected; only the flusher (or replay) touches it
+      boolean done;
+      Logged (TopKIndex.Entry entry, long end) { this.entry = entry; this.end = end; }
+   }//end Logged
+
+}//end BookingLog
@@ -0,0 +1,120 @@
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class checks that a booking the booking log acknowledged but
+ * Postgres then refused leaves no trace in the price reports:
+ *   1. a row is inserted straight into Booking for a room and day, the
+ *      way another process would, so the occupancy index does not see it,
+ *   2. bookRoom books the same room and day through the log,
+ *   3. once the flusher has rejected it (bookingRoomDay), neither
+ *      topKHighestRoomPriceForADateRange nor the spend of the customer
+ *      may include it.
+ *
+ *   java BookingLogTest <db> <port> <user>
+ *
+ * Run it on a scratch database; it deletes the rows it made. Exits with 1
+ * when a check fails.
+ */
+
+public class BookingLogTest {
+
+   private static final Charset ASCII = Charset.forName("US-ASCII");
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-cp <$classpath>] BookingLogTest <dbname> <port> <user>");
+         return;
+      }//end if
+      DBProject esql = null;
+      File log = null;
+      int failures = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         log = File.createTempFile("bookings", ".log");
+         System.setProperty("bookings.log", log.getPath());
+         System.setProperty("partitions.ahead", "0");
+         System.clearProperty("snapshot.file");
+         esql = new DBProject(args[0], args[1], args[2], "");
+
+         int[] room = ints(esql, "SELECT hotelID, roomNo FROM Room WHERE hotelID <> 0 ORDER BY hotelID, roomNo LIMIT 1");
+         int customer = ints(esql, "SELECT MIN(customerID) FROM Customer WHERE customerID <> 0")[0];
+         // a day after every booking, so nothing else counts towards the reports
+         int day = ints(esql, "SELECT MAX(bookingDate) - DATE '1970-01-01' + 1 FROM Booking")[0];
+         java.sql.Date date = Days.toSqlDate(day);
+         try {
+            esql.executeUpdate("INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents) " +
+                               "VALUES (?, ?, ?, ?, ?, 1, 100)", esql.ids().next(IdGenerator.BOOKING), customer,
+                               room[0], room[1], date);
+            int bID = esql.ops().bookRoom(room[0], room[1], customer, date, 1, new BigDecimal("9999.99"));
+
+            File rejected = new File(log.getPath() + ".rejected");
+            long until = System.currentTimeMillis() + 10000;
+            while (!contains(rejected, bID + ",") && System.currentTimeMillis() < until)
+               Thread.sleep(50);
+            failures += check(contains(rejected, bID + ","), "booking " + bID + " was rejected");
+            boolean listed = false;
+            for (TopKIndex.Entry e : esql.topK().topByDate(day, day, 10))
+               listed |= e.bID == bID;
+            failures += check(!listed, "top K by date does not list booking " + bID);
+            BigDecimal spent = esql.spend().total(customer, room[0], day, day);
+            failures += check(spent.signum() == 0, "customer " + customer + " spent nothing on that day (got " + spent + ")");
+         } finally {
+            esql.executeUpdate("DELETE FROM Booking WHERE hotelID = ? AND roomNo = ? AND bookingDate = ?", room[0], room[1], date);
+         }//end try
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+         failures++;
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+         if (log != null)
+            for (String suffix : new String[] { "", ".applied", ".rejected" })
+               new File(log.getPath() + suffix).delete();
+      }//end try
+      System.out.println(failures == 0 ? "PASS" : failures + " checks FAILED");
+      System.exit(failures == 0 ? 0 : 1);
+   }//end main
+
+   private static int check (boolean ok, String what) {
+      System.out.println((ok ? "ok     " : "FAILED ") + what);
+      return ok ? 0 : 1;
+   }//end check
+
+   private static boolean contains (File file, String prefix) throws java.io.IOException {
+      if (!file.exists())
+         return false;
+      for (String line : Files.readAllLines(file.toPath(), ASCII))
+         if (line.startsWith(prefix))
+            return true;
+      return false;
+   }//end contains
+
+   private static int[] ints (DBProject esql, String sql) throws SQLException {
+      Connection conn = esql.getConnection();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(sql);
+            rs.next();
+            int[] out = new int[rs.getMetaData().getColumnCount()];
+            for (int i = 0; i < out.length; ++i)
+               out[i] = rs.getInt(i + 1);
+            return out;
+         } finally {
+            stmt.close();
+         }//end try
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+   }//end ints
+
+}//end BookingLogTest
@@ -0,0 +1,474 @@
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class loads data/*.csv into a fresh database without copying the
+ * files into the server's data folder first.
+ *
+ * It reads sql/create.sql and runs it in three phases:
+ *   1. the schema statements before the first COPY (types and tables),
+ *   2. every COPY ... FROM 'x.csv', streamed from the client with
+ *      COPY ... FROM STDIN; tables that do not depend on each other load in
+ *      parallel, in the order given by the FOREIGN KEY constraints,
+ *   3. the statements after the first COPY (the manager fix-up, sequences),
+ *      then the column types of SchemaMigration, the workflow functions
+ *      of sql/functions.sql, the repair summary tables of
+ *      sql/aggregates.sql, the indexes of sql/index.sql and the foreign keys.
+ * Deferring indexes and foreign keys means the rows are written once
+ * without per-row index maintenance or constraint checks.
+ *
+ * The CSV files are memory-mapped. With a pgjdbc driver that has
+ * CopyManager the mapped bytes go straight into COPY. The 7.3 driver in
+ * this folder has no COPY support, so there the rows are sent as
+ * multi-row INSERTs in one transaction per table instead.
+ */
+
+public class BulkLoader {
+
+   private static final Pattern COPY = Pattern.compile(
+      "(?is)COPY\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*FROM\\s+'([^']+)'\\s*(.*)");
+   private static final Pattern FOREIGN_KEY = Pattern.compile(
+      "(?is)ALTER\\s+TABLE\\s+(\\w+)\\s+ADD\\s+CONSTRAINT\\s+\\w+\\s+FOREIGN\\s+KEY.*?REFERENCES\\s+(\\w+).*");
+
+   // rows per INSERT statement when COPY is not available
+   private static final int INSERT_ROWS = 500;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final ConnectionPool _pool;
+   private final File _dataDir;
+   private final File _sqlDir;
+   private final int _threads;
+
+   /**
+    * Creates a new loader
+    *
+    * @param pool the connections to load with, one per table loaded in parallel
+    * @param dataDir folder holding the .csv files
+    * @param sqlDir folder holding create.sql and index.sql
+    * @param threads the number of tables loaded at the same time
+    */
+   public BulkLoader (ConnectionPool pool, File dataDir, File sqlDir, int threads) {
+      this._pool = pool;
+      this._dataDir = dataDir;
+      this._sqlDir = sqlDir;
+      this._threads = threads;
+   }//end BulkLoader
+
+   /**
+    * Method to drop, recreate and load the whole database.
+    *
+    * @throws Exception when a statement or a table load fails
+    */
+   public void run () throws Exception {
+      List<String> schema = new ArrayList<String>();
+      List<String> afterLoad = new ArrayList<String>();
+      List<String> foreignKeys = new ArrayList<String>();
+      Map<String, Load> loads = new LinkedHashMap<String, Load>();
+      Map<String, Set<String>> parents = new LinkedHashMap<String, Set<String>>();
+
+      for (String stmt : SqlScript.read(new File(this._sqlDir, "create.sql"))) {
+         Matcher copy = COPY.matcher(stmt);
+         Matcher fk = FOREIGN_KEY.matcher(stmt);
+         if (copy.matches()) {
+            Load l = new Load(copy.group(1), copy.group(2).replaceAll("\\s+", " ").trim(),
+                              new File(this._dataDir, copy.group(3)), copy.group(4).trim());
+            loads.put(key(l.table), l);
+         } else if (fk.matches()) {
+            foreignKeys.add(stmt);
+            String child = key(fk.group(1));
+            String parent = key(fk.group(2));
+            if (!parents.containsKey(child))
+               parents.put(child, new LinkedHashSet<String>());
+            if (!child.equals(parent))
+               parents.get(child).add(parent);
+         } else if (loads.isEmpty()) {
+            schema.add(stmt);
+         } else {
+            afterLoad.add(stmt);
+         }//end if
+      }//end for
+
+      long start = System.nanoTime();
+      System.out.println("Creating schema...");
+      runAll(schema);
+
+      List<List<Load>> levels = levels(loads, parents);
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+      try {
+         for (int i = 0; i < levels.size(); ++i) {
+            System.out.println("Loading level " + i + ": " + names(levels.get(i)));
+            List<Future<Void>> running = new ArrayList<Future<Void>>();
+            for (final Load l : levels.get(i)) {
+               running.add(workers.submit(new java.util.concurrent.Callable<Void>() {
+                  public Void call () throws Exception {
+                     load(l);
+                     return null;
+                  }
+               }));
+            }//end for
+            for (Future<Void> f : running)
+               f.get();
+         }//end for
+      } finally {
+         workers.shutdown();
+      }//end try
+
+      System.out.println("Running post-load statements...");
+      runAll(afterLoad);
+      // before the indexes and foreign keys, so it has none to rebuild
+      Connection conn = this._pool.checkout();
+      try {
+         SchemaMigration.migrate(conn);
+      } finally {
+         this._pool.checkin(conn);
+      }//end try
+      // after the migration, as they take and store the Integer keys
+      System.out.println("Creating functions...");
+      runAll(SqlScript.read(new File(this._sqlDir, "functions.sql")));
+      System.out.println("Creating repair summary tables...");
+      runAll(SqlScript.read(new File(this._sqlDir, "aggregates.sql")));
+      System.out.println("Creating indexes...");
+      runAll(SqlScript.read(new File(this._sqlDir, "index.sql")));
+      System.out.println("Adding foreign keys...");
+      runAll(foreignKeys);
+      System.out.println(String.format("Done in %.2f s", (System.nanoTime() - start) / 1e9));
+   }//end run
+
+   /*
+    * Groups the tables into levels: a table's level is one past the highest
+    * level of the tables it references. Tables that reference each other
+    * (Hotel and Staff) are placed in the same level.
+    */
+   static List<List<Load>> levels (Map<String, Load> loads, Map<String, Set<String>> parents) {
+      List<String> tables = new ArrayList<String>(loads.keySet());
+      int n = tables.size();
+      boolean[][] reach = new boolean[n][n];
+      for (int i = 0; i < n; ++i) {
+         reach[i][i] = true;
+         Set<String> ps = parents.get(tables.get(i));
+         if (ps != null)
+            for (String p : ps)
+               if (tables.contains(p))
+                  reach[i][tables.indexOf(p)] = true;
+      }//end for
+      for (int k = 0; k < n; ++k)
+         for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j)
+               reach[i][j] |= reach[i][k] && reach[k][j];
+
+      int[] level = new int[n];
+      boolean changed = true;
+      while (changed) {
+         changed = false;
+         for (int i = 0; i < n; ++i)
+            for (int j = 0; j < n; ++j) {
+               boolean sameCycle = reach[j][i];
+               if (i != j && reach[i][j] && !sameCycle && level[i] <= level[j]) {
+                  level[i] = level[j] + 1;
+                  changed = true;
+               }//end if
+            }//end for
+      }//end while
+
+      List<List<Load>> out = new ArrayList<List<Load>>();
+      for (int i = 0; i < n; ++i) {
+         while (out.size() <= level[i])
+            out.add(new ArrayList<Load>());
+         out.get(level[i]).add(loads.get(tables.get(i)));
+      }//end for
+      return out;
+   }//end levels
+
+   private void runAll (List<String> statements) throws SQLException {
+      Connection conn = this._pool.checkout();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            for (String sql : statements)
+               stmt.execute(sql);
+         } finally {
+            stmt.close();
+         }//end try
+      } finally {
+         this._pool.checkin(conn);
+      }//end try
+   }//end runAll
+
+   private void load (Load l) throws Exception {
+      long start = System.nanoTime();
+      long rows;
+      Connection conn = this._pool.checkout();
+      try {
+         RandomAccessFile raf = new RandomAccessFile(l.file, "r");
+         try {
+            FileChannel ch = raf.getChannel();
+            MappedByteBuffer data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            Object copyManager = copyManager(conn);
+            if (copyManager != null)
+               rows = copyIn(copyManager, l, data);
+            else
+               rows = insertRows(conn, l, data);
+         } finally {
+            raf.close();
+         }//end try
+      } finally {
+         this._pool.checkin(conn);
+      }//end try
+      double secs = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format(Locale.US, "  %-20s %8d rows %8.3f s %10.0f rows/s",
+                                       l.table, rows, secs, secs > 0 ? rows / secs : 0.0));
+   }//end load
+
+   /*
+    * Returns an org.postgresql.copy.CopyManager for the connection, or null
+    * if the driver does not have one. Looked up by name so this class still
+    * compiles against the bundled 7.3 driver.
+    */
+   private static Object copyManager (Connection conn) {
+      try {
+         Class<?> base = Class.forName("org.postgresql.core.BaseConnection");
+         Class<?> cm = Class.forName("org.postgresql.copy.CopyManager");
+         if (!base.isInstance(conn))
+            return null;
+         Constructor<?> ctor = cm.getConstructor(base);
+         return ctor.newInstance(conn);
+      }catch (Exception e) {
+         return null;
+      }//end try
+   }//end copyManager
+
+   private static long copyIn (Object copyManager, Load l, ByteBuffer data) throws Exception {
+      String sql = "COPY " + l.table + "(" + l.columns + ") FROM STDIN " + l.options;
+      Method m = copyManager.getClass().getMethod("copyIn", String.class, InputStream.class);
+      return ((Long) m.invoke(copyManager, sql, new BufferInputStream(data))).longValue();
+   }//end copyIn
+
+   /*
+    * Fallback for drivers without COPY: parses the COPY text format of a
+    * UTF-8 file (fields split on the delimiter, backslash escapes, \N for
+    * null) and sends INSERT_ROWS rows per INSERT, all in one transaction.
+    * A line that is not valid UTF-8 fails the load.
+    */
+   private static long insertRows (Connection conn, Load l, ByteBuffer data) throws SQLException {
+      char delim = delimiter(l.options);
+      String head = "INSERT INTO " + l.table + "(" + l.columns + ") VALUES ";
+      StringBuilder sql = new StringBuilder(head);
+      CharsetDecoder utf8 = UTF8.newDecoder();
+      int pending = 0;
+      long rows = 0;
+      conn.setAutoCommit(false);
+      Statement stmt = conn.createStatement();
+      try {
+         while (data.hasRemaining()) {
+            int from = data.position();
+            int to = from;
+            while (to < data.limit() && data.get(to) != '\n')
+               ++to;
+            data.position(Math.min(to + 1, data.limit()));
+            if (to > from && data.get(to - 1) == '\r')
+               --to;
+            if (to == from)
+               continue;
+            ByteBuffer bytes = data.duplicate();
+            bytes.position(from);
+            bytes.limit(to);
+            CharSequence line;
+            try {
+               line = utf8.decode(bytes);
+            }catch (CharacterCodingException e) {
+               throw new SQLException(l.file.getName() + " line " + (rows + 1) + " is not valid UTF-8");
+            }//end try
+            if (pending > 0)
+               sql.append(',');
+            appendRow(sql, line, delim);
+            ++rows;
+            if (++pending == INSERT_ROWS) {
+               stmt.executeUpdate(sql.toString());
+               sql.setLength(0);
+               sql.append(head);
+               pending = 0;
+            }//end if
+         }//end while
+         if (pending > 0)
+            stmt.executeUpdate(sql.toString());
+         conn.commit();
+      } finally {
+         stmt.close();
+      }//end try
+      return rows;
+   }//end insertRows
+
+   /*
+    * Appends one line as a VALUES tuple, undoing COPY's text escapes: \b,
+    * \f, \n, \r, \t, \v, octal \ddd, hex \xhh, and a backslash before any
+    * other character (the delimiter, a backslash) stands for that character.
+    */
+   private static void appendRow (StringBuilder sql, CharSequence line, char delim) {
+      sql.append('(');
+      int n = line.length();
+      int start = 0;
+      while (start <= n) {
+         if (start > 0)
+            sql.append(',');
+         // \N on its own is null
+         if (start + 2 <= n && line.charAt(start) == '\\' && line.charAt(start + 1) == 'N' &&
+             (start + 2 == n || line.charAt(start + 2) == delim)) {
+            sql.append("NULL");
+            start += 3;
+            continue;
+         }//end if
+         sql.append('\'');
+         int i = start;
+         for (; i < n && line.charAt(i) != delim; ++i) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < n) {
+               c = line.charAt(++i);
+               int digits = 0;
+               int code = 0;
+               if (c >= '0' && c <= '7') {
+                  while (digits < 3 && i < n && line.charAt(i) >= '0' && line.charAt(i) <= '7') {
+                     code = code * 8 + line.charAt(i++) - '0';
+                     ++digits;
+                  }//end while
+                  c = (char) code;
+                  --i;
+               } else if (c == 'x' && i + 1 < n && Character.digit(line.charAt(i + 1), 16) >= 0) {
+                  ++i;
+                  while (digits < 2 && i < n && Character.digit(line.charAt(i), 16) >= 0) {
+                     code = code * 16 + Character.digit(line.charAt(i++), 16);
+                     ++digits;
+                  }//end while
+                  c = (char) code;
+                  --i;
+               } else {
+                  switch (c) {
+                     case 'b': c = '\b'; break;
+                     case 'f': c = '\f'; break;
+                     case 'n': c = '\n'; break;
+                     case 'r': c = '\r'; break;
+                     case 't': c = '\t'; break;
+                     case 'v': c = '\u000b'; break;
+                     default: break;
+                  }//end switch
+               }//end if
+            }//end if
+            if (c == '\'')
+               sql.append('\'');
+            sql.append(c);
+         }//end for
+         sql.append('\'');
+         start = i + 1;
+      }//end while
+      sql.append(')');
+   }//end appendRow
+
+   private static char delimiter (String options) {
+      Matcher m = Pattern.compile("(?i)DELIMITER\\s+'(.)'").matcher(options);
+      return m.find() ? m.group(1).charAt(0) : '\t';
+   }//end delimiter
+
+   private static String key (String table) {
+      return table.toLowerCase(Locale.US);
+   }//end key
+
+   private static String names (List<Load> loads) {
+      StringBuilder sb = new StringBuilder();
+      for (Load l : loads)
+         sb.append(sb.length() == 0 ? "" : ", ").append(l.table);
+      return sb.toString();
+   }//end names
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [data folder] [sql folder]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> [data folder] [sql folder]");
+         return;
+      }//end if
+      File dataDir = new File(args.length > 3 ? args[3] : "../data");
+      File sqlDir = new File(args.length > 4 ? args[4] : "../sql");
+      int threads = Integer.getInteger("loader.threads", 4);
+      ConnectionPool pool = null;
+      try {
+         Class.forName ("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "", threads, 60000L);
+         new BulkLoader(pool, dataDir, sqlDir, threads).run();
+      }catch (Exception e) {
+         System.err.println("Load failed: " + e.getMessage());
+      }finally {
+         if (pool != null)
+            pool.close();
+      }//end try
+   }//end main
+
+   /*
+    * One COPY statement of create.sql.
+    */
+   static class Load {
+      final String table;
+      final String columns;
+      final File file;
+      final String options;
+      Load (String table, String columns, File file, String options) {
+         this.table = table;
+         this.columns = columns;
+         this.file = file;
+         this.options = options;
+      }
+   }//end Load
+
+   /*
+    * Streams a mapped file without copying it onto the heap first.
+    */
+   private static class BufferInputStream extends InputStream {
+      private final ByteBuffer buf;
+      BufferInputStream (ByteBuffer buf) { this.buf = buf; }
+
+      public int read () {
+         return this.buf.hasRemaining() ? (this.buf.get() & 0xff) : -1;
+      }
+      public int read (byte[] b, int off, int len) {
+         if (!this.buf.hasRemaining())
+            return -1;
+         int n = Math.min(len, this.buf.remaining());
+         this.buf.get(b, off, n);
+         return n;
+      }
+      public int available () {
+         return this.buf.remaining();
+      }
+   }//end BufferInputStream
+
+}//end BulkLoader
@@ -0,0 +1,291 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class reports on every hotel of the chain at once: for each hotel
+ * and each day of a date range, the rooms it has, how many of them are
+ * booked and what those bookings bring in. It takes one pass over Room
+ * and Booking per range of hotels instead of one query per hotel.
+ *
+ * Two ways of running it, chosen with -Dreports.chain:
+ *   - fanout: the hotel ID space is split in halves until a range holds
+ *     at most -Dreports.rangeHotels IDs (default 64), and the ranges run
+ *     in parallel on a ForkJoinPool of -Dreports.parallelism threads
+ *     (default the connection pool size), each on a pooled connection
+ *     (the replica when there is one). The results of the ranges cover
+ *     distinct hotels, so merging them is a union,
+ *   - set: one grouped query over all hotels.
+ * auto (the default) fans out when there is more than one range and more
+ * than one thread, and runs the single query otherwise. The comparison
+ *
+ *   java ChainReport <db> <port> <user> <MM/dd/yyyy> <days>
+ *
+ * times both over -Dreports.runs runs (default 5).
+ */
+
+public class ChainReport {
+
+   // rooms and bookings per hotel and day of [from, from + days) for the hotels in [lo, hi]
+   static final String QUERY =
+      "SELECT R.hotelID, R.rooms, B.day, B.booked, B.cents FROM " +
+      "(SELECT hotelID, COUNT(*) AS rooms FROM Room WHERE hotelID >= ? AND hotelID <= ? GROUP BY hotelID) R LEFT JOIN " +
+      "(SELECT hotelID, bookingDate - CAST(? AS DATE) AS day, COUNT(*) AS booked, SUM(priceCents) AS cents FROM Booking " +
+      "WHERE hotelID >= ? AND hotelID <= ? AND bookingDate >= CAST(? AS DATE) AND bookingDate < CAST(? AS DATE) " +
+      "GROUP BY hotelID, bookingDate) B ON B.hotelID = R.hotelID";
+
+   private final DBProject _esql;
+   private final ForkJoinPool _pool;
+   private final int _rangeHotels;
+
+   public ChainReport (DBProject esql, int parallelism) {
+      this._esql = esql;
+      this._pool = new ForkJoinPool(Math.max(1, parallelism));
+      this._rangeHotels = Math.max(1, Integer.getInteger("reports.rangeHotels", 64));
+   }//end ChainReport
+
+   public static void main (String[] args) {
+      if (args.length < 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-Dreports.runs=5] [-cp <$classpath>] ChainReport <dbname> <port> <user> <MM/dd/yyyy> <days>");
+         return;
+      }//end if
+      DBProject esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new DBProject(args[0], args[1], args[2], "");
+         int from = Days.of(new java.text.SimpleDateFormat("MM/dd/yyyy").parse(args[3]));
+         int days = Integer.parseInt(args[4]);
+         int runs = Integer.getInteger("reports.runs", 5);
+         ChainReport report = esql.chain();
+         for (String mode : new String[] { "set", "fanout" }) {
+            long best = Long.MAX_VALUE;
+            Summary s = null;
+            for (int r = 0; r < runs; ++r) {
+               long start = System.nanoTime();
+               s = report.occupancy(from, days, mode);
+               best = Math.min(best, System.nanoTime() - start);
+            }//end for
+            System.out.println(String.format("%-7s best of %d: %8.1f ms, %s", mode, runs, best / 1e6, s));
+         }//end for
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Method to summarize every hotel on each day of [from, from + days),
+    * the way -Dreports.chain says
+    *
+    * @param from the first day, as a day number (see Days)
+    * @throws java.sql.SQLException when a query fails
+    */
+   public Summary occupancy (int from, int days) throws SQLException {
+      return occupancy(from, days, System.getProperty("reports.chain", "auto"));
+   }//end occupancy
+
+   /**
+    * Method to summarize every hotel on each day of [from, from + days)
+    *
+    * @param mode fanout, set or auto
+    * @throws java.sql.SQLException when a query fails
+    */
+   public Summary occupancy (int from, int days, String mode) throws SQLException {
+      Summary s = new Summary(from, Math.max(0, days));
+      int[] span = hotelSpan();
+      if (span == null)
+         return s;
+      boolean fanout;
+      switch (mode) {
+         case "fanout": fanout = true; break;
+         case "set":    fanout = false; break;
+         case "auto":   fanout = this._pool.getParallelism() > 1 && (long) span[1] - span[0] >= this._rangeHotels; break;
+         default:       throw new IllegalArgumentException("unknown reports.chain " + mode);
+      }//end switch
+      if (!fanout) {
+         read(s, span[0], span[1]);
+         return s;
+      }//end if
+      try {
+         s.hotels.putAll(this._pool.invoke(new Range(from, s.days, span[0], span[1])));
+      }catch (RuntimeException e) {
+         // a range failed; its SQLException is the cause
+         for (Throwable t = e; t != null; t = t.getCause())
+            if (t instanceof SQLException)
+               throw (SQLException) t;
+         throw e;
+      }//end try
+      return s;
+   }//end occupancy
+
+   /**
+    * Method to stop the threads of the pool
+    */
+   public void close () {
+      this._pool.shutdown();
+   }//end close
+
+   /*
+    * The lowest and highest hotelID, or null when there are no hotels.
+    */
+   private int[] hotelSpan () throws SQLException {
+      Connection conn = this._esql.getReadConnection();
+      try {
+         PreparedStatement stmt = this._esql.prepare(conn, "SELECT MIN(hotelID), MAX(hotelID) FROM Hotel");
+         ResultSet rs = this._esql.fetch(stmt);
+         try {
+            rs.next();
+            int lo = rs.getInt(1);
+            return rs.wasNull() ? null : new int[] { lo, rs.getInt(2) };
+         } finally {
+            rs.close();
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end hotelSpan
+
+   /*
+    * Reads the hotels of [lo, hi] into s, from the replica when there is
+    * one and it works.
+    */
+   private void read (Summary s, int lo, int hi) throws SQLException {
+      Connection conn = this._esql.getReadConnection();
+      try {
+         read(conn, s, lo, hi);
+         return;
+      }catch (SQLException e) {
+         if (!this._esql.replicaFailed(conn, e))
+            throw e;
+         s.hotels.clear();
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+      conn = this._esql.getConnection();
+      try {
+         read(conn, s, lo, hi);
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end read
+
+   private void read (Connection conn, Summary s, int lo, int hi) throws SQLException {
+      PreparedStatement stmt = this._esql.prepare(conn, QUERY);
+      java.sql.Date first = Days.toSqlDate(s.from);
+      StatementCache.bind(stmt, lo, hi, first, lo, hi, first, Days.toSqlDate(s.from + s.days));
+      ResultSet rs = this._esql.fetch(stmt);
+      try {
+         int rows = 0;
+         while (rs.next()) {
+            rows++;
+            Hotel h = s.hotels.get(rs.getInt(1));
+            if (h == null) {
+               h = new Hotel(rs.getInt(2), s.days);
+               s.hotels.put(rs.getInt(1), h);
+            }//end if
+            int day = rs.getInt(3);
+            if (rs.wasNull())
+               continue;
+            h.booked[day] = rs.getInt(4);
+            h.cents[day] = rs.getLong(5);
+         }//end while
+         this._esql.metrics().rows(rows);
+      } finally {
+         rs.close();
+      }//end try
+   }//end read
+
+   /*
+    * A range of hotel IDs, split until it is small enough to query.
+    */
+   private final class Range extends RecursiveTask<TreeMap<Integer, Hotel>> {
+      private static final long serialVersionUID = 1L;
+      private final int from;
+      private final int days;
+      private final int lo;
+      private final int hi;
+
+      Range (int from, int days, int lo, int hi) {
+         this.from = from;
+         this.days = days;
+         this.lo = lo;
+         this.hi = hi;
+      }
+
+      protected TreeMap<Integer, Hotel> compute () {
+         if ((long) this.hi - this.lo < _rangeHotels) {
+            Summary s = new Summary(this.from, this.days);
+            try {
+               read(s, this.lo, this.hi);
+            }catch (SQLException e) {
+               throw new RuntimeException(e);
+            }//end try
+            return s.hotels;
+         }//end if
+         int mid = (int) (((long) this.lo + this.hi) >> 1);
+         Range left = new Range(this.from, this.days, this.lo, mid);
+         left.fork();
+         TreeMap<Integer, Hotel> out = new Range(this.from, this.days, mid + 1, this.hi).compute();
+         TreeMap<Integer, Hotel> other = left.join();
+         // the ranges hold distinct hotels; add the smaller map to the larger
+         if (other.size() > out.size()) {
+            other.putAll(out);
+            return other;
+         }//end if
+         out.putAll(other);
+         return out;
+      }
+   }//end Range
+
+   /**
+    * The rooms and bookings of one hotel, per day of the report
+    */
+   public static final class Hotel {
+      public final int rooms;
+      public final int[] booked;
+      public final long[] cents;
+
+      Hotel (int rooms, int days) {
+         this.rooms = rooms;
+         this.booked = new int[days];
+         this.cents = new long[days];
+      }
+   }//end Hotel
+
+   /**
+    * The report: every hotel with rooms, by hotelID
+    */
+   public static final class Summary {
+      public final int from;
+      public final int days;
+      public final TreeMap<Integer, Hotel> hotels = new TreeMap<Integer, Hotel>();
+
+      Summary (int from, int days) {
+         this.from = from;
+         this.days = days;
+      }
+
+      public String toString () {
+         long rooms = 0, booked = 0, cents = 0;
+         for (Map.Entry<Integer, Hotel> e : this.hotels.entrySet()) {
+            rooms += (long) e.getValue().rooms * this.days;
+            for (int d = 0; d < this.days; ++d) {
+               booked += e.getValue().booked[d];
+               cents += e.getValue().cents[d];
+            }//end for
+         }//end for
+         return String.format("%d hotels, %d of %d room nights booked, revenue %s", this.hotels.size(), booked, rooms,
+                              java.math.BigDecimal.valueOf(cents, 2));
+      }
+   }//end Summary
+
+}//end ChainReport
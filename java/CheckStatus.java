@@ -0,0 +1,46 @@
+/**
+ * This class lists the results of the server side workflow functions in
+ * sql/functions.sql (assign_house_cleaning, repair_request). The codes are
+ * the integers those functions return.
+ */
+
+public enum CheckStatus {
+
+   OK (0, "OK"),
+   WRONG_ROLE (1, "Given Staff SSN is not a %s"),
+   WRONG_HOTEL (2, "Given Staff SSN does not work at the given Hotel ID"),
+   NO_ROOM (3, "Given Room ID does not exist at the given Hotel ID");
+
+   private final int _code;
+   private final String _message;
+
+   CheckStatus (int code, String message) {
+      this._code = code;
+      this._message = message;
+   }//end CheckStatus
+
+   public int getCode () { return this._code; }
+
+   /**
+    * Method to get the status a function returned
+    *
+    * @param code the integer returned by the function
+    * @throws IllegalArgumentException for a code not listed here
+    */
+   public static CheckStatus of (int code) {
+      for (CheckStatus s : values())
+         if (s._code == code)
+            return s;
+      throw new IllegalArgumentException("Unknown status code " + code);
+   }//end of
+
+   /**
+    * Method to get the message shown to the user
+    *
+    * @param role the role the staff member needed, e.g. Manager
+    */
+   public String message (String role) {
+      return String.format(this._message, role);
+   }//end message
+
+}//end CheckStatus
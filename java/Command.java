@@ -0,0 +1,199 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is one operation of the menu given as a JSON object instead
+ * of keyboard input, e.g.
+ *
+ *   {"op":"bookRoom","hotelID":12,"roomNo":3,"customerID":58,
+ *    "bookingDate":"03/14/2018","noOfPeople":2,"price":120.50}
+ *
+ * "op" is the name of the DBProject method and the other members are its
+ * inputs (see execute for the names). Where a customer name is asked for,
+ * "customerID" may be given instead of "fName" and "lName". Dates are
+ * strings in any format parseDate accepts.
+ */
+
+public class Command {
+
+   // operations that write; the rest only read
+   private static final Set<String> WRITES = new HashSet<String>(Arrays.asList(
+      "addCustomer", "addRoom", "addMaintenanceCompany", "addRepair", "bookRoom",
+      "assignHouseCleaningToRoom", "repairRequest"));
+
+   private static final Set<String> READS = new HashSet<String>(Arrays.asList(
+      "numberOfAvailableRooms", "numberOfBookedRooms", "listHotelRoomBookingsForAWeek",
+      "topKHighestRoomPriceForADateRange", "topKHighestPriceBookingsForACustomer",
+      "totalCostForCustomer", "listRepairsMade", "topKMaintenanceCompany",
+      "numberOfRepairsForEachRoomPerYear", "revenueByHotel", "chainOccupancy"));
+
+   public final String op;
+   public final int line;
+   private final Map<String, Object> _args;
+
+   public Command (String op, Map<String, Object> args, int line) {
+      if (!WRITES.contains(op) && !READS.contains(op))
+         throw new IllegalArgumentException("unknown op \"" + op + "\"");
+      this.op = op;
+      this._args = args;
+      this.line = line;
+   }//end Command
+
+   /**
+    * Method to read a command from one line of JSON
+    *
+    * @param json the JSON object
+    * @param line the line number, for error messages
+    * @throws IllegalArgumentException when the JSON or the op is not valid
+    */
+   public static Command parse (String json, int line) {
+      Map<String, Object> args = Json.parseObject(json);
+      Object op = args.get("op");
+      if (!(op instanceof String))
+         throw new IllegalArgumentException("missing \"op\"");
+      return new Command((String) op, args, line);
+   }//end parse
+
+   public boolean isWrite () {
+      return WRITES.contains(this.op);
+   }//end isWrite
+
+   /**
+    * Method to tell whether the command may share a transaction with other
+    * writes. addRoom may not: its room number comes from RoomNoAllocator,
+    * whose update must not be rolled back after the number was handed out.
+    */
+   public boolean isGroupable () {
+      return isWrite() && !this.op.equals("addRoom");
+   }//end isGroupable
+
+   /**
+    * Method to run the command
+    *
+    * @param ops the operations to run it with
+    * @param out where query results are written
+    * @return the new ID for a write, the number of rows or the count for a read
+    * @throws OpException when a check of the operation fails
+    * @throws IllegalArgumentException when an input is missing or malformed
+    */
+   public int execute (HotelStore ops, ResultWriter out) throws SQLException, OpException {
+      switch (this.op) {
+         case "addCustomer":
+            return ops.addCustomer(string("fName"), string("lName"), string("address"),
+                                   decimal("phNo").longValue(), date("DOB"), string("gender"));
+         case "addRoom":
+            return ops.addRoom(integer("hotelID"), string("roomType"));
+         case "addMaintenanceCompany":
+            return ops.addMaintenanceCompany(string("name"), string("address"), bool("isCertified"));
+         case "addRepair":
+            return ops.addRepair(integer("hotelID"), integer("roomNo"), integer("mCompany"), date("repairDate"),
+                                 optString("description"), optString("repairType"));
+         case "bookRoom":
+            return ops.bookRoom(integer("hotelID"), integer("roomNo"), customer(ops), date("bookingDate"),
+                                integer("noOfPeople"), decimal("price"));
+         case "assignHouseCleaningToRoom":
+            return ops.assignHouseCleaningToRoom(integer("staffID"), integer("hotelID"), integer("roomNo"));
+         case "repairRequest":
+            return ops.repairRequest(integer("hotelID"), integer("staffID"), integer("roomNo"), date("requestDate"));
+         case "numberOfAvailableRooms": {
+            int count = ops.numberOfAvailableRooms(integer("hotelID"), has("date") ? date("date") : null,
+                                                   has("nights") ? integer("nights") : 1);
+            out.begin(new String[] { "count" }, new boolean[] { true });
+            out.row(count);
+            out.end();
+            return count;
+         }
+         case "numberOfBookedRooms":
+            return ops.numberOfBookedRooms(integer("hotelID"), out);
+         case "listHotelRoomBookingsForAWeek":
+            return ops.listHotelRoomBookingsForAWeek(integer("hotelID"), date("date"), out);
+         case "topKHighestRoomPriceForADateRange":
+            return ops.topKHighestRoomPriceForADateRange(date("from"), date("to"), integer("k"), out);
+         case "topKHighestPriceBookingsForACustomer":
+            return ops.topKHighestPriceBookingsForACustomer(customer(ops), integer("k"), out);
+         case "totalCostForCustomer":
+            return ops.totalCostForCustomer(customer(ops), integer("hotelID"), date("from"), date("to"), out);
+         case "listRepairsMade":
+            return ops.listRepairsMade(string("name"), out);
+         case "topKMaintenanceCompany":
+            return ops.topKMaintenanceCompany(integer("k"), out);
+         case "numberOfRepairsForEachRoomPerYear":
+            return ops.numberOfRepairsForEachRoomPerYear(integer("hotelID"), integer("roomNo"), out);
+         case "revenueByHotel":
+            return ops.revenueByHotel(date("from"), date("to"), out);
+         case "chainOccupancy":
+            return ops.chainOccupancy(date("from"), has("days") ? integer("days") : 7, out);
+         default:
+            throw new IllegalArgumentException("unknown op \"" + this.op + "\"");
+      }//end switch
+   }//end execute
+
+   public boolean has (String name) {
+      return this._args.get(name) != null;
+   }//end has
+
+   private Object arg (String name) {
+      Object v = this._args.get(name);
+      if (v == null)
+         throw new IllegalArgumentException("missing \"" + name + "\"");
+      return v;
+   }//end arg
+
+   private String string (String name) {
+      return arg(name).toString();
+   }//end string
+
+   private String optString (String name) {
+      return has(name) ? string(name) : null;
+   }//end optString
+
+   private BigDecimal decimal (String name) {
+      Object v = arg(name);
+      try {
+         return v instanceof BigDecimal ? (BigDecimal) v : new BigDecimal(v.toString().trim());
+      }catch (NumberFormatException e) {
+         throw new IllegalArgumentException("\"" + name + "\" is not a number");
+      }//end try
+   }//end decimal
+
+   private int integer (String name) {
+      try {
+         return decimal(name).intValueExact();
+      }catch (ArithmeticException e) {
+         throw new IllegalArgumentException("\"" + name + "\" is not an integer");
+      }//end try
+   }//end integer
+
+   private boolean bool (String name) {
+      Object v = arg(name);
+      return v instanceof Boolean ? (Boolean) v : Boolean.parseBoolean(v.toString().trim());
+   }//end bool
+
+   private java.sql.Date date (String name) {
+      try {
+         return DBProject.parseDate(string(name));
+      }catch (ParseException e) {
+         throw new IllegalArgumentException("\"" + name + "\": " + e.getMessage());
+      }//end try
+   }//end date
+
+   /*
+    * The customerID member, or the only customer named fName lName.
+    */
+   private int customer (HotelStore ops) throws SQLException, OpException {
+      if (has("customerID"))
+         return integer("customerID");
+      int[] ids = ops.customerIDs(string("fName"), string("lName"));
+      if (ids.length == 0)
+         throw new OpException("User does not exist in customer database");
+      if (ids.length > 1)
+         throw new OpException("There are " + ids.length + " customers with that name " + Arrays.toString(ids) + ", give customerID");
+      return ids[0];
+   }//end customer
+
+}//end Command
@@ -0,0 +1,317 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Callers check a connection out, use it, and return it with checkin.
+ *
+ * A thread that already holds a connection gets the same connection back
+ * from a nested checkout, so executeQuery/executeUpdate can be called from
+ * inside an operation that has already checked out a connection.
+ *
+ * Every physical connection carries its own StatementCache, which lives as
+ * long as the connection does.
+ */
+
+public class ConnectionPool {
+
+   // connection settings
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   // maximum number of physical connections open at the same time
+   private final int _maxSize;
+
+   // how long checkout waits for a free connection before failing
+   private final long _maxWaitMillis;
+
+   // idle connections older than this are validated before reuse
+   private final long _validateAfterMillis;
+
+   // one permit per connection that may be handed out
+   private final Semaphore _permits;
+
+   // connections that are open but not checked out, most recent first
+   private final LinkedBlockingDeque<Idle> _idle = new LinkedBlockingDeque<Idle>();
+
+   // prepared statement cache of each open connection
+   private final ConcurrentHashMap<Connection, StatementCache> _statements =
+      new ConcurrentHashMap<Connection, StatementCache>();
+   private final int _statementCacheSize;
+   private final int _serverPrepareThreshold;
+
+   // the connection held by the current thread (for nested checkouts)
+   private final ThreadLocal<Lease> _lease = new ThreadLocal<Lease>();
+
+   private volatile boolean _closed = false;
+
+   // whether new connections are opened read-only
+   private volatile boolean _readOnly = false;
+
+   // metrics
+   private final AtomicLong _checkouts = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+   private final AtomicLong _maxWaitNanos = new AtomicLong();
+   private final AtomicLong _timeouts = new AtomicLong();
+   private final AtomicLong _created = new AtomicLong();
+   private final AtomicLong _discarded = new AtomicLong();
+
+   /**
+    * Creates a new pool. No connection is opened until the first checkout.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of physical connections
+    * @param maxWaitMillis how long a checkout may wait for a free connection
+    */
+   public ConnectionPool (String url, String user, String passwd, int maxSize, long maxWaitMillis) {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("pool size must be at least 1");
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = maxSize;
+      this._maxWaitMillis = maxWaitMillis;
+      this._validateAfterMillis = Long.getLong("pool.validateAfterMillis", 30000L);
+      this._permits = new Semaphore(maxSize, true);
+      this._statementCacheSize = Integer.getInteger("statements.cacheSize", 64);
+      this._serverPrepareThreshold = Integer.getInteger("statements.serverPrepareAfter", 5);
+   }//end ConnectionPool
+
+   /**
+    * Method to check out a connection. Reuses an idle connection when one is
+    * available, otherwise opens a new one as long as the pool is below its
+    * maximum size.
+    *
+    * @return a connection owned by the calling thread until checkin
+    * @throws java.sql.SQLException when no connection became free in time
+    */
+   public Connection checkout () throws SQLException {
+      Lease held = this._lease.get();
+      if (held != null) {
+         held.depth++;
+         return held.conn;
+      }//end if
+      if (this._closed)
+         throw new SQLException("Connection pool is closed");
+
+      long start = System.nanoTime();
+      boolean acquired;
+      try {
+         acquired = this._permits.tryAcquire(this._maxWaitMillis, TimeUnit.MILLISECONDS);
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a connection");
+      }//end try
+      long waited = System.nanoTime() - start;
+      this._waitNanos.addAndGet(waited);
+      updateMax(this._maxWaitNanos, waited);
+      if (!acquired) {
+         this._timeouts.incrementAndGet();
+         throw new SQLException("Timed out after " + this._maxWaitMillis + " ms waiting for a database connection");
+      }//end if
+
+      try {
+         Connection conn = takeIdle();
+         if (conn == null)
+            conn = open();
+         this._lease.set(new Lease(conn));
+         this._checkouts.incrementAndGet();
+         return conn;
+      }catch (SQLException e) {
+         this._permits.release();
+         throw e;
+      }//end try
+   }//end checkout
+
+   /**
+    * Method to return a connection to the pool. Any open transaction is
+    * rolled back so the next user starts in autocommit mode.
+    *
+    * @param conn the connection obtained from checkout, may be null
+    */
+   public void checkin (Connection conn) {
+      if (conn == null)
+         return;
+      Lease held = this._lease.get();
+      if (held == null || held.conn != conn)
+         throw new IllegalStateException("Connection was not checked out by this thread");
+      if (--held.depth > 0)
+         return;
+      this._lease.remove();
+
+      boolean reusable = !this._closed;
+      try {
+         if (conn.isClosed()) {
+            reusable = false;
+         } else if (!conn.getAutoCommit()) {
+            conn.rollback();
+            conn.setAutoCommit(true);
+         }//end if
+      }catch (SQLException e) {
+         reusable = false;
+      }//end try
+
+      if (reusable)
+         this._idle.offerFirst(new Idle(conn, System.currentTimeMillis()));
+      else
+         discard(conn);
+      this._permits.release();
+   }//end checkin
+
+   /**
+    * Method to get the connection the calling thread has checked out, or
+    * null when it holds none.
+    */
+   public Connection held () {
+      Lease held = this._lease.get();
+      return held == null ? null : held.conn;
+   }//end held
+
+   /**
+    * Method to open every new connection read-only, e.g. for a pool of
+    * replica connections. Connections already open are left as they are.
+    */
+   public void setReadOnly (boolean readOnly) {
+      this._readOnly = readOnly;
+   }//end setReadOnly
+
+   /**
+    * Method to get the statement cache of a connection obtained from
+    * checkout. The cache must only be used while the connection is held.
+    *
+    * @param conn a checked out connection
+    * @return the statement cache bound to that connection
+    */
+   public StatementCache statements (Connection conn) {
+      StatementCache cache = this._statements.get(conn);
+      if (cache == null) {
+         cache = new StatementCache(conn, this._statementCacheSize, this._serverPrepareThreshold);
+         this._statements.put(conn, cache);
+      }//end if
+      return cache;
+   }//end statements
+
+   /**
+    * Method to close every idle connection and refuse further checkouts.
+    * Connections still checked out are closed when they are returned.
+    */
+   public void close () {
+      this._closed = true;
+      Idle idle;
+      while ((idle = this._idle.pollFirst()) != null)
+         discard(idle.conn);
+   }//end close
+
+   /**
+    * Method to describe the pool state and wait-time metrics in one line.
+    */
+   public String stats () {
+      long checkouts = this._checkouts.get();
+      double avgWaitMs = checkouts == 0 ? 0.0 : this._waitNanos.get() / 1e6 / checkouts;
+      return String.format(
+         "pool max=%d open=%d idle=%d checkouts=%d avgWait=%.3fms maxWait=%.3fms timeouts=%d created=%d discarded=%d",
+         this._maxSize, openCount(), this._idle.size(), checkouts, avgWaitMs,
+         this._maxWaitNanos.get() / 1e6, this._timeouts.get(), this._created.get(), this._discarded.get());
+   }//end stats
+
+   public int getMaxSize () { return this._maxSize; }
+   public int getIdleCount () { return this._idle.size(); }
+   public int getOpenCount () { return openCount(); }
+   public long getCheckoutCount () { return this._checkouts.get(); }
+   public long getTotalWaitNanos () { return this._waitNanos.get(); }
+   public long getMaxWaitNanos () { return this._maxWaitNanos.get(); }
+   public long getTimeoutCount () { return this._timeouts.get(); }
+
+   private int openCount () {
+      return (int) (this._created.get() - this._discarded.get());
+   }//end openCount
+
+   /*
+    * Pops idle connections until one passes validation. Connections that
+    * sat idle for longer than the validation interval are probed with a
+    * trivial query; broken ones are closed and skipped.
+    */
+   private Connection takeIdle () {
+      Idle idle;
+      while ((idle = this._idle.pollFirst()) != null) {
+         if (System.currentTimeMillis() - idle.since < this._validateAfterMillis)
+            return idle.conn;
+         if (isUsable(idle.conn))
+            return idle.conn;
+         discard(idle.conn);
+      }//end while
+      return null;
+   }//end takeIdle
+
+   private boolean isUsable (Connection conn) {
+      try {
+         if (conn.isClosed())
+            return false;
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.executeQuery("SELECT 1").close();
+         } finally {
+            stmt.close();
+         }//end try
+         return true;
+      }catch (SQLException e) {
+         return false;
+      }//end try
+   }//end isUsable
+
+   private Connection open () throws SQLException {
+      Connection conn = DriverManager.getConnection(this._url, this._user, this._passwd);
+      this._created.incrementAndGet();
+      if (this._readOnly) {
+         try {
+            conn.setReadOnly(true);
+         }catch (SQLException e) {
+            discard(conn);
+            throw e;
+         }//end try
+      }//end if
+      return conn;
+   }//end open
+
+   private void discard (Connection conn) {
+      this._discarded.incrementAndGet();
+      StatementCache cache = this._statements.remove(conn);
+      if (cache != null)
+         cache.close();
+      try {
+         conn.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end discard
+
+   private static void updateMax (AtomicLong max, long value) {
+      long cur;
+      while (value > (cur = max.get()) && !max.compareAndSet(cur, value)) {
+         // retry
+      }//end while
+   }//end updateMax
+
+   private static class Idle {
+      final Connection conn;
+      final long since;
+      Idle (Connection conn, long since) { this.conn = conn; this.since = since; }
+   }//end Idle
+
+   private static class Lease {
+      final Connection conn;
+      int depth = 1;
+      Lease (Connection conn) { this.conn = conn; }
+   }//end Lease
+
+}//end ConnectionPool
@@ -11,9 +11,9 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,11 +21,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Calendar;
 import java.util.Scanner;
 import java.text.ParseException;
+import java.text.ParsePosition;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -35,8 +37,44 @@ import java.text.ParseException;
 
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all operations.
+   private ConnectionPool _pool = null;
+
+   // read-only reports go to the replica when -Dreplica.port is set
+   private ReplicaRouter _replica = null;
+
+   // hands out new primary keys and room numbers in blocks
+   private IdGenerator _ids = null;
+
+   // buffered writer all query results go through, and the cursor fetch size
+   private ResultWriter _out = new ResultWriter(System.out, ResultWriter.configuredFormat());
+   private int _fetchSize = Integer.getInteger("output.fetchSize", 500);
+
+   // which rooms are booked on which day, built from Booking at startup
+   private OccupancyIndex _occupancy = null;
+   // bookings ordered by price, for the top K queries
+   private TopKIndex _topK = null;
+   // customer name to customer IDs
+   private NameCache _names = null;
+   // repair counts per company and per room and year
+   private RepairIndex _repairs = null;
+   // booking prices summed per (customer, hotel) and hotel by month
+   private SpendRollup _spend = null;
+   // local log new bookings are acknowledged from, when -Dbookings.log is set
+   private BookingLog _bookingLog = null;
+   // books rooms under per-room lock stripes, when bookings are not logged
+   private ReservationCoordinator _reservations = null;
+   // reports over every hotel, run in parallel over ranges of hotelIDs
+   private ChainReport _chain = null;
+
+   // the operations of the menu, without the keyboard input
+   private final HotelOps _ops = new HotelOps(this);
+
+   // latency, round trips, rows and connection wait of every operation
+   private final Metrics _metrics = new Metrics();
+
+   // writes of each thread that are grouped into one transaction
+   private final ThreadLocal<Batch> _batch = new ThreadLocal<Batch>();
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -60,9 +98,87 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // set up the connection pool; size and wait limit can be tuned
+         // with -Dpool.maxSize=N and -Dpool.maxWaitMillis=N
+         int maxSize = Integer.getInteger("pool.maxSize", 8);
+         long maxWait = Long.getLong("pool.maxWaitMillis", 30000L);
+         this._pool = new ConnectionPool(url, user, passwd, maxSize, maxWait);
+         if (System.getProperty("replica.port") != null)
+            this._replica = new ReplicaRouter(dbname, user, passwd);
+         this._ids = new IdGenerator(this, Integer.getInteger("ids.roomBlockSize", 1));
+         this._names = new NameCache(this, Integer.getInteger("names.cacheSize", 10000));
+         this._metrics.register();
+         if (System.getProperty("metrics.log") != null)
+            this._metrics.logTo(System.getProperty("metrics.log"), Long.getLong("metrics.logSeconds", 60L));
+
+         // obtain a first physical connection to make sure the database is up
+         this.releaseConnection(this.getConnection());
          System.out.println("Done");
+
+         // the queries below read the column types of the current schema;
+         // migrating is left to SchemaMigration or BulkLoader
+         Connection conn = this.getConnection();
+         try {
+            int version = SchemaMigration.version(conn);
+            if (version < SchemaMigration.CURRENT)
+               throw new IllegalStateException("Schema version " + version + " of " + SchemaMigration.CURRENT +
+                                               ", run SchemaMigration <db> <port> <user> migrate first");
+         } finally {
+            this.releaseConnection(conn);
+         }//end try
+
+         // Booking partitions for the coming quarters, only when asked for
+         // with -Dpartitions.ahead; usually PartitionManager ahead runs from cron
+         int ahead = Integer.getInteger("partitions.ahead", 0);
+         if (ahead > 0) {
+            try {
+               new PartitionManager(this).createAhead(ahead);
+            }catch (SQLException e) {
+               System.err.println("Unable to create booking partitions: " + e.getMessage());
+            }//end try
+         }//end if
+
+         // insert the bookings an earlier run logged but did not apply
+         // before anything reads Booking
+         if (System.getProperty("bookings.log") != null)
+            this._bookingLog = new BookingLog(this, System.getProperty("bookings.log"));
+
+         // with -Dsnapshot.file the indexes start from the snapshot and
+         // only read the rows inserted since
+         Snapshot snap = null;
+         String snapFile = System.getProperty("snapshot.file");
+         if (snapFile != null && new java.io.File(snapFile).exists()) {
+            try {
+               snap = Snapshot.open(snapFile);
+               if (!snap.isCurrent(this)) {
+                  System.err.println("Ignoring snapshot " + snapFile + ": taken from another database or before a wraparound");
+                  snap = null;
+               }//end if
+            }catch (java.io.IOException e) {
+               System.err.println("Ignoring snapshot: " + e.getMessage());
+            }//end try
+         }//end if
+
+         long loadStart = System.currentTimeMillis();
+         System.out.print("Building room occupancy index...");
+         this._occupancy = OccupancyIndex.load(this, snap);
+         System.out.println(this._occupancy.stats());
+         System.out.print("Building booking price index...");
+         this._topK = TopKIndex.load(this, snap);
+         System.out.println(this._topK.stats());
+         System.out.print("Building repair count index...");
+         this._repairs = RepairIndex.load(this, snap);
+         System.out.println(this._repairs.stats());
+         System.out.print("Building spend rollup...");
+         this._spend = SpendRollup.load(this, snap);
+         System.out.println(this._spend.stats());
+         this._reservations = new ReservationCoordinator(this, Integer.getInteger("reserve.stripes", 256));
+         this._chain = new ChainReport(this, Integer.getInteger("reports.parallelism", maxSize));
+         System.out.println("Indexes built in " + (System.currentTimeMillis() - loadStart) + " ms" +
+                            (snap == null ? "" : " from " + snapFile + " and the rows inserted since"));
+      }catch (IllegalStateException e){
+         System.err.println("Error - " + e.getMessage());
+         System.exit(-1);
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -74,74 +190,511 @@ public class DBProject {
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, with ? placeholders for the parameters
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows changed; always 1 inside a batch, where the
+    *         statement only runs when the batch is flushed
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      Connection conn = this.getConnection ();
+      try {
+         // gets the cached statement object for this query shape
+         PreparedStatement stmt = this.prepare (conn, sql);
+         StatementCache.bind (stmt, params);
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // inside a batch, queue it with the other runs of the same statement
+         Batch batch = this._batch.get ();
+         if (batch != null) {
+            stmt.addBatch ();
+            batch.pending = stmt;
+            batch.pendingSql = sql;
+            return 1;
+         }//end if
 
-      // close the instruction
-      stmt.close ();
+         // issues the update instruction
+         this._metrics.roundTrip ();
+         return stmt.executeUpdate ();
+      } finally {
+         this.releaseConnection (conn);
+      }//end try
    }//end executeUpdate
 
+   /**
+    * Method to call one of the workflow functions of sql/functions.sql,
+    * e.g. SELECT assign_house_cleaning(?, ?, ?, ?). The function checks and
+    * writes in one round trip and one transaction.
+    *
+    * @param sql the call, with ? placeholders for the parameters
+    * @param params the values bound to the placeholders, in order
+    * @return the status the function returned
+    * @throws java.sql.SQLException when the call failed
+    */
+   public CheckStatus executeCheck (String sql, Object... params) throws SQLException {
+      Connection conn = this.getConnection ();
+      try {
+         PreparedStatement stmt = this.prepare (conn, sql);
+         StatementCache.bind (stmt, params);
+         ResultSet rs = this.fetch (stmt);
+         try {
+            rs.next ();
+            this._metrics.rows (1);
+            return CheckStatus.of (rs.getInt (1));
+         } finally {
+            rs.close ();
+         }//end try
+      } finally {
+         this.releaseConnection (conn);
+      }//end try
+   }//end executeCheck
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string, with ? placeholders for the parameters
+    * @param params the values bound to the placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
+   public int executeQuery (String query, Object... params) throws SQLException {
+      Connection conn = this.getConnection ();
+      try {
+         // gets the cached statement object for this query shape
+         PreparedStatement stmt = this.prepare (conn, query);
+         StatementCache.bind (stmt, params);
+
+         // issues the query instruction and outputs the rows
+         return this.stream (conn, stmt);
+      } finally {
+         this.releaseConnection (conn);
+      }//end try
    }//end executeQuery
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to run a bound query and stream its rows to the output writer.
+    * The rows are read through a server-side cursor, fetchSize rows at a
+    * time (-Doutput.fetchSize), so a large result is never held in memory.
+    * Postgres only keeps a cursor open inside a transaction, so one is
+    * opened for the duration of the query when the connection is in
+    * autocommit mode.
+    *
+    * @param conn the connection the statement was prepared on
+    * @param stmt the query with its parameters bound
+    * @return the number of rows written
+    * @throws java.sql.SQLException when failed to execute the query
     */
-   public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
+   public int stream (Connection conn, PreparedStatement stmt) throws SQLException {
+      return this.stream (conn, stmt, this._out);
+   }//end stream
+
+   /**
+    * Method to run a bound query and stream its rows to a given writer, see
+    * stream(Connection, PreparedStatement).
+    */
+   public int stream (Connection conn, PreparedStatement stmt, ResultWriter out) throws SQLException {
+      boolean autoCommit = conn.getAutoCommit ();
+      if (autoCommit)
+         conn.setAutoCommit (false);
+      boolean done = false;
+      try {
+         stmt.setFetchSize (this._fetchSize);
+         ResultSet rs = this.fetch (stmt);
+         int rows;
+         try {
+            rows = out.write (rs);
+         } finally {
+            rs.close ();
+         }//end try
+         this._metrics.rows (rows);
+         if (autoCommit) {
+            this._metrics.roundTrip ();
+            conn.commit ();
          }//end if
-      }catch (SQLException e){
-         // ignored.
+         done = true;
+         return rows;
+      } finally {
+         if (autoCommit && done) {
+            conn.setAutoCommit (true);
+         } else if (autoCommit) {
+            // a failed read is rolled back; a failing rollback must not hide why
+            try {
+               conn.rollback ();
+               conn.setAutoCommit (true);
+            }catch (SQLException e) {
+               System.err.println (e.getMessage ());
+            }//end try
+         }//end if
+      }//end try
+   }//end stream
+
+   /**
+    * Method to run a bound query from prepare, counting the round trip.
+    * Use it instead of stmt.executeQuery() so Metrics sees every statement.
+    *
+    * @param stmt the query with its parameters bound
+    * @return the result set, to be closed by the caller
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ResultSet fetch (PreparedStatement stmt) throws SQLException {
+      this._metrics.roundTrip ();
+      return stmt.executeQuery ();
+   }//end fetch
+
+   /**
+    * Method to run a bound update from prepare right away, counting the
+    * round trip. Unlike executeUpdate it is never deferred to a batch.
+    *
+    * @param stmt the update with its parameters bound
+    * @return the number of rows changed
+    * @throws java.sql.SQLException when the update failed
+    */
+   public int update (PreparedStatement stmt) throws SQLException {
+      this._metrics.roundTrip ();
+      return stmt.executeUpdate ();
+   }//end update
+
+   /**
+    * Method to get the prepared statement for a query on a connection from
+    * getConnection. Statements are cached per connection and must not be
+    * closed by the caller.
+    *
+    * @param conn a connection obtained from getConnection
+    * @param sql the query with ? placeholders
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (Connection conn, String sql) throws SQLException {
+      // queued updates of another statement run first, so statements keep their order
+      Batch batch = this._batch.get ();
+      if (batch != null && batch.pending != null && !batch.pendingSql.equals (sql)) {
+         this._metrics.roundTrip ();
+         batch.flush ();
+      }//end if
+      if (this._replica != null && this._replica.holds (conn))
+         return this._replica.statements (conn).prepare (sql);
+      return this._pool.statements (conn).prepare (sql);
+   }//end prepare
+
+   /**
+    * Method to run a read-only query and stream its rows to a writer. The
+    * query runs on the replica when one is configured and usable (see
+    * ReplicaRouter), and on the primary otherwise or when the replica
+    * fails before writing anything. A replica that fails partway through
+    * the rows is marked failed and the exception thrown, so no line is
+    * written twice.
+    *
+    * @param out the writer the rows go to
+    * @param sql the query, with ? placeholders for the parameters
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows written
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeRead (ResultWriter out, String sql, Object... params) throws SQLException {
+      Connection conn = this.getReadConnection ();
+      long written = out.lines ();
+      try {
+         PreparedStatement stmt = this.prepare (conn, sql);
+         StatementCache.bind (stmt, params);
+         return this.stream (conn, stmt, out);
+      }catch (SQLException e) {
+         if (!this.replicaFailed (conn, e) || out.lines () != written)
+            throw e;
+      } finally {
+         this.releaseConnection (conn);
       }//end try
+      // the replica failed; read from the primary instead
+      conn = this.getConnection ();
+      try {
+         PreparedStatement stmt = this.prepare (conn, sql);
+         StatementCache.bind (stmt, params);
+         return this.stream (conn, stmt, out);
+      } finally {
+         this.releaseConnection (conn);
+      }//end try
+   }//end executeRead
+
+   /**
+    * Method to tell whether a read that failed on a connection should be
+    * run again on the primary, which it should when the connection was a
+    * replica one. The replica is then marked failed (see ReplicaRouter).
+    *
+    * @param conn the connection the read failed on
+    * @param e the failure
+    */
+   public boolean replicaFailed (Connection conn, SQLException e) {
+      if (this._replica == null || !this._replica.holds (conn))
+         return false;
+      this._replica.failed (e);
+      return true;
+   }//end replicaFailed
+
+   /**
+    * Method to start grouping the writes of the calling thread into one
+    * transaction. Until commitBatch or rollbackBatch, every operation of
+    * this thread runs on one connection with autocommit off, and
+    * consecutive executeUpdate calls of the same statement are sent as one
+    * JDBC batch.
+    *
+    * @throws java.sql.SQLException when no connection is available
+    */
+   public void beginBatch () throws SQLException {
+      if (this._batch.get () != null)
+         throw new IllegalStateException ("a batch is already open on this thread");
+      Connection conn = this.getConnection ();
+      try {
+         conn.setAutoCommit (false);
+      }catch (SQLException e) {
+         this.releaseConnection (conn);
+         throw e;
+      }//end try
+      this._batch.set (new Batch (conn));
+   }//end beginBatch
+
+   /**
+    * Method to send the queued updates, commit the batch and run the
+    * afterCommit actions. On failure the batch is rolled back instead and
+    * the exception thrown. An afterCommit action that throws is reported
+    * on stderr and the other actions still run; the batch stays committed.
+    *
+    * @throws java.sql.SQLException when a queued update or the commit failed
+    */
+   public void commitBatch () throws SQLException {
+      Batch batch = this._batch.get ();
+      try {
+         if (batch.pending != null)
+            this._metrics.roundTrip ();
+         batch.flush ();
+         this._metrics.roundTrip ();
+         batch.conn.commit ();
+      }catch (SQLException e) {
+         this.rollbackBatch ();
+         throw e;
+      }//end try
+      this._batch.remove ();
+      this.releaseConnection (batch.conn);
+      // the batch is committed now; an action that fails must not make
+      // the caller think otherwise and run the writes again
+      for (Runnable r : batch.onCommit) {
+         try {
+            r.run ();
+         }catch (RuntimeException e) {
+            System.err.println ("After commit: " + e);
+         }//end try
+      }//end for
+   }//end commitBatch
+
+   /**
+    * Method to drop the batch of the calling thread and run its onRollback
+    * actions, last registered first.
+    */
+   public void rollbackBatch () {
+      Batch batch = this._batch.get ();
+      if (batch == null)
+         return;
+      this._batch.remove ();
+      try {
+         if (batch.pending != null)
+            batch.pending.clearBatch ();
+         batch.conn.rollback ();
+      }catch (SQLException e) {
+         System.err.println (e.getMessage ());
+      }//end try
+      this.releaseConnection (batch.conn);
+      for (int i = batch.onRollback.size () - 1; i >= 0; --i)
+         batch.onRollback.get (i).run ();
+   }//end rollbackBatch
+
+   /**
+    * Method to run an action once the current write is committed: at once
+    * outside a batch, at commitBatch inside one. Used to update the
+    * in-memory indexes.
+    */
+   public void afterCommit (Runnable action) {
+      Batch batch = this._batch.get ();
+      if (batch == null)
+         action.run ();
+      else
+         batch.onCommit.add (action);
+   }//end afterCommit
+
+   /**
+    * Method to register an action that undoes an in-memory change if the
+    * current batch is rolled back. Outside a batch the write has already
+    * committed and the action is dropped.
+    */
+   public void onRollback (Runnable action) {
+      Batch batch = this._batch.get ();
+      if (batch != null)
+         batch.onRollback.add (action);
+   }//end onRollback
+
+   /**
+    * Method to check out a connection from the pool. A thread that already
+    * holds a connection gets the same one back, so every call must be
+    * matched by releaseConnection.
+    *
+    * @return a connection reserved for the calling thread
+    * @throws java.sql.SQLException when no connection became free in time
+    */
+   public Connection getConnection () throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         return this._pool.checkout ();
+      } finally {
+         this._metrics.connectionWait (System.nanoTime () - start);
+      }//end try
+   }//end getConnection
+
+   /**
+    * Method to check out a connection for a read-only query: a replica
+    * connection when the replica is configured and usable, a primary one
+    * otherwise. Inside a batch, or while the thread holds a primary
+    * connection, it is that connection, so the thread reads its own
+    * writes. Must be matched by releaseConnection.
+    *
+    * @return a connection reserved for the calling thread
+    * @throws java.sql.SQLException when no connection became free in time
+    */
+   public Connection getReadConnection () throws SQLException {
+      if (this._replica == null || this.inBatch () || this._pool.held () != null)
+         return this.getConnection ();
+      long start = System.nanoTime ();
+      Connection conn = this._replica.checkout (this);
+      this._metrics.connectionWait (System.nanoTime () - start);
+      return conn != null ? conn : this.getConnection ();
+   }//end getReadConnection
+
+   /**
+    * Method to return a connection obtained from getConnection or
+    * getReadConnection to its pool.
+    *
+    * @param conn the connection to return, may be null
+    */
+   public void releaseConnection (Connection conn) {
+      if (this._replica != null && this._replica.holds (conn))
+         this._replica.checkin (conn);
+      else
+         this._pool.checkin (conn);
+   }//end releaseConnection
+
+   /**
+    * Method to get the generator for new primary keys and room numbers.
+    */
+   public IdGenerator ids () {
+      return this._ids;
+   }//end ids
+
+   /**
+    * Method to get the in-memory room occupancy index.
+    */
+   public OccupancyIndex occupancy () {
+      return this._occupancy;
+   }//end occupancy
+
+   /**
+    * Method to get the in-memory price ordered booking index.
+    */
+   public TopKIndex topK () {
+      return this._topK;
+   }//end topK
+
+   /**
+    * Method to get the in-memory repair counts.
+    */
+   public RepairIndex repairs () {
+      return this._repairs;
+   }//end repairs
+
+   /**
+    * Method to get the booking price rollup.
+    */
+   public SpendRollup spend () {
+      return this._spend;
+   }//end spend
+
+   /**
+    * Method to get the booking log, or null when bookings are inserted
+    * directly.
+    */
+   public BookingLog bookingLog () {
+      return this._bookingLog;
+   }//end bookingLog
+
+   /**
+    * Method to get the coordinator bookings are made through when they
+    * are not logged.
+    */
+   public ReservationCoordinator reservations () {
+      return this._reservations;
+   }//end reservations
+
+   /**
+    * Method to get the reports over every hotel.
+    */
+   public ChainReport chain () {
+      return this._chain;
+   }//end chain
+
+   /**
+    * Method to tell whether the calling thread is inside a batch.
+    */
+   public boolean inBatch () {
+      return this._batch.get () != null;
+   }//end inBatch
+
+   /**
+    * Method to get the customer name cache.
+    */
+   public NameCache names () {
+      return this._names;
+   }//end names
+
+   /**
+    * Method to get the per-operation metrics.
+    */
+   public Metrics metrics () {
+      return this._metrics;
+   }//end metrics
+
+   /**
+    * Method to get the operations of the menu in non-interactive form.
+    */
+   public HotelOps ops () {
+      return this._ops;
+   }//end ops
+
+   /**
+    * Method to get the writer query results are sent to.
+    */
+   public ResultWriter output () {
+      return this._out;
+   }//end output
+
+   /**
+    * Method to get the pool statistics (size, checkouts and wait times).
+    */
+   public String poolStats () {
+      return this._pool.stats ();
+   }//end poolStats
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      if (this._bookingLog != null){
+         this._bookingLog.close ();
+      }//end if
+      this._metrics.close ();
+      if (this._chain != null){
+         this._chain.close ();
+      }//end if
+      if (this._replica != null){
+         this._replica.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -192,7 +745,10 @@ public class DBProject {
 				System.out.println("14. List the repairs made by maintenance company");
 				System.out.println("15. Get top k maintenance companies based on repair count");
 				System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-				System.out.println("17. < EXIT");
+				System.out.println("17. Show operation statistics");
+				System.out.println("18. Get revenue per hotel for a date range");
+				System.out.println("19. Get occupancy of every hotel for a date range");
+				System.out.println("20. < EXIT");
 
             switch (readChoice()){
 				   case 1: addCustomer(esql); break;
@@ -211,7 +767,10 @@ public class DBProject {
 				   case 14: listRepairsMade(esql); break;
 				   case 15: topKMaintenanceCompany(esql); break;
 				   case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-				   case 17: keepon = false; break;
+				   case 17: showStatistics(esql); break;
+				   case 18: revenueByHotel(esql); break;
+				   case 19: chainOccupancy(esql); break;
+				   case 20: keepon = false; break;
 				   default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -221,6 +780,8 @@ public class DBProject {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               System.out.println(esql.poolStats ());
+               System.out.println(esql.names ().stats ());
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -257,20 +818,57 @@ public class DBProject {
       }while (true);
       return input;
    }//end readChoice
+
+   // date formats accepted from the keyboard, tried in order
+   private static final String[] DATE_FORMATS = { "MM/dd/yyyy", "yyyy-MM-dd", "yyyy/MM/dd" };
+
+   /*
+    * Parses a date typed by the user into a java.sql.Date for binding.
+    * Accepts MM/dd/yyyy (the format used in the data files), yyyy-MM-dd and
+    * yyyy/MM/dd; anything else is rejected instead of silently rolled over.
+    **/
+   public static java.sql.Date parseDate(String text) throws ParseException {
+      String t = text.trim();
+      for (String f : DATE_FORMATS) {
+         SimpleDateFormat fmt = new SimpleDateFormat(f);
+         fmt.setLenient(false);
+         ParsePosition pos = new ParsePosition(0);
+         Date d = fmt.parse(t, pos);
+         if (d != null && pos.getIndex() == t.length())
+            return new java.sql.Date(d.getTime());
+      }//end for
+      throw new ParseException("Unrecognized date: " + text + " (use MM/dd/yyyy)", 0);
+   }//end parseDate
+
+   /*
+    * Resolves a customer name to a customer ID through the name cache.
+    * When several customers share the name the user picks one of them.
+    * Returns -1 (after telling the user) when there is no such customer.
+    **/
+   public static int resolveCustomer(DBProject esql, String fName, String lName) throws Exception {
+      int[] ids = esql.names().lookup(fName, lName);
+      if (ids.length == 0) {
+         System.out.print("User does not exist in customer database\n");
+         return -1;
+      }//end if
+      if (ids.length == 1)
+         return ids[0];
+      System.out.println("There are " + ids.length + " customers with that name: " + java.util.Arrays.toString(ids));
+      do {
+         System.out.print("Enter the customer ID: ");
+         int id = Integer.parseInt(in.readLine().trim());
+         if (java.util.Arrays.binarySearch(ids, id) >= 0)
+            return id;
+         System.out.println("Not one of the listed IDs!");
+      }while (true);
+   }//end resolveCustomer
+   
+   
    
    
   public static void addCustomer(DBProject esql){
 	// Given customer details add the customer in the DB
 	try {
-     
-      //~ System.out.println("Enter the customer ID:");
-      //~ String cID = in.readLine();
-      	String query = "SELECT MAX(customerID) FROM Customer";
-		Statement stmt = esql._connection.createStatement();
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int cID = rs.getInt(1) + 1;
-		//System.out.print(cID);
       System.out.println("Enter the first name:");
       String fN = in.readLine();
       System.out.println("Enter the last name:");
@@ -278,19 +876,12 @@ public class DBProject {
       System.out.println("Enter the customer's address:");
       String addr = in.readLine();
       System.out.println("Enter the phone number:");
-      String phone = in.readLine();
-      System.out.println("Enter the date of birth:");
-      String DOB = in.readLine();
+      long phone = Long.parseLong(in.readLine().trim());
+      System.out.println("Enter the date of birth (MM/dd/yyyy):");
+      java.sql.Date DOB = parseDate(in.readLine());
       System.out.println("Enter Male/Female/Other for gender:");
 		String gender = in.readLine();
-		query = "INSERT INTO Customer (customerID,fName,lName,Address,phNo,DOB,gender) VALUES (";
-		query += cID + ",'" + fN + "','" + lN + "','" + addr + "'," + phone + ",'" + DOB + "','" + gender + "');";
-		//System.out.println(query);
-		esql.executeUpdate(query);
-
-		//~ String temp = "SELECT C.fname FROM Customer C WHERE C.customerID = ";
-		//~ temp += cID + ";";
-		//~ esql.executeQuery(temp);
+		esql.ops().addCustomer(fN, lN, addr, phone, DOB, gender);
 	}
 	catch (Exception e){
 		System.err.println (e.getMessage());
@@ -300,59 +891,32 @@ public class DBProject {
    public static void addRoom(DBProject esql){
 	  // Given room details add the room in the DB
 	try {
-     
       System.out.println("Enter the hotel ID:");
-      String hID = in.readLine();
-      String query = String.format("SELECT MAX(roomNo) FROM Room WHERE hotelID = '%s'", hID);
-		Statement stmt = esql._connection.createStatement();
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int rID = rs.getInt(1) + 1;
-		//System.out.println(rID);
-      //~ System.out.println("Enter the room number:");
-      //~ String rID = in.readLine();
+      int hID = Integer.parseInt(in.readLine());
       System.out.println("Enter the room type:");
 		String rTy = in.readLine();
-		query = "INSERT INTO ROOM (hotelID, roomNo, roomType) VALUES (";
-		query += hID + "," + rID + ",'" + rTy + "');";
-		//~ System.out.println(query);
-		esql.executeUpdate(query);
-
-		//~ String temp = "SELECT R.roomType FROM Room R WHERE R.hotelID = ";
-		//~ temp += hID + "AND R.roomNo = " + rID + ";";
-		//~ esql.executeQuery(temp);
+		//The room number is the next free one of the hotel
+		esql.ops().addRoom(hID, rTy);
 	}
 	catch (Exception e) {
 		System.err.println(e.getMessage());
 	}
-	
    }//end addRoom
 
    public static void addMaintenanceCompany(DBProject esql){
       // Given maintenance Company details add the maintenance company in the DB
 	try {
-		String query = "SELECT MAX(cmpID) FROM MaintenanceCompany";
-		Statement stmt = esql._connection.createStatement();
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int cmpID = rs.getInt(1) + 1;
-		//System.out.println(cmpID);
-		query = "INSERT INTO MaintenanceCompany (cmpID,name,address,isCertified) VALUES (";
-		//~ System.out.println("Enter the company ID:");
-		//~ String cmpID = in.readLine();
 		System.out.println("Enter the name of the company:");
 		String name = in.readLine();
 		System.out.println("Enter the address of the company:");
 		String addr = in.readLine();
 		System.out.println("Enter TRUE or FALSE if the company is certified:");
-		String isCer = in.readLine();
+		boolean isCer = Boolean.parseBoolean(in.readLine().trim());
 
-		query += cmpID + ",'" + name + "','" + addr + "','" + isCer + "');";
-		//System.out.println(query);
-		esql.executeUpdate(query);
+		int cmpID = esql.ops().addMaintenanceCompany(name, addr, isCer);
 
-		String temp = "SELECT M.name FROM MaintenanceCompany M WHERE M.cmpID = " + cmpID;
-		esql.executeQuery(temp);
+		String temp = "SELECT M.name FROM MaintenanceCompany M WHERE M.cmpID = ?";
+		esql.executeQuery(temp, cmpID);
 	}
 	catch (Exception e) {
 		System.err.println(e.getMessage());
@@ -361,19 +925,8 @@ public class DBProject {
 	//DONE KATHLEEN MAYBE
  public static void addRepair(DBProject esql){
 	  // Given repair details add repair in the DB
-      // Your code goes here.
 	try
 	{
-	  //Generate rID by incrementing from largest rID 
-		String query = "SELECT MAX(rID) FROM Repair";
-		Statement stmt = esql._connection.createStatement();
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int rID_i = rs.getInt(1) + 1;
-		//System.out.println(rID_i); // Testing that rID_i increments properly
-      //Read rID from User input
-	    //~ System.out.print("\nEnter rID: ");
-	    //~ int rID_i = Integer.parseInt(in.readLine());
 	  //Read hotelID from User input
 	  	System.out.print("\nEnter hotelID: ");
 		int hotelID_i = Integer.parseInt(in.readLine());
@@ -384,10 +937,8 @@ public class DBProject {
 	  	System.out.print("\nEnter mCompany: ");
 		int mCompany_i = Integer.parseInt(in.readLine());
 	  //Read repairDate from User input
-		System.out.print("\nEnter the repairDate (dd/mm/yyyy): ");
-		//String repairDate_i = in.readLine();
-		String dateFormat = "MM/dd/YYYY";
-		Date repairDate_i = new SimpleDateFormat(dateFormat).parse(in.readLine());
+		System.out.print("\nEnter the repairDate (MM/dd/yyyy): ");
+		java.sql.Date repairDate_i = parseDate(in.readLine());
 		
 		//Read description from User input
 		System.out.print("\nEnter a description: ");
@@ -397,32 +948,18 @@ public class DBProject {
 		System.out.print("\nEnter the repairType: ");
 		String repairType_i = in.readLine();
 		
-		//Execute Query
-		query = String.format("INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (%d, %d, %d, %d, '%s', '%s', '%s')", rID_i, hotelID_i, roomNo_i, mCompany_i, repairDate_i, description_i, repairType_i);
-	    esql.executeUpdate(query);
-	
+		esql.ops().addRepair(hotelID_i, roomNo_i, mCompany_i, repairDate_i, description_i, repairType_i);
 	}
 	catch(Exception e)
 	{
 		System.err.println(e.getMessage());
 	}
-		
    }//end addRepair
 	//DONE KATHLEEN MAYBE
    public static void bookRoom(DBProject esql){
 	  // Given hotelID, roomNo and customer Name create a booking in the DB 
-      // Your code goes here.
 		try
 		{
-		//Generate bID by incrementing from largest bID 	
-		String query = "SELECT MAX(bID) FROM Booking";
-		Statement stmt = esql._connection.createStatement();
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int bID_i = rs.getInt(1) + 1;
-		//System.out.println(bID_i); // Testing that bID_i increments properly
-    
-		
 		//Read hotelID from User input
 	  	System.out.print("\nEnter hotelID: ");
 		int hotelID_i = Integer.parseInt(in.readLine());
@@ -438,18 +975,17 @@ public class DBProject {
 		String lName_i = in.readLine();
 		
 		//Retrieve CustomerID
-		query = String.format("SELECT C.customerID FROM Customer C WHERE fName = '%s' AND lName ='%s'", fName_i, lName_i);
-		rs = stmt.executeQuery(query);
-		rs.next();
-		String customerID_i = rs.getString(1);
-		//System.out.println(customerID_i); //Testing proper customerID retrieval
-		
+		int customerID_i = resolveCustomer(esql, fName_i, lName_i);
+		if (customerID_i < 0)
+			return;
 
 		//Read bookingDate from User input
-		System.out.print("\nEnter the booking Date (dd/mm/yyyy): ");
-		//String bookingDate_i = in.readLine();
-		String dateFormat = "MM/dd/YYYY";
-		Date bookingDate_i = new SimpleDateFormat(dateFormat).parse(in.readLine());
+		System.out.print("\nEnter the booking Date (MM/dd/yyyy): ");
+		java.sql.Date bookingDate_i = parseDate(in.readLine());
+		if (!esql.occupancy().roomExists(hotelID_i, roomNo_i)) {
+			System.out.print("Given Room ID does not exist at the given Hotel ID\n");
+			return;
+		}
 		 
 		//Get Number of people from User
 		System.out.print("\nEnter the number of people: ");
@@ -457,9 +993,9 @@ public class DBProject {
 		
 		//Get Price from User
 		System.out.print("\nEnter the price of the book: ");
-		String price_i = in.readLine();
-		query = String.format("INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price ) VALUES (%d, %d, %d, %d, %d, '%s', %d, %.2d)", bID_i, customerID_i, hotelID_i, roomNo_i, bookingDate_i, noOfPeople_i, price_i);
-	    esql.executeUpdate(query);
+		BigDecimal price_i = new BigDecimal(in.readLine().trim());
+
+		esql.ops().bookRoom(hotelID_i, roomNo_i, customerID_i, bookingDate_i, noOfPeople_i, price_i);
 	    System.out.print("END bookRoom");
 		}
 		catch(Exception e)
@@ -470,121 +1006,41 @@ public class DBProject {
 	//DONE KATHLEEN MAYBE
    public static void assignHouseCleaningToRoom(DBProject esql){
 	  // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
-      // Your code goes here.
 		try
 		{
-		//Generate asgID by incrementing from largest asgID 	
-		String query = "SELECT MAX(asgID) FROM Assigned";
-		Statement stmt = esql._connection.createStatement();
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int asgID_i = rs.getInt(1) + 1;
-		
-		//System.out.println(asgID_i); // Testing that asgID_i increments properly
-		
 		//Read SSN from User input
 	  	System.out.print("\nEnter Staff SSN: ");
 		int staffID_i = Integer.parseInt(in.readLine());
-		String staff_check_query = String.format("SELECT S FROM Staff S WHERE S.SSN = %d AND role = 'HouseCleaning'", staffID_i);
-		rs = stmt.executeQuery(staff_check_query);
-		if (rs.next() == false){
-			System.out.print("Given Staff SSN is not a HouseCleaning\n");
-			return;
-		}
 		//Read hotelID from User input
 	  	System.out.print("\nEnter hotelID: ");
 		int hotelID_i = Integer.parseInt(in.readLine());
-		String staff_hotel_check = String.format("SELECT S FROM Staff S WHERE S.SSN = %d AND S.employerID = %d", staffID_i, hotelID_i);
-		rs = stmt.executeQuery(staff_hotel_check);
-		if (rs.next() == false) {
-			System.out.print("Given Staff SSN does not work at the given Hotel ID\n");
-			return;
-		}
-		//System.out.print(i);
-		//~ query = String.format("SELECT SSN FROM Staff WHERE SSN = %d AND employerID = %d", staffID_i, hotelID_i);
-		//~ rs = stmt.executeQuery(query);
-		//~ rs.next()
-		//~ if(rs.next())
-		//~ {
-			//~ System.out.print("Staff is assigned to proper hotel");
-		//~ }
-		//~ else
-		//~ {
-			//~ System.out.print("Staff doesnt work at this hotel");
-			//~ break;
-		
 		//Read roomNo from User input
 	  	System.out.print("\nEnter roomNo: ");
 		int roomNo_i = Integer.parseInt(in.readLine());
 
-		String room_hotel_check = String.format("SELECT R FROM Room R WHERE R.roomNo = %s AND R.hotelID = %s", roomNo_i, hotelID_i);
-		rs = stmt.executeQuery(room_hotel_check);
-		if (rs.next() == false) {
-			System.out.print("Given Room ID does not exist at the given Hotel ID\n");
-			return;
-		}
-		
-		query = String.format("INSERT INTO Assigned(asgID, staffID, hotelID, roomNo) VALUES (%d, %d, %d, %d)", asgID_i, staffID_i, hotelID_i, roomNo_i);
-		esql.executeUpdate(query);
+		//Role, employer and room checks and the insert run in one call (sql/functions.sql)
+		esql.ops().assignHouseCleaningToRoom(staffID_i, hotelID_i, roomNo_i);
 	}
 	catch (Exception e)
 	{
 				System.err.println(e.getMessage());
 	}
-		
    }//end assignHouseCleaningToRoom
    
      public static void repairRequest(DBProject esql){
 	  // Given a hotelID, Staff SSN, roomNo, repairID , date create a repair request in the DB
 	try {
-		//INSERT INTO Repair (rID,hotelID,roomNo,mCompany,repairDate) VALUES ((SELECT MAX(rID) + 1 FROM Repair R), 1, 1, 0, '2000-1-1');
-		Statement stmt = esql._connection.createStatement();
-		
 		System.out.println("Enter the hotel ID:");
-		String hotelID = in.readLine();
+		int hotelID = Integer.parseInt(in.readLine());
 		System.out.println("Enter the staff SSN:");
-		String staffssn = in.readLine();
-		String staff_role_check = String.format("SELECT S FROM Staff S WHERE S.SSN = %s AND role = 'Manager'", staffssn);
-		ResultSet rs = stmt.executeQuery(staff_role_check);
-		if (rs.next() == false) {
-			System.out.print("Given Staff SSN is not a Manager\n");
-			return;
-		}
-
-		String staff_hotel_check = String.format("SELECT S FROM Staff S WHERE S.SSN = %s AND S.employerID = %s", staffssn, hotelID);
-		rs = stmt.executeQuery(staff_hotel_check);
-		if (rs.next() == false) {
-			System.out.print("Given Staff SSN does not work at the given Hotel ID\n");
-			return;
-		}
-
+		int staffssn = Integer.parseInt(in.readLine());
 		System.out.println("Enter the room number:");
-		String roomNo = in.readLine();
+		int roomNo = Integer.parseInt(in.readLine());
+		System.out.println("Enter the request date (MM/dd/yyyy):");
+		java.sql.Date date = parseDate(in.readLine());
 
-		String room_hotel_check = String.format("SELECT R FROM Room R WHERE R.roomNo = %s AND R.hotelID = %s", roomNo, hotelID);
-		rs = stmt.executeQuery(room_hotel_check);
-		if (rs.next() == false) {
-			System.out.print("Given Room ID does not exist at the given Hotel ID\n");
-			return;
-		}
-
-		System.out.println("Enter the request date (YYYY/MM/dd):");
-		String date = in.readLine();
-		String query = "INSERT INTO Repair (rID,hotelID,roomNo,mCompany,repairDate) VALUES ((SELECT MAX(rID) + 1 FROM Repair R)," + hotelID + ", " + roomNo + ",0,'2000-1-1')";
-			
-			System.out.println(query);
-		esql.executeUpdate(query);
-
-			//String temp ="SELECT MAX(rID) FROM Repair R";
-		//esql.executeQuery(temp);
-		
-		String query1 = "INSERT INTO Request (reqID, managerID, repairID, requestDate) VALUES ((SELECT MAX(R.reqID) + 1 FROM Request R)," + staffssn + ", (SELECT MAX(rID) FROM Repair R),'" + date + "');";
-
-		System.out.println(query1);
-		esql.executeUpdate(query1);
-
-		//String temp1 ="SELECT MAX(reqID) FROM Request R";
-		//esql.executeQuery(temp1);
+		//Manager, employer and room checks and both inserts run in one call (sql/functions.sql)
+		esql.ops().repairRequest(hotelID, staffssn, roomNo, date);
 		}
 		catch (Exception e){
 			System.err.println(e.getMessage());
@@ -593,30 +1049,40 @@ public class DBProject {
    
    public static void numberOfAvailableRooms(DBProject esql){
       // Given a hotelID, get the count of rooms available
-      //SELECT R FROM Room R WHERE R.hotelID = 381 AND R.roomno NOT IN (SELECT R.roomno FROM Booking B, Room R WHERE B.hotelID = 381 AND R.hotelID = 381 AND B.roomno = R.roomno);
+      // Answered from the occupancy index: with a date, the rooms free on
+      // every night from that date; without one, the rooms never booked
+      // (the old NOT IN query over Booking).
       try {
-          String query = "SELECT COUNT(R) FROM Room R WHERE R.hotelID = ";
           System.out.println("Enter the hotel ID:");
-          String hotelID = in.readLine();
-  
-          query += hotelID + " AND R.roomno NOT IN (SELECT R.roomno FROM Booking B, Room R WHERE B.hotelID = " + hotelID +  "AND R.hotelID = " + hotelID + " AND B.roomno = R.roomno);";
-          System.out.println(query);
-          esql.executeQuery(query);
+          int hotelID = Integer.parseInt(in.readLine());
+          System.out.println("Enter the date (MM/dd/yyyy), or leave empty for rooms never booked:");
+          String date = in.readLine().trim();
+
+          java.sql.Date from = null;
+          int days = 1;
+          if (date.length() != 0) {
+              from = parseDate(date);
+              System.out.println("Enter the number of nights (default 1):");
+              String nights = in.readLine().trim();
+              days = nights.length() == 0 ? 1 : Integer.parseInt(nights);
+          }
+          int count = esql.ops().numberOfAvailableRooms(hotelID, from, days);
+          ResultWriter out = esql.output();
+          out.begin(new String[] { "count" }, new boolean[] { true });
+          out.row(count);
+          out.end();
       } catch (Exception e) {
           System.err.println(e.getMessage());
       }
-  }//end numberOfAvailableRooms
+   }//end numberOfAvailableRooms
   
   public static void numberOfBookedRooms(DBProject esql){
       // Given a hotelID, get the count of rooms booked
       try {
-          String query = "SELECT COUNT(B) FROM Booking B WHERE B.hotelId = ";
           System.out.println("Enter the hotel ID:");
-          String hotelID = in.readLine();
+          int hotelID = Integer.parseInt(in.readLine());
   
-          query += hotelID + ";";
-          System.out.println(query);
-          esql.executeQuery(query);
+          esql.ops().numberOfBookedRooms(hotelID, esql.output());
       } catch (Exception e) {
           System.err.println(e.getMessage());
       }
@@ -625,15 +1091,12 @@ public class DBProject {
    public static void listHotelRoomBookingsForAWeek(DBProject esql){
       // Given a hotelID, date - list all the rooms available for a week(including the input date) 
       try {
-          String query = "SELECT B FROM Booking B WHERE B.hotelId = ";
           System.out.println("Enter the hotel ID:");
-          String hotelID = in.readLine();
-          System.out.println("Enter the starting date:");
-          String date = in.readLine();
+          int hotelID = Integer.parseInt(in.readLine());
+          System.out.println("Enter the starting date (MM/dd/yyyy):");
+          java.sql.Date date = parseDate(in.readLine());
           
-          query += hotelID + " and B.bookingDate <= (DATE '" + date + "' + INTERVAL '7 day') and B.bookingDate > '" + date + "';";
-          System.out.println(query);
-          esql.executeQuery(query);
+          esql.ops().listHotelRoomBookingsForAWeek(hotelID, date, esql.output());
       } catch (Exception e) {
           System.err.println(e.getMessage());
       }
@@ -641,28 +1104,17 @@ public class DBProject {
   
    public static void topKHighestRoomPriceForADateRange(DBProject esql){
       // List Top K Rooms with the highest price for a given date range
+      // Answered from the top K index; bookings with equal price are listed by bID
       try {
-          String query = "SELECT B FROM Booking B WHERE B.bookingDate >= '";
           System.out.println("Enter first date:");
           String date1 = in.readLine();
           System.out.println("Enter second date:");
 		  String date2 = in.readLine();
-		  String dateFormat = "YYYY/MM/dd";
 		  
           System.out.println("Enter max number of rooms to display:");
-          String k = in.readLine();
-
-		  Date d1 = new SimpleDateFormat(dateFormat).parse(date1);
-		  Date d2 = new SimpleDateFormat(dateFormat).parse(date2);
-		  if (d1.after(d2) == true) {
-			query += date2 + "' AND B.bookingDate <= '" + date1 + "' ORDER BY B.price DESC LIMIT " + k;
-		  }
-		  else {
-			query += date1 + "' AND B.bookingDate <= '" + date2 + "' ORDER BY B.price DESC LIMIT " + k;
-		  }
-          
-          System.out.println(query);
-          esql.executeQuery(query);
+          int k = Integer.parseInt(in.readLine());
+
+		  esql.ops().topKHighestRoomPriceForADateRange(parseDate(date1), parseDate(date2), k, esql.output());
       } catch (Exception e) {
           System.err.println(e.getMessage());
 	  }
@@ -671,7 +1123,6 @@ public class DBProject {
    //DONE KATHLEEN MAYBE
    public static void topKHighestPriceBookingsForACustomer(DBProject esql){
 	  // Given a customer Name, List Top K highest booking price for a customer 
-      // Your code goes here.
 		try
 		{
 		//Read K from User input
@@ -685,43 +1136,21 @@ public class DBProject {
 		String lName_i = in.readLine();
 		
 		//Retrieve CustomerID
-		Statement stmt = esql._connection.createStatement();
-		String query = String.format("SELECT customerID FROM Customer WHERE fName = '%s' AND lName ='%s'", fName_i, lName_i);
-		ResultSet rs = stmt.executeQuery(query);
-		if (rs.next() == false) {
-			System.out.print("User does not exist in customer database\n");
+		int customerID_i = resolveCustomer(esql, fName_i, lName_i);
+		if (customerID_i < 0)
 			return;
-		}
-		int customerID_i = Integer.parseInt(rs.getString(1));
 		
-		query = String.format("SELECT B.bID, B.price FROM Booking B WHERE customer = %d ORDER BY B.price DESC LIMIT %d", customerID_i, K_i);
-		rs = stmt.executeQuery(query);
-		ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-
-		while (rs.next()) {
-			for(int i = 1; i <= numCol; ++i)
-			{
-				
-				System.out.print(rsmd.getColumnName(i) + " = " + rs.getString(i));
-				System.out.print("\t");
-				++rowCount;
-			}
-			System.out.println();
-		}
+		//Highest priced bookings from the top K index
+		esql.ops().topKHighestPriceBookingsForACustomer(customerID_i, K_i, esql.output());
 	}
 		catch(Exception e)
 		{
 			System.err.println(e.getMessage());
 		}
-		
-		
    }//end topKHighestPriceBookingsForACustomer
    //DONE KATHLEEN MAYBE
    public static void totalCostForCustomer(DBProject esql){
 	  // Given a hotelID, customer Name and date range get the total cost incurred by the customer
-      // Your code goes here.
       try
       {
 		//Read Customer Name
@@ -731,126 +1160,63 @@ public class DBProject {
 		String lName_i = in.readLine();
 		
 		//Retrieve CustomerID
-		Statement stmt = esql._connection.createStatement();
-		String query = String.format("SELECT customerID FROM Customer WHERE fName = '%s' AND lName ='%s'", fName_i, lName_i);
-		ResultSet rs = stmt.executeQuery(query);
-		if (rs.next() == false) {
-			System.out.print("User does not exist in customer database\n");
+		int customerID_i = resolveCustomer(esql, fName_i, lName_i);
+		if (customerID_i < 0)
 			return;
-		}
-		int customerID_i = Integer.parseInt(rs.getString(1));
 		
 		//Read hotelID from User input
 	  	System.out.print("\nEnter hotelID: ");
 		int hotelID_i = Integer.parseInt(in.readLine());
 		
 		//Read start date from User input
-		System.out.print("\nEnter the start Date (dd/mm/yyyy): ");
-		//String start Date_i = in.readLine();
-		String dateFormat = "MM/dd/YYYY";
-		Date startDate_i = new SimpleDateFormat(dateFormat).parse(in.readLine());
+		System.out.print("\nEnter the start Date (MM/dd/yyyy): ");
+		java.sql.Date startDate_i = parseDate(in.readLine());
 		
 		//Read end date from User input
-		System.out.print("\nEnter the end Date (dd/mm/yyyy): ");
-		//String end Date_i = in.readLine();
-		Date endDate_i = new SimpleDateFormat(dateFormat).parse(in.readLine());
+		System.out.print("\nEnter the end Date (MM/dd/yyyy): ");
+		java.sql.Date endDate_i = parseDate(in.readLine());
 		
-		query = String.format("SELECT SUM(price) FROM Booking WHERE hotelID = %d AND customer = %d AND bookingDate >= '%s' AND bookingDate <= '%s'", hotelID_i, customerID_i, startDate_i, endDate_i);
-		rs = stmt.executeQuery(query);
-		ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-
-		while (rs.next()) {
-			for(int i = 1; i <= numCol; ++i)
-			{
-				System.out.print(rsmd.getColumnName(i) + " = " + rs.getString(i) + "\t");
-				++rowCount;
-			}
-			System.out.println();
-		}
+		esql.ops().totalCostForCustomer(customerID_i, hotelID_i, startDate_i, endDate_i, esql.output());
 	  }
 	  catch (Exception e)
 	  {
 		  System.err.println(e.getMessage());
 	  }
-		
    }//end totalCostForCustomer   
    //DONE KATHLEEN MAYBE
    public static void listRepairsMade(DBProject esql){
 	  // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
-      // Your code goes here.
-		//Read Company Name
 		try
 		{
+		//Read Company Name
 		System.out.print("\nEnter the company's name: ");
 		String name_i = in.readLine();
 		
-		//Retrieve cmpID
-		Statement stmt = esql._connection.createStatement();
-		String query = String.format("SELECT cmpID FROM MaintenanceCompany WHERE name ='%s'", name_i);
-		ResultSet rs = stmt.executeQuery(query);
-		rs.next();
-		int cmpID_i = Integer.parseInt(rs.getString(1));
-      
-		query = String.format("SELECT rID, hotelID, roomNo, repairType FROM Repair WHERE mCompany = %d ORDER BY hotelID DESC", cmpID_i);
-		rs = stmt.executeQuery(query);
-		ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-
-		while (rs.next()) {
-			for(int i = 1; i <= numCol; ++i)
-			{
-				System.out.print(rsmd.getColumnName(i) + " = " + rs.getString(i) + "\t");
-				++rowCount;
-			}
-			System.out.println();
-		}
+		esql.ops().listRepairsMade(name_i, esql.output());
 	}
 	catch(Exception e)
 	{
 		System.err.println(e.getMessage());
 	}
-			
    }//end listRepairsMade
    //DONE KATHLEEN MAYBE
    public static void topKMaintenanceCompany(DBProject esql){
 	  // List Top K Maintenance Company Names based on total repair count (descending order)
-      // Your code goes here.
 	try{
 		//Read K from User input
 	  	System.out.print("\nEnter input for K: ");
 		int K_i = Integer.parseInt(in.readLine());
 		
-		Statement stmt = esql._connection.createStatement();
-		String query = String.format("SELECT C.name, COUNT(R.rid) FROM MaintenanceCompany C, Repair R WHERE C.cmpID = R.mCompany GROUP BY C.name ORDER BY count(R.rid) DESC LIMIT %d", K_i);
-		ResultSet rs = stmt.executeQuery(query);
-		ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-        while (rs.next()) {
-			for(int i = 1; i <= numCol; ++i)
-			{
-				System.out.print(rsmd.getColumnName(i) + " = " + rs.getString(i));
-				System.out.print("\t");
-				++rowCount;
-			}
-			System.out.println();
-		}
+		esql.ops().topKMaintenanceCompany(K_i, esql.output());
 	}
 	 catch(Exception e)
 	{
 		System.err.println(e.getMessage());
 	}
-		
-		
    }//end topKMaintenanceCompany
   //DONE KATHLEEN MAYBE 
    public static void numberOfRepairsForEachRoomPerYear(DBProject esql){
 	  // Given a hotelID, roomNo, get the count of repairs per year
-      // Your code goes here.
- 
 		try
 		{
 		//Read hotelID from User input
@@ -860,28 +1226,7 @@ public class DBProject {
 	  	System.out.print("\nEnter roomNo: ");
 		int roomNo_i = Integer.parseInt(in.readLine());
 
-		Statement stmt = esql._connection.createStatement();
-		String room_hotel_check = String.format("SELECT R FROM Room R WHERE R.roomNo = %d AND R.hotelID = %d", roomNo_i, hotelID_i);
-		ResultSet rs = stmt.executeQuery(room_hotel_check);
-		if (rs.next() == false) {
-			System.out.print("Given Room ID does not exist at the given Hotel ID\n");
-			return;
-		}
-
-		String query = String.format("SELECT COUNT(rID), Extract(YEAR FROM repairDate) FROM Repair WHERE hotelID = %d AND roomNo = %d GROUP BY Extract(YEAR FROM repairDate)", hotelID_i, roomNo_i);
-		rs = stmt.executeQuery(query);
-		ResultSetMetaData rsmd = rs.getMetaData ();
-        int numCol = rsmd.getColumnCount ();
-        int rowCount = 0;
-        while (rs.next()) {
-			for(int i = 1; i <= numCol; ++i)
-			{
-				System.out.print(rsmd.getColumnName(i) + " = " + rs.getString(i));
-				System.out.print("\t");
-				++rowCount;
-			}
-			System.out.println();
-		}	
+		esql.ops().numberOfRepairsForEachRoomPerYear(hotelID_i, roomNo_i, esql.output());
 		}
 		catch(Exception e)
 		{
@@ -889,4 +1234,73 @@ public class DBProject {
 		}
    }//end listRepairsMade
 
+   public static void revenueByHotel(DBProject esql){
+      // Given a date range get the revenue of every hotel
+      try{
+         System.out.print("\nEnter the start Date (MM/dd/yyyy): ");
+         java.sql.Date from = parseDate(in.readLine());
+         System.out.print("\nEnter the end Date (MM/dd/yyyy): ");
+         java.sql.Date to = parseDate(in.readLine());
+         esql.ops().revenueByHotel(from, to, esql.output());
+      }catch(Exception e){
+         System.err.println(e.getMessage());
+      }//end try
+   }//end revenueByHotel
+
+   public static void chainOccupancy(DBProject esql){
+      // Given a date and a number of days, get the rooms booked and free and
+      // the revenue of every hotel on each day
+      try{
+         System.out.print("\nEnter the start Date (MM/dd/yyyy): ");
+         java.sql.Date from = parseDate(in.readLine());
+         System.out.print("\nEnter the number of days (default 7): ");
+         String days = in.readLine().trim();
+         esql.ops().chainOccupancy(from, days.length() == 0 ? 7 : Integer.parseInt(days), esql.output());
+      }catch(Exception e){
+         System.err.println(e.getMessage());
+      }//end try
+   }//end chainOccupancy
+
+   public static void showStatistics(DBProject esql){
+      // latency, round trips, rows and connection wait per operation so far
+      System.out.print(esql.metrics ().getReport ());
+      System.out.println(esql.poolStats ());
+      if (esql._replica != null)
+         System.out.println(esql._replica.stats ());
+      System.out.println(esql.names ().stats ());
+      if (esql.bookingLog () != null)
+         System.out.println(esql.bookingLog ().stats ());
+   }//end showStatistics
+
+   /*
+    * The writes of one thread between beginBatch and commitBatch: the
+    * connection they run on, the statement with queued updates, and the
+    * actions to run on commit or rollback.
+    */
+   private static final class Batch {
+      final Connection conn;
+      PreparedStatement pending = null;
+      String pendingSql = null;
+      final java.util.List<Runnable> onCommit = new java.util.ArrayList<Runnable>();
+      final java.util.List<Runnable> onRollback = new java.util.ArrayList<Runnable>();
+
+      Batch (Connection conn) {
+         this.conn = conn;
+      }
+
+      void flush () throws SQLException {
+         if (this.pending == null)
+            return;
+         PreparedStatement stmt = this.pending;
+         this.pending = null;
+         this.pendingSql = null;
+         try {
+            stmt.executeBatch ();
+         }catch (SQLException e) {
+            stmt.clearBatch ();
+            throw e;
+         }//end try
+      }
+   }//end Batch
+
 }//end DBProject
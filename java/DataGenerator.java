@@ -0,0 +1,381 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic data set in the layout of data/*.csv, at a
+ * chosen multiple of the bundled one:
+ *
+ *   java DataGenerator <outDir> [scale]
+ *
+ * At scale 1 it writes 1000 hotels with 5 staff and 10 rooms each, 2000
+ * customers, 20 maintenance companies, 4000 bookings and 2000 repairs,
+ * requests and assignments; every count grows with the scale (companies
+ * with its square root). Row 0 of every file is the "default" row of the
+ * bundled data.
+ *
+ * The rows keep what create.sql and the program expect:
+ *   - staff 5(h-1)+1 .. 5h work at hotel h; the first is its only Manager,
+ *     the next two are HouseCleaning, the last two Receptionist,
+ *   - bookings, repairs and assignments name rooms that exist,
+ *   - no room is booked twice on the same day,
+ *   - a repair request is made by the Manager of the repaired room's hotel
+ *     on or before the repair date, and an assignment names HouseCleaning
+ *     staff of the room's hotel.
+ *
+ * Distributions:
+ *   -Dgen.hotelSkew   Zipf exponent of hotel popularity; hotel 1 is the
+ *                     most booked. 0 books all hotels alike (default 1.0)
+ *   -Dgen.season      how much more is booked in mid-July than in
+ *                     mid-January, 0 to 1 (default 0.5)
+ *   -Dgen.years       first and last booking year (default 2000-2018)
+ *   -Dgen.roomsPerHotel  (default 10)
+ *   -Dgen.seed        the same seed and scale give the same files,
+ *                     whatever the thread count (default 166)
+ *   -Dgen.threads     (default: number of processors)
+ *
+ * Hotels are written in chunks on the worker threads, each chunk to its
+ * own part files, which are then appended in order. Rows go straight to
+ * disk, so memory does not grow with the output; the only per-hotel state
+ * is the booking count (4 bytes per hotel).
+ */
+
+public class DataGenerator {
+
+   private static final Charset ASCII = Charset.forName("US-ASCII");
+   private static final String EOL = "\r\n";
+   private static final String[] HOTEL_TABLES = { "hotel", "staff", "room", "booking", "repair", "request", "assigned" };
+   private static final int STAFF_PER_HOTEL = 5;
+
+   private final File _dir;
+   private final int _hotels;
+   private final int _roomsPerHotel;
+   private final int _customers;
+   private final int _companies;
+   private final long _repairs;
+   private final long _assigned;
+   private final long _seed;
+   private final int _firstDay;
+   private final int _days;
+   private final double _season;
+
+   // bookings per hotel (index h - 1) and the first bID of each hotel
+   private final int[] _bookings;
+   private final long[] _firstBooking;
+
+   public DataGenerator (File dir, double scale) {
+      this._dir = dir;
+      this._hotels = Math.max(1, (int) Math.round(1000 * scale));
+      this._roomsPerHotel = Integer.getInteger("gen.roomsPerHotel", 10);
+      this._customers = Math.max(1, (int) Math.round(2000 * scale));
+      this._companies = Math.max(1, (int) Math.round(20 * Math.sqrt(scale)));
+      this._repairs = Math.round(2000 * scale);
+      this._assigned = Math.round(2000 * scale);
+      this._seed = Long.getLong("gen.seed", 166L);
+      this._season = Math.max(0, Math.min(1, Double.parseDouble(System.getProperty("gen.season", "0.5"))));
+      String[] years = System.getProperty("gen.years", "2000-2018").split("-");
+      this._firstDay = Days.of(Integer.parseInt(years[0].trim()), 1, 1);
+      this._days = Days.of(Integer.parseInt(years[1].trim()) + 1, 1, 1) - this._firstDay;
+
+      this._bookings = bookingCounts(Math.round(4000 * scale),
+                                     Double.parseDouble(System.getProperty("gen.hotelSkew", "1.0")));
+      this._firstBooking = new long[this._hotels];
+      long next = 1;
+      for (int i = 0; i < this._hotels; ++i) {
+         this._firstBooking[i] = next;
+         next += this._bookings[i];
+      }//end for
+   }//end DataGenerator
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-Dgen.hotelSkew=1.0] [-Dgen.season=0.5] [-Dgen.threads=n] [-cp <$classpath>] " +
+            "DataGenerator <outDir> [scale]");
+         return;
+      }//end if
+      try {
+         File dir = new File(args[0]);
+         if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+         long start = System.nanoTime();
+         DataGenerator gen = new DataGenerator(dir, args.length > 1 ? Double.parseDouble(args[1]) : 1.0);
+         gen.run(Integer.getInteger("gen.threads", Runtime.getRuntime().availableProcessors()));
+         System.out.println(String.format("Done in %.2f s", (System.nanoTime() - start) / 1e9));
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end main
+
+   /**
+    * Method to write all nine files
+    *
+    * @param threads the number of worker threads
+    * @throws Exception when a file cannot be written
+    */
+   public void run (int threads) throws Exception {
+      int chunk = Math.max(1000, this._hotels / (threads * 4));
+      List<int[]> chunks = new ArrayList<int[]>();
+      for (int h = 1; h <= this._hotels; h += chunk)
+         chunks.add(new int[] { h, Math.min(this._hotels, h + chunk - 1) });
+      int customerChunk = Math.max(10000, this._customers / (threads * 4));
+
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      try {
+         List<Future<Void>> running = new ArrayList<Future<Void>>();
+         for (int i = 0; i < chunks.size(); ++i) {
+            final int part = i;
+            final int[] range = chunks.get(i);
+            running.add(workers.submit(new Callable<Void>() {
+               public Void call () throws Exception {
+                  writeHotels(part, range[0], range[1]);
+                  return null;
+               }
+            }));
+         }//end for
+         final List<int[]> customerParts = new ArrayList<int[]>();
+         for (int c = 1; c <= this._customers; c += customerChunk)
+            customerParts.add(new int[] { c, Math.min(this._customers, c + customerChunk - 1) });
+         for (int i = 0; i < customerParts.size(); ++i) {
+            final int part = i;
+            final int[] range = customerParts.get(i);
+            running.add(workers.submit(new Callable<Void>() {
+               public Void call () throws Exception {
+                  writeCustomers(part, range[0], range[1]);
+                  return null;
+               }
+            }));
+         }//end for
+         writeCompanies();
+         for (Future<Void> f : running)
+            f.get();
+
+         for (String table : HOTEL_TABLES)
+            concat(table, chunks.size());
+         concat("customer", customerParts.size());
+      } finally {
+         workers.shutdown();
+      }//end try
+
+      long bookings = this._firstBooking[this._hotels - 1] + this._bookings[this._hotels - 1] - 1;
+      System.out.println(String.format("hotels=%d staff=%d rooms=%d customers=%d companies=%d bookings=%d repairs=%d assigned=%d",
+                                       this._hotels, this._hotels * (long) STAFF_PER_HOTEL, this._hotels * (long) this._roomsPerHotel,
+                                       this._customers, this._companies, bookings, this._repairs, this._assigned));
+   }//end run
+
+   /*
+    * Spreads the bookings over the hotels by Zipf weight 1/h^skew. A hotel
+    * gets at most half of its room-days; what does not fit moves on to the
+    * next hotel.
+    */
+   private int[] bookingCounts (long total, double skew) {
+      double sum = 0;
+      for (int h = 1; h <= this._hotels; ++h)
+         sum += Math.pow(h, -skew);
+      long cap = (long) this._roomsPerHotel * this._days / 2;
+      int[] counts = new int[this._hotels];
+      long given = 0;
+      double carry = 0;
+      for (int h = 1; h <= this._hotels; ++h) {
+         double want = total * Math.pow(h, -skew) / sum + carry;
+         long n = Math.min(cap, Math.min(total - given, Math.round(want)));
+         carry = want - n;
+         counts[h - 1] = (int) n;
+         given += n;
+      }//end for
+      return counts;
+   }//end bookingCounts
+
+   private void writeHotels (int part, int first, int last) throws IOException {
+      Writer[] out = new Writer[HOTEL_TABLES.length];
+      try {
+         for (int i = 0; i < out.length; ++i)
+            out[i] = open(HOTEL_TABLES[i] + ".part" + part);
+         Writer hotels = out[0], staff = out[1], rooms = out[2], bookings = out[3];
+         Writer repairs = out[4], requests = out[5], assigned = out[6];
+         StringBuilder b = new StringBuilder(128);
+         if (part == 0) {
+            line(hotels, b, 0, "default", "\\N");
+            line(staff, b, 0, "default", "default", "default", "Manager", 0);
+            line(rooms, b, 0, 0, "default");
+            line(bookings, b, 0, 0, 0, 0, date(Days.of(2000, 1, 1)), 0, 0);
+            line(repairs, b, 0, 0, 0, 0, date(Days.of(2000, 1, 1)), "default", "Small");
+            line(requests, b, 0, 0, 0, date(Days.of(2000, 1, 1)), "default");
+            line(assigned, b, 0, 0, 0, 0);
+         }//end if
+
+         for (int h = first; h <= last; ++h) {
+            Random rnd = new Random(this._seed * 1000003L + h);
+            line(hotels, b, h, word(rnd, 6), "\\N");
+
+            long ssn = (long) STAFF_PER_HOTEL * (h - 1) + 1;
+            for (int s = 0; s < STAFF_PER_HOTEL; ++s)
+               line(staff, b, ssn + s, word(rnd, 4), word(rnd, 4), word(rnd, 6),
+                    s == 0 ? "Manager" : (s <= 2 ? "HouseCleaning" : "Receptionist"), h);
+
+            for (int r = 1; r <= this._roomsPerHotel; ++r) {
+               int t = rnd.nextInt(10);
+               line(rooms, b, h, r, t < 5 ? "Economy" : (t < 8 ? "Suite" : "Deluxe"));
+            }//end for
+
+            // bookings: distinct (room, day) pairs of this hotel
+            Set<Long> taken = new HashSet<Long>();
+            long bID = this._firstBooking[h - 1];
+            for (int i = 0; i < this._bookings[h - 1]; ++i) {
+               int room, day;
+               do {
+                  room = 1 + rnd.nextInt(this._roomsPerHotel);
+                  day = bookingDay(rnd);
+               }while (!taken.add(((long) day << 16) | room));
+               line(bookings, b, bID++, 1 + rnd.nextInt(this._customers), h, room, date(day),
+                    1 + rnd.nextInt(3), 500 + rnd.nextInt(1500));
+            }//end for
+
+            // repairs, each with the request of the hotel's manager
+            long rID = spreadStart(this._repairs, h);
+            for (long n = spreadCount(this._repairs, h); n > 0; --n, ++rID) {
+               int day = this._firstDay + rnd.nextInt(this._days);
+               int t = rnd.nextInt(3);
+               line(repairs, b, rID, h, 1 + rnd.nextInt(this._roomsPerHotel), 1 + rnd.nextInt(this._companies),
+                    date(day), word(rnd, 4), t == 0 ? "Small" : (t == 1 ? "Medium" : "Large"));
+               line(requests, b, rID, ssn, rID, date(Math.max(this._firstDay, day - rnd.nextInt(61))), word(rnd, 4));
+            }//end for
+
+            long asgID = spreadStart(this._assigned, h);
+            for (long n = spreadCount(this._assigned, h); n > 0; --n, ++asgID)
+               line(assigned, b, asgID, ssn + 1 + rnd.nextInt(2), h, 1 + rnd.nextInt(this._roomsPerHotel));
+         }//end for
+      } finally {
+         for (Writer w : out)
+            if (w != null)
+               w.close();
+      }//end try
+   }//end writeHotels
+
+   private void writeCustomers (int part, int first, int last) throws IOException {
+      Writer out = open("customer.part" + part);
+      try {
+         StringBuilder b = new StringBuilder(128);
+         if (part == 0)
+            line(out, b, 0, "default", "default", "default", 0, date(Days.of(2000, 1, 1)), "Male");
+         String[] genders = { "Male", "Female", "Other" };
+         for (int c = first; c <= last; ++c) {
+            Random rnd = new Random(this._seed * 1000033L + c);
+            long phone = 2000000000L + (long) (rnd.nextDouble() * 7999999999L);
+            line(out, b, c, word(rnd, 4), word(rnd, 4), word(rnd, 6), phone,
+                 date(Days.of(1940, 1, 1) + rnd.nextInt(60 * 365)), genders[rnd.nextInt(3)]);
+         }//end for
+      } finally {
+         out.close();
+      }//end try
+   }//end writeCustomers
+
+   private void writeCompanies () throws IOException {
+      Writer out = open("maintenanceCompany.csv");
+      try {
+         StringBuilder b = new StringBuilder(64);
+         line(out, b, 0, "default", "default", "TRUE");
+         Random rnd = new Random(this._seed);
+         for (int c = 1; c <= this._companies; ++c)
+            line(out, b, c, word(rnd, 4), word(rnd, 6), rnd.nextInt(4) == 0 ? "FALSE" : "TRUE");
+      } finally {
+         out.close();
+      }//end try
+   }//end writeCompanies
+
+   /*
+    * A day in the booking years, more likely in summer: the density
+    * follows 1 + season * cos(2 pi (dayOfYear - July 15) / 365).
+    */
+   private int bookingDay (Random rnd) {
+      while (true) {
+         int day = this._firstDay + rnd.nextInt(this._days);
+         int doy = day - Days.of(Days.year(day), 1, 1);
+         double density = 1 + this._season * Math.cos(2 * Math.PI * (doy - 195) / 365.0);
+         if (rnd.nextDouble() * (1 + this._season) < density)
+            return day;
+      }//end while
+   }//end bookingDay
+
+   // rows spread evenly over the hotels: how many hotel h gets, and the first ID
+   private long spreadCount (long total, int h) {
+      return total / this._hotels + (h <= total % this._hotels ? 1 : 0);
+   }//end spreadCount
+
+   private long spreadStart (long total, int h) {
+      long base = total / this._hotels;
+      return (h - 1) * base + Math.min(h - 1, total % this._hotels) + 1;
+   }//end spreadStart
+
+   private static String word (Random rnd, int length) {
+      char[] c = new char[length];
+      for (int i = 0; i < length; ++i)
+         c[i] = (char) ('a' + rnd.nextInt(26));
+      return new String(c);
+   }//end word
+
+   // M/d/yyyy, the date format of the bundled files
+   private static String date (int day) {
+      int month = Days.month(day);
+      return (month % 12 + 1) + "/" + Days.dayOfMonth(day) + "/" + month / 12;
+   }//end date
+
+   private static void line (Writer out, StringBuilder b, Object... cells) throws IOException {
+      b.setLength(0);
+      for (int i = 0; i < cells.length; ++i) {
+         if (i > 0)
+            b.append(',');
+         b.append(cells[i]);
+      }//end for
+      b.append(EOL);
+      out.append(b);
+   }//end line
+
+   private Writer open (String name) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this._dir, name)), ASCII), 1 << 16);
+   }//end open
+
+   /*
+    * Appends table.part0 .. table.part(n-1) into table.csv and removes them.
+    */
+   private void concat (String table, int parts) throws IOException {
+      FileOutputStream out = new FileOutputStream(new File(this._dir, table + ".csv"));
+      try {
+         FileChannel dst = out.getChannel();
+         for (int i = 0; i < parts; ++i) {
+            File part = new File(this._dir, table + ".part" + i);
+            FileInputStream in = new FileInputStream(part);
+            try {
+               FileChannel src = in.getChannel();
+               long pos = 0;
+               long size = src.size();
+               while (pos < size)
+                  pos += src.transferTo(pos, size - pos, dst);
+            } finally {
+               in.close();
+            }//end try
+            if (!part.delete())
+               throw new IOException("cannot remove " + part);
+         }//end for
+      } finally {
+         out.close();
+      }//end try
+   }//end concat
+
+}//end DataGenerator
@@ -0,0 +1,90 @@
+import java.util.Calendar;
+
+/**
+ * This class converts between dates and day numbers (days since
+ * 1970-01-01) for the in-memory indexes, which store dates as ints.
+ * Conversions use the calendar fields of the default time zone, the same
+ * way the driver maps a DATE column to java.sql.Date.
+ */
+
+public class Days {
+
+   private Days () {}
+
+   /**
+    * Method to get the day number of a calendar date
+    *
+    * @param year e.g. 2015
+    * @param month 1 to 12
+    * @param day 1 to 31
+    */
+   public static int of (int year, int month, int day) {
+      // days_from_civil, proleptic Gregorian calendar
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end of
+
+   /**
+    * Method to get the day number of a date read from or bound to JDBC
+    */
+   public static int of (java.util.Date date) {
+      Calendar c = Calendar.getInstance();
+      c.setTime(date);
+      return of(c.get(Calendar.YEAR), c.get(Calendar.MONTH) + 1, c.get(Calendar.DAY_OF_MONTH));
+   }//end of
+
+   /**
+    * Method to get the date of a day number, for binding
+    */
+   public static java.sql.Date toSqlDate (int epochDay) {
+      int[] ymd = civil(epochDay);
+      Calendar c = Calendar.getInstance();
+      c.clear();
+      c.set(ymd[0], ymd[1] - 1, ymd[2]);
+      return new java.sql.Date(c.getTimeInMillis());
+   }//end toSqlDate
+
+   public static int year (int epochDay) {
+      return civil(epochDay)[0];
+   }//end year
+
+   /**
+    * Method to get the month number (year * 12 + month - 1) a day falls in
+    */
+   public static int month (int epochDay) {
+      int[] ymd = civil(epochDay);
+      return ymd[0] * 12 + ymd[1] - 1;
+   }//end month
+
+   public static int dayOfMonth (int epochDay) {
+      return civil(epochDay)[2];
+   }//end dayOfMonth
+
+   /**
+    * Method to get the first day of a month number from month
+    */
+   public static int firstOfMonth (int month) {
+      return of(month / 12, month % 12 + 1, 1);
+   }//end firstOfMonth
+
+   /*
+    * civil_from_days, the inverse of of(y, m, d): returns {year, month, day}
+    */
+   private static int[] civil (int epochDay) {
+      int z = epochDay + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int doe = z - era * 146097;
+      int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      int y = yoe + era * 400;
+      int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      int mp = (5 * doy + 2) / 153;
+      int d = doy - (153 * mp + 2) / 5 + 1;
+      int m = mp + (mp < 10 ? 3 : -9);
+      return new int[] { m <= 2 ? y + 1 : y, m, d };
+   }//end civil
+
+}//end Days
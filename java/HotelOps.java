@@ -0,0 +1,471 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * This class holds the operations of the menu without any keyboard
+ * input: every value is passed in, and query results are written to the
+ * ResultWriter given by the caller. The menu of DBProject and the batch
+ * mode both call it.
+ *
+ * A check that fails (no such room, wrong staff role, ...) throws
+ * OpException with the message the menu prints. Database errors are
+ * thrown as SQLException.
+ *
+ * Writes join the batch of the calling thread when one is open (see
+ * DBProject.beginBatch). The in-memory indexes are updated once the write
+ * is committed.
+ *
+ * Every operation is timed as one Metrics.Op under its method name. This
+ * is the JDBC implementation of HotelStore.
+ */
+
+public class HotelOps implements HotelStore {
+
+   // the bookings of a hotel in the week after a date; compares bookingDate
+   // with plain dates so Postgres can skip the other Booking partitions. The
+   // row is listed with the price in dollars, as Booking held it before
+   // priceCents (see SchemaMigration).
+   static final String WEEK_BOOKINGS =
+      "SELECT ROW(B.bID, B.customer, B.hotelID, B.roomNo, B.bookingDate, B.noOfPeople, " +
+      "CAST(B.priceCents / 100.0 AS NUMERIC(8,2))) AS B FROM Booking B WHERE B.hotelId = ? and B.bookingDate <= CAST(? AS DATE) + 7 and B.bookingDate > CAST(? AS DATE)";
+
+   // the company and date repair_request (sql/functions.sql) files a new
+   // repair under until it is scheduled; keep both in step with the SQL
+   static final int REQUESTED_COMPANY = 0;
+   static final int REQUESTED_DAY = Days.of(2000, 1, 1);
+
+   private final DBProject _esql;
+
+   public HotelOps (DBProject esql) {
+      this._esql = esql;
+   }//end HotelOps
+
+   /**
+    * Method to add a customer
+    *
+    * @return the new customerID
+    */
+   public int addCustomer (String fName, String lName, String address, long phone,
+                           java.sql.Date dob, String gender) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("addCustomer");
+      try {
+         // stored trimmed, the way NameCache and MemoryStore look names up
+         final String f = fName == null ? null : fName.trim();
+         final String l = lName == null ? null : lName.trim();
+         int cID = this._esql.ids().next(IdGenerator.CUSTOMER);
+         this._esql.executeUpdate("INSERT INTO Customer (customerID,fName,lName,Address,phNo,DOB,gender) VALUES (?,?,?,?,?,?,CAST(? AS GenderType))",
+                                  cID, f, l, address, phone, dob, gender);
+         this._esql.afterCommit(new Runnable() {
+            public void run () {
+               _esql.names().invalidate(f, l);
+            }
+         });
+         return cID;
+      } finally {
+         op.stop();
+      }//end try
+   }//end addCustomer
+
+   /**
+    * Method to add a room to a hotel under the next free room number
+    *
+    * @return the new roomNo
+    */
+   public int addRoom (final int hotelID, String roomType) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("addRoom");
+      try {
+         final int roomNo = this._esql.ids().nextRoomNo(hotelID);
+         this._esql.executeUpdate("INSERT INTO ROOM (hotelID, roomNo, roomType) VALUES (?, ?, ?)", hotelID, roomNo, roomType);
+         this._esql.afterCommit(new Runnable() {
+            public void run () {
+               _esql.occupancy().addRoom(hotelID, roomNo);
+            }
+         });
+         return roomNo;
+      } finally {
+         op.stop();
+      }//end try
+   }//end addRoom
+
+   /**
+    * Method to add a maintenance company
+    *
+    * @return the new cmpID
+    */
+   public int addMaintenanceCompany (String name, String address, boolean certified) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("addMaintenanceCompany");
+      try {
+         final int cmpID = this._esql.ids().next(IdGenerator.COMPANY);
+         final String companyName = name;
+         this._esql.executeUpdate("INSERT INTO MaintenanceCompany (cmpID,name,address,isCertified) VALUES (?, ?, ?, ?)",
+                                  cmpID, name, address, certified);
+         this._esql.afterCommit(new Runnable() {
+            public void run () {
+               _esql.repairs().addCompany(cmpID, companyName);
+            }
+         });
+         return cmpID;
+      } finally {
+         op.stop();
+      }//end try
+   }//end addMaintenanceCompany
+
+   /**
+    * Method to add a repair
+    *
+    * @return the new rID
+    */
+   public int addRepair (final int hotelID, final int roomNo, final int mCompany, java.sql.Date repairDate,
+                         String description, String repairType) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("addRepair");
+      try {
+         int rID = this._esql.ids().next(IdGenerator.REPAIR);
+         this._esql.executeUpdate("INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                                  rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+         final int day = Days.of(repairDate);
+         this._esql.afterCommit(new Runnable() {
+            public void run () {
+               _esql.repairs().addRepair(mCompany, hotelID, roomNo, day);
+            }
+         });
+         return rID;
+      } finally {
+         op.stop();
+      }//end try
+   }//end addRepair
+
+   /**
+    * Method to book a room for a customer on one day. The room is claimed
+    * in the occupancy index first, so two bookings of the same room and
+    * day cannot both succeed. Outside a batch and without a booking log
+    * the ReservationCoordinator books it, which also settles races with
+    * other processes.
+    *
+    * @return the new bID
+    * @throws OpException when the room does not exist or is already booked
+    */
+   public int bookRoom (final int hotelID, final int roomNo, int customerID, java.sql.Date bookingDate,
+                        int noOfPeople, BigDecimal price) throws SQLException, OpException {
+      Metrics.Op op = this._esql.metrics().start("bookRoom");
+      try {
+         if (!this._esql.inBatch() && this._esql.bookingLog() == null)
+            return this._esql.reservations().reserve(hotelID, roomNo, bookingDate, customerID, noOfPeople, price);
+         final OccupancyIndex occupancy = this._esql.occupancy();
+         final int day = Days.of(bookingDate);
+         if (!occupancy.roomExists(hotelID, roomNo))
+            throw new OpException("Given Room ID does not exist at the given Hotel ID");
+         int bID = this._esql.ids().next(IdGenerator.BOOKING);
+         if (!occupancy.book(hotelID, roomNo, day))
+            throw new OpException("Room is already booked on that date");
+         final TopKIndex.Entry entry = new TopKIndex.Entry(bID, customerID, hotelID, roomNo, day, noOfPeople, TopKIndex.cents(price));
+         // with a booking log the booking is acknowledged once logged and
+         // reaches Booking a little later; a batch still writes directly so
+         // it commits or rolls back as a whole
+         BookingLog log = this._esql.bookingLog();
+         boolean logged = log != null && !this._esql.inBatch();
+         try {
+            if (logged)
+               log.append(entry);
+            else
+               this._esql.executeUpdate("INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                                        bID, customerID, hotelID, roomNo, bookingDate, noOfPeople, entry.cents);
+         }catch (SQLException e) {
+            occupancy.unbook(hotelID, roomNo, day);
+            throw e;
+         }//end try
+         this._esql.onRollback(new Runnable() {
+            public void run () {
+               occupancy.unbook(hotelID, roomNo, day);
+            }
+         });
+         // a logged booking reaches the price reports once the flusher
+         // has committed it (see BookingLog)
+         if (!logged)
+            this._esql.afterCommit(new Runnable() {
+               public void run () {
+                  _esql.topK().add(entry);
+                  _esql.spend().add(entry.customer, entry.hotelID, entry.day, entry.cents);
+               }
+            });
+         return bID;
+      } finally {
+         op.stop();
+      }//end try
+   }//end bookRoom
+
+   /**
+    * Method to assign a HouseCleaning staff member to a room of the hotel
+    * they work at
+    *
+    * @return the new asgID
+    * @throws OpException when one of the checks of assign_house_cleaning fails
+    */
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException, OpException {
+      Metrics.Op op = this._esql.metrics().start("assignHouseCleaningToRoom");
+      try {
+         int asgID = this._esql.ids().next(IdGenerator.ASSIGNED);
+         CheckStatus status = this._esql.executeCheck("SELECT assign_house_cleaning(?, ?, ?, ?)", asgID, staffID, hotelID, roomNo);
+         if (status != CheckStatus.OK)
+            throw new OpException(status.message("HouseCleaning"));
+         return asgID;
+      } finally {
+         op.stop();
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   /**
+    * Method to record a repair request of a manager for a room of their hotel
+    *
+    * @return the new reqID
+    * @throws OpException when one of the checks of repair_request fails
+    */
+   public int repairRequest (final int hotelID, int managerID, final int roomNo, java.sql.Date requestDate) throws SQLException, OpException {
+      Metrics.Op op = this._esql.metrics().start("repairRequest");
+      try {
+         int rID = this._esql.ids().next(IdGenerator.REPAIR);
+         int reqID = this._esql.ids().next(IdGenerator.REQUEST);
+         CheckStatus status = this._esql.executeCheck("SELECT repair_request(?, ?, ?, ?, ?, ?)", rID, reqID, managerID, hotelID, roomNo, requestDate);
+         if (status != CheckStatus.OK)
+            throw new OpException(status.message("Manager"));
+         this._esql.afterCommit(new Runnable() {
+            public void run () {
+               _esql.repairs().addRepair(REQUESTED_COMPANY, hotelID, roomNo, REQUESTED_DAY);
+            }
+         });
+         return reqID;
+      } finally {
+         op.stop();
+      }//end try
+   }//end repairRequest
+
+   /**
+    * Method to count the rooms of a hotel that are free on every night of
+    * [date, date + nights), or that were never booked when date is null
+    */
+   public int numberOfAvailableRooms (int hotelID, java.sql.Date date, int nights) {
+      Metrics.Op op = this._esql.metrics().start("numberOfAvailableRooms");
+      try {
+         if (date == null)
+            return this._esql.occupancy().neverBookedRooms(hotelID);
+         return this._esql.occupancy().availableRooms(hotelID, Days.of(date), nights);
+      } finally {
+         op.stop();
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public int numberOfBookedRooms (int hotelID, ResultWriter out) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("numberOfBookedRooms");
+      try {
+         return query(out, "SELECT COUNT(B) FROM Booking B WHERE B.hotelId = ?", hotelID);
+      } finally {
+         op.stop();
+      }//end try
+   }//end numberOfBookedRooms
+
+   public int listHotelRoomBookingsForAWeek (int hotelID, java.sql.Date date, ResultWriter out) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("listHotelRoomBookingsForAWeek");
+      try {
+         return query(out, WEEK_BOOKINGS, hotelID, date, date);
+      } finally {
+         op.stop();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   /**
+    * Method to list the K highest priced bookings between two dates (in
+    * either order, both included)
+    */
+   public int topKHighestRoomPriceForADateRange (java.sql.Date from, java.sql.Date to, int k, ResultWriter out) {
+      Metrics.Op op = this._esql.metrics().start("topKHighestRoomPriceForADateRange");
+      try {
+         int d1 = Days.of(from);
+         int d2 = Days.of(to);
+         return writeBookings(out, this._esql.topK().topByDate(Math.min(d1, d2), Math.max(d1, d2), k));
+      } finally {
+         op.stop();
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   public int topKHighestPriceBookingsForACustomer (int customerID, int k, ResultWriter out) {
+      Metrics.Op op = this._esql.metrics().start("topKHighestPriceBookingsForACustomer");
+      try {
+         List<TopKIndex.Entry> top = this._esql.topK().topByCustomer(customerID, k);
+         out.begin(new String[] { "bid", "price" }, new boolean[] { true, true });
+         for (TopKIndex.Entry e : top)
+            out.row(e.bID, e.price());
+         out.end();
+         return top.size();
+      } finally {
+         op.stop();
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   /**
+    * Method to get what a customer spent at a hotel on bookings dated from
+    * "from" to "to", both included, from the spend rollup
+    */
+   public int totalCostForCustomer (int customerID, int hotelID, java.sql.Date from, java.sql.Date to, ResultWriter out) {
+      Metrics.Op op = this._esql.metrics().start("totalCostForCustomer");
+      try {
+         out.begin(new String[] { "sum" }, new boolean[] { true });
+         out.row(this._esql.spend().total(customerID, hotelID, Days.of(from), Days.of(to)));
+         out.end();
+         return 1;
+      } finally {
+         op.stop();
+      }//end try
+   }//end totalCostForCustomer
+
+   /**
+    * Method to list the revenue of every hotel from bookings dated from
+    * "from" to "to", both included, from the spend rollup
+    *
+    * @return the number of hotels listed
+    */
+   public int revenueByHotel (java.sql.Date from, java.sql.Date to, ResultWriter out) {
+      Metrics.Op op = this._esql.metrics().start("revenueByHotel");
+      try {
+         Map<Integer, BigDecimal> revenue = this._esql.spend().revenueByHotel(Days.of(from), Days.of(to));
+         out.begin(new String[] { "hotelid", "revenue" }, new boolean[] { true, true });
+         for (Map.Entry<Integer, BigDecimal> e : revenue.entrySet())
+            out.row(e.getKey(), e.getValue());
+         out.end();
+         return revenue.size();
+      } finally {
+         op.stop();
+      }//end try
+   }//end revenueByHotel
+
+   /**
+    * Method to summarize every hotel on each day of [from, from + days),
+    * with a ChainReport
+    *
+    * @return the number of rows listed
+    */
+   public int chainOccupancy (java.sql.Date from, int days, ResultWriter out) throws SQLException {
+      Metrics.Op op = this._esql.metrics().start("chainOccupancy");
+      try {
+         ChainReport.Summary s = this._esql.chain().occupancy(Days.of(from), days);
+         out.begin(new String[] { "hotelid", "date", "rooms", "booked", "free", "revenue" },
+                   new boolean[] { true, false, true, true, true, true });
+         int rows = 0;
+         for (Map.Entry<Integer, ChainReport.Hotel> e : s.hotels.entrySet()) {
+            ChainReport.Hotel h = e.getValue();
+            for (int d = 0; d < s.days; ++d, ++rows)
+               out.row(e.getKey(), Days.toSqlDate(s.from + d), h.rooms, h.booked[d], h.rooms - h.booked[d],
+                       BigDecimal.valueOf(h.cents[d], 2));
+         }//end for
+         out.end();
+         return rows;
+      } finally {
+         op.stop();
+      }//end try
+   }//end chainOccupancy
+
+   /**
+    * Method to list the repairs of a maintenance company
+    *
+    * @throws OpException when there is no company with that name
+    */
+   public int listRepairsMade (String companyName, ResultWriter out) throws SQLException, OpException {
+      Metrics.Op op = this._esql.metrics().start("listRepairsMade");
+      try {
+         int cmpID;
+         Connection conn = this._esql.getConnection();
+         try {
+            PreparedStatement stmt = this._esql.prepare(conn, "SELECT cmpID FROM MaintenanceCompany WHERE name = ?");
+            // name is VARCHAR, which unlike CHAR does not ignore trailing blanks
+            StatementCache.bind(stmt, companyName == null ? null : companyName.trim());
+            ResultSet rs = this._esql.fetch(stmt);
+            if (!rs.next()) {
+               rs.close();
+               throw new OpException("Company does not exist in maintenance company database");
+            }//end if
+            cmpID = rs.getInt(1);
+            rs.close();
+         } finally {
+            this._esql.releaseConnection(conn);
+         }//end try
+         return query(out, "SELECT rID, hotelID, roomNo, repairType FROM Repair WHERE mCompany = ? ORDER BY hotelID DESC", cmpID);
+      } finally {
+         op.stop();
+      }//end try
+   }//end listRepairsMade
+
+   /**
+    * Method to list the K companies with the most repairs, from the repair
+    * index; companies that share a name are listed apart
+    */
+   public int topKMaintenanceCompany (int k, ResultWriter out) {
+      Metrics.Op op = this._esql.metrics().start("topKMaintenanceCompany");
+      try {
+         List<RepairIndex.Company> top = this._esql.repairs().top(k);
+         out.begin(new String[] { "cmpid", "name", "count" }, new boolean[] { true, false, true });
+         for (RepairIndex.Company c : top)
+            out.row(c.cmpID, c.name, c.repairs);
+         out.end();
+         return top.size();
+      } finally {
+         op.stop();
+      }//end try
+   }//end topKMaintenanceCompany
+
+   /**
+    * Method to count the repairs of a room per year, from the repair index
+    *
+    * @throws OpException when the room does not exist
+    */
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, ResultWriter out) throws SQLException, OpException {
+      Metrics.Op op = this._esql.metrics().start("numberOfRepairsForEachRoomPerYear");
+      try {
+         if (!this._esql.occupancy().roomExists(hotelID, roomNo))
+            throw new OpException("Given Room ID does not exist at the given Hotel ID");
+         SortedMap<Integer, Integer> years = this._esql.repairs().perYear(hotelID, roomNo);
+         out.begin(new String[] { "count", "year" }, new boolean[] { true, true });
+         int rows = 0;
+         for (Map.Entry<Integer, Integer> e : years.entrySet()) {
+            if (e.getValue() > 0) {
+               out.row(e.getValue(), e.getKey());
+               rows++;
+            }//end if
+         }//end for
+         out.end();
+         return rows;
+      } finally {
+         op.stop();
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   /**
+    * Method to get the IDs of the customers with a name, see NameCache
+    */
+   public int[] customerIDs (String fName, String lName) throws SQLException {
+      return this._esql.names().lookup(fName, lName);
+   }//end customerIDs
+
+   /**
+    * Method to print bookings from the top K index, one row per booking
+    *
+    * @return the number of bookings written
+    */
+   public static int writeBookings (ResultWriter out, List<TopKIndex.Entry> bookings) {
+      out.begin(new String[] { "bid", "customer", "hotelid", "roomno", "bookingdate", "noofpeople", "price" },
+                new boolean[] { true, true, true, true, false, true, true });
+      for (TopKIndex.Entry e : bookings)
+         out.row(e.bID, e.customer, e.hotelID, e.roomNo, Days.toSqlDate(e.day), e.noOfPeople, e.price());
+      out.end();
+      return bookings.size();
+   }//end writeBookings
+
+   // the reports only read, so they may run on the replica
+   private int query (ResultWriter out, String sql, Object... params) throws SQLException {
+      return this._esql.executeRead(out, sql, params);
+   }//end query
+
+}//end HotelOps
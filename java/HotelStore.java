@@ -0,0 +1,152 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+
+/**
+ * This interface is the set of operations of the menu, independent of
+ * where the data is kept. HotelOps runs them against Postgres and
+ * MemoryStore against tables held in memory; Command, BatchRunner,
+ * HttpService and Benchmark work with either.
+ *
+ * A check that fails (no such room, wrong staff role, ...) throws
+ * OpException with the message the menu prints. A write the data refuses
+ * (a foreign key with no row behind it, an unknown enum value) throws
+ * SQLException, as Postgres would.
+ *
+ * Query results are written to the ResultWriter given, with the columns
+ * the SQL of the menu returns.
+ */
+
+public interface HotelStore {
+
+   /**
+    * Method to add a customer
+    *
+    * @return the new customerID
+    */
+   public int addCustomer (String fName, String lName, String address, long phone,
+                           java.sql.Date dob, String gender) throws SQLException;
+
+   /**
+    * Method to add a room to a hotel under the next free room number
+    *
+    * @return the new roomNo
+    */
+   public int addRoom (int hotelID, String roomType) throws SQLException;
+
+   /**
+    * Method to add a maintenance company
+    *
+    * @return the new cmpID
+    */
+   public int addMaintenanceCompany (String name, String address, boolean certified) throws SQLException;
+
+   /**
+    * Method to add a repair
+    *
+    * @return the new rID
+    */
+   public int addRepair (int hotelID, int roomNo, int mCompany, java.sql.Date repairDate,
+                         String description, String repairType) throws SQLException;
+
+   /**
+    * Method to book a room for a customer on one day
+    *
+    * @return the new bID
+    * @throws OpException when the room does not exist or is already booked
+    */
+   public int bookRoom (int hotelID, int roomNo, int customerID, java.sql.Date bookingDate,
+                        int noOfPeople, BigDecimal price) throws SQLException, OpException;
+
+   /**
+    * Method to assign a HouseCleaning staff member to a room of the hotel
+    * they work at
+    *
+    * @return the new asgID
+    * @throws OpException when the staff member or the room does not qualify
+    */
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException, OpException;
+
+   /**
+    * Method to record a repair request of a manager for a room of their
+    * hotel. The repair is filed under company 0 on 2000-01-01.
+    *
+    * @return the new reqID
+    * @throws OpException when the manager or the room does not qualify
+    */
+   public int repairRequest (int hotelID, int managerID, int roomNo, java.sql.Date requestDate) throws SQLException, OpException;
+
+   /**
+    * Method to count the rooms of a hotel that are free on every night of
+    * [date, date + nights), or that were never booked when date is null
+    */
+   public int numberOfAvailableRooms (int hotelID, java.sql.Date date, int nights);
+
+   /**
+    * Method to count the bookings of a hotel
+    */
+   public int numberOfBookedRooms (int hotelID, ResultWriter out) throws SQLException;
+
+   /**
+    * Method to list the bookings of a hotel dated in the week after a date
+    */
+   public int listHotelRoomBookingsForAWeek (int hotelID, java.sql.Date date, ResultWriter out) throws SQLException;
+
+   /**
+    * Method to list the K highest priced bookings between two dates (in
+    * either order, both included)
+    */
+   public int topKHighestRoomPriceForADateRange (java.sql.Date from, java.sql.Date to, int k, ResultWriter out);
+
+   /**
+    * Method to list the K highest priced bookings of a customer
+    */
+   public int topKHighestPriceBookingsForACustomer (int customerID, int k, ResultWriter out);
+
+   /**
+    * Method to get what a customer spent at a hotel on bookings dated from
+    * "from" to "to", both included
+    */
+   public int totalCostForCustomer (int customerID, int hotelID, java.sql.Date from, java.sql.Date to, ResultWriter out);
+
+   /**
+    * Method to list the revenue of every hotel from bookings dated from
+    * "from" to "to", both included
+    *
+    * @return the number of hotels listed
+    */
+   public int revenueByHotel (java.sql.Date from, java.sql.Date to, ResultWriter out);
+
+   /**
+    * Method to summarize every hotel with rooms on each day of [from,
+    * from + days): its rooms, how many are booked and free, and the
+    * revenue of those bookings
+    *
+    * @return the number of rows listed, one per hotel and day
+    */
+   public int chainOccupancy (java.sql.Date from, int days, ResultWriter out) throws SQLException;
+
+   /**
+    * Method to list the repairs of a maintenance company
+    *
+    * @throws OpException when there is no company with that name
+    */
+   public int listRepairsMade (String companyName, ResultWriter out) throws SQLException, OpException;
+
+   /**
+    * Method to list the K companies with the most repairs
+    */
+   public int topKMaintenanceCompany (int k, ResultWriter out);
+
+   /**
+    * Method to count the repairs of a room per year
+    *
+    * @throws OpException when the room does not exist
+    */
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, ResultWriter out) throws SQLException, OpException;
+
+   /**
+    * Method to get the IDs of the customers with a name, in ascending order
+    */
+   public int[] customerIDs (String fName, String lName) throws SQLException;
+
+}//end HotelStore
@@ -0,0 +1,268 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the operations of the menu over HTTP with JSON, so
+ * many clients can share one process, its connection pool and its
+ * in-memory indexes:
+ *
+ *   java HttpService <db> <port> <user>      (-Dhttp.port, default 8080)
+ *
+ * Every route maps to one Command. The inputs are taken from the path, the
+ * query string and, for POST, the JSON object in the body, under the same
+ * names as in the batch mode:
+ *
+ *   POST /customers                                  addCustomer
+ *   POST /hotels/{hotelID}/rooms                     addRoom
+ *   POST /companies                                  addMaintenanceCompany
+ *   POST /repairs                                    addRepair
+ *   POST /bookings                                   bookRoom
+ *   POST /assignments                                assignHouseCleaningToRoom
+ *   POST /repair-requests                            repairRequest
+ *   GET  /hotels/{hotelID}/available-rooms?date=&nights=
+ *   GET  /hotels/{hotelID}/booked-rooms
+ *   GET  /hotels/{hotelID}/bookings?date=            bookings for a week
+ *   GET  /bookings/top?from=&to=&k=
+ *   GET  /customers/{customerID}/bookings/top?k=
+ *   GET  /customers/{customerID}/total-cost?hotelID=&from=&to=
+ *   GET  /companies/repairs?name=
+ *   GET  /companies/top?k=
+ *   GET  /hotels/{hotelID}/rooms/{roomNo}/repairs-per-year
+ *   GET  /hotels/revenue?from=&to=                   revenueByHotel
+ *   GET  /hotels/occupancy?from=&days=               chainOccupancy
+ *
+ * A write answers 201 with {"id":n}, a query 200 with a JSON array of
+ * rows. Errors answer {"error":"..."} with 400 for bad input, 404 for an
+ * unknown path, 405 for a wrong method, 422 when a check of the operation
+ * failed and 500 for a database error.
+ *
+ * Requests run on a virtual thread each when the JVM has them (Java 21+),
+ * otherwise on a cached thread pool; the connection pool bounds how many
+ * touch the database at once.
+ */
+
+public class HttpService implements HttpHandler {
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final DBProject _esql;
+   private final List<Route> _routes = new ArrayList<Route>();
+
+   public HttpService (DBProject esql) {
+      this._esql = esql;
+      route("POST", "/customers", "addCustomer");
+      route("POST", "/hotels/{hotelID}/rooms", "addRoom");
+      route("POST", "/companies", "addMaintenanceCompany");
+      route("POST", "/repairs", "addRepair");
+      route("POST", "/bookings", "bookRoom");
+      route("POST", "/assignments", "assignHouseCleaningToRoom");
+      route("POST", "/repair-requests", "repairRequest");
+      route("GET", "/hotels/{hotelID}/available-rooms", "numberOfAvailableRooms");
+      route("GET", "/hotels/{hotelID}/booked-rooms", "numberOfBookedRooms");
+      route("GET", "/hotels/{hotelID}/bookings", "listHotelRoomBookingsForAWeek");
+      route("GET", "/bookings/top", "topKHighestRoomPriceForADateRange");
+      route("GET", "/customers/{customerID}/bookings/top", "topKHighestPriceBookingsForACustomer");
+      route("GET", "/customers/{customerID}/total-cost", "totalCostForCustomer");
+      route("GET", "/companies/repairs", "listRepairsMade");
+      route("GET", "/companies/top", "topKMaintenanceCompany");
+      route("GET", "/hotels/{hotelID}/rooms/{roomNo}/repairs-per-year", "numberOfRepairsForEachRoomPerYear");
+      route("GET", "/hotels/revenue", "revenueByHotel");
+      route("GET", "/hotels/occupancy", "chainOccupancy");
+   }//end HttpService
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-Dhttp.port=8080] [-cp <$classpath>] HttpService <dbname> <port> <user>");
+         return;
+      }//end if
+
+      try {
+         Class.forName("org.postgresql.Driver");
+         final DBProject esql = new DBProject(args[0], args[1], args[2], "");
+         final HttpServer server = HttpServer.create(new InetSocketAddress(Integer.getInteger("http.port", 8080)),
+                                                     Integer.getInteger("http.backlog", 256));
+         server.createContext("/", new HttpService(esql));
+         final ExecutorService executor = newRequestExecutor();
+         server.setExecutor(executor);
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run () {
+               server.stop(1);
+               executor.shutdown();
+               System.out.println(esql.poolStats());
+               esql.cleanup();
+            }
+         });
+         server.start();
+         System.out.println("Listening on port " + server.getAddress().getPort());
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end main
+
+   /**
+    * Method to get an executor that starts a virtual thread per request,
+    * or a cached thread pool on JVMs without virtual threads
+    */
+   public static ExecutorService newRequestExecutor () {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }catch (Exception e) {
+         return Executors.newCachedThreadPool();
+      }//end try
+   }//end newRequestExecutor
+
+   public void handle (HttpExchange exchange) throws IOException {
+      try {
+         String method = exchange.getRequestMethod();
+         String path = exchange.getRequestURI().getRawPath();
+         Route found = null;
+         Map<String, Object> args = null;
+         boolean pathMatched = false;
+         for (Route r : this._routes) {
+            Map<String, Object> m = r.match(path);
+            if (m == null)
+               continue;
+            pathMatched = true;
+            if (r.method.equals(method)) {
+               found = r;
+               args = m;
+               break;
+            }//end if
+         }//end for
+         if (found == null) {
+            respond(exchange, pathMatched ? 405 : 404, error(pathMatched ? "method not allowed" : "not found"));
+            return;
+         }//end if
+
+         // the path wins over the query string, which wins over the body
+         Map<String, Object> inputs = new LinkedHashMap<String, Object>();
+         if (method.equals("POST")) {
+            String body = new String(readAll(exchange.getRequestBody()), UTF8).trim();
+            if (body.length() > 0)
+               inputs.putAll(Json.parseObject(body));
+         }//end if
+         query(exchange.getRequestURI().getRawQuery(), inputs);
+         inputs.putAll(args);
+         Command cmd = new Command(found.op, inputs, 0);
+
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+         ResultWriter out = new ResultWriter(new BufferedWriter(new OutputStreamWriter(bytes, UTF8), 4096),
+                                             ResultWriter.Format.JSON);
+         int result = cmd.execute(this._esql.ops(), out);
+         out.end();
+         if (cmd.isWrite())
+            respond(exchange, 201, "{\"id\":" + result + "}");
+         else
+            respond(exchange, 200, array(new String(bytes.toByteArray(), UTF8)));
+      }catch (OpException e) {
+         respond(exchange, 422, error(e.getMessage()));
+      }catch (IllegalArgumentException e) {
+         respond(exchange, 400, error(e.getMessage()));
+      }catch (SQLException e) {
+         respond(exchange, 500, error(e.getMessage()));
+      }catch (RuntimeException e) {
+         respond(exchange, 500, error(String.valueOf(e)));
+      }finally {
+         exchange.close();
+      }//end try
+   }//end handle
+
+   private void route (String method, String pattern, String op) {
+      this._routes.add(new Route(method, pattern, op));
+   }//end route
+
+   /*
+    * JSON lines, one row per line, to a JSON array.
+    */
+   private static String array (String lines) {
+      String rows = lines.trim();
+      return rows.length() == 0 ? "[]" : "[" + rows.replace("\n", ",") + "]";
+   }//end array
+
+   private static String error (String message) {
+      return "{\"error\":" + Json.quote(String.valueOf(message)) + "}";
+   }//end error
+
+   private static void respond (HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes(UTF8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream os = exchange.getResponseBody();
+      os.write(bytes);
+      os.close();
+   }//end respond
+
+   private static void query (String raw, Map<String, Object> args) throws UnsupportedEncodingException {
+      if (raw == null)
+         return;
+      for (String pair : raw.split("&")) {
+         if (pair.length() == 0)
+            continue;
+         int eq = pair.indexOf('=');
+         String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+         String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+         args.put(name, value);
+      }//end for
+   }//end query
+
+   private static byte[] readAll (InputStream in) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) > 0)
+         out.write(buf, 0, n);
+      return out.toByteArray();
+   }//end readAll
+
+   /*
+    * A method and a path pattern; {name} segments become inputs.
+    */
+   private static final class Route {
+      final String method;
+      final String[] segments;
+      final String op;
+
+      Route (String method, String pattern, String op) {
+         this.method = method;
+         this.segments = pattern.substring(1).split("/");
+         this.op = op;
+      }
+
+      Map<String, Object> match (String path) {
+         String[] parts = path.length() > 1 ? path.substring(1).split("/") : new String[0];
+         if (parts.length != this.segments.length)
+            return null;
+         Map<String, Object> args = new LinkedHashMap<String, Object>();
+         for (int i = 0; i < parts.length; ++i) {
+            String s = this.segments[i];
+            if (s.startsWith("{"))
+               args.put(s.substring(1, s.length() - 1), parts[i]);
+            else if (!s.equals(parts[i]))
+               return null;
+         }//end for
+         return args;
+      }
+   }//end Route
+
+}//end HttpService
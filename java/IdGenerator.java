@@ -0,0 +1,170 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class hands out primary keys from blocks kept in memory, so an
+ * insert does not need a SELECT MAX(...) round trip first.
+ *
+ * Table keys come from Postgres sequences created with INCREMENT BY the
+ * block size (see create.sql). One nextval reserves a whole block of ids,
+ * which are then handed out locally. Because the sequence hands every
+ * caller a different block, ids stay unique across threads and across
+ * processes sharing the database.
+ *
+ * Room numbers are numbered per hotel, so they come from the
+ * RoomNoAllocator table instead: one UPDATE ... RETURNING reserves the next
+ * block for a hotel under that hotel's row lock.
+ *
+ * Unused ids of a block are lost when the process exits, so keys can have
+ * gaps.
+ */
+
+public class IdGenerator {
+
+   // sequence names, one per table with a generated key
+   public static final String CUSTOMER = "customer_id_seq";
+   public static final String COMPANY = "maintenancecompany_id_seq";
+   public static final String REPAIR = "repair_id_seq";
+   public static final String BOOKING = "booking_id_seq";
+   public static final String ASSIGNED = "assigned_id_seq";
+   public static final String REQUEST = "request_id_seq";
+
+   private static final String NEXT_BLOCK =
+      "SELECT nextval(CAST(? AS regclass)), (SELECT increment_by FROM pg_sequences WHERE sequencename = ?)";
+   static final String NEXT_ROOM_BLOCK =
+      "UPDATE RoomNoAllocator SET nextRoomNo = nextRoomNo + ? WHERE hotelID = ? RETURNING nextRoomNo - ?";
+   private static final String NEW_ROOM_ALLOCATOR =
+      "INSERT INTO RoomNoAllocator (hotelID, nextRoomNo) " +
+      "SELECT ?, COALESCE(MAX(roomNo), 0) + 1 FROM Room WHERE hotelID = ? ON CONFLICT (hotelID) DO NOTHING";
+
+   private final DBProject _esql;
+   private final int _roomBlockSize;
+
+   private final ConcurrentHashMap<String, Block> _tables = new ConcurrentHashMap<String, Block>();
+   private final ConcurrentHashMap<Integer, Block> _rooms = new ConcurrentHashMap<Integer, Block>();
+
+   /**
+    * Creates a new generator
+    *
+    * @param esql the database the blocks are reserved in
+    * @param roomBlockSize how many room numbers to reserve per hotel at once
+    */
+   public IdGenerator (DBProject esql, int roomBlockSize) {
+      this._esql = esql;
+      this._roomBlockSize = roomBlockSize;
+   }//end IdGenerator
+
+   /**
+    * Method to get the next key of a table
+    *
+    * @param sequence one of the sequence name constants
+    * @return an id no other caller has received
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public int next (String sequence) throws SQLException {
+      Block b = this._tables.get(sequence);
+      if (b == null) {
+         this._tables.putIfAbsent(sequence, new Block());
+         b = this._tables.get(sequence);
+      }//end if
+      b.lock.lock();
+      try {
+         if (b.isEmpty())
+            reserveTableBlock(sequence, b);
+         return b.take();
+      } finally {
+         b.lock.unlock();
+      }//end try
+   }//end next
+
+   /**
+    * Method to get the next room number of a hotel
+    *
+    * @param hotelID the hotel the room is added to
+    * @return a room number not used in that hotel
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public int nextRoomNo (int hotelID) throws SQLException {
+      Integer key = Integer.valueOf(hotelID);
+      Block b = this._rooms.get(key);
+      if (b == null) {
+         this._rooms.putIfAbsent(key, new Block());
+         b = this._rooms.get(key);
+      }//end if
+      b.lock.lock();
+      try {
+         if (b.isEmpty())
+            reserveRoomBlock(hotelID, b);
+         return b.take();
+      } finally {
+         b.lock.unlock();
+      }//end try
+   }//end nextRoomNo
+
+   private void reserveTableBlock (String sequence, Block b) throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         PreparedStatement stmt = this._esql.prepare(conn, NEXT_BLOCK);
+         StatementCache.bind(stmt, sequence, sequence);
+         ResultSet rs = this._esql.fetch(stmt);
+         try {
+            rs.next();
+            b.reset(rs.getInt(1), rs.getInt(2));
+         } finally {
+            rs.close();
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end reserveTableBlock
+
+   private void reserveRoomBlock (int hotelID, Block b) throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         for (int attempt = 0; attempt < 2; ++attempt) {
+            PreparedStatement stmt = this._esql.prepare(conn, NEXT_ROOM_BLOCK);
+            StatementCache.bind(stmt, this._roomBlockSize, hotelID, this._roomBlockSize);
+            ResultSet rs = this._esql.fetch(stmt);
+            try {
+               if (rs.next()) {
+                  b.reset(rs.getInt(1), this._roomBlockSize);
+                  return;
+               }//end if
+            } finally {
+               rs.close();
+            }//end try
+
+            // first room number handed out for this hotel: seed its row
+            stmt = this._esql.prepare(conn, NEW_ROOM_ALLOCATOR);
+            StatementCache.bind(stmt, hotelID, hotelID);
+            this._esql.update(stmt);
+         }//end for
+         throw new SQLException("Unable to reserve room numbers for hotel " + hotelID);
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end reserveRoomBlock
+
+   /*
+    * A run of ids [next, end) reserved from the database. The lock is held
+    * across the round trip that refills it; a ReentrantLock rather than a
+    * monitor, so a virtual thread waiting on it does not pin its carrier.
+    */
+   private static class Block {
+      final ReentrantLock lock = new ReentrantLock();
+      private int next = 0;
+      private int end = 0;
+
+      boolean isEmpty () { return this.next >= this.end; }
+      int take () { return this.next++; }
+      void reset (int start, int size) {
+         this.next = start;
+         this.end = start + Math.max(size, 1);
+      }
+   }//end Block
+
+}//end IdGenerator
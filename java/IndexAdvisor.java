@@ -0,0 +1,625 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class runs the SQL of the menu operations under EXPLAIN (ANALYZE,
+ * BUFFERS, VERBOSE) and suggests indexes for what it finds:
+ *   - every query of QUERIES runs once with parameters drawn from the data
+ *     (the busiest hotel, the customer with the most bookings, ...);
+ *     writes are rolled back,
+ *   - the plans are saved to -Dadvisor.dir (default plans) as one file per
+ *     run, and compared with the previous run: a plan whose shape changed
+ *     or that got more than twice as slow is reported as a regression,
+ *   - sequential scans with a filter and sorts are flagged, and for each
+ *     an index is proposed on the filtered columns (equality first, then
+ *     the sort or range column), covering the other columns the scan
+ *     returns when they are few, and partial when the SQL compares a
+ *     column with a constant. Indexes whose leading columns an existing
+ *     index already has are skipped.
+ *
+ * Several operations are answered from in-memory indexes (see DBProject);
+ * for those the SQL they correspond to is explained instead and marked
+ * "memory", since ad hoc reports and a cold start still run it.
+ *
+ *   java IndexAdvisor <db> <port> <user> explain | apply
+ *
+ * apply builds the proposed indexes CONCURRENTLY and explains again.
+ */
+
+public class IndexAdvisor {
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // operation, where it runs (live: sent by the program, memory: the SQL
+   // an in-memory index stands for), SQL, parameters: sample names, 'text or numbers
+   private static final String[][] QUERIES = {
+      { "addCustomer", "live",
+        "INSERT INTO Customer (customerID,fName,lName,Address,phNo,DOB,gender) VALUES (?,?,?,?,?,?,CAST(? AS GenderType))",
+        "newID 'Advisor 'Probe 'none phone date 'Other" },
+      { "addRoom", "live", IdGenerator.NEXT_ROOM_BLOCK, "1 hotel 1" },
+      { "addRoom", "live", "INSERT INTO ROOM (hotelID, roomNo, roomType) VALUES (?, ?, ?)", "hotel newID 'Suite" },
+      { "addMaintenanceCompany", "live",
+        "INSERT INTO MaintenanceCompany (cmpID,name,address,isCertified) VALUES (?, ?, ?, ?)", "newID 'Advisor 'none true" },
+      { "addRepair", "live",
+        "INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (?, ?, ?, ?, ?, ?, ?)",
+        "newID hotel room company date 'none 'Small" },
+      { "bookRoom", "live",
+        "INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents) VALUES (?, ?, ?, ?, ?, ?, ?)",
+        "newID customer hotel room date 2 10000" },
+      // the lookups of assign_house_cleaning and repair_request (sql/functions.sql)
+      { "assignHouseCleaningToRoom", "live", "SELECT role, employerID FROM Staff WHERE SSN = ?", "cleaner" },
+      { "assignHouseCleaningToRoom", "live", "SELECT 1 FROM Room WHERE hotelID = ? AND roomNo = ?", "hotel room" },
+      { "assignHouseCleaningToRoom", "live",
+        "INSERT INTO Assigned(asgID, staffID, hotelID, roomNo) VALUES (?, ?, ?, ?)", "newID cleaner hotel room" },
+      { "repairRequest", "live",
+        "INSERT INTO Request(reqID, managerID, repairID, requestDate) VALUES (?, ?, ?, ?)", "newID manager repair date" },
+      { "numberOfAvailableRooms", "memory",
+        "SELECT COUNT(*) FROM Room R WHERE R.hotelID = ? AND NOT EXISTS (SELECT 1 FROM Booking B WHERE B.hotelID = R.hotelID " +
+        "AND B.roomNo = R.roomNo AND B.bookingDate >= CAST(? AS DATE) AND B.bookingDate < CAST(? AS DATE) + 1)",
+        "hotel date date" },
+      { "numberOfAvailableRooms", "memory",
+        "SELECT COUNT(*) FROM Room R WHERE R.hotelID = ? AND NOT EXISTS (SELECT 1 FROM Booking B WHERE B.hotelID = R.hotelID " +
+        "AND B.roomNo = R.roomNo)", "hotel" },
+      { "numberOfBookedRooms", "live", "SELECT COUNT(B) FROM Booking B WHERE B.hotelId = ?", "hotel" },
+      { "listHotelRoomBookingsForAWeek", "live", HotelOps.WEEK_BOOKINGS, "hotel date date" },
+      { "topKHighestRoomPriceForADateRange", "memory",
+        "SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents FROM Booking " +
+        "WHERE bookingDate >= CAST(? AS DATE) AND bookingDate <= CAST(? AS DATE) ORDER BY priceCents DESC, bID LIMIT ?",
+        "date dateTo 10" },
+      { "topKHighestPriceBookingsForACustomer", "live", NameCache.QUERY, "lName fName" },
+      { "topKHighestPriceBookingsForACustomer", "memory",
+        "SELECT bID, priceCents FROM Booking WHERE customer = ? ORDER BY priceCents DESC, bID LIMIT ?", "customer 10" },
+      { "totalCostForCustomer", "memory",
+        "SELECT SUM(priceCents) FROM Booking WHERE hotelID = ? AND customer = ? " +
+        "AND bookingDate >= CAST(? AS DATE) AND bookingDate <= CAST(? AS DATE)", "customerHotel customer date dateTo" },
+      { "revenueByHotel", "memory",
+        "SELECT hotelID, SUM(priceCents) FROM Booking WHERE bookingDate >= CAST(? AS DATE) AND bookingDate <= CAST(? AS DATE) " +
+        "GROUP BY hotelID ORDER BY hotelID", "date dateTo" },
+      { "chainOccupancy", "live", ChainReport.QUERY, "0 2147483647 date 0 2147483647 date dateTo" },
+      { "listRepairsMade", "live", "SELECT cmpID FROM MaintenanceCompany WHERE name = ?", "companyName" },
+      { "listRepairsMade", "live",
+        "SELECT rID, hotelID, roomNo, repairType FROM Repair WHERE mCompany = ? ORDER BY hotelID DESC", "company" },
+      { "topKMaintenanceCompany", "memory",
+        "SELECT M.cmpID, M.name, COUNT(*) FROM MaintenanceCompany M JOIN Repair R ON R.mCompany = M.cmpID " +
+        "GROUP BY M.cmpID, M.name ORDER BY COUNT(*) DESC, M.cmpID LIMIT ?", "10" },
+      { "numberOfRepairsForEachRoomPerYear", "memory",
+        "SELECT COUNT(*), EXTRACT(YEAR FROM repairDate) FROM Repair WHERE hotelID = ? AND roomNo = ? " +
+        "GROUP BY EXTRACT(YEAR FROM repairDate)", "repairHotel repairRoom" },
+   };
+
+   // plan nodes, their details and the numbers in them
+   private static final Pattern NODE = Pattern.compile("^(\\s*)(?:->\\s+)?([A-Z][A-Za-z ]+?)(?: on (\\S+)(?: (\\w+))?)?(?: using \\S+ on (\\S+)(?: (\\w+))?)?\\s+\\(cost=.*$");
+   private static final Pattern COLUMN_OP = Pattern.compile("(?:(\\w+)\\.)?(\\w+) (=|<|>|<=|>=) ");
+   private static final Pattern COLUMN = Pattern.compile("(?:(\\w+)\\.)?(\\w+)");
+   private static final Pattern LITERAL = Pattern.compile("(\\w+)\\s*=\\s*'([^']*)'");
+   private static final Pattern EXECUTION = Pattern.compile("Execution Time: ([0-9.]+) ms");
+   private static final Pattern PARTITION = Pattern.compile("booking_\\d+q\\d|booking_default");
+
+   private final Connection _conn;
+   private final Map<String, Object> _samples = new HashMap<String, Object>();
+   private final Map<String, Set<String>> _columns = new HashMap<String, Set<String>>();
+
+   public IndexAdvisor (Connection conn) {
+      this._conn = conn;
+   }//end IndexAdvisor
+
+   public static void main (String[] args) {
+      if (args.length < 4 || !(args[3].equals("explain") || args[3].equals("apply"))) {
+         System.err.println (
+            "Usage: " +
+            "java [-cp <$classpath>] IndexAdvisor <dbname> <port> <user> explain | apply");
+         return;
+      }//end if
+      ConnectionPool pool = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "", 1, 60000L);
+         Connection conn = pool.checkout();
+         try {
+            if (SchemaMigration.version(conn) < SchemaMigration.CURRENT)
+               throw new IllegalStateException("Schema version " + SchemaMigration.version(conn) +
+                                               ", run SchemaMigration first");
+            IndexAdvisor advisor = new IndexAdvisor(conn);
+            File dir = new File(System.getProperty("advisor.dir", "plans"));
+            Run run = advisor.explain();
+            System.out.print(run.report(Run.latest(dir)));
+            run.save(dir);
+            if (args[3].equals("apply") && !run.proposals.isEmpty()) {
+               Statement stmt = conn.createStatement();
+               try {
+                  for (String def : run.proposals.keySet()) {
+                     long start = System.currentTimeMillis();
+                     SchemaMigration.buildIndex(conn, stmt, def);
+                     stmt.execute("ANALYZE " + table(def));
+                     System.out.println("Built " + def + " (" + (System.currentTimeMillis() - start) + " ms)");
+                  }//end for
+               } finally {
+                  stmt.close();
+               }//end try
+               Run after = advisor.explain();
+               System.out.print(after.report(run));
+               after.save(dir);
+            }//end if
+         } finally {
+            pool.checkin(conn);
+         }//end try
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (pool != null)
+            pool.close();
+      }//end try
+   }//end main
+
+   /**
+    * Method to explain every query of the operations
+    *
+    * @return the plans, what they flag and the indexes proposed
+    * @throws java.sql.SQLException when the samples cannot be read or a query fails
+    */
+   public Run explain () throws SQLException {
+      if (this._samples.isEmpty())
+         sample();
+      Run run = new Run(new SimpleDateFormat("yyyyMMdd-HHmmss").format(new java.util.Date()));
+      this._conn.setAutoCommit(false);
+      try {
+         for (int q = 0; q < QUERIES.length; ++q) {
+            String[] spec = QUERIES[q];
+            String name = spec[0] + "#" + (q + 1);
+            PreparedStatement stmt = this._conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS, VERBOSE) " + spec[2]);
+            List<String> plan = new ArrayList<String>();
+            try {
+               String[] params = spec[3].split(" ");
+               Object[] values = new Object[params.length];
+               for (int i = 0; i < params.length; ++i)
+                  values[i] = param(params[i]);
+               StatementCache.bind(stmt, values);
+               ResultSet rs = stmt.executeQuery();
+               while (rs.next())
+                  plan.add(rs.getString(1));
+               rs.close();
+            } finally {
+               stmt.close();
+               // EXPLAIN ANALYZE runs the statement; keep nothing it wrote
+               this._conn.rollback();
+            }//end try
+            run.add(name, spec[1], plan);
+            analyze(run, name, spec[2], plan);
+         }//end for
+      } finally {
+         this._conn.setAutoCommit(true);
+      }//end try
+      return run;
+   }//end explain
+
+   /*
+    * Flags sequential scans with a filter and sorts, and proposes an index
+    * for each scanned table.
+    */
+   private void analyze (Run run, String name, String sql, List<String> plan) throws SQLException {
+      // the scans of the plan, with what filters and sorts apply to them
+      List<Scan> scans = new ArrayList<Scan>();
+      List<String> sortKeys = new ArrayList<String>();
+      Scan current = null;
+      String node = null;
+      for (String line : plan) {
+         Matcher m = NODE.matcher(line);
+         if (m.matches()) {
+            node = m.group(2).trim();
+            current = null;
+            if (node.equals("Seq Scan")) {
+               current = new Scan(parent(unqualified(m.group(3))), m.group(4));
+               scans.add(current);
+            }//end if
+            continue;
+         }//end if
+         String detail = line.trim();
+         if (current != null && detail.startsWith("Filter: "))
+            current.filter = detail.substring(8);
+         else if (current != null && detail.startsWith("Output: "))
+            current.output = detail.substring(8);
+         else if (current != null && detail.startsWith("Rows Removed by Filter: "))
+            current.removed += Long.parseLong(detail.substring(24));
+         else if ("Sort".equals(node) && detail.startsWith("Sort Key: ")) {
+            sortKeys.add(detail.substring(10));
+            run.flag(name, "sort on " + detail.substring(10));
+         } else if ("Sort".equals(node) && detail.startsWith("Sort Method: ") && detail.contains("external"))
+            run.flag(name, "sort spilled to disk: " + detail.substring(13));
+      }//end for
+
+      Set<String> seen = new LinkedHashSet<String>();
+      for (Scan s : scans) {
+         if (s.filter == null || !seen.add(s.table))
+            continue;
+         run.flag(name, "seq scan on " + s.table + " filtering " + s.filter +
+                        (s.removed > 0 ? ", " + s.removed + " rows removed" : ""));
+         String def = propose(s, sortKeys, sql);
+         if (def != null)
+            run.propose(def, name);
+      }//end for
+   }//end analyze
+
+   /*
+    * An index for a filtered scan, or null when none would help or one
+    * already exists.
+    */
+   private String propose (Scan s, List<String> sortKeys, String sql) throws SQLException {
+      Set<String> columns = columns(s.table);
+      // constants written into the SQL make the index partial
+      List<String> partial = new ArrayList<String>();
+      Matcher lit = LITERAL.matcher(sql);
+      while (lit.find())
+         if (columns.contains(lit.group(1).toLowerCase()))
+            partial.add(lit.group(1).toLowerCase() + " = '" + lit.group(2) + "'");
+
+      Set<String> equal = new LinkedHashSet<String>();
+      Set<String> range = new LinkedHashSet<String>();
+      Matcher m = COLUMN_OP.matcher(s.filter);
+      while (m.find()) {
+         String c = m.group(2).toLowerCase();
+         if (!columns.contains(c) || (m.group(1) != null && s.alias != null && !m.group(1).equals(s.alias)))
+            continue;
+         if (m.group(3).equals("="))
+            equal.add(c);
+         else
+            range.add(c);
+      }//end while
+      for (String p : partial)
+         equal.remove(p.substring(0, p.indexOf(' ')));
+
+      List<String> key = new ArrayList<String>(equal);
+      // an ordered scan of the sort column beats a range that is sorted after
+      String sorted = null;
+      for (String k : sortKeys) {
+         Matcher c = COLUMN.matcher(k.split(",")[0].trim());
+         if (c.lookingAt() && columns.contains(c.group(2)) && (c.group(1) == null || s.alias == null || c.group(1).equals(s.alias)))
+            sorted = c.group(2);
+      }//end for
+      if (sorted != null && !key.contains(sorted))
+         key.add(sorted);
+      else if (!range.isEmpty())
+         key.add(range.iterator().next());
+      if (key.isEmpty() || covered(s.table, key))
+         return null;
+
+      // the other columns returned, when few, so an index-only scan answers
+      List<String> include = new ArrayList<String>();
+      if (s.output != null) {
+         for (String o : s.output.split(",")) {
+            Matcher c = COLUMN.matcher(o.trim());
+            if (c.matches() && columns.contains(c.group(2)) && !key.contains(c.group(2)) && !include.contains(c.group(2)))
+               include.add(c.group(2));
+         }//end for
+      }//end if
+      StringBuilder def = new StringBuilder("CREATE INDEX ");
+      String idx = "adv_" + s.table + "_" + join(key, "_");
+      def.append(idx.substring(0, Math.min(idx.length(), 63))).append(" ON ").append(s.table)
+         .append(" USING btree (").append(join(key, ", ")).append(")");
+      if (!include.isEmpty() && include.size() <= 3)
+         def.append(" INCLUDE (").append(join(include, ", ")).append(")");
+      if (!partial.isEmpty())
+         def.append(" WHERE ").append(join(partial, " AND "));
+      return def.toString();
+   }//end propose
+
+   /*
+    * Whether an index of the table starts with these columns.
+    */
+   private boolean covered (String table, List<String> key) throws SQLException {
+      String wanted = join(key, ", ");
+      for (String def : strings("SELECT pg_get_indexdef(indexrelid) FROM pg_index WHERE indrelid = CAST('" + table + "' AS regclass)")) {
+         int open = def.indexOf('(', def.indexOf(" USING "));
+         String cols = def.substring(open + 1, def.indexOf(')', open));
+         if ((cols + ",").startsWith(wanted + ","))
+            return true;
+      }//end for
+      return false;
+   }//end covered
+
+   /*
+    * Parameters for the queries, from the data.
+    */
+   private void sample () throws SQLException {
+      Object[] r = row("SELECT hotelID, COUNT(*) FROM Booking GROUP BY hotelID ORDER BY 2 DESC LIMIT 1");
+      int hotel = ((Number) r[0]).intValue();
+      this._samples.put("hotel", hotel);
+      this._samples.put("room", row("SELECT roomNo FROM Room WHERE hotelID = " + hotel + " ORDER BY roomNo LIMIT 1")[0]);
+      r = row("SELECT B.customer, C.fName, C.lName, MIN(B.hotelID) FROM Booking B JOIN Customer C ON C.customerID = B.customer " +
+              "GROUP BY B.customer, C.fName, C.lName ORDER BY COUNT(*) DESC LIMIT 1");
+      this._samples.put("customer", r[0]);
+      this._samples.put("fName", r[1]);
+      this._samples.put("lName", r[2]);
+      this._samples.put("customerHotel", r[3]);
+      r = row("SELECT M.cmpID, M.name FROM MaintenanceCompany M JOIN Repair R ON R.mCompany = M.cmpID " +
+              "GROUP BY M.cmpID, M.name ORDER BY COUNT(*) DESC LIMIT 1");
+      this._samples.put("company", r[0]);
+      this._samples.put("companyName", r[1]);
+      r = row("SELECT rID, hotelID, roomNo FROM Repair ORDER BY rID DESC LIMIT 1");
+      this._samples.put("repair", r[0]);
+      this._samples.put("repairHotel", r[1]);
+      this._samples.put("repairRoom", r[2]);
+      this._samples.put("cleaner", row("SELECT MIN(SSN) FROM Staff WHERE role = 'HouseCleaning'")[0]);
+      this._samples.put("manager", row("SELECT MIN(SSN) FROM Staff WHERE role = 'Manager'")[0]);
+      // the median booking date and the quarter after it
+      java.sql.Date date = (java.sql.Date) row("SELECT bookingDate FROM Booking ORDER BY bookingDate " +
+                                               "OFFSET (SELECT COUNT(*) / 2 FROM Booking) LIMIT 1")[0];
+      this._samples.put("date", date);
+      this._samples.put("dateTo", Days.toSqlDate(Days.of(date) + 90));
+      this._samples.put("phone", 5550000000L);
+      // keys no row has; the writes are rolled back anyway
+      this._samples.put("newID", -1);
+   }//end sample
+
+   private Object param (String name) {
+      if (name.startsWith("'"))
+         return name.substring(1);
+      if (name.equals("true") || name.equals("false"))
+         return Boolean.valueOf(name);
+      if (name.matches("[0-9]+"))
+         return Integer.valueOf(name);
+      if (!this._samples.containsKey(name))
+         throw new IllegalArgumentException("no sample " + name);
+      Object v = this._samples.get(name);
+      // Numeric columns read back as BigDecimal on an older driver
+      return v instanceof java.math.BigDecimal ? Integer.valueOf(((Number) v).intValue()) : v;
+   }//end param
+
+   // a partition's parent, or the table itself
+   private String parent (String table) throws SQLException {
+      List<String> p = strings("SELECT p.relname FROM pg_inherits h JOIN pg_class c ON c.oid = h.inhrelid " +
+                               "JOIN pg_class p ON p.oid = h.inhparent WHERE c.relname = '" + table + "'");
+      return p.isEmpty() ? table : p.get(0);
+   }//end parent
+
+   private Set<String> columns (String table) throws SQLException {
+      Set<String> c = this._columns.get(table);
+      if (c == null) {
+         c = new LinkedHashSet<String>(strings("SELECT attname FROM pg_attribute WHERE attrelid = CAST('" + table +
+                                               "' AS regclass) AND attnum > 0 AND NOT attisdropped"));
+         this._columns.put(table, c);
+      }//end if
+      return c;
+   }//end columns
+
+   private Object[] row (String sql) throws SQLException {
+      Statement stmt = this._conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         if (!rs.next())
+            throw new SQLException("No rows to sample: " + sql);
+         Object[] r = new Object[rs.getMetaData().getColumnCount()];
+         for (int i = 0; i < r.length; ++i)
+            r[i] = rs.getObject(i + 1);
+         rs.close();
+         return r;
+      } finally {
+         stmt.close();
+      }//end try
+   }//end row
+
+   private List<String> strings (String sql) throws SQLException {
+      List<String> out = new ArrayList<String>();
+      Statement stmt = this._conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         while (rs.next())
+            out.add(rs.getString(1));
+         rs.close();
+      } finally {
+         stmt.close();
+      }//end try
+      return out;
+   }//end strings
+
+   private static String unqualified (String name) {
+      return name.substring(name.indexOf('.') + 1);
+   }//end unqualified
+
+   private static String table (String def) {
+      Matcher m = Pattern.compile(" ON (\\S+) USING ").matcher(def);
+      return m.find() ? m.group(1) : "";
+   }//end table
+
+   private static String join (List<String> parts, String sep) {
+      StringBuilder b = new StringBuilder();
+      for (String p : parts)
+         b.append(b.length() == 0 ? "" : sep).append(p);
+      return b.toString();
+   }//end join
+
+   // a sequential scan and what the plan says about it
+   private static final class Scan {
+      final String table;
+      final String alias;
+      String filter = null;
+      String output = null;
+      long removed = 0;
+      Scan (String table, String alias) { this.table = table; this.alias = alias; }
+   }//end Scan
+
+   /**
+    * The plans of one run, what they flag and the indexes proposed
+    */
+   public static final class Run {
+      public final String id;
+      final Map<String, List<String>> plans = new LinkedHashMap<String, List<String>>();
+      final Map<String, String> where = new HashMap<String, String>();
+      final Map<String, List<String>> flags = new LinkedHashMap<String, List<String>>();
+      // index definition -> queries it is for
+      final Map<String, List<String>> proposals = new LinkedHashMap<String, List<String>>();
+
+      Run (String id) {
+         this.id = id;
+      }
+
+      void add (String query, String runsIn, List<String> plan) {
+         this.plans.put(query, plan);
+         this.where.put(query, runsIn);
+      }
+
+      void flag (String query, String text) {
+         if (!this.flags.containsKey(query))
+            this.flags.put(query, new ArrayList<String>());
+         this.flags.get(query).add(text);
+      }
+
+      void propose (String def, String query) {
+         if (!this.proposals.containsKey(def))
+            this.proposals.put(def, new ArrayList<String>());
+         this.proposals.get(def).add(query);
+      }
+
+      /**
+       * Method to describe the run and how it differs from an earlier one
+       *
+       * @param before an earlier run, or null
+       */
+      public String report (Run before) {
+         StringBuilder b = new StringBuilder();
+         b.append(String.format("Run %s%n%-42s %-7s %10s %12s%n", this.id, "query", "runs", "ms", "shared read"));
+         for (String q : this.plans.keySet()) {
+            b.append(String.format("%-42s %-7s %10.3f %12d%n", q, this.where.get(q), time(this.plans.get(q)),
+                                   read(this.plans.get(q))));
+            if (this.flags.containsKey(q))
+               for (String f : this.flags.get(q))
+                  b.append("    ! ").append(f).append(String.format("%n"));
+         }//end for
+         if (!this.proposals.isEmpty()) {
+            b.append(String.format("Proposed indexes:%n"));
+            for (Map.Entry<String, List<String>> p : this.proposals.entrySet())
+               b.append("  ").append(p.getKey()).append(";  -- ").append(join(p.getValue(), ", ")).append(String.format("%n"));
+         }//end if
+         if (before != null) {
+            b.append(String.format("Compared with run %s:%n", before.id));
+            int changes = 0;
+            for (String q : this.plans.keySet()) {
+               List<String> old = before.plans.get(q);
+               if (old == null)
+                  continue;
+               List<String> was = shape(old);
+               List<String> now = shape(this.plans.get(q));
+               double t0 = time(old);
+               double t1 = time(this.plans.get(q));
+               boolean slower = t1 > 2 * t0 && t1 - t0 > 1;
+               if (was.equals(now) && !slower)
+                  continue;
+               changes++;
+               b.append(String.format("  %s%s: %.3f -> %.3f ms%n", slower ? "REGRESSION " : "", q, t0, t1));
+               for (String l : was)
+                  if (!now.contains(l))
+                     b.append("    - ").append(l).append(String.format("%n"));
+               for (String l : now)
+                  if (!was.contains(l))
+                     b.append("    + ").append(l).append(String.format("%n"));
+            }//end for
+            if (changes == 0)
+               b.append(String.format("  no plan changes%n"));
+         }//end if
+         return b.toString();
+      }//end report
+
+      /**
+       * Method to write the plans to <dir>/<id>.plans
+       */
+      public void save (File dir) throws IOException {
+         dir.mkdirs();
+         PrintWriter out = new PrintWriter(new File(dir, this.id + ".plans"), "UTF-8");
+         try {
+            for (Map.Entry<String, List<String>> p : this.plans.entrySet()) {
+               out.println("### " + p.getKey() + " " + this.where.get(p.getKey()));
+               for (String line : p.getValue())
+                  out.println(line);
+            }//end for
+         } finally {
+            out.close();
+         }//end try
+      }//end save
+
+      /**
+       * Method to read the most recent run saved in a folder
+       *
+       * @return the run, or null when there is none
+       */
+      public static Run latest (File dir) throws IOException {
+         String[] files = dir.list();
+         if (files == null)
+            return null;
+         Arrays.sort(files);
+         for (int i = files.length - 1; i >= 0; --i) {
+            if (!files[i].endsWith(".plans"))
+               continue;
+            Run run = new Run(files[i].substring(0, files[i].length() - ".plans".length()));
+            List<String> plan = null;
+            for (String line : Files.readAllLines(new File(dir, files[i]).toPath(), UTF8)) {
+               if (line.startsWith("### ")) {
+                  String[] f = line.substring(4).split(" ");
+                  plan = new ArrayList<String>();
+                  run.add(f[0], f.length > 1 ? f[1] : "", plan);
+               } else if (plan != null) {
+                  plan.add(line);
+               }//end if
+            }//end for
+            return run;
+         }//end for
+         return null;
+      }//end latest
+
+      // the nodes of a plan without costs, timings and partition names
+      private static List<String> shape (List<String> plan) {
+         List<String> out = new ArrayList<String>();
+         for (String line : plan) {
+            Matcher m = NODE.matcher(line);
+            if (!m.matches())
+               continue;
+            String node = line.substring(0, line.indexOf("  (cost=")).replace("->", "").trim();
+            node = PARTITION.matcher(node).replaceAll("booking_*");
+            // one line for the partitions of an Append
+            if (out.isEmpty() || !out.get(out.size() - 1).equals(node))
+               out.add(node);
+         }//end for
+         return out;
+      }//end shape
+
+      private static double time (List<String> plan) {
+         for (String line : plan) {
+            Matcher m = EXECUTION.matcher(line);
+            if (m.find())
+               return Double.parseDouble(m.group(1));
+         }//end for
+         return 0;
+      }//end time
+
+      // blocks read from disk by the top node, which counts its children's
+      private static long read (List<String> plan) {
+         for (String line : plan) {
+            int i = line.indexOf("Buffers: shared");
+            if (i >= 0) {
+               Matcher m = Pattern.compile("read=(\\d+)").matcher(line);
+               return m.find() ? Long.parseLong(m.group(1)) : 0;
+            }//end if
+         }//end for
+         return 0;
+      }//end read
+   }//end Run
+
+}//end IndexAdvisor
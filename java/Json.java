@@ -0,0 +1,215 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads JSON text into plain Java values: objects become
+ * LinkedHashMap, arrays ArrayList, numbers BigDecimal, and true, false and
+ * null become Boolean.TRUE, Boolean.FALSE and null. It is meant for the
+ * small command documents of the batch mode, not for large files.
+ */
+
+public class Json {
+
+   private final String _text;
+   private int _pos = 0;
+
+   private Json (String text) {
+      this._text = text;
+   }//end Json
+
+   /**
+    * Method to parse one JSON value
+    *
+    * @param text the JSON text; only whitespace may follow the value
+    * @return the value
+    * @throws IllegalArgumentException when the text is not valid JSON
+    */
+   public static Object parse (String text) {
+      Json p = new Json(text);
+      Object value = p.value();
+      p.skipSpace();
+      if (p._pos != text.length())
+         throw p.error("unexpected text after the value");
+      return value;
+   }//end parse
+
+   /**
+    * Method to parse a JSON object
+    *
+    * @throws IllegalArgumentException when the text is not a JSON object
+    */
+   @SuppressWarnings("unchecked")
+   public static Map<String, Object> parseObject (String text) {
+      Object value = parse(text);
+      if (!(value instanceof Map))
+         throw new IllegalArgumentException("expected a JSON object");
+      return (Map<String, Object>) value;
+   }//end parseObject
+
+   /**
+    * Method to write a string as a JSON string literal, quotes included
+    */
+   public static String quote (String s) {
+      StringBuilder b = new StringBuilder(s.length() + 2);
+      b.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': b.append("\\\""); break;
+            case '\\': b.append("\\\\"); break;
+            case '\n': b.append("\\n"); break;
+            case '\r': b.append("\\r"); break;
+            case '\t': b.append("\\t"); break;
+            default:
+               if (c < 0x20)
+                  b.append(String.format("\\u%04x", (int) c));
+               else
+                  b.append(c);
+         }//end switch
+      }//end for
+      return b.append('"').toString();
+   }//end quote
+
+   private Object value () {
+      skipSpace();
+      if (this._pos >= this._text.length())
+         throw error("unexpected end of input");
+      char c = this._text.charAt(this._pos);
+      switch (c) {
+         case '{': return object();
+         case '[': return array();
+         case '"': return string();
+         case 't': return literal("true", Boolean.TRUE);
+         case 'f': return literal("false", Boolean.FALSE);
+         case 'n': return literal("null", null);
+         default:
+            if (c == '-' || (c >= '0' && c <= '9'))
+               return number();
+            throw error("unexpected character '" + c + "'");
+      }//end switch
+   }//end value
+
+   private Map<String, Object> object () {
+      Map<String, Object> out = new LinkedHashMap<String, Object>();
+      this._pos++;
+      skipSpace();
+      if (peek('}')) {
+         this._pos++;
+         return out;
+      }//end if
+      do {
+         skipSpace();
+         if (!peek('"'))
+            throw error("expected a member name");
+         String name = string();
+         skipSpace();
+         expect(':');
+         out.put(name, value());
+         skipSpace();
+      }while (accept(','));
+      expect('}');
+      return out;
+   }//end object
+
+   private List<Object> array () {
+      List<Object> out = new ArrayList<Object>();
+      this._pos++;
+      skipSpace();
+      if (peek(']')) {
+         this._pos++;
+         return out;
+      }//end if
+      do {
+         out.add(value());
+         skipSpace();
+      }while (accept(','));
+      expect(']');
+      return out;
+   }//end array
+
+   private String string () {
+      StringBuilder b = new StringBuilder();
+      this._pos++;
+      while (true) {
+         if (this._pos >= this._text.length())
+            throw error("unterminated string");
+         char c = this._text.charAt(this._pos++);
+         if (c == '"')
+            return b.toString();
+         if (c != '\\') {
+            b.append(c);
+            continue;
+         }//end if
+         if (this._pos >= this._text.length())
+            throw error("unterminated string");
+         char e = this._text.charAt(this._pos++);
+         switch (e) {
+            case '"': case '\\': case '/': b.append(e); break;
+            case 'b': b.append('\b'); break;
+            case 'f': b.append('\f'); break;
+            case 'n': b.append('\n'); break;
+            case 'r': b.append('\r'); break;
+            case 't': b.append('\t'); break;
+            case 'u':
+               if (this._pos + 4 > this._text.length())
+                  throw error("bad \\u escape");
+               try {
+                  b.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+               }catch (NumberFormatException ex) {
+                  throw error("bad \\u escape");
+               }//end try
+               this._pos += 4;
+               break;
+            default:
+               throw error("bad escape \\" + e);
+         }//end switch
+      }//end while
+   }//end string
+
+   private BigDecimal number () {
+      int start = this._pos;
+      while (this._pos < this._text.length() && "+-0123456789.eE".indexOf(this._text.charAt(this._pos)) >= 0)
+         this._pos++;
+      try {
+         return new BigDecimal(this._text.substring(start, this._pos));
+      }catch (NumberFormatException e) {
+         throw error("bad number");
+      }//end try
+   }//end number
+
+   private Object literal (String word, Object value) {
+      if (!this._text.startsWith(word, this._pos))
+         throw error("unexpected literal");
+      this._pos += word.length();
+      return value;
+   }//end literal
+
+   private void skipSpace () {
+      while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos)))
+         this._pos++;
+   }//end skipSpace
+
+   private boolean peek (char c) {
+      return this._pos < this._text.length() && this._text.charAt(this._pos) == c;
+   }//end peek
+
+   private boolean accept (char c) {
+      if (!peek(c))
+         return false;
+      this._pos++;
+      return true;
+   }//end accept
+
+   private void expect (char c) {
+      if (!accept(c))
+         throw error("expected '" + c + "'");
+   }//end expect
+
+   private IllegalArgumentException error (String what) {
+      return new IllegalArgumentException("JSON: " + what + " at position " + this._pos);
+   }//end error
+
+}//end Json
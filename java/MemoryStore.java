@@ -0,0 +1,1210 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class runs the operations of the menu on tables kept in memory,
+ * loaded from data/*.csv, with no database behind them. It answers like
+ * the Postgres schema of sql/create.sql, migrated by SchemaMigration,
+ * would: foreign keys, NOT NULL columns and enum values are checked on
+ * every insert and a violation is thrown as SQLException; the checks of bookRoom, assignHouseCleaningToRoom
+ * and repairRequest throw OpException with the messages of HotelOps. The
+ * "default" rows with ID 0 that ON DELETE SET DEFAULT relies on are
+ * created when the files do not have them.
+ *
+ * Every table is a set of columns of primitives (Ints, Longs; strings only
+ * for text), one entry per row. Keys are found through IntIntMap, an open
+ * addressing hash from an int, or a pair of ints, to a row number. The
+ * rows of a hotel, customer, company or room are chained through a column
+ * holding the previous row of the same owner, so no lists are kept per
+ * owner either.
+ *
+ * It is meant for load testing without a database and as a reference for
+ * the timings of the JDBC path:
+ *
+ *   java MemoryStore <dataDir> [commands.jsonl]
+ *
+ * loads the files and runs the commands (see Command; standard input when
+ * no file is given), then prints the time of every operation.
+ */
+
+public class MemoryStore implements HotelStore {
+
+   private static final int NONE = -1;
+   private static final int NULL_DAY = Integer.MIN_VALUE;
+   private static final String[] ROLES = { "Receptionist", "HouseCleaning", "Manager" };
+   private static final String[] GENDERS = { "Male", "Female", "Other" };
+   private static final int HOUSE_CLEANING = 1;
+   private static final int MANAGER = 2;
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private final Metrics _metrics = new Metrics();
+
+   // Hotel; manager is NONE for NULL
+   private final Ints _hotelID = new Ints();
+   private final Strs _hotelAddress = new Strs();
+   private final Ints _hotelManager = new Ints();
+   private final Ints _hotelBookings = new Ints();
+   private final IntIntMap _hotelRow = new IntIntMap();
+
+   // Staff
+   private final Ints _staffSSN = new Ints();
+   private final Strs _staffFName = new Strs();
+   private final Strs _staffLName = new Strs();
+   private final Strs _staffAddress = new Strs();
+   private final Ints _staffRole = new Ints();
+   private final Ints _staffEmployer = new Ints();
+   private final IntIntMap _staffRow = new IntIntMap();
+
+   // Room, keyed by (hotelID, roomNo)
+   private final Ints _roomHotel = new Ints();
+   private final Ints _roomNo = new Ints();
+   private final Ints _roomType = new Ints();
+   private final Ints _roomBookings = new Ints();
+   private final Dict _roomTypes = new Dict();
+   private final IntIntMap _roomRow = new IntIntMap();
+   private final IntIntMap _lastRoomNo = new IntIntMap();
+
+   // Customer; customers with the same name are chained
+   private final Ints _customerID = new Ints();
+   private final Strs _customerFName = new Strs();
+   private final Strs _customerLName = new Strs();
+   private final Strs _customerAddress = new Strs();
+   private final Longs _customerPhone = new Longs();
+   private final Ints _customerDOB = new Ints();
+   private final Ints _customerGender = new Ints();
+   private final Ints _customerPrevSameName = new Ints();
+   private final IntIntMap _customerRow = new IntIntMap();
+   private final IntIntMap _customerByName = new IntIntMap();
+
+   // MaintenanceCompany; companies with the same name are chained
+   private final Ints _companyID = new Ints();
+   private final Strs _companyName = new Strs();
+   private final Strs _companyAddress = new Strs();
+   private final Ints _companyCertified = new Ints();
+   private final Ints _companyRepairs = new Ints();
+   private final Ints _companyPrevSameName = new Ints();
+   private final IntIntMap _companyRow = new IntIntMap();
+   private final IntIntMap _companyByName = new IntIntMap();
+
+   // Booking, chained per hotel and per customer; (room row, day) finds
+   // the booking of a room on a day
+   private final Ints _bookingID = new Ints();
+   private final Ints _bookingCustomer = new Ints();
+   private final Ints _bookingHotel = new Ints();
+   private final Ints _bookingRoomNo = new Ints();
+   private final Ints _bookingDay = new Ints();
+   private final Ints _bookingPeople = new Ints();
+   private final Longs _bookingCents = new Longs();
+   private final Ints _bookingPrevInHotel = new Ints();
+   private final Ints _bookingPrevOfCustomer = new Ints();
+   private final IntIntMap _bookingRow = new IntIntMap();
+   private final IntIntMap _bookingOfRoomDay = new IntIntMap();
+   private final IntIntMap _lastBookingOfHotel = new IntIntMap();
+   private final IntIntMap _lastBookingOfCustomer = new IntIntMap();
+
+   // Repair, chained per company and per room; repairType is NONE for NULL
+   private final Ints _repairID = new Ints();
+   private final Ints _repairHotel = new Ints();
+   private final Ints _repairRoomNo = new Ints();
+   private final Ints _repairCompany = new Ints();
+   private final Ints _repairDay = new Ints();
+   private final Strs _repairDescription = new Strs();
+   private final Ints _repairType = new Ints();
+   private final Ints _repairPrevOfCompany = new Ints();
+   private final Ints _repairPrevInRoom = new Ints();
+   private final Dict _repairTypes = new Dict();
+   private final IntIntMap _repairRow = new IntIntMap();
+   private final IntIntMap _lastRepairOfCompany = new IntIntMap();
+   private final IntIntMap _lastRepairOfRoom = new IntIntMap();
+
+   // Request
+   private final Ints _requestID = new Ints();
+   private final Ints _requestManager = new Ints();
+   private final Ints _requestRepair = new Ints();
+   private final Ints _requestDay = new Ints();
+   private final Strs _requestDescription = new Strs();
+   private final IntIntMap _requestRow = new IntIntMap();
+
+   // Assigned
+   private final Ints _assignedID = new Ints();
+   private final Ints _assignedStaff = new Ints();
+   private final Ints _assignedHotel = new Ints();
+   private final Ints _assignedRoomNo = new Ints();
+   private final IntIntMap _assignedRow = new IntIntMap();
+
+   // the next key of each table, one past the largest loaded
+   private int _nextCustomer = 1;
+   private int _nextCompany = 1;
+   private int _nextBooking = 1;
+   private int _nextRepair = 1;
+   private int _nextRequest = 1;
+   private int _nextAssigned = 1;
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-cp <$classpath>] MemoryStore <dataDir> [commands.jsonl]");
+         return;
+      }//end if
+      try {
+         long start = System.currentTimeMillis();
+         MemoryStore store = load(new File(args[0]));
+         System.out.println(store.stats() + " loaded in " + (System.currentTimeMillis() - start) + " ms");
+
+         BufferedReader in = new BufferedReader(new InputStreamReader(
+            args.length > 1 ? new FileInputStream(args[1]) : System.in, Charset.forName("UTF-8")));
+         ResultWriter out = new ResultWriter(System.out, ResultWriter.configuredFormat());
+         String line;
+         int n = 0;
+         while ((line = in.readLine()) != null) {
+            n++;
+            if (line.trim().length() == 0)
+               continue;
+            Command cmd = null;
+            try {
+               cmd = Command.parse(line, n);
+               cmd.execute(store, out);
+            }catch (Exception e) {
+               System.err.println("line " + n + (cmd == null ? "" : " (" + cmd.op + ")") + ": " + e.getMessage());
+            }//end try
+         }//end while
+         in.close();
+         System.out.print(store.metrics().getReport());
+      }catch (IOException e) {
+         System.err.println(e.getMessage());
+      }//end try
+   }//end main
+
+   /**
+    * Method to build a store from the files of a data folder, in the order
+    * and with the foreign key checks of the COPY statements of create.sql
+    *
+    * @param dataDir folder holding hotel.csv, staff.csv, ... (see data/)
+    * @return the filled store
+    * @throws java.io.IOException when a file cannot be read or a row is refused
+    */
+   public static MemoryStore load (File dataDir) throws IOException {
+      MemoryStore s = new MemoryStore();
+      Csv in = null;
+      try {
+         String[] f;
+         in = new Csv(new File(dataDir, "hotel.csv"));
+         while ((f = in.next()) != null)
+            s.insertHotel(in.integer(f[0]), f[1], f[2] == null ? NONE : in.integer(f[2]));
+         in.close();
+         if (s._hotelRow.get(0) == NONE)
+            s.insertHotel(0, "default", NONE);
+
+         in = new Csv(new File(dataDir, "staff.csv"));
+         while ((f = in.next()) != null)
+            s.insertStaff(in.integer(f[0]), f[1], f[2], f[3], f[4], in.integer(f[5]));
+         in.close();
+         if (s._staffRow.get(0) == NONE)
+            s.insertStaff(0, "default", "default", "default", ROLES[MANAGER], 0);
+         // as create.sql: the manager of a hotel is its staff member with that role
+         for (int i = 0; i < s._staffSSN.size; ++i)
+            if (s._staffRole.get(i) == MANAGER)
+               s._hotelManager.set(s._hotelRow.get(s._staffEmployer.get(i)), s._staffSSN.get(i));
+
+         in = new Csv(new File(dataDir, "room.csv"));
+         while ((f = in.next()) != null)
+            s.insertRoom(in.integer(f[0]), in.integer(f[1]), f[2]);
+         in.close();
+         if (s._roomRow.get(pair(0, 0)) == NONE)
+            s.insertRoom(0, 0, "default");
+
+         in = new Csv(new File(dataDir, "customer.csv"));
+         while ((f = in.next()) != null)
+            s.insertCustomer(in.integer(f[0]), f[1], f[2], f[3], f[4] == null ? 0 : in.bigint(f[4]), in.day(f[5]), f[6]);
+         in.close();
+         if (s._customerRow.get(0) == NONE)
+            s.insertCustomer(0, "default", "default", "default", 0, Days.of(2000, 1, 1), GENDERS[0]);
+
+         in = new Csv(new File(dataDir, "maintenanceCompany.csv"));
+         while ((f = in.next()) != null)
+            s.insertCompany(in.integer(f[0]), f[1], f[2], in.bool(f[3]));
+         in.close();
+         if (s._companyRow.get(0) == NONE)
+            s.insertCompany(0, "default", "default", true);
+
+         in = new Csv(new File(dataDir, "booking.csv"));
+         while ((f = in.next()) != null)
+            s.insertBooking(in.integer(f[0]), in.integer(f[1]), in.integer(f[2]), in.integer(f[3]), in.day(f[4]),
+                            f[5] == null ? 0 : in.integer(f[5]), in.cents(f[6]));
+         in.close();
+
+         in = new Csv(new File(dataDir, "repair.csv"));
+         while ((f = in.next()) != null)
+            s.insertRepair(in.integer(f[0]), in.integer(f[1]), in.integer(f[2]), in.integer(f[3]), in.day(f[4]), f[5], f[6]);
+         in.close();
+
+         in = new Csv(new File(dataDir, "request.csv"));
+         while ((f = in.next()) != null)
+            s.insertRequest(in.integer(f[0]), in.integer(f[1]), in.integer(f[2]), in.day(f[3]), f[4]);
+         in.close();
+
+         in = new Csv(new File(dataDir, "assigned.csv"));
+         while ((f = in.next()) != null)
+            s.insertAssigned(in.integer(f[0]), in.integer(f[1]), in.integer(f[2]), in.integer(f[3]));
+         in.close();
+         in = null;
+      }catch (SQLException e) {
+         throw new IOException(in.where() + ": " + e.getMessage());
+      } finally {
+         if (in != null)
+            in.close();
+      }//end try
+      return s;
+   }//end load
+
+   /**
+    * Method to get the timings of the operations run on this store
+    */
+   public Metrics metrics () {
+      return this._metrics;
+   }//end metrics
+
+   /**
+    * Method to describe the size of the store in one line
+    */
+   public String stats () {
+      this._lock.readLock().lock();
+      try {
+         return String.format("memory hotels=%d staff=%d rooms=%d customers=%d companies=%d bookings=%d repairs=%d " +
+                              "requests=%d assigned=%d", this._hotelID.size, this._staffSSN.size, this._roomNo.size,
+                              this._customerID.size, this._companyID.size, this._bookingID.size, this._repairID.size,
+                              this._requestID.size, this._assignedID.size);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   public int addCustomer (String fName, String lName, String address, long phone,
+                           java.sql.Date dob, String gender) throws SQLException {
+      Metrics.Op op = this._metrics.start("addCustomer");
+      this._lock.writeLock().lock();
+      try {
+         int cID = this._nextCustomer;
+         insertCustomer(cID, fName, lName, address, phone, dob == null ? NULL_DAY : Days.of(dob), gender);
+         return cID;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end addCustomer
+
+   public int addRoom (int hotelID, String roomType) throws SQLException {
+      Metrics.Op op = this._metrics.start("addRoom");
+      this._lock.writeLock().lock();
+      try {
+         int last = this._lastRoomNo.get(hotelID);
+         int roomNo = last == NONE ? 1 : last + 1;
+         insertRoom(hotelID, roomNo, roomType);
+         return roomNo;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end addRoom
+
+   public int addMaintenanceCompany (String name, String address, boolean certified) throws SQLException {
+      Metrics.Op op = this._metrics.start("addMaintenanceCompany");
+      this._lock.writeLock().lock();
+      try {
+         int cmpID = this._nextCompany;
+         insertCompany(cmpID, name, address, certified);
+         return cmpID;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end addMaintenanceCompany
+
+   public int addRepair (int hotelID, int roomNo, int mCompany, java.sql.Date repairDate,
+                         String description, String repairType) throws SQLException {
+      Metrics.Op op = this._metrics.start("addRepair");
+      this._lock.writeLock().lock();
+      try {
+         int rID = this._nextRepair;
+         insertRepair(rID, hotelID, roomNo, mCompany, repairDate == null ? NULL_DAY : Days.of(repairDate),
+                      description, repairType);
+         return rID;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end addRepair
+
+   public int bookRoom (int hotelID, int roomNo, int customerID, java.sql.Date bookingDate,
+                        int noOfPeople, BigDecimal price) throws SQLException, OpException {
+      Metrics.Op op = this._metrics.start("bookRoom");
+      this._lock.writeLock().lock();
+      try {
+         int room = this._roomRow.get(pair(hotelID, roomNo));
+         if (room == NONE)
+            throw new OpException("Given Room ID does not exist at the given Hotel ID");
+         if (bookingDate != null && this._bookingOfRoomDay.get(pair(room, Days.of(bookingDate))) != NONE)
+            throw new OpException("Room is already booked on that date");
+         int bID = this._nextBooking;
+         insertBooking(bID, customerID, hotelID, roomNo, bookingDate == null ? NULL_DAY : Days.of(bookingDate),
+                       noOfPeople, price == null ? Long.MIN_VALUE : TopKIndex.cents(price));
+         return bID;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end bookRoom
+
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException, OpException {
+      Metrics.Op op = this._metrics.start("assignHouseCleaningToRoom");
+      this._lock.writeLock().lock();
+      try {
+         CheckStatus status = check(staffID, HOUSE_CLEANING, hotelID, roomNo);
+         if (status != CheckStatus.OK)
+            throw new OpException(status.message("HouseCleaning"));
+         int asgID = this._nextAssigned;
+         insertAssigned(asgID, staffID, hotelID, roomNo);
+         return asgID;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   public int repairRequest (int hotelID, int managerID, int roomNo, java.sql.Date requestDate) throws SQLException, OpException {
+      Metrics.Op op = this._metrics.start("repairRequest");
+      this._lock.writeLock().lock();
+      try {
+         CheckStatus status = check(managerID, MANAGER, hotelID, roomNo);
+         if (status != CheckStatus.OK)
+            throw new OpException(status.message("Manager"));
+         int rID = this._nextRepair;
+         int reqID = this._nextRequest;
+         // as repair_request: filed under the default company and date
+         insertRepair(rID, hotelID, roomNo, HotelOps.REQUESTED_COMPANY, HotelOps.REQUESTED_DAY, null, null);
+         insertRequest(reqID, managerID, rID, requestDate == null ? NULL_DAY : Days.of(requestDate), null);
+         return reqID;
+      } finally {
+         this._lock.writeLock().unlock();
+         op.stop();
+      }//end try
+   }//end repairRequest
+
+   public int numberOfAvailableRooms (int hotelID, java.sql.Date date, int nights) {
+      Metrics.Op op = this._metrics.start("numberOfAvailableRooms");
+      this._lock.readLock().lock();
+      try {
+         int day = date == null ? 0 : Days.of(date);
+         int n = 0;
+         // rooms of the hotel, found by walking its room numbers
+         int last = this._lastRoomNo.get(hotelID);
+         for (int no = 0; no <= last; ++no) {
+            int room = this._roomRow.get(pair(hotelID, no));
+            if (room == NONE)
+               continue;
+            if (date == null) {
+               if (this._roomBookings.get(room) == 0)
+                  n++;
+               continue;
+            }//end if
+            boolean free = true;
+            for (int d = day; free && d < day + nights; ++d)
+               free = this._bookingOfRoomDay.get(pair(room, d)) == NONE;
+            if (free)
+               n++;
+         }//end for
+         return n;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public int numberOfBookedRooms (int hotelID, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("numberOfBookedRooms");
+      this._lock.readLock().lock();
+      try {
+         int hotel = this._hotelRow.get(hotelID);
+         out.begin(new String[] { "count" }, new boolean[] { true });
+         out.row(hotel == NONE ? 0 : this._hotelBookings.get(hotel));
+         out.end();
+         return 1;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end numberOfBookedRooms
+
+   public int listHotelRoomBookingsForAWeek (int hotelID, java.sql.Date date, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("listHotelRoomBookingsForAWeek");
+      this._lock.readLock().lock();
+      try {
+         int day = Days.of(date);
+         Ints rows = new Ints();
+         for (int b = this._lastBookingOfHotel.get(hotelID); b != NONE; b = this._bookingPrevInHotel.get(b))
+            if (this._bookingDay.get(b) > day && this._bookingDay.get(b) <= day + 7)
+               rows.add(b);
+         // the chain runs newest first
+         out.begin(new String[] { "b" }, new boolean[] { false });
+         for (int i = rows.size - 1; i >= 0; --i) {
+            int b = rows.get(i);
+            out.row("(" + this._bookingID.get(b) + "," + this._bookingCustomer.get(b) + "," + this._bookingHotel.get(b) +
+                    "," + this._bookingRoomNo.get(b) + "," + Days.toSqlDate(this._bookingDay.get(b)) + "," +
+                    this._bookingPeople.get(b) + "," + BigDecimal.valueOf(this._bookingCents.get(b), 2) + ")");
+         }//end for
+         out.end();
+         return rows.size;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   public int topKHighestRoomPriceForADateRange (java.sql.Date from, java.sql.Date to, int k, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("topKHighestRoomPriceForADateRange");
+      this._lock.readLock().lock();
+      try {
+         int d1 = Math.min(Days.of(from), Days.of(to));
+         int d2 = Math.max(Days.of(from), Days.of(to));
+         TopK top = new TopK(k);
+         for (int b = 0; b < this._bookingID.size; ++b)
+            if (this._bookingDay.get(b) >= d1 && this._bookingDay.get(b) <= d2)
+               top.offer(b);
+         return HotelOps.writeBookings(out, entries(top.sorted()));
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   public int topKHighestPriceBookingsForACustomer (int customerID, int k, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("topKHighestPriceBookingsForACustomer");
+      this._lock.readLock().lock();
+      try {
+         TopK top = new TopK(k);
+         for (int b = this._lastBookingOfCustomer.get(customerID); b != NONE; b = this._bookingPrevOfCustomer.get(b))
+            top.offer(b);
+         int[] rows = top.sorted();
+         out.begin(new String[] { "bid", "price" }, new boolean[] { true, true });
+         for (int b : rows)
+            out.row(this._bookingID.get(b), BigDecimal.valueOf(this._bookingCents.get(b), 2));
+         out.end();
+         return rows.length;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   public int totalCostForCustomer (int customerID, int hotelID, java.sql.Date from, java.sql.Date to, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("totalCostForCustomer");
+      this._lock.readLock().lock();
+      try {
+         int d1 = Days.of(from);
+         int d2 = Days.of(to);
+         long cents = 0;
+         for (int b = this._lastBookingOfCustomer.get(customerID); b != NONE; b = this._bookingPrevOfCustomer.get(b))
+            if (this._bookingHotel.get(b) == hotelID && this._bookingDay.get(b) >= d1 && this._bookingDay.get(b) <= d2)
+               cents += this._bookingCents.get(b);
+         out.begin(new String[] { "sum" }, new boolean[] { true });
+         out.row(BigDecimal.valueOf(cents, 2));
+         out.end();
+         return 1;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end totalCostForCustomer
+
+   public int revenueByHotel (java.sql.Date from, java.sql.Date to, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("revenueByHotel");
+      this._lock.readLock().lock();
+      try {
+         int d1 = Days.of(from);
+         int d2 = Days.of(to);
+         long[] cents = new long[this._hotelID.size];
+         for (int b = 0; b < this._bookingID.size; ++b)
+            if (this._bookingDay.get(b) >= d1 && this._bookingDay.get(b) <= d2)
+               cents[this._hotelRow.get(this._bookingHotel.get(b))] += this._bookingCents.get(b);
+         int[] ids = this._hotelID.toArray();
+         Arrays.sort(ids);
+         out.begin(new String[] { "hotelid", "revenue" }, new boolean[] { true, true });
+         int rows = 0;
+         for (int id : ids) {
+            long c = cents[this._hotelRow.get(id)];
+            if (c != 0) {
+               out.row(id, BigDecimal.valueOf(c, 2));
+               rows++;
+            }//end if
+         }//end for
+         out.end();
+         return rows;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end revenueByHotel
+
+   public int chainOccupancy (java.sql.Date from, int days, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("chainOccupancy");
+      this._lock.readLock().lock();
+      try {
+         int first = Days.of(from);
+         days = Math.max(0, days);
+         int[] rooms = new int[this._hotelID.size];
+         for (int r = 0; r < this._roomHotel.size; ++r)
+            rooms[this._hotelRow.get(this._roomHotel.get(r))]++;
+         int[] booked = new int[this._hotelID.size * days];
+         long[] cents = new long[this._hotelID.size * days];
+         for (int b = 0; b < this._bookingID.size; ++b) {
+            int d = this._bookingDay.get(b) - first;
+            if (d >= 0 && d < days) {
+               int i = this._hotelRow.get(this._bookingHotel.get(b)) * days + d;
+               booked[i]++;
+               cents[i] += this._bookingCents.get(b);
+            }//end if
+         }//end for
+         int[] ids = this._hotelID.toArray();
+         Arrays.sort(ids);
+         out.begin(new String[] { "hotelid", "date", "rooms", "booked", "free", "revenue" },
+                   new boolean[] { true, false, true, true, true, true });
+         int rows = 0;
+         for (int id : ids) {
+            int h = this._hotelRow.get(id);
+            if (rooms[h] == 0)
+               continue;
+            for (int d = 0; d < days; ++d, ++rows)
+               out.row(id, Days.toSqlDate(first + d), rooms[h], booked[h * days + d], rooms[h] - booked[h * days + d],
+                       BigDecimal.valueOf(cents[h * days + d], 2));
+         }//end for
+         out.end();
+         return rows;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end chainOccupancy
+
+   public int listRepairsMade (String companyName, ResultWriter out) throws OpException {
+      Metrics.Op op = this._metrics.start("listRepairsMade");
+      this._lock.readLock().lock();
+      try {
+         // the lowest cmpID of that name; VARCHAR(30) names are stored without trailing blanks
+         String name = trim(companyName);
+         int cmpID = NONE;
+         for (int c = this._companyByName.get(name.hashCode()); c != NONE; c = this._companyPrevSameName.get(c))
+            if (name.equals(this._companyName.get(c)) && (cmpID == NONE || this._companyID.get(c) < cmpID))
+               cmpID = this._companyID.get(c);
+         if (cmpID == NONE)
+            throw new OpException("Company does not exist in maintenance company database");
+
+         Ints rows = new Ints();
+         for (int r = this._lastRepairOfCompany.get(cmpID); r != NONE; r = this._repairPrevOfCompany.get(r))
+            rows.add(r);
+         int[] sorted = sortRepairsByHotelDesc(rows.toArray());
+         out.begin(new String[] { "rid", "hotelid", "roomno", "repairtype" }, new boolean[] { true, true, true, false });
+         for (int r : sorted) {
+            int type = this._repairType.get(r);
+            out.row(this._repairID.get(r), this._repairHotel.get(r), this._repairRoomNo.get(r),
+                    type == NONE ? null : this._repairTypes.get(type));
+         }//end for
+         out.end();
+         return sorted.length;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end listRepairsMade
+
+   public int topKMaintenanceCompany (int k, ResultWriter out) {
+      Metrics.Op op = this._metrics.start("topKMaintenanceCompany");
+      this._lock.readLock().lock();
+      try {
+         int n = this._companyID.size;
+         // (repairs descending, cmpID ascending) packed so one sort orders them
+         long[] order = new long[n];
+         for (int c = 0; c < n; ++c)
+            order[c] = ((long) -this._companyRepairs.get(c) << 32) | (this._companyID.get(c) & 0xffffffffL);
+         Arrays.sort(order);
+         out.begin(new String[] { "cmpid", "name", "count" }, new boolean[] { true, false, true });
+         int rows = 0;
+         for (int i = 0; i < n && rows < k; ++i) {
+            int repairs = (int) -(order[i] >> 32);
+            if (repairs <= 0)
+               break;
+            int c = this._companyRow.get((int) order[i]);
+            out.row(this._companyID.get(c), this._companyName.get(c), repairs);
+            rows++;
+         }//end for
+         out.end();
+         return rows;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end topKMaintenanceCompany
+
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, ResultWriter out) throws OpException {
+      Metrics.Op op = this._metrics.start("numberOfRepairsForEachRoomPerYear");
+      this._lock.readLock().lock();
+      try {
+         int room = this._roomRow.get(pair(hotelID, roomNo));
+         if (room == NONE)
+            throw new OpException("Given Room ID does not exist at the given Hotel ID");
+         Ints years = new Ints();
+         for (int r = this._lastRepairOfRoom.get(room); r != NONE; r = this._repairPrevInRoom.get(r))
+            years.add(Days.year(this._repairDay.get(r)));
+         int[] y = years.toArray();
+         Arrays.sort(y);
+         out.begin(new String[] { "count", "year" }, new boolean[] { true, true });
+         int rows = 0;
+         for (int i = 0; i < y.length; ) {
+            int j = i;
+            while (j < y.length && y[j] == y[i])
+               j++;
+            out.row(j - i, y[i]);
+            rows++;
+            i = j;
+         }//end for
+         out.end();
+         return rows;
+      } finally {
+         this._lock.readLock().unlock();
+         op.stop();
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public int[] customerIDs (String fName, String lName) {
+      this._lock.readLock().lock();
+      try {
+         String f = trim(fName);
+         String l = trim(lName);
+         Ints ids = new Ints();
+         for (int c = this._customerByName.get(nameHash(f, l)); c != NONE; c = this._customerPrevSameName.get(c))
+            if (f.equals(this._customerFName.get(c)) && l.equals(this._customerLName.get(c)))
+               ids.add(this._customerID.get(c));
+         int[] out = ids.toArray();
+         Arrays.sort(out);
+         return out;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end customerIDs
+
+   /*
+    * The checks of assign_house_cleaning and repair_request.
+    */
+   private CheckStatus check (int staffID, int role, int hotelID, int roomNo) {
+      int s = this._staffRow.get(staffID);
+      if (s == NONE || this._staffRole.get(s) != role)
+         return CheckStatus.WRONG_ROLE;
+      if (this._staffEmployer.get(s) != hotelID)
+         return CheckStatus.WRONG_HOTEL;
+      if (this._roomRow.get(pair(hotelID, roomNo)) == NONE)
+         return CheckStatus.NO_ROOM;
+      return CheckStatus.OK;
+   }//end check
+
+   private List<TopKIndex.Entry> entries (int[] rows) {
+      List<TopKIndex.Entry> out = new ArrayList<TopKIndex.Entry>(rows.length);
+      for (int b : rows)
+         out.add(new TopKIndex.Entry(this._bookingID.get(b), this._bookingCustomer.get(b), this._bookingHotel.get(b),
+                                     this._bookingRoomNo.get(b), this._bookingDay.get(b), this._bookingPeople.get(b),
+                                     this._bookingCents.get(b)));
+      return out;
+   }//end entries
+
+   private int[] sortRepairsByHotelDesc (int[] rows) {
+      // (hotelID descending, rID ascending) packed with the row
+      long[] keys = new long[rows.length];
+      for (int i = 0; i < rows.length; ++i)
+         keys[i] = ((long) -this._repairHotel.get(rows[i]) << 32) | (this._repairID.get(rows[i]) & 0xffffffffL);
+      Arrays.sort(keys);
+      int[] out = new int[rows.length];
+      for (int i = 0; i < keys.length; ++i)
+         out[i] = this._repairRow.get((int) keys[i]);
+      return out;
+   }//end sortRepairsByHotelDesc
+
+   // ---- inserts, with the constraints of create.sql --------------------
+
+   private void insertHotel (int hotelID, String address, int manager) throws SQLException {
+      unique(this._hotelRow, hotelID, "hotel_pkey");
+      if (manager != NONE)
+         reference(this._staffRow, manager, "managerConstraint");
+      int row = this._hotelID.add(hotelID);
+      this._hotelAddress.add(address);
+      this._hotelManager.add(manager);
+      this._hotelBookings.add(0);
+      this._hotelRow.put(hotelID, row);
+   }//end insertHotel
+
+   private void insertStaff (int ssn, String fName, String lName, String address, String role, int employerID) throws SQLException {
+      unique(this._staffRow, ssn, "staff_pkey");
+      int code = enumCode(ROLES, role, "staffrole");
+      reference(this._hotelRow, employerID, "employerConstraint");
+      int row = this._staffSSN.add(ssn);
+      this._staffFName.add(trim(notNull(fName, "fname")));
+      this._staffLName.add(trim(notNull(lName, "lname")));
+      this._staffAddress.add(address);
+      this._staffRole.add(code);
+      this._staffEmployer.add(employerID);
+      this._staffRow.put(ssn, row);
+   }//end insertStaff
+
+   private void insertRoom (int hotelID, int roomNo, String roomType) throws SQLException {
+      unique(this._roomRow, pair(hotelID, roomNo), "room_pkey");
+      reference(this._hotelRow, hotelID, "weakEntityConstraint");
+      int type = this._roomTypes.code(trim(notNull(roomType, "roomtype")));
+      int row = this._roomHotel.add(hotelID);
+      this._roomNo.add(roomNo);
+      this._roomType.add(type);
+      this._roomBookings.add(0);
+      this._roomRow.put(pair(hotelID, roomNo), row);
+      if (roomNo > this._lastRoomNo.get(hotelID))
+         this._lastRoomNo.put(hotelID, roomNo);
+   }//end insertRoom
+
+   private void insertCustomer (int customerID, String fName, String lName, String address, long phone,
+                                int dob, String gender) throws SQLException {
+      unique(this._customerRow, customerID, "customer_pkey");
+      int code = gender == null ? NONE : enumCode(GENDERS, gender, "gendertype");
+      String f = trim(notNull(fName, "fname"));
+      String l = trim(notNull(lName, "lname"));
+      int row = this._customerID.add(customerID);
+      this._customerFName.add(f);
+      this._customerLName.add(l);
+      this._customerAddress.add(address);
+      this._customerPhone.add(phone);
+      this._customerDOB.add(dob);
+      this._customerGender.add(code);
+      this._customerPrevSameName.add(this._customerByName.get(nameHash(f, l)));
+      this._customerByName.put(nameHash(f, l), row);
+      this._customerRow.put(customerID, row);
+      this._nextCustomer = Math.max(this._nextCustomer, customerID + 1);
+   }//end insertCustomer
+
+   private void insertCompany (int cmpID, String name, String address, boolean certified) throws SQLException {
+      unique(this._companyRow, cmpID, "maintenancecompany_pkey");
+      String n = trim(notNull(name, "name"));
+      int row = this._companyID.add(cmpID);
+      this._companyName.add(n);
+      this._companyAddress.add(address);
+      this._companyCertified.add(certified ? 1 : 0);
+      this._companyRepairs.add(0);
+      this._companyPrevSameName.add(this._companyByName.get(n.hashCode()));
+      this._companyByName.put(n.hashCode(), row);
+      this._companyRow.put(cmpID, row);
+      this._nextCompany = Math.max(this._nextCompany, cmpID + 1);
+   }//end insertCompany
+
+   private void insertBooking (int bID, int customer, int hotelID, int roomNo, int day, int noOfPeople, long cents) throws SQLException {
+      unique(this._bookingRow, bID, "booking_pkey");
+      if (day == NULL_DAY)
+         notNull(null, "bookingdate");
+      if (cents == Long.MIN_VALUE)
+         notNull(null, "price");
+      reference(this._customerRow, customer, "bookingCustomerConstraint");
+      int room = reference(this._roomRow, pair(hotelID, roomNo), "bookingRoomConstraint");
+      int row = this._bookingID.add(bID);
+      this._bookingCustomer.add(customer);
+      this._bookingHotel.add(hotelID);
+      this._bookingRoomNo.add(roomNo);
+      this._bookingDay.add(day);
+      this._bookingPeople.add(noOfPeople);
+      this._bookingCents.add(cents);
+      this._bookingPrevInHotel.add(this._lastBookingOfHotel.get(hotelID));
+      this._bookingPrevOfCustomer.add(this._lastBookingOfCustomer.get(customer));
+      this._lastBookingOfHotel.put(hotelID, row);
+      this._lastBookingOfCustomer.put(customer, row);
+      this._bookingRow.put(bID, row);
+      this._bookingOfRoomDay.put(pair(room, day), row);
+      this._roomBookings.set(room, this._roomBookings.get(room) + 1);
+      int hotel = this._hotelRow.get(hotelID);
+      this._hotelBookings.set(hotel, this._hotelBookings.get(hotel) + 1);
+      this._nextBooking = Math.max(this._nextBooking, bID + 1);
+   }//end insertBooking
+
+   private void insertRepair (int rID, int hotelID, int roomNo, int mCompany, int day, String description,
+                              String repairType) throws SQLException {
+      unique(this._repairRow, rID, "repair_pkey");
+      if (day == NULL_DAY)
+         notNull(null, "repairdate");
+      int company = reference(this._companyRow, mCompany, "repairMcmpConstraint");
+      int room = reference(this._roomRow, pair(hotelID, roomNo), "repairRoomConstraint");
+      int row = this._repairID.add(rID);
+      this._repairHotel.add(hotelID);
+      this._repairRoomNo.add(roomNo);
+      this._repairCompany.add(mCompany);
+      this._repairDay.add(day);
+      this._repairDescription.add(description);
+      this._repairType.add(repairType == null ? NONE : this._repairTypes.code(trim(repairType)));
+      this._repairPrevOfCompany.add(this._lastRepairOfCompany.get(mCompany));
+      this._repairPrevInRoom.add(this._lastRepairOfRoom.get(room));
+      this._lastRepairOfCompany.put(mCompany, row);
+      this._lastRepairOfRoom.put(room, row);
+      this._repairRow.put(rID, row);
+      this._companyRepairs.set(company, this._companyRepairs.get(company) + 1);
+      this._nextRepair = Math.max(this._nextRepair, rID + 1);
+   }//end insertRepair
+
+   private void insertRequest (int reqID, int managerID, int repairID, int day, String description) throws SQLException {
+      unique(this._requestRow, reqID, "request_pkey");
+      if (day == NULL_DAY)
+         notNull(null, "requestdate");
+      reference(this._staffRow, managerID, "requestMngrConstraint");
+      reference(this._repairRow, repairID, "requestRepairConstraint");
+      int row = this._requestID.add(reqID);
+      this._requestManager.add(managerID);
+      this._requestRepair.add(repairID);
+      this._requestDay.add(day);
+      this._requestDescription.add(description);
+      this._requestRow.put(reqID, row);
+      this._nextRequest = Math.max(this._nextRequest, reqID + 1);
+   }//end insertRequest
+
+   private void insertAssigned (int asgID, int staffID, int hotelID, int roomNo) throws SQLException {
+      unique(this._assignedRow, asgID, "assigned_pkey");
+      reference(this._staffRow, staffID, "assgndStaffConstraint");
+      reference(this._roomRow, pair(hotelID, roomNo), "assgndRoomConstraint");
+      int row = this._assignedID.add(asgID);
+      this._assignedStaff.add(staffID);
+      this._assignedHotel.add(hotelID);
+      this._assignedRoomNo.add(roomNo);
+      this._assignedRow.put(asgID, row);
+      this._nextAssigned = Math.max(this._nextAssigned, asgID + 1);
+   }//end insertAssigned
+
+   private static void unique (IntIntMap index, long key, String constraint) throws SQLException {
+      if (index.get(key) != NONE)
+         throw new SQLException("duplicate key value violates unique constraint \"" + constraint + "\"");
+   }//end unique
+
+   // the row the key refers to
+   private static int reference (IntIntMap index, long key, String constraint) throws SQLException {
+      int row = index.get(key);
+      if (row == NONE)
+         throw new SQLException("insert or update violates foreign key constraint \"" + constraint + "\"");
+      return row;
+   }//end reference
+
+   private static String notNull (String value, String column) throws SQLException {
+      if (value == null)
+         throw new SQLException("null value in column \"" + column + "\" violates not-null constraint");
+      return value;
+   }//end notNull
+
+   private static int enumCode (String[] values, String value, String type) throws SQLException {
+      for (int i = 0; i < values.length; ++i)
+         if (values[i].equals(value))
+            return i;
+      throw new SQLException("invalid input value for enum " + type + ": \"" + value + "\"");
+   }//end enumCode
+
+   private static String trim (String s) {
+      return s == null ? "" : s.trim();
+   }//end trim
+
+   private static int nameHash (String fName, String lName) {
+      return fName.hashCode() * 31 + lName.hashCode();
+   }//end nameHash
+
+   // two ints as one key
+   private static long pair (int a, int b) {
+      return ((long) a << 32) | (b & 0xffffffffL);
+   }//end pair
+
+   /*
+    * The K best bookings by price descending, bID ascending, kept in a heap
+    * of row numbers with the worst of them on top.
+    */
+   private final class TopK {
+      private final int[] heap;
+      private int size = 0;
+
+      TopK (int k) {
+         this.heap = new int[Math.max(0, k)];
+      }
+
+      void offer (int b) {
+         if (this.heap.length == 0)
+            return;
+         if (this.size < this.heap.length) {
+            this.heap[this.size] = b;
+            up(this.size++);
+         } else if (before(b, this.heap[0])) {
+            this.heap[0] = b;
+            down(0);
+         }//end if
+      }
+
+      // best first
+      int[] sorted () {
+         int[] out = new int[this.size];
+         while (this.size > 0) {
+            out[this.size - 1] = this.heap[0];
+            this.heap[0] = this.heap[--this.size];
+            down(0);
+         }//end while
+         return out;
+      }
+
+      private boolean before (int a, int b) {
+         long ca = _bookingCents.get(a);
+         long cb = _bookingCents.get(b);
+         if (ca != cb)
+            return ca > cb;
+         return _bookingID.get(a) < _bookingID.get(b);
+      }
+
+      private void up (int i) {
+         while (i > 0 && before(this.heap[(i - 1) / 2], this.heap[i])) {
+            swap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+         }//end while
+      }
+
+      private void down (int i) {
+         while (true) {
+            int worst = i;
+            for (int c = 2 * i + 1; c <= 2 * i + 2 && c < this.size; ++c)
+               if (before(this.heap[worst], this.heap[c]))
+                  worst = c;
+            if (worst == i)
+               return;
+            swap(i, worst);
+            i = worst;
+         }//end while
+      }
+
+      private void swap (int i, int j) {
+         int t = this.heap[i];
+         this.heap[i] = this.heap[j];
+         this.heap[j] = t;
+      }
+   }//end TopK
+
+   /**
+    * This class maps int keys, or two ints packed in a long, to int values
+    * with open addressing and linear probing. Absent keys read as -1.
+    */
+   static final class IntIntMap {
+      private static final long EMPTY = Long.MIN_VALUE;
+      private long[] _keys = new long[16];
+      private int[] _values = new int[16];
+      private int _size = 0;
+
+      IntIntMap () {
+         Arrays.fill(this._keys, EMPTY);
+      }
+
+      int get (long key) {
+         int mask = this._keys.length - 1;
+         for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = this._keys[i];
+            if (k == key)
+               return this._values[i];
+            if (k == EMPTY)
+               return NONE;
+         }//end for
+      }
+
+      void put (long key, int value) {
+         if (2 * (this._size + 1) > this._keys.length)
+            grow();
+         int mask = this._keys.length - 1;
+         int i = slot(key, mask);
+         while (this._keys[i] != EMPTY && this._keys[i] != key)
+            i = (i + 1) & mask;
+         if (this._keys[i] == EMPTY)
+            this._size++;
+         this._keys[i] = key;
+         this._values[i] = value;
+      }
+
+      int size () {
+         return this._size;
+      }
+
+      private void grow () {
+         long[] keys = this._keys;
+         int[] values = this._values;
+         this._keys = new long[keys.length * 2];
+         this._values = new int[keys.length * 2];
+         Arrays.fill(this._keys, EMPTY);
+         this._size = 0;
+         for (int i = 0; i < keys.length; ++i)
+            if (keys[i] != EMPTY)
+               put(keys[i], values[i]);
+      }
+
+      private static int slot (long key, int mask) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int) (h ^ (h >>> 32)) & mask;
+      }
+   }//end IntIntMap
+
+   // a growable column of ints
+   static final class Ints {
+      int[] a = new int[16];
+      int size = 0;
+
+      // returns the row added
+      int add (int v) {
+         if (this.size == this.a.length)
+            this.a = Arrays.copyOf(this.a, this.size * 2);
+         this.a[this.size] = v;
+         return this.size++;
+      }
+
+      int get (int row) { return this.a[row]; }
+      void set (int row, int v) { this.a[row] = v; }
+      int[] toArray () { return Arrays.copyOf(this.a, this.size); }
+   }//end Ints
+
+   // a growable column of longs
+   static final class Longs {
+      long[] a = new long[16];
+      int size = 0;
+
+      int add (long v) {
+         if (this.size == this.a.length)
+            this.a = Arrays.copyOf(this.a, this.size * 2);
+         this.a[this.size] = v;
+         return this.size++;
+      }
+
+      long get (int row) { return this.a[row]; }
+   }//end Longs
+
+   // a growable column of text
+   static final class Strs {
+      String[] a = new String[16];
+      int size = 0;
+
+      int add (String v) {
+         if (this.size == this.a.length)
+            this.a = Arrays.copyOf(this.a, this.size * 2);
+         this.a[this.size] = v;
+         return this.size++;
+      }
+
+      String get (int row) { return this.a[row]; }
+   }//end Strs
+
+   // the distinct values of a short text column, e.g. roomType
+   static final class Dict {
+      private String[] _values = new String[8];
+      private int _size = 0;
+
+      int code (String v) {
+         for (int i = 0; i < this._size; ++i)
+            if (this._values[i].equals(v))
+               return i;
+         if (this._size == this._values.length)
+            this._values = Arrays.copyOf(this._values, this._size * 2);
+         this._values[this._size] = v;
+         return this._size++;
+      }
+
+      String get (int code) { return this._values[code]; }
+   }//end Dict
+
+   /*
+    * Reads one of the data files: comma separated, \N for NULL, dates as
+    * M/d/yyyy (or any format parseDate accepts).
+    */
+   private static final class Csv {
+      private final File _file;
+      private final BufferedReader _in;
+      private int _line = 0;
+
+      Csv (File file) throws IOException {
+         this._file = file;
+         this._in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")), 1 << 16);
+      }
+
+      String[] next () throws IOException {
+         String line;
+         do {
+            line = this._in.readLine();
+            if (line == null)
+               return null;
+            this._line++;
+         } while (line.length() == 0);
+         String[] f = line.split(",", -1);
+         for (int i = 0; i < f.length; ++i)
+            if (f[i].equals("\\N"))
+               f[i] = null;
+         return f;
+      }
+
+      int integer (String s) throws IOException {
+         try {
+            return Integer.parseInt(s.trim());
+         }catch (RuntimeException e) {
+            throw new IOException(where() + ": not an integer: " + s);
+         }//end try
+      }
+
+      long bigint (String s) throws IOException {
+         try {
+            return Long.parseLong(s.trim());
+         }catch (RuntimeException e) {
+            throw new IOException(where() + ": not an integer: " + s);
+         }//end try
+      }
+
+      long cents (String s) throws IOException {
+         try {
+            return TopKIndex.cents(new BigDecimal(s.trim()));
+         }catch (RuntimeException e) {
+            throw new IOException(where() + ": not a number: " + s);
+         }//end try
+      }
+
+      boolean bool (String s) {
+         return s != null && (s.equalsIgnoreCase("true") || s.equals("t"));
+      }
+
+      int day (String s) throws IOException {
+         if (s == null)
+            return NULL_DAY;
+         String[] p = s.trim().split("/");
+         try {
+            if (p.length == 3)
+               return Days.of(Integer.parseInt(p[2]), Integer.parseInt(p[0]), Integer.parseInt(p[1]));
+            return Days.of(DBProject.parseDate(s));
+         }catch (NumberFormatException e) {
+            throw new IOException(where() + ": not a date: " + s);
+         }catch (ParseException e) {
+            throw new IOException(where() + ": not a date: " + s);
+         }//end try
+      }
+
+      String where () {
+         return this._file.getName() + " line " + this._line;
+      }
+
+      void close () {
+         try {
+            this._in.close();
+         }catch (IOException e) {
+            // ignored.
+         }//end try
+      }
+   }//end Csv
+
+}//end MemoryStore
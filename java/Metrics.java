@@ -0,0 +1,305 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class measures where the time of each operation goes: its latency,
+ * the SQL round trips it made, the rows it returned and how long it waited
+ * for a pooled connection.
+ *
+ * HotelOps starts an Op for each operation it runs; DBProject reports every
+ * statement it sends, every row it streams and every connection checkout
+ * to the Op running on the calling thread. Work done outside an operation
+ * (index loading, batch commits) is counted under "other".
+ *
+ * The figures are shown by menu option 17, registered as MBeans under
+ * "HotelDB:type=Operation,name=<op>" (and "HotelDB:type=Metrics" for the
+ * whole report) and, with -Dmetrics.log=<file>, appended to a log file
+ * every -Dmetrics.logSeconds (default 60).
+ */
+
+public class Metrics implements MetricsMBean {
+
+   public static final String DOMAIN = "HotelDB";
+   private static final String OTHER = "other";
+
+   private final ConcurrentHashMap<String, OperationMetrics> _ops = new ConcurrentHashMap<String, OperationMetrics>();
+   private final ThreadLocal<Op> _current = new ThreadLocal<Op>();
+   private final long _started = System.currentTimeMillis();
+
+   private MBeanServer _server = null;
+   private ScheduledExecutorService _logger = null;
+
+   /**
+    * Method to register the MBeans of this instance with the platform MBean
+    * server. Operations seen later are registered when first recorded.
+    */
+   public void register () {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(DOMAIN + ":type=Metrics");
+         if (server.isRegistered(name))
+            server.unregisterMBean(name);
+         server.registerMBean(this, name);
+         this._server = server;
+         for (OperationMetrics m : this._ops.values())
+            registerOp(m);
+      }catch (Exception e) {
+         System.err.println("Unable to register metrics MBean: " + e.getMessage());
+      }//end try
+   }//end register
+
+   /**
+    * Method to append the report to a file at a fixed interval, on a daemon
+    * thread
+    *
+    * @param file the log file
+    * @param seconds the interval
+    */
+   public void logTo (final String file, long seconds) {
+      this._logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "metrics-log");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._logger.scheduleAtFixedRate(new Runnable() {
+         public void run () {
+            dump(file);
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end logTo
+
+   /**
+    * Method to stop the periodic log, writing it once more
+    */
+   public void close () {
+      if (this._logger != null) {
+         this._logger.shutdownNow();
+         this._logger = null;
+         String file = System.getProperty("metrics.log");
+         if (file != null)
+            dump(file);
+      }//end if
+   }//end close
+
+   /**
+    * Method to start timing an operation on the calling thread. An
+    * operation started while another is running on the same thread is
+    * counted as part of the outer one.
+    *
+    * @param name the operation, e.g. "bookRoom"
+    * @return the running operation; stop must be called in a finally block
+    */
+   public Op start (String name) {
+      Op op = this._current.get();
+      if (op != null) {
+         op.depth++;
+         return op;
+      }//end if
+      op = new Op(name);
+      this._current.set(op);
+      return op;
+   }//end start
+
+   /**
+    * Method to count one statement sent to the server
+    */
+   public void roundTrip () {
+      Op op = this._current.get();
+      if (op != null)
+         op.roundTrips++;
+      else
+         metrics(OTHER).add(0, 1, 0, 0);
+   }//end roundTrip
+
+   /**
+    * Method to count rows returned to the caller
+    */
+   public void rows (long n) {
+      Op op = this._current.get();
+      if (op != null)
+         op.rows += n;
+      else
+         metrics(OTHER).add(0, 0, n, 0);
+   }//end rows
+
+   /**
+    * Method to add time spent waiting for a pooled connection
+    */
+   public void connectionWait (long nanos) {
+      Op op = this._current.get();
+      if (op != null)
+         op.waitNanos += nanos;
+      else
+         metrics(OTHER).add(0, 0, 0, nanos);
+   }//end connectionWait
+
+   public String[] getOperations () {
+      return new TreeMap<String, OperationMetrics>(this._ops).keySet().toArray(new String[0]);
+   }//end getOperations
+
+   public long getUptimeSeconds () {
+      return (System.currentTimeMillis() - this._started) / 1000;
+   }//end getUptimeSeconds
+
+   /**
+    * Method to describe every operation, one line each
+    */
+   public String getReport () {
+      StringBuilder b = new StringBuilder();
+      b.append(String.format("%-36s %8s %9s %9s %9s %9s %9s %8s %9s %9s%n",
+                             "operation", "count", "avg ms", "p50 ms", "p99 ms", "p999 ms", "max ms",
+                             "trips/op", "rows/op", "wait ms"));
+      for (Map.Entry<String, OperationMetrics> e : new TreeMap<String, OperationMetrics>(this._ops).entrySet()) {
+         OperationMetrics m = e.getValue();
+         long n = Math.max(1, m.getCount());
+         b.append(String.format("%-36s %8d %9.3f %9.3f %9.3f %9.3f %9.3f %8.2f %9.1f %9.3f%n",
+                                e.getKey(), m.getCount(), m.getAverageMillis(), m.getP50Millis(), m.getP99Millis(),
+                                m.getP999Millis(), m.getMaxMillis(), (double) m.getRoundTrips() / n,
+                                (double) m.getRows() / n, m.getConnectionWaitMillis()));
+      }//end for
+      return b.toString();
+   }//end getReport
+
+   public void reset () {
+      for (OperationMetrics m : this._ops.values())
+         m.reset();
+   }//end reset
+
+   private OperationMetrics metrics (String name) {
+      OperationMetrics m = this._ops.get(name);
+      if (m == null) {
+         OperationMetrics created = new OperationMetrics(name);
+         m = this._ops.putIfAbsent(name, created);
+         if (m == null) {
+            m = created;
+            if (this._server != null)
+               registerOp(m);
+         }//end if
+      }//end if
+      return m;
+   }//end metrics
+
+   private void registerOp (OperationMetrics m) {
+      try {
+         ObjectName name = new ObjectName(DOMAIN + ":type=Operation,name=" + ObjectName.quote(m.getName()));
+         if (this._server.isRegistered(name))
+            this._server.unregisterMBean(name);
+         this._server.registerMBean(m, name);
+      }catch (Exception e) {
+         System.err.println("Unable to register metrics MBean: " + e.getMessage());
+      }//end try
+   }//end registerOp
+
+   private void dump (String file) {
+      try {
+         PrintWriter out = new PrintWriter(new FileWriter(file, true));
+         try {
+            out.println("# " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+            out.print(getReport());
+            out.println();
+         } finally {
+            out.close();
+         }//end try
+      }catch (IOException e) {
+         System.err.println("Unable to write " + file + ": " + e.getMessage());
+      }//end try
+   }//end dump
+
+   /**
+    * This class is one operation running on a thread. It is only touched
+    * by that thread until stop folds it into the totals.
+    */
+   public final class Op {
+      private final String _name;
+      private final long _start = System.nanoTime();
+      private int depth = 1;
+      private long roundTrips = 0;
+      private long rows = 0;
+      private long waitNanos = 0;
+
+      private Op (String name) {
+         this._name = name;
+      }
+
+      public void stop () {
+         if (--this.depth > 0)
+            return;
+         _current.remove();
+         metrics(this._name).add(System.nanoTime() - this._start, this.roundTrips, this.rows, this.waitNanos);
+      }
+   }//end Op
+
+   /**
+    * This class counts latencies in log-linear buckets: exact below 64
+    * microseconds, then 32 buckets per power of two, so a percentile is off
+    * by at most about 3%. Recording is lock-free.
+    */
+   public static final class Histogram {
+      private static final int SUB = 32;
+      private static final int SHIFT = 5;
+      private final AtomicLongArray _counts = new AtomicLongArray(64 + SUB * (63 - SHIFT));
+
+      public void record (long micros) {
+         this._counts.incrementAndGet(index(Math.max(0, micros)));
+      }//end record
+
+      /**
+       * Method to get the value at a percentile, in microseconds
+       *
+       * @param p between 0 and 1, e.g. 0.999
+       */
+      public long percentile (double p) {
+         long total = 0;
+         for (int i = 0; i < this._counts.length(); ++i)
+            total += this._counts.get(i);
+         if (total == 0)
+            return 0;
+         long rank = Math.max(1, (long) Math.ceil(p * total));
+         long seen = 0;
+         for (int i = 0; i < this._counts.length(); ++i) {
+            seen += this._counts.get(i);
+            if (seen >= rank)
+               return upper(i);
+         }//end for
+         return upper(this._counts.length() - 1);
+      }//end percentile
+
+      public void reset () {
+         for (int i = 0; i < this._counts.length(); ++i)
+            this._counts.set(i, 0);
+      }//end reset
+
+      private static int index (long v) {
+         if (v < 2 * SUB)
+            return (int) v;
+         int exp = 63 - Long.numberOfLeadingZeros(v);
+         return 2 * SUB + (exp - SHIFT - 1) * SUB + (int) ((v >>> (exp - SHIFT)) - SUB);
+      }//end index
+
+      // the largest value that falls in a bucket
+      private static long upper (int i) {
+         if (i < 2 * SUB)
+            return i;
+         int exp = (i - 2 * SUB) / SUB + SHIFT + 1;
+         long sub = (i - 2 * SUB) % SUB + SUB;
+         return ((sub + 1) << (exp - SHIFT)) - 1;
+      }//end upper
+   }//end Histogram
+
+}//end Metrics
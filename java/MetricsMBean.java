@@ -0,0 +1,21 @@
+/**
+ * This interface is the JMX view of Metrics, see there.
+ */
+
+public interface MetricsMBean {
+
+   public String[] getOperations ();
+
+   public long getUptimeSeconds ();
+
+   /**
+    * Method to describe every operation, one line each
+    */
+   public String getReport ();
+
+   /**
+    * Method to clear the figures of every operation
+    */
+   public void reset ();
+
+}//end MetricsMBean
@@ -0,0 +1,146 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class resolves a customer name to the customer IDs with that name,
+ * keeping the answers in a bounded least recently used cache. Several
+ * customers can share a name, so every name maps to a sorted array of IDs
+ * (empty when no customer has it; misses are cached too).
+ *
+ * Names are trimmed before lookup. The columns are VARCHAR(30), stored
+ * without trailing blanks since the version 2 migration, so the trimmed
+ * name compares equal as it is and the query can use the (lName, fName)
+ * index of index.sql.
+ *
+ * addCustomer must call invalidate for the name it inserted. A lookup that
+ * overlaps an invalidate does not store its answer, so a cached entry never
+ * predates the last insert.
+ */
+
+public class NameCache {
+
+   static final String QUERY =
+      "SELECT customerID FROM Customer WHERE lName = ? AND fName = ? ORDER BY customerID";
+
+   private final DBProject _esql;
+   private final LinkedHashMap<String, int[]> _cache;
+   // bumped by every invalidate
+   private final AtomicLong _version = new AtomicLong();
+
+   private final AtomicLong _hits = new AtomicLong();
+   private final AtomicLong _misses = new AtomicLong();
+   private final AtomicLong _invalidations = new AtomicLong();
+
+   /**
+    * Creates a new cache
+    *
+    * @param esql the database to resolve names against
+    * @param capacity the number of names kept
+    */
+   public NameCache (DBProject esql, final int capacity) {
+      this._esql = esql;
+      this._cache = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, int[]> eldest) {
+            return size() > capacity;
+         }
+      };
+   }//end NameCache
+
+   /**
+    * Method to get the IDs of the customers with a name
+    *
+    * @param fName first name
+    * @param lName last name
+    * @return the customer IDs in ascending order, empty if there are none;
+    *         the array must not be modified
+    * @throws java.sql.SQLException when the Customer table cannot be read
+    */
+   public int[] lookup (String fName, String lName) throws SQLException {
+      String f = normalize(fName);
+      String l = normalize(lName);
+      String key = key(f, l);
+      synchronized (this._cache) {
+         int[] ids = this._cache.get(key);
+         if (ids != null) {
+            this._hits.incrementAndGet();
+            return ids;
+         }//end if
+      }//end synchronized
+      this._misses.incrementAndGet();
+
+      long version = this._version.get();
+      int[] ids = query(f, l);
+      synchronized (this._cache) {
+         if (this._version.get() == version)
+            this._cache.put(key, ids);
+      }//end synchronized
+      return ids;
+   }//end lookup
+
+   /**
+    * Method to drop a name from the cache after a customer with that name
+    * was added or changed
+    */
+   public void invalidate (String fName, String lName) {
+      String key = key(normalize(fName), normalize(lName));
+      synchronized (this._cache) {
+         this._version.incrementAndGet();
+         this._cache.remove(key);
+      }//end synchronized
+      this._invalidations.incrementAndGet();
+   }//end invalidate
+
+   public long getHits () { return this._hits.get(); }
+   public long getMisses () { return this._misses.get(); }
+   public long getInvalidations () { return this._invalidations.get(); }
+
+   /**
+    * Method to describe the cache in one line
+    */
+   public String stats () {
+      int size;
+      synchronized (this._cache) {
+         size = this._cache.size();
+      }//end synchronized
+      long hits = this._hits.get();
+      long total = hits + this._misses.get();
+      return String.format("names size=%d hits=%d misses=%d hitRate=%.1f%% invalidations=%d",
+                           size, hits, total - hits, total == 0 ? 0.0 : 100.0 * hits / total,
+                           this._invalidations.get());
+   }//end stats
+
+   private int[] query (String fName, String lName) throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         PreparedStatement stmt = this._esql.prepare(conn, QUERY);
+         StatementCache.bind(stmt, lName, fName);
+         ResultSet rs = this._esql.fetch(stmt);
+         int[] ids = new int[4];
+         int n = 0;
+         while (rs.next()) {
+            if (n == ids.length)
+               ids = Arrays.copyOf(ids, n * 2);
+            ids[n++] = rs.getInt(1);
+         }//end while
+         rs.close();
+         return Arrays.copyOf(ids, n);
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end query
+
+   private static String normalize (String name) {
+      return name == null ? "" : name.trim();
+   }//end normalize
+
+   private static String key (String fName, String lName) {
+      return lName + '\u0000' + fName;
+   }//end key
+
+}//end NameCache
@@ -0,0 +1,434 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps which rooms are booked on which day in memory, so room
+ * availability is answered with bit operations instead of a NOT IN query.
+ *
+ * For every hotel it keeps
+ *   - a bitset of the room numbers that exist in Room,
+ *   - the number of bookings of each room,
+ *   - one bitset per day of the rooms booked that day.
+ * Bit r of a bitset stands for room number r. The per-day bitsets are
+ * stored in pages of 64 consecutive days that are only allocated once a
+ * booking falls inside them. Memory is about 8 bytes per 64 rooms per day
+ * in a page that has a booking: a hotel with up to 64 rooms costs 512
+ * bytes per active 64-day window.
+ *
+ * The index is built from Room and Booking at startup and then kept up to
+ * date by addRoom and bookRoom of this process. Rows written by other
+ * processes are not seen until the next start.
+ *
+ * Everything that changes the shape of the index (a hotel, a wider
+ * bitset, a page) or that claims without a lock of the caller's own takes
+ * the index-wide write lock. claim only takes the read lock: the caller's
+ * per-room lock orders the claims of one room, and the page words and
+ * booking counts are atomic arrays, so a claim sets its bit with a
+ * compare-and-set on a word shared with other rooms and readers under
+ * the read lock see every finished claim.
+ */
+
+public class OccupancyIndex {
+
+   private static final int PAGE_DAYS = 64;
+
+   private final HashMap<Integer, Hotel> _hotels = new HashMap<Integer, Hotel>();
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private int _roomCount = 0;
+   private final AtomicInteger _bookingCount = new AtomicInteger();
+
+   /**
+    * Method to build the index from the Room and Booking tables
+    *
+    * @param esql the database to read from
+    * @param snap a snapshot holding the older rows, or null to read them all
+    * @return the filled index
+    * @throws java.sql.SQLException when a table cannot be read
+    */
+   public static OccupancyIndex load (DBProject esql, Snapshot snap) throws SQLException {
+      OccupancyIndex idx = new OccupancyIndex();
+      if (snap != null) {
+         Snapshot.Table room = snap.table("Room");
+         Snapshot.Column hotelID = room.column("hotelID");
+         Snapshot.Column roomNo = room.column("roomNo");
+         for (int i = 0; i < room.rows; ++i)
+            idx.addRoom(hotelID.getInt(i), roomNo.getInt(i));
+         Snapshot.Table booking = snap.table("Booking");
+         hotelID = booking.column("hotelID");
+         roomNo = booking.column("roomNo");
+         Snapshot.Column day = booking.column("bookingDate");
+         for (int i = 0; i < booking.rows; ++i)
+            idx.book(hotelID.getInt(i), roomNo.getInt(i), day.getInt(i));
+      }//end if
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         PreparedStatement stmt = esql.prepare(conn, Snapshot.since(snap, "SELECT hotelID, roomNo FROM Room"));
+         stmt.setFetchSize(5000);
+         ResultSet rs = esql.fetch(stmt);
+         while (rs.next())
+            idx.addRoom(rs.getInt(1), rs.getInt(2));
+         rs.close();
+
+         stmt = esql.prepare(conn, Snapshot.since(snap, "SELECT hotelID, roomNo, bookingDate FROM Booking"));
+         stmt.setFetchSize(5000);
+         rs = esql.fetch(stmt);
+         while (rs.next())
+            idx.book(rs.getInt(1), rs.getInt(2), Days.of(rs.getDate(3)));
+         rs.close();
+         conn.commit();
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+      return idx;
+   }//end load
+
+   /**
+    * Method to record a new room
+    */
+   public void addRoom (int hotelID, int roomNo) {
+      if (roomNo < 0)
+         return;
+      this._lock.writeLock().lock();
+      try {
+         Hotel h = hotel(hotelID, true);
+         h.ensureRoom(roomNo);
+         if (!get(h.rooms, roomNo)) {
+            set(h.rooms, roomNo);
+            this._roomCount++;
+         }//end if
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRoom
+
+   /**
+    * Method to mark a room booked on a day. Fails without changing anything
+    * when the room is already booked that day, so callers can use it to
+    * claim the room before writing the booking.
+    *
+    * @return true if the room was free and is now booked
+    */
+   public boolean book (int hotelID, int roomNo, int day) {
+      if (roomNo < 0)
+         return false;
+      this._lock.writeLock().lock();
+      try {
+         Hotel h = hotel(hotelID, true);
+         h.ensureRoom(roomNo);
+         AtomicLongArray page = h.page(day, true);
+         int base = (day - h.pageStart(day)) * h.words;
+         if (!setAt(page, base, roomNo))
+            return false;
+         h.bookings.incrementAndGet(roomNo);
+         this._bookingCount.incrementAndGet();
+         return true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end book
+
+   /**
+    * Method to mark a room booked on a day, like book, without the
+    * index-wide write lock. The caller must hold a lock of the room that
+    * every other claim of the same room takes too, so claims of different
+    * rooms run side by side. The write lock is only taken, once, when the
+    * page of the day does not exist yet.
+    *
+    * @return true if the room was free and is now booked
+    */
+   public boolean claim (int hotelID, int roomNo, int day) {
+      if (roomNo < 0)
+         return false;
+      for (;;) {
+         this._lock.readLock().lock();
+         try {
+            Hotel h = hotel(hotelID, false);
+            AtomicLongArray page = h == null || roomNo >= h.words * 64 ? null : h.page(day, false);
+            if (page != null) {
+               int base = (day - h.pageStart(day)) * h.words;
+               if (!setAt(page, base, roomNo))
+                  return false;
+               h.bookings.incrementAndGet(roomNo);
+               this._bookingCount.incrementAndGet();
+               return true;
+            }//end if
+         } finally {
+            this._lock.readLock().unlock();
+         }//end try
+         this._lock.writeLock().lock();
+         try {
+            Hotel h = hotel(hotelID, true);
+            h.ensureRoom(roomNo);
+            h.page(day, true);
+         } finally {
+            this._lock.writeLock().unlock();
+         }//end try
+      }//end for
+   }//end claim
+
+   /**
+    * Method to undo book, e.g. when the INSERT of the booking failed
+    */
+   public void unbook (int hotelID, int roomNo, int day) {
+      this._lock.writeLock().lock();
+      try {
+         Hotel h = hotel(hotelID, false);
+         if (h == null || roomNo < 0 || roomNo >= h.words * 64)
+            return;
+         AtomicLongArray page = h.page(day, false);
+         if (page == null)
+            return;
+         int base = (day - h.pageStart(day)) * h.words;
+         if (getAt(page, base, roomNo)) {
+            int w = base + (roomNo >>> 6);
+            page.set(w, page.get(w) & ~(1L << (roomNo & 63)));
+            h.bookings.decrementAndGet(roomNo);
+            this._bookingCount.decrementAndGet();
+         }//end if
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end unbook
+
+   public boolean roomExists (int hotelID, int roomNo) {
+      this._lock.readLock().lock();
+      try {
+         Hotel h = hotel(hotelID, false);
+         return h != null && roomNo >= 0 && roomNo < h.words * 64 && get(h.rooms, roomNo);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end roomExists
+
+   public boolean isBooked (int hotelID, int roomNo, int day) {
+      this._lock.readLock().lock();
+      try {
+         Hotel h = hotel(hotelID, false);
+         if (h == null || roomNo < 0 || roomNo >= h.words * 64)
+            return false;
+         AtomicLongArray page = h.page(day, false);
+         return page != null && getAt(page, (day - h.pageStart(day)) * h.words, roomNo);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end isBooked
+
+   /**
+    * Method to count the rooms of a hotel
+    */
+   public int roomCount (int hotelID) {
+      this._lock.readLock().lock();
+      try {
+         Hotel h = hotel(hotelID, false);
+         return h == null ? 0 : popCount(h.rooms);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end roomCount
+
+   /**
+    * Method to count the rooms of a hotel that are free on every day of
+    * [day, day + days)
+    */
+   public int availableRooms (int hotelID, int day, int days) {
+      long[] free = freeRooms(hotelID, day, days);
+      return free == null ? 0 : popCount(free);
+   }//end availableRooms
+
+   /**
+    * Method to get the rooms of a hotel that are free on every day of
+    * [day, day + days) as room numbers
+    */
+   public int[] freeRoomNumbers (int hotelID, int day, int days) {
+      long[] free = freeRooms(hotelID, day, days);
+      if (free == null)
+         return new int[0];
+      int[] out = new int[popCount(free)];
+      int k = 0;
+      for (int w = 0; w < free.length; ++w) {
+         long bits = free[w];
+         while (bits != 0) {
+            out[k++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+         }//end while
+      }//end for
+      return out;
+   }//end freeRoomNumbers
+
+   /**
+    * Method to get the room numbers of a hotel
+    */
+   public int[] roomNumbers (int hotelID) {
+      return freeRoomNumbers(hotelID, 0, 0);
+   }//end roomNumbers
+
+   /**
+    * Method to count the rooms of a hotel that have never been booked
+    */
+   public int neverBookedRooms (int hotelID) {
+      this._lock.readLock().lock();
+      try {
+         Hotel h = hotel(hotelID, false);
+         if (h == null)
+            return 0;
+         int n = 0;
+         for (int w = 0; w < h.words; ++w) {
+            long bits = h.rooms[w];
+            while (bits != 0) {
+               if (h.bookings.get((w << 6) + Long.numberOfTrailingZeros(bits)) == 0)
+                  n++;
+               bits &= bits - 1;
+            }//end while
+         }//end for
+         return n;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end neverBookedRooms
+
+   /**
+    * Method to describe the size of the index in one line
+    */
+   public String stats () {
+      this._lock.readLock().lock();
+      try {
+         long pages = 0;
+         long bytes = 0;
+         for (Hotel h : this._hotels.values()) {
+            pages += h.pages.size();
+            bytes += (long) h.pages.size() * PAGE_DAYS * h.words * 8 + h.words * (8L + 64 * 4);
+         }//end for
+         return String.format("occupancy hotels=%d rooms=%d bookings=%d pages=%d bitsetBytes=%d",
+                              this._hotels.size(), this._roomCount, this._bookingCount.get(), pages, bytes);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   private long[] freeRooms (int hotelID, int day, int days) {
+      this._lock.readLock().lock();
+      try {
+         Hotel h = hotel(hotelID, false);
+         if (h == null)
+            return null;
+         long[] free = h.rooms.clone();
+         for (int d = day; d < day + days; ++d) {
+            AtomicLongArray page = h.page(d, false);
+            if (page == null) {
+               // skip to the next page, nothing is booked in this one
+               d = h.pageStart(d) + PAGE_DAYS - 1;
+               continue;
+            }//end if
+            int base = (d - h.pageStart(d)) * h.words;
+            for (int w = 0; w < h.words; ++w)
+               free[w] &= ~page.get(base + w);
+         }//end for
+         return free;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end freeRooms
+
+   private Hotel hotel (int hotelID, boolean create) {
+      Hotel h = this._hotels.get(hotelID);
+      if (h == null && create) {
+         h = new Hotel();
+         this._hotels.put(hotelID, h);
+      }//end if
+      return h;
+   }//end hotel
+
+   private static boolean get (long[] bits, int i) {
+      return (bits[i >>> 6] & (1L << (i & 63))) != 0;
+   }//end get
+
+   private static void set (long[] bits, int i) {
+      bits[i >>> 6] |= 1L << (i & 63);
+   }//end set
+
+   private static boolean getAt (AtomicLongArray bits, int base, int i) {
+      return (bits.get(base + (i >>> 6)) & (1L << (i & 63))) != 0;
+   }//end getAt
+
+   // false when the bit was set already
+   private static boolean setAt (AtomicLongArray bits, int base, int i) {
+      int w = base + (i >>> 6);
+      long bit = 1L << (i & 63);
+      for (;;) {
+         long old = bits.get(w);
+         if ((old & bit) != 0)
+            return false;
+         if (bits.compareAndSet(w, old, old | bit))
+            return true;
+      }//end for
+   }//end setAt
+
+   private static int popCount (long[] bits) {
+      int n = 0;
+      for (long w : bits)
+         n += Long.bitCount(w);
+      return n;
+   }//end popCount
+
+   /*
+    * The bitsets of one hotel. Every bitset is `words` longs wide; a page
+    * holds PAGE_DAYS of them back to back.
+    */
+   private static class Hotel {
+      int words = 1;
+      long[] rooms = new long[1];
+      AtomicIntegerArray bookings = new AtomicIntegerArray(64);
+      final HashMap<Integer, AtomicLongArray> pages = new HashMap<Integer, AtomicLongArray>();
+
+      static int pageOf (int day) {
+         return day >= 0 ? day / PAGE_DAYS : (day - PAGE_DAYS + 1) / PAGE_DAYS;
+      }
+
+      int pageStart (int day) {
+         return pageOf(day) * PAGE_DAYS;
+      }
+
+      AtomicLongArray page (int day, boolean create) {
+         Integer key = Integer.valueOf(pageOf(day));
+         AtomicLongArray p = this.pages.get(key);
+         if (p == null && create) {
+            p = new AtomicLongArray(PAGE_DAYS * this.words);
+            this.pages.put(key, p);
+         }//end if
+         return p;
+      }
+
+      /*
+       * Widens every bitset of the hotel when a room number does not fit.
+       */
+      void ensureRoom (int roomNo) {
+         int need = (roomNo >>> 6) + 1;
+         if (need <= this.words)
+            return;
+         this.rooms = java.util.Arrays.copyOf(this.rooms, need);
+         AtomicIntegerArray counts = new AtomicIntegerArray(need * 64);
+         for (int i = 0; i < this.bookings.length(); ++i)
+            counts.set(i, this.bookings.get(i));
+         this.bookings = counts;
+         for (Map.Entry<Integer, AtomicLongArray> e : this.pages.entrySet()) {
+            AtomicLongArray old = e.getValue();
+            AtomicLongArray wide = new AtomicLongArray(PAGE_DAYS * need);
+            for (int d = 0; d < PAGE_DAYS; ++d)
+               for (int w = 0; w < this.words; ++w)
+                  wide.set(d * need + w, old.get(d * this.words + w));
+            e.setValue(wide);
+         }//end for
+         this.words = need;
+      }
+   }//end Hotel
+
+}//end OccupancyIndex
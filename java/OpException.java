@@ -0,0 +1,15 @@
+/**
+ * This class is thrown by HotelOps when an operation is refused because a
+ * check failed, e.g. the room does not exist or the staff member has the
+ * wrong role. The message is the one shown to the user.
+ */
+
+public class OpException extends Exception {
+
+   private static final long serialVersionUID = 1L;
+
+   public OpException (String message) {
+      super(message);
+   }//end OpException
+
+}//end OpException
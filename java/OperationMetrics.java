@@ -0,0 +1,72 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the totals of one operation for Metrics: how often it
+ * ran, a histogram of its latency, and the SQL round trips, rows and
+ * connection wait of all its runs together.
+ */
+
+public class OperationMetrics implements OperationMetricsMBean {
+
+   private final String _name;
+   private final Metrics.Histogram _latency = new Metrics.Histogram();
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _totalNanos = new AtomicLong();
+   private final AtomicLong _maxNanos = new AtomicLong();
+   private final AtomicLong _roundTrips = new AtomicLong();
+   private final AtomicLong _rows = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+
+   public OperationMetrics (String name) {
+      this._name = name;
+   }//end OperationMetrics
+
+   /**
+    * Method to add one run, or only its counters when elapsed is 0 (work
+    * done outside an operation)
+    */
+   void add (long elapsedNanos, long roundTrips, long rows, long waitNanos) {
+      if (elapsedNanos > 0) {
+         this._count.incrementAndGet();
+         this._totalNanos.addAndGet(elapsedNanos);
+         this._latency.record(elapsedNanos / 1000);
+         long cur;
+         while (elapsedNanos > (cur = this._maxNanos.get()) && !this._maxNanos.compareAndSet(cur, elapsedNanos)) {
+            // retry
+         }//end while
+      }//end if
+      if (roundTrips != 0)
+         this._roundTrips.addAndGet(roundTrips);
+      if (rows != 0)
+         this._rows.addAndGet(rows);
+      if (waitNanos != 0)
+         this._waitNanos.addAndGet(waitNanos);
+   }//end add
+
+   public String getName () { return this._name; }
+   public long getCount () { return this._count.get(); }
+   public long getRoundTrips () { return this._roundTrips.get(); }
+   public long getRows () { return this._rows.get(); }
+
+   public double getAverageMillis () {
+      long n = this._count.get();
+      return n == 0 ? 0.0 : this._totalNanos.get() / 1e6 / n;
+   }//end getAverageMillis
+
+   public double getP50Millis () { return this._latency.percentile(0.50) / 1e3; }
+   public double getP99Millis () { return this._latency.percentile(0.99) / 1e3; }
+   public double getP999Millis () { return this._latency.percentile(0.999) / 1e3; }
+   public double getMaxMillis () { return this._maxNanos.get() / 1e6; }
+   public double getConnectionWaitMillis () { return this._waitNanos.get() / 1e6; }
+
+   public void reset () {
+      this._count.set(0);
+      this._totalNanos.set(0);
+      this._maxNanos.set(0);
+      this._roundTrips.set(0);
+      this._rows.set(0);
+      this._waitNanos.set(0);
+      this._latency.reset();
+   }//end reset
+
+}//end OperationMetrics
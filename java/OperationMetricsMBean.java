@@ -0,0 +1,30 @@
+/**
+ * This interface is the JMX view of the figures of one operation, see
+ * OperationMetrics. Times are in milliseconds.
+ */
+
+public interface OperationMetricsMBean {
+
+   public String getName ();
+
+   public long getCount ();
+
+   public double getAverageMillis ();
+
+   public double getP50Millis ();
+
+   public double getP99Millis ();
+
+   public double getP999Millis ();
+
+   public double getMaxMillis ();
+
+   public long getRoundTrips ();
+
+   public long getRows ();
+
+   public double getConnectionWaitMillis ();
+
+   public void reset ();
+
+}//end OperationMetricsMBean
@@ -0,0 +1,340 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class looks after the quarterly partitions of Booking (see
+ * sql/create.sql):
+ *   - ahead:  creates the partitions of the coming quarters, and of any
+ *             quarter missing between the last partition and them, so new
+ *             bookings never land in Booking_default. Rows of the quarter
+ *             already in Booking_default are moved into the new partition;
+ *             a quarter that still cannot be created is reported and
+ *             skipped,
+ *   - detach: detaches the partitions that end before a date and renames
+ *             them archived_booking_<year>q<n>; they stay as plain tables,
+ *   - attach: attaches such a table again for its quarter,
+ *   - check:  runs EXPLAIN on the week and date range queries and reports
+ *             how many partitions each one reads.
+ *
+ * Creating a partition locks Booking_default and scans it, so it is not
+ * done by every client: run ahead from cron (or start DBProject with
+ * -Dpartitions.ahead=<quarters>), like the rest of the commands:
+ *
+ *   java PartitionManager <db> <port> <user> status | ahead <n> | detach <date>
+ *                                            | attach <table> <date> | check
+ *
+ * On a database where Booking is not partitioned every command does nothing.
+ */
+
+public class PartitionManager {
+
+   private static final Pattern BOUND = Pattern.compile("FROM \\('([0-9-]+)'\\) TO \\('([0-9-]+)'\\)");
+
+   // a date range query over all hotels, as ad hoc reports run it
+   private static final String RANGE_QUERY =
+      "SELECT bID, priceCents FROM Booking WHERE bookingDate >= CAST(? AS DATE) AND bookingDate <= CAST(? AS DATE) ORDER BY priceCents DESC LIMIT 10";
+
+   private final DBProject _esql;
+
+   public PartitionManager (DBProject esql) {
+      this._esql = esql;
+   }//end PartitionManager
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-cp <$classpath>] PartitionManager <dbname> <port> <user> " +
+            "status | ahead <quarters> | detach <date> | attach <table> <date> | check");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         System.setProperty("partitions.ahead", "0");
+         esql = new DBProject(args[0], args[1], args[2], "");
+         PartitionManager pm = new PartitionManager(esql);
+         String cmd = args[3];
+         if (cmd.equals("ahead"))
+            pm.createAhead(Integer.parseInt(args[4]));
+         else if (cmd.equals("detach"))
+            pm.detachBefore(Days.of(DBProject.parseDate(args[4])));
+         else if (cmd.equals("attach"))
+            pm.attach(args[4], Days.of(DBProject.parseDate(args[5])));
+         else if (cmd.equals("check"))
+            pm.checkPruning();
+         else if (!cmd.equals("status"))
+            throw new IllegalArgumentException("unknown command " + cmd);
+         for (Partition p : pm.partitions())
+            System.out.println(p);
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * One partition of Booking and its range [fromDay, toDay), or the
+    * default partition
+    */
+   public static final class Partition {
+      public final String name;
+      public final int fromDay;
+      public final int toDay;
+      public final boolean isDefault;
+
+      Partition (String name, int fromDay, int toDay, boolean isDefault) {
+         this.name = name;
+         this.fromDay = fromDay;
+         this.toDay = toDay;
+         this.isDefault = isDefault;
+      }
+
+      public String toString () {
+         return this.isDefault ? this.name + " DEFAULT"
+                               : this.name + " [" + Days.toSqlDate(this.fromDay) + ", " + Days.toSqlDate(this.toDay) + ")";
+      }
+   }//end Partition
+
+   /**
+    * Method to tell whether Booking is a partitioned table
+    */
+   public boolean isPartitioned () throws SQLException {
+      Connection conn = this._esql.getConnection();
+      try {
+         PreparedStatement stmt = this._esql.prepare(conn,
+            "SELECT relkind FROM pg_class WHERE relname = 'booking' AND relkind IN ('p', 'r')");
+         ResultSet rs = this._esql.fetch(stmt);
+         try {
+            return rs.next() && "p".equals(rs.getString(1));
+         } finally {
+            rs.close();
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end isPartitioned
+
+   /**
+    * Method to list the partitions of Booking, in date order with the
+    * default partition last
+    */
+   public List<Partition> partitions () throws SQLException {
+      List<Partition> ranges = new ArrayList<Partition>();
+      List<Partition> defaults = new ArrayList<Partition>();
+      Connection conn = this._esql.getConnection();
+      try {
+         PreparedStatement stmt = this._esql.prepare(conn,
+            "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i " +
+            "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+            "WHERE p.relname = 'booking'");
+         ResultSet rs = this._esql.fetch(stmt);
+         while (rs.next()) {
+            String bound = rs.getString(2);
+            Matcher m = BOUND.matcher(bound);
+            if (m.find())
+               ranges.add(new Partition(rs.getString(1), day(m.group(1)), day(m.group(2)), false));
+            else if (bound.contains("DEFAULT"))
+               defaults.add(new Partition(rs.getString(1), 0, 0, true));
+         }//end while
+         rs.close();
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+      Collections.sort(ranges, new Comparator<Partition>() {
+         public int compare (Partition a, Partition b) {
+            return a.fromDay < b.fromDay ? -1 : (a.fromDay == b.fromDay ? 0 : 1);
+         }
+      });
+      ranges.addAll(defaults);
+      return ranges;
+   }//end partitions
+
+   /**
+    * Method to create the partitions of the current quarter and the next
+    * ones, and of every quarter missing between the last partition and
+    * those
+    *
+    * @param quarters how many quarters after the current one
+    * @return the number of partitions created
+    */
+   public int createAhead (int quarters) throws SQLException {
+      if (!isPartitioned())
+         return 0;
+      TreeSet<Integer> existing = new TreeSet<Integer>();
+      int last = Integer.MIN_VALUE;
+      String defaultName = null;
+      for (Partition p : partitions()) {
+         if (p.isDefault) {
+            defaultName = p.name;
+            continue;
+         }//end if
+         existing.add(p.fromDay);
+         last = Math.max(last, p.toDay);
+      }//end for
+      int today = Days.of(new java.util.Date());
+      int target = quarterStart(today);
+      for (int i = 0; i < quarters; ++i)
+         target = nextQuarter(target);
+      int q = last == Integer.MIN_VALUE ? quarterStart(today) : Math.min(last, quarterStart(today));
+      int created = 0;
+      for (; q <= target; q = nextQuarter(q)) {
+         if (existing.contains(q))
+            continue;
+         try {
+            create(q, defaultName);
+            created++;
+         }catch (SQLException e) {
+            System.err.println("Unable to create partition " + name(q) + ", skipped: " + e.getMessage());
+         }//end try
+      }//end for
+      return created;
+   }//end createAhead
+
+   /*
+    * Creates the partition of a quarter in one transaction. With a default
+    * partition, the quarter's rows in it are moved to a new table first,
+    * which is then attached; otherwise the partition is created empty.
+    */
+   private void create (int q, String defaultName) throws SQLException {
+      String from = "'" + Days.toSqlDate(q) + "'";
+      String to = "'" + Days.toSqlDate(nextQuarter(q)) + "'";
+      Connection conn = this._esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         try {
+            int moved = 0;
+            if (defaultName == null) {
+               this._esql.update(this._esql.prepare(conn, "CREATE TABLE " + name(q) +
+                                 " PARTITION OF Booking FOR VALUES FROM (" + from + ") TO (" + to + ")"));
+            } else {
+               this._esql.update(this._esql.prepare(conn, "CREATE TABLE " + name(q) + " (LIKE " + defaultName +
+                                 " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)"));
+               moved = this._esql.update(this._esql.prepare(conn, "WITH moved AS (DELETE FROM " + defaultName +
+                                         " WHERE bookingDate >= " + from + " AND bookingDate < " + to +
+                                         " RETURNING *) INSERT INTO " + name(q) + " SELECT * FROM moved"));
+               this._esql.update(this._esql.prepare(conn, "ALTER TABLE Booking ATTACH PARTITION " + name(q) +
+                                 " FOR VALUES FROM (" + from + ") TO (" + to + ")"));
+            }//end if
+            this._esql.metrics().roundTrip();
+            conn.commit();
+            System.out.println("Created partition " + name(q) + (moved > 0 ? ", moved " + moved + " rows from " + defaultName : ""));
+         }catch (SQLException e) {
+            conn.rollback();
+            throw e;
+         }//end try
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+   }//end create
+
+   /**
+    * Method to detach every partition that ends on or before a day
+    *
+    * @param day the first day to keep
+    * @return the number of partitions detached
+    */
+   public int detachBefore (int day) throws SQLException {
+      int detached = 0;
+      for (Partition p : partitions()) {
+         if (p.isDefault || p.toDay > day)
+            continue;
+         this._esql.executeUpdate("ALTER TABLE Booking DETACH PARTITION " + p.name);
+         this._esql.executeUpdate("ALTER TABLE " + p.name + " RENAME TO archived_" + p.name);
+         System.out.println("Detached " + p.name + " as archived_" + p.name);
+         detached++;
+      }//end for
+      return detached;
+   }//end detachBefore
+
+   /**
+    * Method to attach a table as the partition of the quarter a day falls in
+    *
+    * @param table a table with the columns of Booking, e.g. one detached before
+    * @param day any day of the quarter
+    */
+   public void attach (String table, int day) throws SQLException {
+      if (!table.matches("\\w+"))
+         throw new IllegalArgumentException("not a table name: " + table);
+      int q = quarterStart(day);
+      this._esql.executeUpdate("ALTER TABLE Booking ATTACH PARTITION " + table + " FOR VALUES FROM ('" +
+                               Days.toSqlDate(q) + "') TO ('" + Days.toSqlDate(nextQuarter(q)) + "')");
+      if (table.startsWith("archived_"))
+         this._esql.executeUpdate("ALTER TABLE " + table + " RENAME TO " + name(q));
+      System.out.println("Attached " + table + " for " + Days.toSqlDate(q));
+   }//end attach
+
+   /**
+    * Method to EXPLAIN the week and date range queries and print how many
+    * partitions each reads
+    *
+    * @return true when every query read fewer partitions than there are
+    */
+   public boolean checkPruning () throws SQLException {
+      List<Partition> all = partitions();
+      if (all.isEmpty()) {
+         System.out.println("Booking is not partitioned");
+         return false;
+      }//end if
+      java.sql.Date week = Days.toSqlDate(Days.of(2015, 3, 14));
+      boolean ok = explain("week", all.size(), HotelOps.WEEK_BOOKINGS, 1, week, week);
+      ok &= explain("range", all.size(), RANGE_QUERY,
+                    Days.toSqlDate(Days.of(2015, 1, 1)), Days.toSqlDate(Days.of(2015, 6, 30)));
+      return ok;
+   }//end checkPruning
+
+   private boolean explain (String label, int total, String sql, Object... params) throws SQLException {
+      TreeSet<String> scanned = new TreeSet<String>();
+      Connection conn = this._esql.getConnection();
+      try {
+         PreparedStatement stmt = this._esql.prepare(conn, "EXPLAIN " + sql);
+         StatementCache.bind(stmt, params);
+         ResultSet rs = this._esql.fetch(stmt);
+         Matcher m = Pattern.compile("\\bon (booking_\\w+)").matcher("");
+         while (rs.next()) {
+            m.reset(rs.getString(1));
+            if (m.find())
+               scanned.add(m.group(1));
+         }//end while
+         rs.close();
+      } finally {
+         this._esql.releaseConnection(conn);
+      }//end try
+      boolean pruned = scanned.size() < total;
+      System.out.println(String.format("%-6s reads %d of %d partitions %s%s", label, scanned.size(), total,
+                                       scanned, pruned ? "" : "  NOT PRUNED"));
+      return pruned;
+   }//end explain
+
+   private static int day (String isoDate) {
+      String[] f = isoDate.split("-");
+      return Days.of(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Integer.parseInt(f[2]));
+   }//end day
+
+   private static int quarterStart (int day) {
+      int month = Days.month(day);
+      return Days.firstOfMonth(month - month % 3);
+   }//end quarterStart
+
+   private static int nextQuarter (int quarterStart) {
+      return Days.firstOfMonth(Days.month(quarterStart) + 3);
+   }//end nextQuarter
+
+   private static String name (int quarterStart) {
+      int month = Days.month(quarterStart);
+      return "booking_" + month / 12 + "q" + (month % 12 / 3 + 1);
+   }//end name
+
+}//end PartitionManager
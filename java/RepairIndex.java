@@ -0,0 +1,257 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps repair counts in memory, so the maintenance company and
+ * room/year reports do not group all of Repair on each call:
+ *   - the number of repairs of every company, in a set ordered by that
+ *     number, so the top K companies are the first K entries,
+ *   - the number of repairs of every room per year of repairDate.
+ * Companies are counted by cmpID; two companies with the same name are
+ * two entries.
+ *
+ * The index is built at startup from a Snapshot and the repairs added
+ * since, from the summary tables of sql/aggregates.sql, or from Repair
+ * when those were not created either, and then
+ * kept up to date by addRepair, repairRequest and addMaintenanceCompany of
+ * this process.
+ */
+
+public class RepairIndex {
+
+   /**
+    * One company and its repair count
+    */
+   public static final class Company {
+      public final int cmpID;
+      public final String name;
+      public final int repairs;
+
+      public Company (int cmpID, String name, int repairs) {
+         this.cmpID = cmpID;
+         this.name = name;
+         this.repairs = repairs;
+      }//end Company
+   }//end Company
+
+   /**
+    * Repairs descending, then cmpID ascending
+    */
+   public static final Comparator<Company> ORDER = new Comparator<Company>() {
+      public int compare (Company a, Company b) {
+         if (a.repairs != b.repairs)
+            return a.repairs > b.repairs ? -1 : 1;
+         return a.cmpID < b.cmpID ? -1 : (a.cmpID == b.cmpID ? 0 : 1);
+      }
+   };
+
+   private final HashMap<Integer, Company> _companies = new HashMap<Integer, Company>();
+   private final TreeSet<Company> _ranking = new TreeSet<Company>(ORDER);
+   // (hotelID, roomNo) to year to repairs
+   private final HashMap<Long, TreeMap<Integer, Integer>> _rooms = new HashMap<Long, TreeMap<Integer, Integer>>();
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private long _repairs = 0;
+   private String _source = "Repair";
+
+   /**
+    * Method to build the index from a snapshot and the repairs added since,
+    * else from the summary tables, or from Repair when they do not exist
+    *
+    * @param esql the database to read from
+    * @param snap a snapshot holding the older repairs, may be null
+    * @return the filled index
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public static RepairIndex load (DBProject esql, Snapshot snap) throws SQLException {
+      RepairIndex idx = new RepairIndex();
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         PreparedStatement stmt = esql.prepare(conn, "SELECT cmpID, name FROM MaintenanceCompany");
+         ResultSet rs = esql.fetch(stmt);
+         while (rs.next())
+            idx.addCompany(rs.getInt(1), rs.getString(2));
+         rs.close();
+
+         if (snap != null) {
+            Snapshot.Table t = snap.table("Repair");
+            Snapshot.Column cmpID = t.column("mCompany"), hotelID = t.column("hotelID"),
+                            roomNo = t.column("roomNo"), day = t.column("repairDate");
+            for (int i = 0; i < t.rows; ++i)
+               idx.add(cmpID.getInt(i), hotelID.getInt(i), roomNo.getInt(i), Days.year(day.getInt(i)), 1);
+            stmt = esql.prepare(conn, Snapshot.since(snap, "SELECT mCompany, hotelID, roomNo, repairDate FROM Repair"));
+            rs = esql.fetch(stmt);
+            while (rs.next())
+               idx.add(rs.getInt(1), rs.getInt(2), rs.getInt(3), Days.year(Days.of(rs.getDate(4))), 1);
+            rs.close();
+            idx._source = "snapshot";
+            conn.commit();
+            return idx;
+         }//end if
+
+         try {
+            idx.count(esql, conn, "SELECT cmpID, repairs FROM CompanyRepairs",
+                      "SELECT hotelID, roomNo, year, repairs FROM RoomRepairsPerYear");
+            idx._source = "summary tables";
+         }catch (SQLException e) {
+            // aggregates.sql was not run; count Repair itself
+            conn.rollback();
+            idx.clearCounts();
+            idx.count(esql, conn, "SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany",
+                      "SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate), COUNT(*) FROM Repair " +
+                      "GROUP BY hotelID, roomNo, EXTRACT(YEAR FROM repairDate)");
+         }//end try
+         conn.commit();
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+      return idx;
+   }//end load
+
+   /**
+    * Method to record a new company, with no repairs yet
+    */
+   public void addCompany (int cmpID, String name) {
+      this._lock.writeLock().lock();
+      try {
+         Company c = this._companies.get(cmpID);
+         put(new Company(cmpID, name == null ? null : name.trim(), c == null ? 0 : c.repairs));
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addCompany
+
+   /**
+    * Method to record a new repair
+    *
+    * @param day the repairDate as a day number, see Days
+    */
+   public void addRepair (int cmpID, int hotelID, int roomNo, int day) {
+      this._lock.writeLock().lock();
+      try {
+         add(cmpID, hotelID, roomNo, Days.year(day), 1);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRepair
+
+   /**
+    * Method to get the K companies with the most repairs, most first
+    */
+   public List<Company> top (int k) {
+      this._lock.readLock().lock();
+      try {
+         List<Company> out = new ArrayList<Company>(Math.max(0, Math.min(k, this._ranking.size())));
+         Iterator<Company> it = this._ranking.iterator();
+         while (out.size() < k && it.hasNext()) {
+            Company c = it.next();
+            if (c.repairs <= 0)
+               break;
+            out.add(c);
+         }//end while
+         return out;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end top
+
+   /**
+    * Method to get the repairs of a room per year, by year
+    */
+   public SortedMap<Integer, Integer> perYear (int hotelID, int roomNo) {
+      this._lock.readLock().lock();
+      try {
+         TreeMap<Integer, Integer> years = this._rooms.get(key(hotelID, roomNo));
+         return years == null ? new TreeMap<Integer, Integer>() : new TreeMap<Integer, Integer>(years);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end perYear
+
+   /**
+    * Method to describe the size of the index in one line
+    */
+   public String stats () {
+      this._lock.readLock().lock();
+      try {
+         return String.format("repairs=%d companies=%d rooms=%d from %s",
+                              this._repairs, this._companies.size(), this._rooms.size(), this._source);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   private void count (DBProject esql, Connection conn, String companies, String rooms) throws SQLException {
+      PreparedStatement stmt = esql.prepare(conn, companies);
+      ResultSet rs = esql.fetch(stmt);
+      while (rs.next())
+         add(rs.getInt(1), -1, -1, 0, rs.getInt(2));
+      rs.close();
+
+      stmt = esql.prepare(conn, rooms);
+      stmt.setFetchSize(5000);
+      rs = esql.fetch(stmt);
+      while (rs.next()) {
+         int n = rs.getInt(4);
+         TreeMap<Integer, Integer> years = years(rs.getInt(1), rs.getInt(2));
+         Integer old = years.get(rs.getInt(3));
+         years.put(rs.getInt(3), old == null ? n : old + n);
+      }//end while
+      rs.close();
+   }//end count
+
+   private void clearCounts () {
+      for (Company c : new ArrayList<Company>(this._companies.values()))
+         put(new Company(c.cmpID, c.name, 0));
+      this._rooms.clear();
+      this._repairs = 0;
+   }//end clearCounts
+
+   /*
+    * Adds n repairs of a company and, unless hotelID is -1, of a room and
+    * year. Callers hold the write lock (or own the index during load).
+    */
+   private void add (int cmpID, int hotelID, int roomNo, int year, int n) {
+      Company c = this._companies.get(cmpID);
+      put(new Company(cmpID, c == null ? null : c.name, (c == null ? 0 : c.repairs) + n));
+      this._repairs += n;
+      if (hotelID < 0)
+         return;
+      TreeMap<Integer, Integer> years = years(hotelID, roomNo);
+      Integer old = years.get(year);
+      years.put(year, old == null ? n : old + n);
+   }//end add
+
+   private void put (Company c) {
+      Company old = this._companies.put(c.cmpID, c);
+      if (old != null)
+         this._ranking.remove(old);
+      this._ranking.add(c);
+   }//end put
+
+   private TreeMap<Integer, Integer> years (int hotelID, int roomNo) {
+      Long k = key(hotelID, roomNo);
+      TreeMap<Integer, Integer> years = this._rooms.get(k);
+      if (years == null) {
+         years = new TreeMap<Integer, Integer>();
+         this._rooms.put(k, years);
+      }//end if
+      return years;
+   }//end years
+
+   private static Long key (int hotelID, int roomNo) {
+      return Long.valueOf(((long) hotelID << 32) | (roomNo & 0xffffffffL));
+   }//end key
+
+}//end RepairIndex
@@ -0,0 +1,167 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends the read-only reports to a replica, so a long report
+ * does not hold a primary connection that a booking or check-in needs.
+ * The replica has its own pool of read-only connections.
+ *
+ * A report runs on the primary instead when
+ *   - the replica is more than -Dreplica.maxLagMillis (default 5000)
+ *     behind, or is a standby that is not streaming from its primary; the
+ *     lag is measured at most every -Dreplica.checkMillis (default 1000),
+ *   - the replica failed in the last -Dreplica.retryMillis (default 10000),
+ *   - no replica connection is free within -Dreplica.maxWaitMillis
+ *     (default 1000),
+ *   - or the thread is in a batch or already holds a primary connection,
+ *     so it reads what it wrote.
+ *
+ * The replica is the server on -Dreplica.host (default localhost) and
+ * -Dreplica.port, database -Dreplica.db (default the primary's). It can be
+ * a streaming standby or any second Postgres holding a copy of the data;
+ * a server that is not in recovery reports no lag.
+ */
+
+public class ReplicaRouter {
+
+   // a lag over every bound, for a standby that is not streaming
+   private static final long NOT_STREAMING = 9000000000000000000L;
+
+   // milliseconds since the last replayed transaction, 0 when the
+   // standby has replayed all it received or is not a standby, and
+   // NOT_STREAMING when no WAL receiver is streaming: a cut-off standby
+   // has replayed all it received too. pg_stat_wal_receiver only shows
+   // the status to roles with pg_read_all_stats; a receiver whose status
+   // is hidden counts as streaming.
+   private static final String LAG =
+      "SELECT CAST(CASE WHEN NOT pg_is_in_recovery() THEN 0 " +
+      "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE COALESCE(status, 'streaming') = 'streaming') THEN " + NOT_STREAMING + " " +
+      "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+      "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, " + NOT_STREAMING + ") END AS BIGINT)";
+
+   private final ConnectionPool _pool;
+   private final long _maxLagMillis;
+   private final long _checkMillis;
+   private final long _retryMillis;
+
+   private volatile long _checkedAt = 0;
+   private volatile long _lagMillis = 0;
+   private volatile long _downUntil = 0;
+   private volatile String _reason = "";
+
+   private final AtomicLong _routed = new AtomicLong();
+   private final AtomicLong _fallbacks = new AtomicLong();
+
+   /**
+    * Creates a router to the replica configured with -Dreplica.port
+    *
+    * @param dbname the database of the primary, used when -Dreplica.db is not set
+    * @param user the user name used to login to the replica
+    * @param passwd the user login password
+    */
+   public ReplicaRouter (String dbname, String user, String passwd) {
+      String url = "jdbc:postgresql://" + System.getProperty("replica.host", "localhost") + ":" +
+                   System.getProperty("replica.port") + "/" + System.getProperty("replica.db", dbname);
+      this._pool = new ConnectionPool(url, user, passwd, Integer.getInteger("replica.poolSize", 4),
+                                      Long.getLong("replica.maxWaitMillis", 1000L));
+      this._pool.setReadOnly(true);
+      this._maxLagMillis = Long.getLong("replica.maxLagMillis", 5000L);
+      this._checkMillis = Long.getLong("replica.checkMillis", 1000L);
+      this._retryMillis = Long.getLong("replica.retryMillis", 10000L);
+   }//end ReplicaRouter
+
+   /**
+    * Method to check out a replica connection for a report
+    *
+    * @param esql the database, for the lag query
+    * @return the connection, or null when the report should run on the primary
+    */
+   public Connection checkout (DBProject esql) {
+      long now = System.currentTimeMillis();
+      boolean nested = this._pool.held() != null;
+      if (!nested && now < this._downUntil) {
+         this._fallbacks.incrementAndGet();
+         return null;
+      }//end if
+      Connection conn = null;
+      try {
+         // a nested read gets the connection the thread already holds
+         conn = this._pool.checkout();
+         if (nested)
+            return conn;
+         if (now - this._checkedAt >= this._checkMillis) {
+            PreparedStatement stmt = this._pool.statements(conn).prepare(LAG);
+            ResultSet rs = esql.fetch(stmt);
+            rs.next();
+            this._lagMillis = rs.getLong(1);
+            rs.close();
+            this._checkedAt = now;
+         }//end if
+      }catch (SQLException e) {
+         failed(e);
+         this._pool.checkin(conn);
+         this._fallbacks.incrementAndGet();
+         return null;
+      }//end try
+      if (this._lagMillis > this._maxLagMillis) {
+         this._reason = this._lagMillis == NOT_STREAMING ? "not streaming" : "lag " + this._lagMillis + " ms";
+         this._pool.checkin(conn);
+         this._fallbacks.incrementAndGet();
+         return null;
+      }//end if
+      this._routed.incrementAndGet();
+      return conn;
+   }//end checkout
+
+   /**
+    * Method to return a connection from checkout
+    */
+   public void checkin (Connection conn) {
+      this._pool.checkin(conn);
+   }//end checkin
+
+   /**
+    * Method to tell whether a connection is the replica connection the
+    * calling thread holds
+    */
+   public boolean holds (Connection conn) {
+      return conn != null && conn == this._pool.held();
+   }//end holds
+
+   /**
+    * Method to get the statement cache of a replica connection
+    */
+   public StatementCache statements (Connection conn) {
+      return this._pool.statements(conn);
+   }//end statements
+
+   /**
+    * Method to send reports to the primary for a while after the replica
+    * failed
+    */
+   public void failed (SQLException e) {
+      this._downUntil = System.currentTimeMillis() + this._retryMillis;
+      this._reason = e.getMessage();
+      System.err.println("Replica unavailable, reading from the primary: " + e.getMessage());
+   }//end failed
+
+   /**
+    * Method to close the replica connections
+    */
+   public void close () {
+      this._pool.close();
+   }//end close
+
+   /**
+    * Method to describe the routing in one line
+    */
+   public String stats () {
+      return String.format("replica routed=%d fallbacks=%d lag=%dms%s; %s", this._routed.get(), this._fallbacks.get(),
+                           this._lagMillis, this._reason.length() == 0 ? "" : " last fallback: " + this._reason,
+                           this._pool.stats());
+   }//end stats
+
+}//end ReplicaRouter
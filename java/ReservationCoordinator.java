@@ -0,0 +1,311 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class books rooms for many concurrent callers without booking a
+ * room twice on a day and without making the callers wait on each other
+ * more than they must:
+ *   - the room is claimed in the occupancy index under the lock of its
+ *     stripe, one of -Dreserve.stripes (default 256) locks chosen by
+ *     hashing (hotelID, roomNo), so a room this process already booked is
+ *     refused without a round trip. The stripe is what keeps two callers
+ *     of this process off the same room: OccupancyIndex.claim only takes
+ *     the index's read lock, so claims of rooms in different stripes do
+ *     not wait on each other. The stripe is released before the insert,
+ *     so no caller waits on another's round trip either. A claim whose
+ *     insert fails is given back,
+ *   - the booking is then inserted with ON CONFLICT (hotelID, roomNo,
+ *     bookingDate) DO NOTHING. The unique constraint of that name decides
+ *     between this process and the others sharing the database: no row
+ *     inserted means another one booked the room first. Nothing is locked
+ *     or read beforehand,
+ *   - an insert that fails on a transient error (a deadlock, a
+ *     serialization failure, a bID another process got too) is retried
+ *     with a new bID, up to -Dreserve.retries times (default 3).
+ *
+ * HotelOps.bookRoom books through it when bookings are neither logged
+ * (see BookingLog) nor part of a batch. The contention benchmark
+ *
+ *   java ReservationCoordinator <db> <port> <user> [clients,...]
+ *
+ * books the rooms of the busiest hotel from 1, 2, 4, ... 32 threads
+ * (default), once with one stripe and once with -Dreserve.stripes, and
+ * prints the bookings per second of each. It adds rows to Booking in 2040
+ * and later; run it on a scratch database.
+ */
+
+public class ReservationCoordinator {
+
+   private final DBProject _esql;
+   private final ReentrantLock[] _stripes;
+   private final int _retries;
+   private final AtomicLong _booked = new AtomicLong();
+   private final AtomicLong _refused = new AtomicLong();
+   private final AtomicLong _retried = new AtomicLong();
+
+   /**
+    * @param stripes the number of locks, rounded up to a power of two
+    */
+   public ReservationCoordinator (DBProject esql, int stripes) {
+      this._esql = esql;
+      int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+      this._stripes = new ReentrantLock[stripes <= 1 ? 1 : n];
+      for (int i = 0; i < this._stripes.length; ++i)
+         this._stripes[i] = new ReentrantLock();
+      this._retries = Integer.getInteger("reserve.retries", 3);
+   }//end ReservationCoordinator
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-Dreserve.seconds=10] [-Dreserve.stripes=256] [-cp <$classpath>] " +
+            "ReservationCoordinator <dbname> <port> <user> [clients,...]");
+         return;
+      }//end if
+      DBProject esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         // the bookings go straight to Booking, on enough connections for the clients
+         System.clearProperty("bookings.log");
+         String[] list = (args.length > 3 ? args[3] : "1,2,4,8,16,32").split(",");
+         int[] clients = new int[list.length];
+         for (int i = 0; i < list.length; ++i)
+            clients[i] = Integer.parseInt(list[i].trim());
+         if (System.getProperty("pool.maxSize") == null)
+            System.setProperty("pool.maxSize", String.valueOf(clients[clients.length - 1]));
+         esql = new DBProject(args[0], args[1], args[2], "");
+         contention(esql, clients);
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Method to book a room for a customer on one day
+    *
+    * @return the new bID, committed
+    * @throws OpException when the room does not exist or is already booked,
+    *         by this process or another one
+    * @throws java.sql.SQLException when the insert fails, or still fails
+    *         after the retries
+    */
+   public int reserve (final int hotelID, final int roomNo, java.sql.Date date, int customerID,
+                       int noOfPeople, BigDecimal price) throws SQLException, OpException {
+      if (this._esql.inBatch())
+         throw new IllegalStateException("reserve commits each booking on its own; call it outside a batch");
+      final OccupancyIndex occupancy = this._esql.occupancy();
+      final int day = Days.of(date);
+      if (!occupancy.roomExists(hotelID, roomNo))
+         throw new OpException("Given Room ID does not exist at the given Hotel ID");
+      ReentrantLock lock = this._stripes[(hotelID * 31 + roomNo) * 0x9E3779B9 >>> 8 & (this._stripes.length - 1)];
+      boolean claimed;
+      lock.lock();
+      try {
+         claimed = occupancy.claim(hotelID, roomNo, day);
+      } finally {
+         lock.unlock();
+      }//end try
+      if (!claimed) {
+         this._refused.incrementAndGet();
+         throw new OpException("Room is already booked on that date");
+      }//end if
+      long cents = TopKIndex.cents(price);
+      for (int attempt = 0; ; ++attempt) {
+         int bID = this._esql.ids().next(IdGenerator.BOOKING);
+         int rows;
+         try {
+            rows = this._esql.executeUpdate("INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents) " +
+                                            "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT (hotelID, roomNo, bookingDate) DO NOTHING",
+                                            bID, customerID, hotelID, roomNo, date, noOfPeople, cents);
+         }catch (SQLException e) {
+            if (attempt < this._retries && retryable(e)) {
+               this._retried.incrementAndGet();
+               backoff(attempt);
+               continue;
+            }//end if
+            occupancy.unbook(hotelID, roomNo, day);
+            throw e;
+         }//end try
+         if (rows == 0) {
+            // another process has the room; it stays marked booked here too
+            this._refused.incrementAndGet();
+            throw new OpException("Room is already booked on that date");
+         }//end if
+         TopKIndex.Entry entry = new TopKIndex.Entry(bID, customerID, hotelID, roomNo, day, noOfPeople, cents);
+         this._esql.topK().add(entry);
+         this._esql.spend().add(customerID, hotelID, day, cents);
+         this._booked.incrementAndGet();
+         return bID;
+      }//end for
+   }//end reserve
+
+   /**
+    * Method to describe the bookings made and refused so far
+    */
+   public String stats () {
+      return this._booked.get() + " booked, " + this._refused.get() + " refused as taken, " +
+             this._retried.get() + " retried, " + this._stripes.length + " stripes";
+   }//end stats
+
+   /*
+    * Deadlocks, serialization failures and unique violations other than
+    * the room's. The old driver has no SQLState, so the message decides
+    * when there is none.
+    */
+   private static boolean retryable (SQLException e) {
+      String state = e.getSQLState();
+      if (state != null)
+         return state.equals("40001") || state.equals("40P01") || state.equals("23505");
+      String msg = String.valueOf(e.getMessage());
+      return msg.contains("deadlock detected") || msg.contains("could not serialize") || msg.contains("duplicate key");
+   }//end retryable
+
+   private static void backoff (int attempt) {
+      try {
+         Thread.sleep(ThreadLocalRandom.current().nextInt(1 << Math.min(attempt + 1, 6)));
+      }catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end backoff
+
+   /*
+    * The contention benchmark: every client books random rooms of the
+    * busiest hotel on random days of a 30 day window, a fresh window per
+    * run, for -Dreserve.seconds.
+    */
+   private static void contention (DBProject esql, int[] clients) throws Exception {
+      int hotel;
+      Connection conn = esql.getConnection();
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery("SELECT hotelID FROM Booking GROUP BY hotelID ORDER BY COUNT(*) DESC LIMIT 1");
+            rs.next();
+            hotel = rs.getInt(1);
+         } finally {
+            stmt.close();
+         }//end try
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+      int[] rooms = esql.occupancy().roomNumbers(hotel);
+      if (rooms.length == 0)
+         throw new IllegalStateException("Hotel " + hotel + " has no rooms");
+      long nanos = Integer.getInteger("reserve.seconds", 10) * 1000000000L;
+      int stripes = Integer.getInteger("reserve.stripes", 256);
+      System.out.println(String.format("hotel %d, %d rooms, 30 days per run, %d s per run",
+                                       hotel, rooms.length, nanos / 1000000000L));
+      System.out.println(String.format("%8s %8s %12s %12s %8s %8s %10s", "stripes", "clients", "booked/s",
+                                       "refused/s", "retried", "errors", "p99 ms"));
+      int window = Days.of(2040, 1, 1);
+      for (int s : new int[] { 1, stripes }) {
+         for (int c : clients) {
+            ReservationCoordinator rc = new ReservationCoordinator(esql, s);
+            Run r = run(rc, hotel, rooms, window, c, nanos);
+            window += 30;
+            double secs = nanos / 1e9;
+            System.out.println(String.format("%8d %8d %12.1f %12.1f %8d %8d %10.2f", rc._stripes.length, c,
+                                             rc._booked.get() / secs, rc._refused.get() / secs, rc._retried.get(),
+                                             r.errors, r.percentile(99) / 1e6));
+         }//end for
+         if (stripes <= 1)
+            break;
+      }//end for
+   }//end contention
+
+   /*
+    * The calls of one benchmark run.
+    */
+   private static final class Run {
+      final long[] latencies;
+      final int errors;
+
+      Run (long[] latencies, int errors) {
+         this.latencies = latencies;
+         this.errors = errors;
+      }
+
+      // in nanoseconds, 0 when there were no calls
+      long percentile (int p) {
+         return this.latencies.length == 0 ? 0 : this.latencies[(this.latencies.length - 1) * p / 100];
+      }
+   }//end Run
+
+   /*
+    * Runs the clients; the latencies of their calls come back sorted.
+    */
+   private static Run run (final ReservationCoordinator rc, final int hotel, final int[] rooms, final int window,
+                              int clients, final long nanos) throws InterruptedException {
+      final long[][] samples = new long[clients][];
+      final int[] counts = new int[clients];
+      final int[] errors = new int[clients];
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(clients);
+      for (int t = 0; t < clients; ++t) {
+         final int id = t;
+         new Thread("reserve-" + t) {
+            public void run () {
+               ThreadLocalRandom rnd = ThreadLocalRandom.current();
+               long[] lat = new long[1 << 12];
+               int n = 0;
+               try {
+                  start.await();
+                  long end = System.nanoTime() + nanos;
+                  long t0 = System.nanoTime();
+                  while (t0 < end) {
+                     try {
+                        rc.reserve(hotel, rooms[rnd.nextInt(rooms.length)], Days.toSqlDate(window + rnd.nextInt(30)),
+                                   0, 1 + rnd.nextInt(4), BigDecimal.valueOf(5000 + rnd.nextInt(50000), 2));
+                     }catch (OpException e) {
+                        // taken; counted as refused
+                     }catch (SQLException e) {
+                        if (errors[id]++ == 0)
+                           System.err.println(e.getMessage());
+                     }//end try
+                     long t1 = System.nanoTime();
+                     if (n == lat.length)
+                        lat = Arrays.copyOf(lat, n * 2);
+                     lat[n++] = t1 - t0;
+                     t0 = t1;
+                  }//end while
+               }catch (InterruptedException ie) {
+                  // stop
+               } finally {
+                  samples[id] = lat;
+                  counts[id] = n;
+                  done.countDown();
+               }//end try
+            }
+         }.start();
+      }//end for
+      start.countDown();
+      done.await();
+      int total = 0;
+      int failed = 0;
+      for (int t = 0; t < clients; ++t) {
+         total += counts[t];
+         failed += errors[t];
+      }//end for
+      long[] all = new long[total];
+      int at = 0;
+      for (int t = 0; t < clients; ++t) {
+         System.arraycopy(samples[t], 0, all, at, counts[t]);
+         at += counts[t];
+      }//end for
+      Arrays.sort(all);
+      return new Run(all, failed);
+   }//end run
+
+}//end ReservationCoordinator
@@ -0,0 +1,263 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Locale;
+
+/**
+ * This class writes query results through one buffered writer, in one of
+ * three formats:
+ *   TABLE - a header line of column names, then one tab separated line per
+ *           row (what executeQuery always printed); like executeQuery, the
+ *           header is only printed with the first row,
+ *   CSV   - RFC 4180 quoting, header line first,
+ *   JSON  - one JSON object per row (JSON lines), no header.
+ *
+ * The row and line buffers are reused from row to row, so writing a large
+ * result does not allocate per cell. Output is flushed once per result.
+ * A writer is used by one thread at a time.
+ */
+
+public class ResultWriter {
+
+   public enum Format { TABLE, CSV, JSON }
+
+   private final Writer _out;
+   private final Format _format;
+
+   // per result: column names, which columns are numeric, and the reused buffers
+   private String[] _columns = new String[0];
+   private boolean[] _numeric = new boolean[0];
+   private String[] _row = new String[0];
+   private final StringBuilder _line = new StringBuilder(256);
+   private char[] _chars = new char[256];
+   private long _lines = 0;
+   // TABLE: the header of the current result is not printed yet
+   private boolean _headerPending = false;
+
+   /**
+    * Creates a new writer
+    *
+    * @param out where the rows go; wrapped in a buffer here
+    * @param format the output format
+    */
+   public ResultWriter (Writer out, Format format) {
+      this._out = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+      this._format = format;
+   }//end ResultWriter
+
+   public ResultWriter (OutputStream out, Format format) {
+      this(new OutputStreamWriter(out, Charset.forName("UTF-8")), format);
+   }//end ResultWriter
+
+   /**
+    * Method to get the format named by -Doutput.format (table, csv or json),
+    * TABLE by default.
+    */
+   public static Format configuredFormat () {
+      String name = System.getProperty("output.format", "table");
+      return Format.valueOf(name.trim().toUpperCase(Locale.US));
+   }//end configuredFormat
+
+   public Format getFormat () { return this._format; }
+
+   /**
+    * Method to count the lines written so far, buffered or not
+    */
+   public long lines () { return this._lines; }
+
+   /**
+    * Method to write a whole result set: the header, then every row as it
+    * is fetched. The caller decides the fetch size and closes the result.
+    *
+    * @param rs the result to write
+    * @return the number of rows written
+    * @throws java.sql.SQLException when reading the result fails
+    */
+   public int write (ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData();
+      int numCol = rsmd.getColumnCount();
+      String[] names = new String[numCol];
+      boolean[] numeric = new boolean[numCol];
+      for (int i = 0; i < numCol; ++i) {
+         names[i] = rsmd.getColumnName(i + 1);
+         numeric[i] = isNumeric(rsmd.getColumnType(i + 1));
+      }//end for
+      begin(names, numeric);
+      int rowCount = 0;
+      while (rs.next()) {
+         for (int i = 0; i < numCol; ++i)
+            this._row[i] = rs.getString(i + 1);
+         writeRow(this._row);
+         ++rowCount;
+      }//end while
+      end();
+      return rowCount;
+   }//end write
+
+   /**
+    * Method to start a result built in memory rather than read from a
+    * ResultSet. Follow with row calls and one end call.
+    *
+    * @param columns the column names
+    * @param numeric which columns hold numbers (unquoted in JSON)
+    */
+   public void begin (String[] columns, boolean[] numeric) {
+      this._columns = columns;
+      this._numeric = numeric;
+      if (this._row.length != columns.length)
+         this._row = new String[columns.length];
+      this._headerPending = false;
+      if (this._format == Format.JSON)
+         return;
+      if (this._format == Format.TABLE) {
+         this._headerPending = true;
+         return;
+      }//end if
+      writeHeader();
+   }//end begin
+
+   /**
+    * Method to write one row of a result started with begin. Values are
+    * written with toString; null is written as null.
+    */
+   public void row (Object... values) {
+      for (int i = 0; i < this._row.length; ++i)
+         this._row[i] = values[i] == null ? null : values[i].toString();
+      writeRow(this._row);
+   }//end row
+
+   /**
+    * Method to finish a result and flush it to the output.
+    */
+   public void end () {
+      this._headerPending = false;
+      try {
+         this._out.flush();
+      }catch (IOException e) {
+         throw new RuntimeException(e);
+      }//end try
+   }//end end
+
+   /**
+    * Method to write a single line of text (messages, counts) in line with
+    * the results.
+    */
+   public void println (String text) {
+      this._line.setLength(0);
+      this._line.append(text);
+      emit();
+      end();
+   }//end println
+
+   private void writeHeader () {
+      this._line.setLength(0);
+      for (int i = 0; i < this._columns.length; ++i)
+         appendCell(i, this._columns[i]);
+      emit();
+   }//end writeHeader
+
+   private void writeRow (String[] values) {
+      if (this._headerPending) {
+         this._headerPending = false;
+         writeHeader();
+      }//end if
+      this._line.setLength(0);
+      if (this._format == Format.JSON) {
+         this._line.append('{');
+         for (int i = 0; i < values.length; ++i) {
+            if (i > 0)
+               this._line.append(',');
+            appendJsonString(this._columns[i]);
+            this._line.append(':');
+            if (values[i] == null)
+               this._line.append("null");
+            else if (this._numeric[i])
+               this._line.append(values[i]);
+            else
+               appendJsonString(values[i]);
+         }//end for
+         this._line.append('}');
+      } else {
+         for (int i = 0; i < values.length; ++i)
+            appendCell(i, values[i]);
+      }//end if
+      emit();
+   }//end writeRow
+
+   private void appendCell (int i, String value) {
+      if (this._format == Format.CSV) {
+         if (i > 0)
+            this._line.append(',');
+         if (value == null)
+            return;
+         if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            this._line.append(value);
+            return;
+         }//end if
+         this._line.append('"');
+         for (int k = 0; k < value.length(); ++k) {
+            char c = value.charAt(k);
+            if (c == '"')
+               this._line.append('"');
+            this._line.append(c);
+         }//end for
+         this._line.append('"');
+      } else {
+         // same layout executeQuery always printed: every cell followed by a tab
+         this._line.append(value).append('\t');
+      }//end if
+   }//end appendCell
+
+   private void appendJsonString (String s) {
+      this._line.append('"');
+      for (int k = 0; k < s.length(); ++k) {
+         char c = s.charAt(k);
+         switch (c) {
+            case '"': this._line.append("\\\""); break;
+            case '\\': this._line.append("\\\\"); break;
+            case '\n': this._line.append("\\n"); break;
+            case '\r': this._line.append("\\r"); break;
+            case '\t': this._line.append("\\t"); break;
+            default:
+               if (c < 0x20)
+                  this._line.append(String.format("\\u%04x", (int) c));
+               else
+                  this._line.append(c);
+         }//end switch
+      }//end for
+      this._line.append('"');
+   }//end appendJsonString
+
+   private void emit () {
+      try {
+         this._line.append('\n');
+         int len = this._line.length();
+         if (this._chars.length < len)
+            this._chars = new char[Math.max(len, this._chars.length * 2)];
+         this._line.getChars(0, len, this._chars, 0);
+         this._out.write(this._chars, 0, len);
+         this._lines++;
+      }catch (IOException e) {
+         throw new RuntimeException(e);
+      }//end try
+   }//end emit
+
+   private static boolean isNumeric (int sqlType) {
+      switch (sqlType) {
+         case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+         case Types.NUMERIC: case Types.DECIMAL: case Types.REAL: case Types.FLOAT:
+         case Types.DOUBLE:
+            return true;
+         default:
+            return false;
+      }//end switch
+   }//end isNumeric
+
+}//end ResultWriter
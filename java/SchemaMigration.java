@@ -0,0 +1,443 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class brings the schema of an existing database up to the version
+ * this program reads. sql/create.sql creates version 1, whose columns fit
+ * the data/*.csv files; every later version is recorded in SchemaVersion
+ * once applied.
+ *
+ * Version 2 changes the column types:
+ *   - keys and counts from Numeric to Integer (phNo to BigInt), so joins
+ *     and key lookups compare 4 byte integers and the indexes shrink,
+ *   - names, roomType and repairType from CHAR(n) to VARCHAR(n), without
+ *     the blank padding,
+ *   - Booking.price Numeric(6,2) to Booking.priceCents Integer.
+ *
+ * Version 3 adds the unique index bookingRoomDay on Booking (hotelID,
+ * roomNo, bookingDate), which ReservationCoordinator relies on to keep a
+ * room from being booked twice on a day. Rooms already booked twice stop
+ * the migration until the duplicate bookings are removed.
+ *
+ * It runs in two parts so the tables are locked for as short a time as
+ * possible:
+ *   1. one transaction drops the foreign keys and the secondary indexes of
+ *      the tables, rewrites each table once with all its type changes,
+ *      adds the foreign keys back NOT VALID (Booking's are checked right
+ *      away, Postgres cannot defer them on a partitioned table) and
+ *      records the version. Waiting for the table locks gives up after
+ *      -Dmigrate.lockTimeoutMillis (default 10000).
+ *   2. after that, the foreign keys are validated and the indexes built
+ *      CONCURRENTLY, which blocks neither reads nor writes. What is left
+ *      of this part is kept in SchemaVersion.pending, so an interrupted
+ *      run is finished by the next one.
+ *
+ * Migrating is never implicit: BulkLoader migrates what it loaded, and
+ * DBProject refuses to start on an older version. Otherwise run
+ *
+ *   java SchemaMigration <db> <port> <user> status | migrate
+ *
+ * migrate times a set of join queries and measures the tables and indexes
+ * before and after, over -Dmigrate.probeRuns runs each (default 5).
+ */
+
+public class SchemaMigration {
+
+   public static final int CURRENT = 3;
+
+   // the column types of version 2, per table
+   private static final String[][] V2 = {
+      { "Hotel", "hotelID Integer", "manager Integer" },
+      { "Staff", "SSN Integer", "fName VARCHAR(30)", "lName VARCHAR(30)", "employerID Integer" },
+      { "Room", "hotelID Integer", "roomNo Integer", "roomType VARCHAR(10)" },
+      { "Customer", "customerID Integer", "fName VARCHAR(30)", "lName VARCHAR(30)", "phNo BigInt" },
+      { "MaintenanceCompany", "cmpID Integer", "name VARCHAR(30)" },
+      { "Booking", "bID Integer", "customer Integer", "hotelID Integer", "roomNo Integer", "noOfPeople Integer" },
+      { "Repair", "rID Integer", "hotelID Integer", "roomNo Integer", "mCompany Integer", "repairType VARCHAR(10)" },
+      { "Request", "reqID Integer", "managerID Integer", "repairID Integer" },
+      { "Assigned", "asgID Integer", "staffID Integer", "hotelID Integer", "roomNo Integer" },
+      { "RoomNoAllocator", "hotelID Integer", "nextRoomNo Integer" },
+      // the summary tables of sql/aggregates.sql, when loaded
+      { "CompanyRepairs", "cmpID Integer" },
+      { "RoomRepairsPerYear", "hotelID Integer", "roomNo Integer" },
+   };
+
+   private static final Pattern INDEX = Pattern.compile("CREATE (UNIQUE )?INDEX (\\S+) ON (?:ONLY )?(\\S+) (USING .*)");
+
+   // join queries that run on either version
+   private static final String[][] PROBES = {
+      { "booking-room-customer join",
+        "SELECT COUNT(*) FROM Booking B JOIN Room R ON R.hotelID = B.hotelID AND R.roomNo = B.roomNo " +
+        "JOIN Customer C ON C.customerID = B.customer" },
+      { "repairs per company",
+        "SELECT M.cmpID, COUNT(*) FROM MaintenanceCompany M JOIN Repair R ON R.mCompany = M.cmpID GROUP BY M.cmpID" },
+      { "request-repair-staff join",
+        "SELECT COUNT(*) FROM Request Q JOIN Repair R ON R.rID = Q.repairID JOIN Staff S ON S.SSN = Q.managerID" },
+      { "assigned-staff-hotel join",
+        "SELECT COUNT(*) FROM Assigned A JOIN Staff S ON S.SSN = A.staffID JOIN Hotel H ON H.hotelID = S.employerID" },
+      { "customers sharing a name",
+        "SELECT COUNT(*) FROM Customer C1 JOIN Customer C2 ON C2.lName = C1.lName AND C2.fName = C1.fName" },
+   };
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-cp <$classpath>] SchemaMigration <dbname> <port> <user> status | migrate");
+         return;
+      }//end if
+      ConnectionPool pool = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "", 1, 60000L);
+         Connection conn = pool.checkout();
+         try {
+            if (args[3].equals("migrate")) {
+               int runs = Integer.getInteger("migrate.probeRuns", 5);
+               String sizes = sizes(conn);
+               long[] before = probe(conn, runs);
+               long start = System.currentTimeMillis();
+               if (!migrate(conn))
+                  System.out.println("Nothing to do");
+               System.out.println("Migrated in " + (System.currentTimeMillis() - start) + " ms");
+               long[] after = probe(conn, runs);
+               System.out.println(String.format("%-30s %10s %10s", "median of " + runs + " runs", "before ms", "after ms"));
+               for (int i = 0; i < PROBES.length; ++i)
+                  System.out.println(String.format("%-30s %10.1f %10.1f", PROBES[i][0], before[i] / 1e6, after[i] / 1e6));
+               System.out.println("before: " + sizes);
+               System.out.println("after:  " + sizes(conn));
+            } else if (!args[3].equals("status")) {
+               throw new IllegalArgumentException("unknown command " + args[3]);
+            }//end if
+            System.out.println("Schema version " + version(conn) + " of " + CURRENT +
+                               (pending(conn).isEmpty() ? "" : ", " + pending(conn).size() + " steps pending"));
+         } finally {
+            pool.checkin(conn);
+         }//end try
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (pool != null)
+            pool.close();
+      }//end try
+   }//end main
+
+   /**
+    * Method to get the schema version of the database
+    *
+    * @return 1 when no migration was ever applied
+    */
+   public static int version (Connection conn) throws SQLException {
+      if (!exists(conn, "schemaversion"))
+         return 1;
+      return queryInt(conn, "SELECT COALESCE(MAX(version), 1) FROM SchemaVersion");
+   }//end version
+
+   /**
+    * Method to apply the missing versions and finish what an earlier run
+    * left pending
+    *
+    * @param conn a connection in auto-commit mode, left in it
+    * @return whether anything was done
+    * @throws java.sql.SQLException when a step fails; part 1 is then rolled
+    *         back, part 2 is left pending
+    */
+   public static boolean migrate (Connection conn) throws SQLException {
+      boolean changed = false;
+      if (version(conn) < CURRENT) {
+         conn.setAutoCommit(false);
+         try {
+            Statement stmt = conn.createStatement();
+            try {
+               // one migrating process at a time; the others wait and find it done
+               stmt.execute("SELECT pg_advisory_xact_lock(" + CURRENT + ", 1)");
+               stmt.execute("SET LOCAL lock_timeout = " + Long.getLong("migrate.lockTimeoutMillis", 10000L));
+               stmt.execute("CREATE TABLE IF NOT EXISTS SchemaVersion( version Integer NOT NULL, " +
+                            "description Text, appliedAt Timestamp NOT NULL DEFAULT now(), pending Text, " +
+                            "PRIMARY KEY(version))");
+               if (version(conn) < 2) {
+                  toVersion2(conn, stmt);
+                  changed = true;
+               }//end if
+               if (version(conn) < 3) {
+                  toVersion3(conn, stmt);
+                  changed = true;
+               }//end if
+            } finally {
+               stmt.close();
+            }//end try
+            conn.commit();
+         }catch (SQLException e) {
+            conn.rollback();
+            throw e;
+         } finally {
+            conn.setAutoCommit(true);
+         }//end try
+      }//end if
+      return finish(conn) || changed;
+   }//end migrate
+
+   /*
+    * Part 1 of version 2, in the caller's transaction.
+    */
+   private static void toVersion2 (Connection conn, Statement stmt) throws SQLException {
+      System.out.print("Migrating schema to version 2...");
+      Map<String, String[]> tables = new LinkedHashMap<String, String[]>();
+      for (String[] t : V2)
+         if (exists(conn, t[0].toLowerCase()))
+            tables.put(t[0].toLowerCase(), t);
+      // detached Booking partitions, to attach again later
+      for (String archived : names(conn, "SELECT relname FROM pg_class WHERE relkind = 'r' AND relname LIKE 'archived\\_booking\\_%'"))
+         tables.put(archived, V2[5]);
+      String in = inList(tables.keySet());
+
+      // foreign keys and secondary indexes, as Postgres describes them
+      List<String[]> fks = rows(conn,
+         "SELECT t.relname, c.conname, pg_get_constraintdef(c.oid), t.relkind FROM pg_constraint c " +
+         "JOIN pg_class t ON t.oid = c.conrelid WHERE c.contype = 'f' AND c.conparentid = 0 AND t.relname IN " + in);
+      List<String[]> indexes = rows(conn,
+         "SELECT i.relname, pg_get_indexdef(i.oid) FROM pg_index x JOIN pg_class i ON i.oid = x.indexrelid " +
+         "JOIN pg_class t ON t.oid = x.indrelid WHERE NOT x.indisunique AND t.relname IN " + in +
+         " AND NOT EXISTS (SELECT 1 FROM pg_inherits h WHERE h.inhrelid = i.oid)");
+
+      for (String[] fk : fks)
+         stmt.execute("ALTER TABLE " + fk[0] + " DROP CONSTRAINT " + fk[1]);
+      for (String[] idx : indexes)
+         stmt.execute("DROP INDEX " + idx[0]);
+
+      // one rewrite per table with all of its changes
+      for (Map.Entry<String, String[]> t : tables.entrySet()) {
+         StringBuilder alter = new StringBuilder("ALTER TABLE " + t.getKey());
+         String[] columns = t.getValue();
+         for (int i = 1; i < columns.length; ++i) {
+            String[] c = columns[i].split(" ");
+            alter.append(i == 1 ? " " : ", ").append("ALTER COLUMN ").append(c[0]).append(" TYPE ").append(c[1]);
+         }//end for
+         boolean price = columns[0].equals("Booking") && hasColumn(conn, t.getKey(), "price");
+         if (price)
+            alter.append(", ALTER COLUMN price TYPE Integer USING CAST(round(price * 100) AS Integer)");
+         stmt.execute(alter.toString());
+         if (price)
+            stmt.execute("ALTER TABLE " + t.getKey() + " RENAME COLUMN price TO priceCents");
+      }//end for
+
+      List<String> pending = new ArrayList<String>();
+      for (String[] fk : fks) {
+         boolean partitioned = fk[3].equals("p");
+         stmt.execute("ALTER TABLE " + fk[0] + " ADD CONSTRAINT " + fk[1] + " " + fk[2] + (partitioned ? "" : " NOT VALID"));
+         if (!partitioned)
+            pending.add("validate " + fk[0] + " " + fk[1]);
+      }//end for
+      for (String[] idx : indexes)
+         pending.add("index " + idx[1]);
+
+      StringBuilder text = new StringBuilder();
+      for (String p : pending)
+         text.append(p).append('\n');
+      stmt.execute("INSERT INTO SchemaVersion(version, description, pending) VALUES (2, " +
+                   "'Integer keys, VARCHAR names, Booking.priceCents', " + quote(text.toString()) + ")");
+      System.out.println(tables.size() + " tables rewritten");
+   }//end toVersion2
+
+   /*
+    * Version 3, in the caller's transaction. The index is built in part 2;
+    * a database from the current create.sql has it already.
+    */
+   private static void toVersion3 (Connection conn, Statement stmt) throws SQLException {
+      String pending = null;
+      if (queryInt(conn, "SELECT COUNT(*) FROM pg_class WHERE relkind IN ('i', 'I') AND relname = 'bookingroomday'") == 0) {
+         int twice = queryInt(conn, "SELECT COUNT(*) FROM (SELECT 1 FROM Booking GROUP BY hotelID, roomNo, bookingDate " +
+                                    "HAVING COUNT(*) > 1) D");
+         if (twice > 0)
+            throw new SQLException(twice + " rooms are booked more than once on a day; remove the duplicate bookings " +
+                                   "and start again to migrate to schema version 3");
+         pending = "index CREATE UNIQUE INDEX bookingroomday ON booking USING btree (hotelid, roomno, bookingdate)\n";
+      }//end if
+      stmt.execute("INSERT INTO SchemaVersion(version, description, pending) VALUES (3, " +
+                   "'Booking unique on hotelID, roomNo, bookingDate', " + (pending == null ? "NULL" : quote(pending)) + ")");
+   }//end toVersion3
+
+   /*
+    * Part 2: validates foreign keys and builds indexes without blocking
+    * writers. Each step can be repeated, so a failed run is retried whole.
+    */
+   private static boolean finish (Connection conn) throws SQLException {
+      if (!exists(conn, "schemaversion"))
+         return false;
+      List<String[]> versions = rows(conn, "SELECT version, pending FROM SchemaVersion WHERE pending IS NOT NULL ORDER BY version");
+      if (versions.isEmpty())
+         return false;
+      // another process may be finishing; it will get there
+      if (queryInt(conn, "SELECT CASE WHEN pg_try_advisory_lock(" + CURRENT + ", 2) THEN 1 ELSE 0 END") == 0)
+         return false;
+      Statement stmt = conn.createStatement();
+      try {
+         for (String[] v : versions) {
+            for (String step : v[1].split("\n")) {
+               if (step.length() == 0)
+                  continue;
+               long start = System.currentTimeMillis();
+               if (step.startsWith("validate ")) {
+                  String[] f = step.split(" ");
+                  stmt.execute("ALTER TABLE " + f[1] + " VALIDATE CONSTRAINT " + f[2]);
+               } else {
+                  buildIndex(conn, stmt, step.substring("index ".length()));
+               }//end if
+               System.out.println("  " + step + " (" + (System.currentTimeMillis() - start) + " ms)");
+            }//end for
+            stmt.execute("UPDATE SchemaVersion SET pending = NULL WHERE version = " + v[0]);
+         }//end for
+      } finally {
+         stmt.close();
+         queryInt(conn, "SELECT CASE WHEN pg_advisory_unlock(" + CURRENT + ", 2) THEN 1 ELSE 0 END");
+      }//end try
+      return true;
+   }//end finish
+
+   /*
+    * Builds an index, unique or not, CONCURRENTLY. On a partitioned table that is done
+    * per partition, then the partition indexes are attached to one
+    * created ON ONLY the table. Also used by IndexAdvisor.
+    */
+   static void buildIndex (Connection conn, Statement stmt, String def) throws SQLException {
+      Matcher m = INDEX.matcher(def);
+      if (!m.matches())
+         throw new SQLException("Cannot rebuild index: " + def);
+      String create = m.group(1) == null ? "CREATE INDEX " : "CREATE UNIQUE INDEX ";
+      String name = m.group(2);
+      String table = m.group(3);
+      String using = m.group(4);
+      // a leftover of an interrupted build is invalid; start over
+      stmt.execute("DROP INDEX IF EXISTS " + name);
+      List<String> parts = names(conn, "SELECT c.relname FROM pg_inherits h JOIN pg_class c ON c.oid = h.inhrelid " +
+                                       "WHERE h.inhparent = CAST(" + quote(table) + " AS regclass)");
+      if (parts.isEmpty()) {
+         stmt.execute(create + "CONCURRENTLY " + name + " ON " + table + " " + using);
+         return;
+      }//end if
+      stmt.execute(create + name + " ON ONLY " + table + " " + using);
+      for (String part : parts) {
+         String child = (name + "_" + part);
+         child = child.substring(0, Math.min(child.length(), 63));
+         stmt.execute("DROP INDEX IF EXISTS " + child);
+         stmt.execute(create + "CONCURRENTLY " + child + " ON " + part + " " + using);
+         stmt.execute("ALTER INDEX " + name + " ATTACH PARTITION " + child);
+      }//end for
+   }//end buildIndex
+
+   /*
+    * The steps of part 2 not done yet.
+    */
+   private static List<String> pending (Connection conn) throws SQLException {
+      List<String> out = new ArrayList<String>();
+      if (!exists(conn, "schemaversion"))
+         return out;
+      for (String text : names(conn, "SELECT pending FROM SchemaVersion WHERE pending IS NOT NULL"))
+         for (String step : text.split("\n"))
+            if (step.length() > 0)
+               out.add(step);
+      return out;
+   }//end pending
+
+   /*
+    * Median time of each probe, in nanoseconds.
+    */
+   private static long[] probe (Connection conn, int runs) throws SQLException {
+      long[] out = new long[PROBES.length];
+      Statement stmt = conn.createStatement();
+      try {
+         for (int p = 0; p < PROBES.length; ++p) {
+            long[] t = new long[Math.max(1, runs)];
+            for (int r = 0; r < t.length; ++r) {
+               long start = System.nanoTime();
+               ResultSet rs = stmt.executeQuery(PROBES[p][1]);
+               while (rs.next())
+                  ;
+               rs.close();
+               t[r] = System.nanoTime() - start;
+            }//end for
+            Arrays.sort(t);
+            out[p] = t[t.length / 2];
+         }//end for
+      } finally {
+         stmt.close();
+      }//end try
+      return out;
+   }//end probe
+
+   private static String sizes (Connection conn) throws SQLException {
+      List<String[]> r = rows(conn,
+         "SELECT pg_size_pretty(SUM(CASE WHEN c.relkind = 'r' THEN pg_relation_size(c.oid) ELSE 0 END)), " +
+         "pg_size_pretty(SUM(CASE WHEN c.relkind = 'i' THEN pg_relation_size(c.oid) ELSE 0 END)) " +
+         "FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace WHERE n.nspname = 'public'");
+      return "tables " + r.get(0)[0] + ", indexes " + r.get(0)[1];
+   }//end sizes
+
+   private static boolean exists (Connection conn, String table) throws SQLException {
+      return queryInt(conn, "SELECT COUNT(*) FROM pg_class WHERE relkind IN ('r', 'p') AND relname = " + quote(table)) > 0;
+   }//end exists
+
+   private static boolean hasColumn (Connection conn, String table, String column) throws SQLException {
+      return queryInt(conn, "SELECT COUNT(*) FROM pg_attribute WHERE attrelid = CAST(" + quote(table) + " AS regclass) " +
+                            "AND attname = " + quote(column) + " AND NOT attisdropped") > 0;
+   }//end hasColumn
+
+   private static int queryInt (Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         rs.next();
+         return rs.getInt(1);
+      } finally {
+         stmt.close();
+      }//end try
+   }//end queryInt
+
+   private static List<String> names (Connection conn, String sql) throws SQLException {
+      List<String> out = new ArrayList<String>();
+      for (String[] r : rows(conn, sql))
+         out.add(r[0]);
+      return out;
+   }//end names
+
+   private static List<String[]> rows (Connection conn, String sql) throws SQLException {
+      List<String[]> out = new ArrayList<String[]>();
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(sql);
+         int n = rs.getMetaData().getColumnCount();
+         while (rs.next()) {
+            String[] r = new String[n];
+            for (int i = 0; i < n; ++i)
+               r[i] = rs.getString(i + 1);
+            out.add(r);
+         }//end while
+         rs.close();
+      } finally {
+         stmt.close();
+      }//end try
+      return out;
+   }//end rows
+
+   private static String inList (Iterable<String> names) {
+      StringBuilder b = new StringBuilder();
+      for (String n : names)
+         b.append(b.length() == 0 ? "" : ", ").append(quote(n));
+      return "(" + (b.length() == 0 ? "''" : b.toString()) + ")";
+   }//end inList
+
+   private static String quote (String s) {
+      return "'" + s.replace("'", "''") + "'";
+   }//end quote
+
+}//end SchemaMigration
@@ -0,0 +1,441 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This class writes Booking, Repair, Room and Customer to a columnar file
+ * and maps it back, so a restarted process builds its indexes from the
+ * file instead of reading every row over JDBC.
+ *
+ * Each table is stored column by column:
+ *   - IDs and counts as 4 byte ints,
+ *   - dates as day numbers (see Days), NULL_DAY for NULL,
+ *   - priceCents as a long,
+ *   - roomType, repairType and names as codes into a dictionary of the
+ *     distinct values, 1, 2 or 4 bytes wide depending on its size.
+ *
+ * The export reads all four tables in one REPEATABLE READ transaction and
+ * records its txid_current_snapshot() as the watermark. A loader then
+ * only asks Postgres for the rows not visible to that snapshot, i.e. the
+ * ones inserted since. This relies on the tables only ever being inserted
+ * into, which holds for everything this program does; after a bulk
+ * delete or update, export a new snapshot.
+ *
+ * DBProject maps the file given by -Dsnapshot.file when it exists. It is
+ * written with
+ *
+ *   java Snapshot <db> <port> <user> export <file>
+ *   java Snapshot info <file>
+ */
+
+public class Snapshot {
+
+   public static final int NULL_DAY = Integer.MIN_VALUE;
+
+   private static final int MAGIC = 0x48534e50;
+   // 2 since SchemaMigration version 2: the migration rewrote every row,
+   // so the watermark of an older file no longer tells new rows apart
+   private static final int VERSION = 2;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // table and column:type, i = int, d = date, c = cents, s = dictionary string
+   private static final String[][] TABLES = {
+      { "Booking", "bID:i customer:i hotelID:i roomNo:i bookingDate:d noOfPeople:i priceCents:c" },
+      { "Repair", "rID:i hotelID:i roomNo:i mCompany:i repairDate:d repairType:s" },
+      { "Room", "hotelID:i roomNo:i roomType:s" },
+      { "Customer", "customerID:i fName:s lName:s DOB:d" },
+   };
+
+   private final File _file;
+   private final long _created;
+   private final String _database;
+   private final String _watermark;
+   private final LinkedHashMap<String, Table> _tables = new LinkedHashMap<String, Table>();
+
+   public static void main (String[] args) {
+      if (args.length < 2 || (!args[0].equals("info") && args.length < 5)) {
+         System.err.println (
+            "Usage: " +
+            "java [-cp <$classpath>] Snapshot <dbname> <port> <user> export <file>\n" +
+            "       java [-cp <$classpath>] Snapshot info <file>");
+         return;
+      }//end if
+      if (args[0].equals("info")) {
+         try {
+            System.out.println(open(args[1]));
+         }catch (IOException e) {
+            System.err.println(e.getMessage());
+         }//end try
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         // the snapshot is exported from the tables, not from another snapshot
+         System.setProperty("partitions.ahead", "0");
+         System.clearProperty("snapshot.file");
+         System.clearProperty("bookings.log");
+         esql = new DBProject(args[0], args[1], args[2], "");
+         if (!args[3].equals("export"))
+            throw new IllegalArgumentException("unknown command " + args[3]);
+         long start = System.currentTimeMillis();
+         export(esql, args[4]);
+         System.out.println(open(args[4]));
+         System.out.println("Exported in " + (System.currentTimeMillis() - start) + " ms");
+      }catch (Exception e) {
+         System.err.println(e.getMessage());
+      }finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Method to write the snapshot of the database to a file. The file is
+    * written next to its final name and renamed once complete.
+    *
+    * @param esql the database to read from
+    * @param path the snapshot file
+    * @throws java.sql.SQLException when a table cannot be read
+    */
+   public static void export (DBProject esql, String path) throws SQLException, IOException {
+      File file = new File(path);
+      File tmp = new File(path + ".tmp");
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         // every table and the watermark from the same snapshot
+         esql.update(esql.prepare(conn, "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ"));
+         ResultSet rs = esql.fetch(esql.prepare(conn, "SELECT CAST(txid_current_snapshot() AS TEXT), current_database()"));
+         rs.next();
+         String watermark = rs.getString(1);
+         String database = rs.getString(2);
+         rs.close();
+
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+         try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeString(out, database);
+            writeString(out, watermark);
+            out.writeInt(TABLES.length);
+            for (String[] t : TABLES)
+               exportTable(esql, conn, t[0], t[1].split(" "), out);
+         } finally {
+            out.close();
+         }//end try
+         conn.commit();
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }//end export
+
+   /**
+    * Method to map a snapshot file
+    *
+    * @param path the snapshot file
+    * @return the snapshot
+    * @throws java.io.IOException when the file cannot be read or is not a snapshot
+    */
+   public static Snapshot open (String path) throws IOException {
+      RandomAccessFile f = new RandomAccessFile(path, "r");
+      try {
+         MappedByteBuffer buf = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+         return new Snapshot(new File(path), buf);
+      } finally {
+         // the mapping stays valid after the channel is closed
+         f.close();
+      }//end try
+   }//end open
+
+   private Snapshot (File file, ByteBuffer buf) throws IOException {
+      this._file = file;
+      if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+         throw new IOException(file + " is not a snapshot of this version");
+      try {
+         this._created = buf.getLong();
+         this._database = readString(buf);
+         this._watermark = readString(buf);
+         if (!this._watermark.matches("[0-9]+:[0-9]+:[0-9,]*"))
+            throw new IOException(file + " has a malformed watermark");
+         int tables = buf.getInt();
+         for (int i = 0; i < tables; ++i) {
+            Table t = new Table(buf);
+            this._tables.put(t.name, t);
+         }//end for
+      }catch (RuntimeException e) {
+         throw new IOException(file + " is truncated or corrupt");
+      }//end try
+   }//end Snapshot
+
+   /**
+    * Method to tell whether the snapshot was taken from this database and
+    * its watermark still identifies the rows inserted since. It does not
+    * when the database was recreated (its transactions are numbered from
+    * the start again) or after transaction ID wraparound, whose epoch the
+    * xmin of a row does not carry.
+    */
+   public boolean isCurrent (DBProject esql) throws SQLException {
+      Connection conn = esql.getConnection();
+      try {
+         PreparedStatement stmt = esql.prepare(conn,
+            "SELECT current_database(), txid_snapshot_xmax(txid_current_snapshot()), " +
+            "txid_snapshot_xmax(CAST(CAST(? AS TEXT) AS txid_snapshot))");
+         StatementCache.bind(stmt, this._watermark);
+         ResultSet rs = esql.fetch(stmt);
+         try {
+            rs.next();
+            long now = rs.getLong(2);
+            return rs.getString(1).equals(this._database) && now >>> 32 == 0 && rs.getLong(3) <= now;
+         } finally {
+            rs.close();
+         }//end try
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+   }//end isCurrent
+
+   /**
+    * Method to restrict a query of a table to the rows inserted since a
+    * snapshot, or leave it as is when there is no snapshot
+    *
+    * @param snap the snapshot the other rows came from, may be null
+    * @param sql a query of one table without a WHERE clause
+    */
+   public static String since (Snapshot snap, String sql) {
+      if (snap == null)
+         return sql;
+      return sql + " WHERE NOT txid_visible_in_snapshot(CAST(CAST(xmin AS TEXT) AS BIGINT), CAST('" +
+             snap._watermark + "' AS txid_snapshot))";
+   }//end since
+
+   /**
+    * Method to get a table of the snapshot
+    *
+    * @throws IllegalArgumentException when the snapshot does not hold it
+    */
+   public Table table (String name) {
+      Table t = this._tables.get(name);
+      if (t == null)
+         throw new IllegalArgumentException("no table " + name + " in " + this._file);
+      return t;
+   }//end table
+
+   public String toString () {
+      StringBuilder b = new StringBuilder();
+      b.append(String.format("snapshot %s of %s taken %tF %<tT, %d bytes, watermark %s%n", this._file, this._database,
+                             new java.util.Date(this._created), this._file.length(), this._watermark));
+      for (Table t : this._tables.values()) {
+         b.append(String.format("  %-9s %9d rows:", t.name, t.rows));
+         for (Column c : t.columns.values())
+            b.append(' ').append(c.name).append(c.dict == null ? "" : "[" + c.dict.length + "]");
+         b.append(String.format("%n"));
+      }//end for
+      return b.toString();
+   }//end toString
+
+   /**
+    * One table of the snapshot
+    */
+   public static final class Table {
+      public final String name;
+      public final int rows;
+      private final LinkedHashMap<String, Column> columns = new LinkedHashMap<String, Column>();
+
+      Table (ByteBuffer buf) {
+         this.name = readString(buf);
+         this.rows = buf.getInt();
+         int n = buf.getInt();
+         for (int i = 0; i < n; ++i) {
+            Column c = new Column(buf, this.rows);
+            this.columns.put(c.name, c);
+         }//end for
+      }
+
+      /**
+       * Method to get a column by the name it has in the table
+       */
+      public Column column (String name) {
+         Column c = this.columns.get(name);
+         if (c == null)
+            throw new IllegalArgumentException("no column " + name + " in " + this.name);
+         return c;
+      }
+   }//end Table
+
+   /**
+    * One column of a table, read in place from the mapped file
+    */
+   public static final class Column {
+      public final String name;
+      private final char type;
+      private final ByteBuffer data;
+      private final int width;
+      private final String[] dict;
+
+      Column (ByteBuffer buf, int rows) {
+         this.name = readString(buf);
+         this.type = (char) buf.get();
+         if (this.type == 's') {
+            this.width = buf.get();
+            this.dict = new String[buf.getInt()];
+            for (int i = 0; i < this.dict.length; ++i)
+               this.dict[i] = readString(buf);
+         } else {
+            this.width = this.type == 'c' ? 8 : 4;
+            this.dict = null;
+         }//end if
+         // a view of this column's bytes; the buffer moves past them
+         ByteBuffer view = buf.slice();
+         view.limit(rows * this.width);
+         this.data = view;
+         buf.position(buf.position() + rows * this.width);
+      }
+
+      /**
+       * Method to get an int, date (as a day number) or dictionary code
+       */
+      public int getInt (int row) {
+         switch (this.width) {
+            case 1:  return this.data.get(row) & 0xff;
+            case 2:  return this.data.getShort(row * 2) & 0xffff;
+            default: return this.data.getInt(row * 4);
+         }//end switch
+      }
+
+      /**
+       * Method to get a price in cents
+       */
+      public long getLong (int row) {
+         return this.data.getLong(row * 8);
+      }
+
+      /**
+       * Method to get a dictionary encoded string
+       */
+      public String getString (int row) {
+         return this.dict[getInt(row)];
+      }
+   }//end Column
+
+   /*
+    * Reads a table into column arrays, then writes it column by column.
+    */
+   private static void exportTable (DBProject esql, Connection conn, String table, String[] spec,
+                                    DataOutputStream out) throws SQLException, IOException {
+      int n = spec.length;
+      String[] names = new String[n];
+      char[] types = new char[n];
+      StringBuilder sql = new StringBuilder("SELECT ");
+      for (int c = 0; c < n; ++c) {
+         names[c] = spec[c].substring(0, spec[c].indexOf(':'));
+         types[c] = spec[c].charAt(spec[c].length() - 1);
+         sql.append(c == 0 ? "" : ", ").append(names[c]);
+      }//end for
+      sql.append(" FROM ").append(table);
+
+      long[][] values = new long[n][1024];
+      List<HashMap<String, Integer>> codes = new ArrayList<HashMap<String, Integer>>();
+      List<List<String>> dicts = new ArrayList<List<String>>();
+      for (int c = 0; c < n; ++c) {
+         codes.add(new HashMap<String, Integer>());
+         dicts.add(new ArrayList<String>());
+      }//end for
+
+      PreparedStatement stmt = esql.prepare(conn, sql.toString());
+      stmt.setFetchSize(5000);
+      ResultSet rs = esql.fetch(stmt);
+      int rows = 0;
+      while (rs.next()) {
+         if (rows == values[0].length)
+            for (int c = 0; c < n; ++c)
+               values[c] = Arrays.copyOf(values[c], rows * 2);
+         for (int c = 0; c < n; ++c) {
+            switch (types[c]) {
+               case 'i':
+                  values[c][rows] = rs.getInt(c + 1);
+                  break;
+               case 'd':
+                  java.sql.Date d = rs.getDate(c + 1);
+                  values[c][rows] = d == null ? NULL_DAY : Days.of(d);
+                  break;
+               case 'c':
+                  values[c][rows] = rs.getLong(c + 1);
+                  break;
+               default:
+                  String s = rs.getString(c + 1);
+                  s = s == null ? "" : s.trim();
+                  Integer code = codes.get(c).get(s);
+                  if (code == null) {
+                     code = dicts.get(c).size();
+                     codes.get(c).put(s, code);
+                     dicts.get(c).add(s);
+                  }//end if
+                  values[c][rows] = code;
+            }//end switch
+         }//end for
+         rows++;
+      }//end while
+      rs.close();
+
+      writeString(out, table);
+      out.writeInt(rows);
+      out.writeInt(n);
+      for (int c = 0; c < n; ++c) {
+         writeString(out, names[c]);
+         out.writeByte(types[c]);
+         int width = types[c] == 'c' ? 8 : 4;
+         if (types[c] == 's') {
+            List<String> dict = dicts.get(c);
+            width = dict.size() <= 0x100 ? 1 : (dict.size() <= 0x10000 ? 2 : 4);
+            out.writeByte(width);
+            out.writeInt(dict.size());
+            for (String s : dict)
+               writeString(out, s);
+         }//end if
+         long[] v = values[c];
+         for (int r = 0; r < rows; ++r) {
+            switch (width) {
+               case 1:  out.writeByte((int) v[r]); break;
+               case 2:  out.writeShort((int) v[r]); break;
+               case 4:  out.writeInt((int) v[r]); break;
+               default: out.writeLong(v[r]);
+            }//end switch
+         }//end for
+      }//end for
+   }//end exportTable
+
+   private static void writeString (DataOutputStream out, String s) throws IOException {
+      byte[] b = s.getBytes(UTF8);
+      out.writeShort(b.length);
+      out.write(b);
+   }//end writeString
+
+   private static String readString (ByteBuffer buf) {
+      byte[] b = new byte[buf.getShort() & 0xffff];
+      buf.get(b);
+      return new String(b, UTF8);
+   }//end readString
+
+}//end Snapshot
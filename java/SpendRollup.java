@@ -0,0 +1,241 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps booking prices summed by month, so the total a customer
+ * spent at a hotel over a date range is answered without summing Booking.
+ *
+ * There is one series of month buckets per (customer, hotel) and one per
+ * hotel for all customers. Each series keeps its months in order with the
+ * running total up to every month, and each bucket keeps its own total per
+ * day. The sum over [from, to] is then
+ *   the days of the first month from "from" on,
+ *   + the months strictly between, from the running totals,
+ *   + the days of the last month up to "to",
+ * which costs two binary searches and at most 62 day totals, however many
+ * bookings the range holds.
+ *
+ * The rollup is built from Booking at startup and then kept up to date by
+ * bookRoom of this process.
+ */
+
+public class SpendRollup {
+
+   private final HashMap<Long, Series> _customers = new HashMap<Long, Series>();
+   private final TreeMap<Integer, Series> _hotels = new TreeMap<Integer, Series>();
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private long _bookings = 0;
+
+   /**
+    * Method to build the rollup from the Booking table
+    *
+    * @param esql the database to read from
+    * @param snap a snapshot holding the older bookings, or null to read them all
+    * @return the filled rollup
+    * @throws java.sql.SQLException when Booking cannot be read
+    */
+   public static SpendRollup load (DBProject esql, Snapshot snap) throws SQLException {
+      SpendRollup idx = new SpendRollup();
+      if (snap != null) {
+         Snapshot.Table t = snap.table("Booking");
+         Snapshot.Column customer = t.column("customer"), hotelID = t.column("hotelID"),
+                         day = t.column("bookingDate"), price = t.column("priceCents");
+         for (int i = 0; i < t.rows; ++i)
+            idx.add(customer.getInt(i), hotelID.getInt(i), day.getInt(i), price.getLong(i));
+      }//end if
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         PreparedStatement stmt = esql.prepare(conn, Snapshot.since(snap, "SELECT customer, hotelID, bookingDate, priceCents FROM Booking"));
+         stmt.setFetchSize(5000);
+         ResultSet rs = esql.fetch(stmt);
+         while (rs.next())
+            idx.add(rs.getInt(1), rs.getInt(2), Days.of(rs.getDate(3)), rs.getLong(4));
+         rs.close();
+         conn.commit();
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+      return idx;
+   }//end load
+
+   /**
+    * Method to add the price of a booking
+    *
+    * @param day the bookingDate as a day number, see Days
+    * @param cents the price in cents
+    */
+   public void add (int customer, int hotelID, int day, long cents) {
+      this._lock.writeLock().lock();
+      try {
+         Long key = key(customer, hotelID);
+         Series s = this._customers.get(key);
+         if (s == null) {
+            s = new Series();
+            this._customers.put(key, s);
+         }//end if
+         s.add(day, cents);
+         Series h = this._hotels.get(hotelID);
+         if (h == null) {
+            h = new Series();
+            this._hotels.put(hotelID, h);
+         }//end if
+         h.add(day, cents);
+         this._bookings++;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   /**
+    * Method to get what a customer spent at a hotel on bookings dated in
+    * [fromDay, toDay], both ends included
+    */
+   public BigDecimal total (int customer, int hotelID, int fromDay, int toDay) {
+      this._lock.readLock().lock();
+      try {
+         Series s = this._customers.get(key(customer, hotelID));
+         return BigDecimal.valueOf(s == null ? 0 : s.sum(fromDay, toDay), 2);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end total
+
+   /**
+    * Method to get the revenue of every hotel with a booking dated in
+    * [fromDay, toDay], by hotelID
+    */
+   public Map<Integer, BigDecimal> revenueByHotel (int fromDay, int toDay) {
+      this._lock.readLock().lock();
+      try {
+         Map<Integer, BigDecimal> out = new TreeMap<Integer, BigDecimal>();
+         for (Map.Entry<Integer, Series> e : this._hotels.entrySet()) {
+            long cents = e.getValue().sum(fromDay, toDay);
+            if (cents != 0)
+               out.put(e.getKey(), BigDecimal.valueOf(cents, 2));
+         }//end for
+         return out;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end revenueByHotel
+
+   /**
+    * Method to describe the size of the rollup in one line
+    */
+   public String stats () {
+      this._lock.readLock().lock();
+      try {
+         long buckets = 0;
+         for (Series s : this._customers.values())
+            buckets += s.size;
+         return String.format("spend bookings=%d customerHotels=%d buckets=%d hotels=%d",
+                              this._bookings, this._customers.size(), buckets, this._hotels.size());
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   private static Long key (int customer, int hotelID) {
+      return Long.valueOf(((long) customer << 32) | (hotelID & 0xffffffffL));
+   }//end key
+
+   /*
+    * Month buckets in month order, with prefix[i] the total of the buckets
+    * before bucket i.
+    */
+   private static final class Series {
+      int size = 0;
+      int[] months = new int[2];
+      Bucket[] buckets = new Bucket[2];
+      long[] prefix = new long[3];
+
+      void add (int day, long cents) {
+         int month = Days.month(day);
+         int i = Arrays.binarySearch(this.months, 0, this.size, month);
+         if (i < 0) {
+            i = -i - 1;
+            if (this.size == this.months.length) {
+               this.months = Arrays.copyOf(this.months, this.size * 2);
+               this.buckets = Arrays.copyOf(this.buckets, this.size * 2);
+               this.prefix = Arrays.copyOf(this.prefix, this.size * 2 + 1);
+            }//end if
+            System.arraycopy(this.months, i, this.months, i + 1, this.size - i);
+            System.arraycopy(this.buckets, i, this.buckets, i + 1, this.size - i);
+            System.arraycopy(this.prefix, i + 1, this.prefix, i + 2, this.size - i);
+            this.months[i] = month;
+            this.buckets[i] = new Bucket();
+            this.prefix[i + 1] = this.prefix[i];
+            this.size++;
+         }//end if
+         this.buckets[i].add(day, cents);
+         for (int j = i + 1; j <= this.size; ++j)
+            this.prefix[j] += cents;
+      }
+
+      long sum (int fromDay, int toDay) {
+         if (fromDay > toDay || this.size == 0)
+            return 0;
+         int first = lowerBound(Days.month(fromDay));
+         int last = lowerBound(Days.month(toDay) + 1) - 1;
+         if (first > last)
+            return 0;
+         if (first == last)
+            return this.buckets[first].sum(fromDay, toDay);
+         // the edges may be partial months, the ones between are whole
+         return this.buckets[first].sum(fromDay, Integer.MAX_VALUE)
+              + (this.prefix[last] - this.prefix[first + 1])
+              + this.buckets[last].sum(Integer.MIN_VALUE, toDay);
+      }
+
+      // index of the first bucket with a month >= month
+      private int lowerBound (int month) {
+         int i = Arrays.binarySearch(this.months, 0, this.size, month);
+         return i < 0 ? -i - 1 : i;
+      }
+   }//end Series
+
+   /*
+    * The days of one month that have bookings, in order, with their totals.
+    */
+   private static final class Bucket {
+      int size = 0;
+      int[] days = new int[1];
+      long[] cents = new long[1];
+
+      void add (int day, long c) {
+         int i = Arrays.binarySearch(this.days, 0, this.size, day);
+         if (i >= 0) {
+            this.cents[i] += c;
+            return;
+         }//end if
+         i = -i - 1;
+         if (this.size == this.days.length) {
+            this.days = Arrays.copyOf(this.days, this.size * 2);
+            this.cents = Arrays.copyOf(this.cents, this.size * 2);
+         }//end if
+         System.arraycopy(this.days, i, this.days, i + 1, this.size - i);
+         System.arraycopy(this.cents, i, this.cents, i + 1, this.size - i);
+         this.days[i] = day;
+         this.cents[i] = c;
+         this.size++;
+      }
+
+      long sum (int fromDay, int toDay) {
+         long total = 0;
+         for (int i = 0; i < this.size; ++i)
+            if (this.days[i] >= fromDay && this.days[i] <= toDay)
+               total += this.cents[i];
+         return total;
+      }
+   }//end Bucket
+
+}//end SpendRollup
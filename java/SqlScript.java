@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class splits a SQL script such as create.sql into its statements so
+ * they can be issued one at a time over JDBC. Comments are dropped; quoted
+ * strings and $$-quoted function bodies are kept intact.
+ */
+
+public class SqlScript {
+
+   /**
+    * Method to read a script file and split it into statements
+    *
+    * @param file the .sql file
+    * @return the statements in file order, without the trailing ;
+    * @throws java.io.IOException when the file cannot be read
+    */
+   public static List<String> read (File file) throws IOException {
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      return split(new String(bytes, Charset.forName("UTF-8")));
+   }//end read
+
+   /**
+    * Method to split script text into statements
+    *
+    * @param text the script
+    * @return the non-empty statements in order, without the trailing ;
+    */
+   public static List<String> split (String text) {
+      List<String> out = new ArrayList<String>();
+      StringBuilder cur = new StringBuilder();
+      int n = text.length();
+      int i = 0;
+      while (i < n) {
+         char c = text.charAt(i);
+         if (c == '-' && i + 1 < n && text.charAt(i + 1) == '-') {
+            // line comment
+            while (i < n && text.charAt(i) != '\n')
+               i++;
+         } else if (c == '/' && i + 1 < n && text.charAt(i + 1) == '*') {
+            // block comment
+            int end = text.indexOf("*/", i + 2);
+            i = end < 0 ? n : end + 2;
+            cur.append(' ');
+         } else if (c == '\'') {
+            // quoted literal, '' is an escaped quote
+            int j = i + 1;
+            while (j < n) {
+               if (text.charAt(j) == '\'') {
+                  if (j + 1 < n && text.charAt(j + 1) == '\'') {
+                     j += 2;
+                     continue;
+                  }//end if
+                  break;
+               }//end if
+               j++;
+            }//end while
+            j = Math.min(j + 1, n);
+            cur.append(text, i, j);
+            i = j;
+         } else if (c == '$' && dollarTag(text, i) != null) {
+            // dollar quoted body, e.g. a plpgsql function
+            String tag = dollarTag(text, i);
+            int end = text.indexOf(tag, i + tag.length());
+            int j = end < 0 ? n : end + tag.length();
+            cur.append(text, i, j);
+            i = j;
+         } else if (c == ';') {
+            add(out, cur);
+            i++;
+         } else {
+            cur.append(c);
+            i++;
+         }//end if
+      }//end while
+      add(out, cur);
+      return out;
+   }//end split
+
+   private static void add (List<String> out, StringBuilder cur) {
+      String stmt = cur.toString().trim();
+      if (stmt.length() > 0)
+         out.add(stmt);
+      cur.setLength(0);
+   }//end add
+
+   /*
+    * Returns the $tag$ starting at i, or null if there is none.
+    */
+   private static String dollarTag (String text, int i) {
+      int j = i + 1;
+      while (j < text.length() && (Character.isLetterOrDigit(text.charAt(j)) || text.charAt(j) == '_'))
+         j++;
+      if (j < text.length() && text.charAt(j) == '$')
+         return text.substring(i, j + 1);
+      return null;
+   }//end dollarTag
+
+}//end SqlScript
@@ -0,0 +1,164 @@
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the parameterized PreparedStatements of one connection,
+ * keyed by their SQL text. A statement is parsed once per connection and
+ * reused by every later call with the same query shape. Once a statement
+ * has been used serverPrepareThreshold times the driver is asked to switch
+ * it to a named server-side prepared statement, so Postgres also skips the
+ * planning step.
+ *
+ * A cache belongs to exactly one connection and is only used by the thread
+ * holding that connection, so it is not synchronized. Statements handed out
+ * by prepare must not be closed by the caller.
+ */
+
+public class StatementCache {
+
+   private final Connection _conn;
+   private final int _maxSize;
+   private final int _serverPrepareThreshold;
+
+   // least recently used statement first
+   private final LinkedHashMap<String, Entry> _entries;
+
+   private long _hits = 0;
+   private long _misses = 0;
+
+   /**
+    * Creates a new cache for the given connection
+    *
+    * @param conn the connection the statements are prepared on
+    * @param maxSize the number of statements kept before the least recently
+    *        used one is closed
+    * @param serverPrepareThreshold number of uses after which a statement is
+    *        prepared on the server, 0 to never do so
+    */
+   public StatementCache (Connection conn, int maxSize, int serverPrepareThreshold) {
+      this._conn = conn;
+      this._maxSize = maxSize;
+      this._serverPrepareThreshold = serverPrepareThreshold;
+      this._entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+   }//end StatementCache
+
+   /**
+    * Method to get the prepared statement for a query shape, preparing it on
+    * first use. Parameters left over from the previous use are cleared.
+    *
+    * @param sql the query with ? placeholders
+    * @return the cached statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (String sql) throws SQLException {
+      Entry e = this._entries.get(sql);
+      if (e == null) {
+         this._misses++;
+         e = new Entry(this._conn.prepareStatement(sql));
+         this._entries.put(sql, e);
+         evict();
+      } else {
+         this._hits++;
+         e.ps.clearParameters();
+      }//end if
+      if (++e.uses == this._serverPrepareThreshold)
+         useServerPrepare(e.ps);
+      return e.ps;
+   }//end prepare
+
+   /**
+    * Method to close every cached statement
+    */
+   public void close () {
+      for (Entry e : this._entries.values())
+         closeQuietly(e.ps);
+      this._entries.clear();
+   }//end close
+
+   public int size () { return this._entries.size(); }
+   public long getHits () { return this._hits; }
+   public long getMisses () { return this._misses; }
+
+   /**
+    * Method to bind parameters by their Java type: Integer, Long, BigDecimal,
+    * Boolean, java.sql.Date (or java.util.Date) and String. A null value is
+    * bound as SQL NULL.
+    *
+    * @param ps the statement to bind
+    * @param params the values for the ? placeholders, in order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   public static void bind (PreparedStatement ps, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         int idx = i + 1;
+         if (p == null)
+            ps.setNull(idx, Types.NULL);
+         else if (p instanceof Integer)
+            ps.setInt(idx, ((Integer) p).intValue());
+         else if (p instanceof Long)
+            ps.setLong(idx, ((Long) p).longValue());
+         else if (p instanceof BigDecimal)
+            ps.setBigDecimal(idx, (BigDecimal) p);
+         else if (p instanceof Boolean)
+            ps.setBoolean(idx, ((Boolean) p).booleanValue());
+         else if (p instanceof java.sql.Date)
+            ps.setDate(idx, (java.sql.Date) p);
+         else if (p instanceof java.util.Date)
+            ps.setDate(idx, new java.sql.Date(((java.util.Date) p).getTime()));
+         else
+            ps.setString(idx, p.toString());
+      }//end for
+   }//end bind
+
+   private void evict () {
+      Iterator<Map.Entry<String, Entry>> it = this._entries.entrySet().iterator();
+      while (this._entries.size() > this._maxSize && it.hasNext()) {
+         closeQuietly(it.next().getValue().ps);
+         it.remove();
+      }//end while
+   }//end evict
+
+   /*
+    * Newer drivers expose setPrepareThreshold, the 7.3 driver shipped in
+    * this folder exposes setUseServerPrepare. Both are looked up by name so
+    * the class compiles and runs against either.
+    */
+   private static void useServerPrepare (PreparedStatement ps) {
+      try {
+         Method m = ps.getClass().getMethod("setPrepareThreshold", int.class);
+         m.invoke(ps, Integer.valueOf(1));
+         return;
+      }catch (Exception e) {
+         // not a current pgjdbc driver
+      }//end try
+      try {
+         Method m = ps.getClass().getMethod("setUseServerPrepare", boolean.class);
+         m.invoke(ps, Boolean.TRUE);
+      }catch (Exception e) {
+         // driver cannot prepare on the server; keep the client-side statement
+      }//end try
+   }//end useServerPrepare
+
+   private static void closeQuietly (PreparedStatement ps) {
+      try {
+         ps.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+   private static class Entry {
+      final PreparedStatement ps;
+      int uses = 0;
+      Entry (PreparedStatement ps) { this.ps = ps; }
+   }//end Entry
+
+}//end StatementCache
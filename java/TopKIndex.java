@@ -0,0 +1,261 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the bookings in memory ordered by price, so the top K
+ * booking queries do not sort every matching row on each call.
+ *
+ * Bookings are kept twice:
+ *   - in one bucket per month of bookingDate, each sorted by price,
+ *   - in one list per customer, sorted by price.
+ * A date range query walks the buckets of the months in the range with one
+ * cursor each and merges them through a heap of at most one entry per
+ * bucket, stopping after K bookings. Only the first and last month can
+ * hold bookings outside the range; those are skipped while merging.
+ *
+ * Bookings are ordered by price, highest first, and bookings with the same
+ * price by bID, lowest first, so ties always come out in the same order.
+ *
+ * The index is built from Booking at startup and then kept up to date by
+ * bookRoom of this process.
+ */
+
+public class TopKIndex {
+
+   /**
+    * One booking, with the price in cents
+    */
+   public static final class Entry {
+      public final int bID;
+      public final int customer;
+      public final int hotelID;
+      public final int roomNo;
+      public final int day;
+      public final int noOfPeople;
+      public final long cents;
+
+      public Entry (int bID, int customer, int hotelID, int roomNo, int day, int noOfPeople, long cents) {
+         this.bID = bID;
+         this.customer = customer;
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.day = day;
+         this.noOfPeople = noOfPeople;
+         this.cents = cents;
+      }//end Entry
+
+      public BigDecimal price () {
+         return BigDecimal.valueOf(this.cents, 2);
+      }//end price
+   }//end Entry
+
+   /**
+    * Price descending, then bID ascending
+    */
+   public static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+      public int compare (Entry a, Entry b) {
+         if (a.cents != b.cents)
+            return a.cents > b.cents ? -1 : 1;
+         return a.bID < b.bID ? -1 : (a.bID == b.bID ? 0 : 1);
+      }
+   };
+
+   private final TreeMap<Integer, List<Entry>> _months = new TreeMap<Integer, List<Entry>>();
+   private final HashMap<Integer, List<Entry>> _customers = new HashMap<Integer, List<Entry>>();
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private int _size = 0;
+
+   /**
+    * Method to build the index from the Booking table
+    *
+    * @param esql the database to read from
+    * @param snap a snapshot holding the older bookings, or null to read them all
+    * @return the filled index
+    * @throws java.sql.SQLException when Booking cannot be read
+    */
+   public static TopKIndex load (DBProject esql, Snapshot snap) throws SQLException {
+      TopKIndex idx = new TopKIndex();
+      if (snap != null) {
+         Snapshot.Table t = snap.table("Booking");
+         Snapshot.Column bID = t.column("bID"), customer = t.column("customer"), hotelID = t.column("hotelID"),
+                         roomNo = t.column("roomNo"), day = t.column("bookingDate"),
+                         noOfPeople = t.column("noOfPeople"), price = t.column("priceCents");
+         for (int i = 0; i < t.rows; ++i) {
+            idx.append(new Entry(bID.getInt(i), customer.getInt(i), hotelID.getInt(i), roomNo.getInt(i),
+                                 day.getInt(i), noOfPeople.getInt(i), price.getLong(i)));
+         }//end for
+      }//end if
+      Connection conn = esql.getConnection();
+      try {
+         conn.setAutoCommit(false);
+         PreparedStatement stmt = esql.prepare(conn, Snapshot.since(snap,
+            "SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, priceCents FROM Booking"));
+         stmt.setFetchSize(5000);
+         ResultSet rs = esql.fetch(stmt);
+         while (rs.next()) {
+            idx.append(new Entry(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4),
+                                 Days.of(rs.getDate(5)), rs.getInt(6), rs.getLong(7)));
+         }//end while
+         rs.close();
+         conn.commit();
+      } finally {
+         esql.releaseConnection(conn);
+      }//end try
+      // appended unsorted above, sort every list once
+      for (List<Entry> l : idx._months.values())
+         Collections.sort(l, ORDER);
+      for (List<Entry> l : idx._customers.values())
+         Collections.sort(l, ORDER);
+      return idx;
+   }//end load
+
+   public static long cents (BigDecimal price) {
+      return price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+   }//end cents
+
+   /**
+    * Method to add a new booking, keeping every list sorted
+    */
+   public void add (Entry e) {
+      this._lock.writeLock().lock();
+      try {
+         insert(list(this._months, Days.month(e.day)), e);
+         insert(list(this._customers, e.customer), e);
+         this._size++;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   /**
+    * Method to get the K highest priced bookings with a bookingDate in
+    * [fromDay, toDay], both ends included
+    */
+   public List<Entry> topByDate (int fromDay, int toDay, int k) {
+      List<Entry> out = new ArrayList<Entry>(Math.max(0, Math.min(k, 1024)));
+      if (k <= 0 || fromDay > toDay)
+         return out;
+      this._lock.readLock().lock();
+      try {
+         PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(16, new Comparator<Cursor>() {
+            public int compare (Cursor a, Cursor b) {
+               return ORDER.compare(a.head, b.head);
+            }
+         });
+         for (List<Entry> bucket : this._months.subMap(Days.month(fromDay), true, Days.month(toDay), true).values()) {
+            Cursor c = new Cursor(bucket, fromDay, toDay);
+            if (c.advance())
+               heap.add(c);
+         }//end for
+         while (out.size() < k && !heap.isEmpty()) {
+            Cursor c = heap.poll();
+            out.add(c.head);
+            if (c.advance())
+               heap.add(c);
+         }//end while
+         return out;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topByDate
+
+   /**
+    * Method to get the K highest priced bookings of a customer
+    */
+   public List<Entry> topByCustomer (int customer, int k) {
+      this._lock.readLock().lock();
+      try {
+         List<Entry> l = this._customers.get(customer);
+         if (l == null || k <= 0)
+            return new ArrayList<Entry>(0);
+         return new ArrayList<Entry>(l.subList(0, Math.min(k, l.size())));
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topByCustomer
+
+   public int size () {
+      this._lock.readLock().lock();
+      try {
+         return this._size;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end size
+
+   /**
+    * Method to describe the size of the index in one line
+    */
+   public String stats () {
+      this._lock.readLock().lock();
+      try {
+         return String.format("topk bookings=%d months=%d customers=%d",
+                              this._size, this._months.size(), this._customers.size());
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   private void append (Entry e) {
+      list(this._months, Days.month(e.day)).add(e);
+      list(this._customers, e.customer).add(e);
+      this._size++;
+   }//end append
+
+   private static List<Entry> list (Map<Integer, List<Entry>> map, int key) {
+      List<Entry> l = map.get(key);
+      if (l == null) {
+         l = new ArrayList<Entry>();
+         map.put(key, l);
+      }//end if
+      return l;
+   }//end list
+
+   private static void insert (List<Entry> l, Entry e) {
+      int at = Collections.binarySearch(l, e, ORDER);
+      l.add(at < 0 ? -at - 1 : at, e);
+   }//end insert
+
+   /*
+    * Walks one month bucket in price order, skipping bookings outside the
+    * date range.
+    */
+   private static final class Cursor {
+      final List<Entry> bucket;
+      final int from;
+      final int to;
+      int next = 0;
+      Entry head;
+
+      Cursor (List<Entry> bucket, int from, int to) {
+         this.bucket = bucket;
+         this.from = from;
+         this.to = to;
+      }
+
+      boolean advance () {
+         while (this.next < this.bucket.size()) {
+            Entry e = this.bucket.get(this.next++);
+            if (e.day >= this.from && e.day <= this.to) {
+               this.head = e;
+               return true;
+            }//end if
+         }//end while
+         return false;
+      }
+   }//end Cursor
+
+}//end TopKIndex
@@ -7,9 +7,10 @@ export PATH=$JAVA_HOME/bin:$PATH
 export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
 
 # compile the java program
-javac DBProject.java
+javac *.java
 
 #run the java program
 #Use your database name, port number and login
+# pool size and wait limit: -Dpool.maxSize=N -Dpool.maxWaitMillis=N
 java DBProject $USER"_DB" $PGPORT $USER
 
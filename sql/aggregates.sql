@@ -0,0 +1,87 @@
+-- Repair counts kept up to date by a trigger on Repair, so the maintenance
+-- company and room/year reports read a few summary rows instead of
+-- grouping all of Repair:
+--   CompanyRepairs       repairs per maintenance company (cmpID)
+--   RoomRepairsPerYear   repairs per room and year of repairDate
+-- Every insert, update and delete of Repair adjusts both, in the same
+-- transaction, whoever makes it (addRepair, repair_request, psql).
+-- The keys have the Integer types of schema version 2. Run after
+-- create.sql, SchemaMigration and functions.sql, while nobody writes Repair
+-- (BulkLoader does this itself):
+-- psql -h localhost -p $PGPORT $USER"_DB" < aggregates.sql
+
+DROP TRIGGER IF EXISTS repairCounts ON Repair;
+DROP FUNCTION IF EXISTS repair_counts();
+DROP FUNCTION IF EXISTS count_repair(Numeric, Numeric, Numeric, Date, Integer);
+DROP FUNCTION IF EXISTS count_repair(Integer, Integer, Integer, Date, Integer);
+DROP TABLE IF EXISTS CompanyRepairs;
+DROP TABLE IF EXISTS RoomRepairsPerYear;
+
+CREATE TABLE CompanyRepairs( cmpID Integer NOT NULL,
+							 repairs Integer NOT NULL,
+							 PRIMARY KEY(cmpID));
+
+CREATE TABLE RoomRepairsPerYear( hotelID Integer NOT NULL,
+								 roomNo Integer NOT NULL,
+								 year Integer NOT NULL,
+								 repairs Integer NOT NULL,
+								 PRIMARY KEY(hotelID, roomNo, year));
+
+-- Adds p_delta to the counts of one repair. A row inserted by a concurrent
+-- transaction in between is updated on the next pass.
+CREATE FUNCTION count_repair(p_cmpID Integer,
+							 p_hotelID Integer,
+							 p_roomNo Integer,
+							 p_repairDate Date,
+							 p_delta Integer)
+RETURNS VOID AS $$
+DECLARE
+	v_year Integer := EXTRACT(YEAR FROM p_repairDate);
+BEGIN
+	LOOP
+		UPDATE CompanyRepairs SET repairs = repairs + p_delta WHERE cmpID = p_cmpID;
+		EXIT WHEN FOUND;
+		BEGIN
+			INSERT INTO CompanyRepairs(cmpID, repairs) VALUES (p_cmpID, p_delta);
+			EXIT;
+		EXCEPTION WHEN unique_violation THEN
+			-- try the update again
+		END;
+	END LOOP;
+	LOOP
+		UPDATE RoomRepairsPerYear SET repairs = repairs + p_delta
+		WHERE hotelID = p_hotelID AND roomNo = p_roomNo AND year = v_year;
+		EXIT WHEN FOUND;
+		BEGIN
+			INSERT INTO RoomRepairsPerYear(hotelID, roomNo, year, repairs)
+			VALUES (p_hotelID, p_roomNo, v_year, p_delta);
+			EXIT;
+		EXCEPTION WHEN unique_violation THEN
+			-- try the update again
+		END;
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION repair_counts()
+RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' OR TG_OP = 'DELETE' THEN
+		PERFORM count_repair(OLD.mCompany, OLD.hotelID, OLD.roomNo, OLD.repairDate, -1);
+	END IF;
+	IF TG_OP = 'UPDATE' OR TG_OP = 'INSERT' THEN
+		PERFORM count_repair(NEW.mCompany, NEW.hotelID, NEW.roomNo, NEW.repairDate, 1);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+INSERT INTO CompanyRepairs(cmpID, repairs)
+SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany;
+
+INSERT INTO RoomRepairsPerYear(hotelID, roomNo, year, repairs)
+SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate), COUNT(*)
+FROM Repair GROUP BY hotelID, roomNo, EXTRACT(YEAR FROM repairDate);
+
+CREATE TRIGGER repairCounts AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE repair_counts();
@@ -8,11 +8,24 @@ DROP TABLE IF EXISTS MaintenanceCompany CASCADE;
 DROP TABLE IF EXISTS Booking CASCADE;
 DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
-DRguiOP TABLE IF EXISTS Assigned CASCADE;
+DROP TABLE IF EXISTS Assigned CASCADE;
+DROP TABLE IF EXISTS RoomNoAllocator CASCADE;
+-- This script creates schema version 1, whose column types fit the data
+-- files. The program (java SchemaMigration) converts it to the current one.
+DROP TABLE IF EXISTS SchemaVersion CASCADE;
+
+-- The below sql statements drops the key sequences if they exist
+DROP SEQUENCE IF EXISTS customer_id_seq;
+DROP SEQUENCE IF EXISTS maintenancecompany_id_seq;
+DROP SEQUENCE IF EXISTS repair_id_seq;
+DROP SEQUENCE IF EXISTS booking_id_seq;
+DROP SEQUENCE IF EXISTS assigned_id_seq;
+DROP SEQUENCE IF EXISTS request_id_seq;
 
 -- ~ DROP INDEX IF EXISTS custIDandNames CASCADE;
 -- ~ DROP INDEX IF EXISTS hotelIDRoomno CASCADE;
 -- ~ DROP INDEX IF EXISTS BookingDate CASCADE;
+-- ~ DROP INDEX IF EXISTS customerNames CASCADE;
 
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
@@ -61,7 +74,27 @@ CREATE TABLE Booking( bID Numeric NOT NULL,
 					  bookingDate Date NOT NULL,
 					  noOfPeople Numeric,
 					  price Numeric(6,2) NOT NULL,
-					  PRIMARY KEY(bID));
+					  PRIMARY KEY(bID, bookingDate),
+					  -- a room is booked at most once a day; ReservationCoordinator
+					  -- inserts with ON CONFLICT on it
+					  CONSTRAINT bookingRoomDay UNIQUE(hotelID, roomNo, bookingDate))
+PARTITION BY RANGE (bookingDate);
+
+-- One Booking partition per quarter, named as PartitionManager names them;
+-- dates outside 2000-2020 go to Booking_default until PartitionManager
+-- creates their quarter. The primary key has to include bookingDate, bIDs
+-- stay unique through booking_id_seq.
+CREATE TABLE Booking_default PARTITION OF Booking DEFAULT;
+DO $$
+BEGIN
+	FOR y IN 2000..2020 LOOP
+		FOR q IN 1..4 LOOP
+			EXECUTE format('CREATE TABLE booking_%sq%s PARTITION OF Booking FOR VALUES FROM (%L) TO (%L)',
+						   y, q, make_date(y, q * 3 - 2, 1), CAST(make_date(y, q * 3 - 2, 1) + INTERVAL '3 months' AS DATE));
+		END LOOP;
+	END LOOP;
+END;
+$$;
 					  
 CREATE TABLE Repair( rID Numeric NOT NULL,
 					 hotelID Numeric NOT NULL DEFAULT 0,
@@ -239,6 +272,10 @@ CREATE INDEX custIDandNames
 ON Customer
 (customerID, fName, lName);
 
+CREATE INDEX customerNames
+ON Customer
+(lName, fName);
+
 CREATE INDEX hotelIDRoomno
 ON Booking
 (hotelID, roomNo);
@@ -250,3 +287,30 @@ ON Booking
 
 */
 
+-- Key generation. The Java IdGenerator reserves a block of INCREMENT BY ids
+-- with one nextval and hands them out from memory, so every new key is
+-- unique across clients without a SELECT MAX(...) first.
+CREATE SEQUENCE customer_id_seq INCREMENT BY 20;
+CREATE SEQUENCE maintenancecompany_id_seq INCREMENT BY 20;
+CREATE SEQUENCE repair_id_seq INCREMENT BY 20;
+CREATE SEQUENCE booking_id_seq INCREMENT BY 20;
+CREATE SEQUENCE assigned_id_seq INCREMENT BY 20;
+CREATE SEQUENCE request_id_seq INCREMENT BY 20;
+
+SELECT setval('customer_id_seq', (SELECT MAX(customerID) + 1 FROM Customer), false);
+SELECT setval('maintenancecompany_id_seq', (SELECT MAX(cmpID) + 1 FROM MaintenanceCompany), false);
+SELECT setval('repair_id_seq', (SELECT MAX(rID) + 1 FROM Repair), false);
+SELECT setval('booking_id_seq', (SELECT MAX(bID) + 1 FROM Booking), false);
+SELECT setval('assigned_id_seq', (SELECT MAX(asgID) + 1 FROM Assigned), false);
+SELECT setval('request_id_seq', (SELECT MAX(reqID) + 1 FROM Request), false);
+
+-- Next free room number of each hotel, reserved with UPDATE ... RETURNING
+CREATE TABLE RoomNoAllocator( hotelID Numeric NOT NULL,
+							  nextRoomNo Numeric NOT NULL,
+							  PRIMARY KEY(hotelID),
+							  FOREIGN KEY(hotelID) REFERENCES Hotel(hotelID) ON DELETE CASCADE);
+
+INSERT INTO RoomNoAllocator(hotelID, nextRoomNo)
+SELECT hotelID, MAX(roomNo) + 1
+FROM Room
+GROUP BY hotelID;
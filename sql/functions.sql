@@ -0,0 +1,75 @@
+-- Server side versions of the assignment and repair request workflows.
+-- Each function checks the staff role, the employer and the room and then
+-- writes its rows, all in one call and one transaction. The result is a
+-- status code (CheckStatus in DBProject):
+--   0 OK, 1 wrong role, 2 works at another hotel, 3 no such room.
+-- The parameters have the Integer types of schema version 2, so the
+-- lookups compare integers and use the indexes; run after create.sql and
+-- SchemaMigration (BulkLoader does both), or again on a database migrated
+-- before they were Integer:
+-- psql -h localhost -p $PGPORT $USER"_DB" < functions.sql
+
+-- the Numeric versions of schema version 1, then the current ones
+DROP FUNCTION IF EXISTS assign_house_cleaning(Numeric, Numeric, Numeric, Numeric);
+DROP FUNCTION IF EXISTS repair_request(Numeric, Numeric, Numeric, Numeric, Numeric, Date);
+DROP FUNCTION IF EXISTS assign_house_cleaning(Integer, Integer, Integer, Integer);
+DROP FUNCTION IF EXISTS repair_request(Integer, Integer, Integer, Integer, Integer, Date);
+
+-- Assigns a HouseCleaning staff member of the hotel to one of its rooms
+CREATE FUNCTION assign_house_cleaning(p_asgID Integer,
+									  p_staffID Integer,
+									  p_hotelID Integer,
+									  p_roomNo Integer)
+RETURNS INTEGER AS $$
+DECLARE
+	v_role StaffRole;
+	v_employer Integer;
+BEGIN
+	SELECT role, employerID INTO v_role, v_employer FROM Staff WHERE SSN = p_staffID;
+	IF NOT FOUND OR v_role <> 'HouseCleaning' THEN
+		RETURN 1;
+	END IF;
+	IF v_employer <> p_hotelID THEN
+		RETURN 2;
+	END IF;
+	PERFORM 1 FROM Room WHERE hotelID = p_hotelID AND roomNo = p_roomNo;
+	IF NOT FOUND THEN
+		RETURN 3;
+	END IF;
+	INSERT INTO Assigned(asgID, staffID, hotelID, roomNo)
+	VALUES (p_asgID, p_staffID, p_hotelID, p_roomNo);
+	RETURN 0;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Records a repair (no company or date yet) and the manager's request for it
+CREATE FUNCTION repair_request(p_rID Integer,
+							   p_reqID Integer,
+							   p_managerID Integer,
+							   p_hotelID Integer,
+							   p_roomNo Integer,
+							   p_requestDate Date)
+RETURNS INTEGER AS $$
+DECLARE
+	v_role StaffRole;
+	v_employer Integer;
+BEGIN
+	SELECT role, employerID INTO v_role, v_employer FROM Staff WHERE SSN = p_managerID;
+	IF NOT FOUND OR v_role <> 'Manager' THEN
+		RETURN 1;
+	END IF;
+	IF v_employer <> p_hotelID THEN
+		RETURN 2;
+	END IF;
+	PERFORM 1 FROM Room WHERE hotelID = p_hotelID AND roomNo = p_roomNo;
+	IF NOT FOUND THEN
+		RETURN 3;
+	END IF;
+	-- HotelOps.REQUESTED_COMPANY and REQUESTED_DAY hold the same values
+	INSERT INTO Repair(rID, hotelID, roomNo, mCompany, repairDate)
+	VALUES (p_rID, p_hotelID, p_roomNo, 0, '2000-1-1');
+	INSERT INTO Request(reqID, managerID, repairID, requestDate)
+	VALUES (p_reqID, p_managerID, p_rID, p_requestDate);
+	RETURN 0;
+END;
+$$ LANGUAGE plpgsql;
@@ -1,11 +1,17 @@
 DROP INDEX IF EXISTS custIDandNames CASCADE;
 DROP INDEX IF EXISTS hotelIDRoomno CASCADE;
 DROP INDEX IF EXISTS BookingDate CASCADE;
+DROP INDEX IF EXISTS customerNames CASCADE;
 
 CREATE INDEX custIDandNames
 ON Customer
 (customerID, fName, lName);
 
+-- customer lookups by name (NameCache) match on last and first name
+CREATE INDEX customerNames
+ON Customer
+(lName, fName);
+
 CREATE INDEX hotelIDRoomno
 ON Booking
 (hotelID, roomNo);